@@ -0,0 +1,86 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.apache.commons.httpclient.Credentials;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A data provider that answers from memory, so the benchmarks measure the plugin and not TFS.
+ * Every work item exists and every changeset links to a single work item with the changeset number as its ID.
+ */
+class FakeTfsDataProvider implements TfsDataProvider {
+
+    static final String HOST = "http://tfs:8080/tfs/DefaultCollection";
+    static final WorkItemUrlTemplate URL_TEMPLATE = new WorkItemUrlTemplate(HOST + "/web/wi.aspx?id=", "");
+
+    @NotNull
+    public Collection<IssueData> getIssuesForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials) {
+        return Collections.singletonList(createIssue(revision));
+    }
+
+    @NotNull
+    public Collection<Integer> getIssueIdsForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials) {
+        return Collections.singletonList(revision);
+    }
+
+    @NotNull
+    public Map<Integer, Collection<Integer>> getIssueIdsForVersions(@NotNull Collection<Integer> revisions, @NotNull String host,
+                                                                    @Nullable Credentials credentials) {
+        final Map<Integer, Collection<Integer>> ids = new LinkedHashMap<Integer, Collection<Integer>>();
+        for (Integer revision : revisions) {
+            ids.put(revision, Collections.singletonList(revision));
+        }
+
+        return ids;
+    }
+
+    @NotNull
+    public Collection<Integer> getIssueIdsChangedSince(@NotNull Date since, @NotNull String host, @Nullable Credentials credentials) {
+        return Collections.emptyList();
+    }
+
+    @NotNull
+    public Collection<IssueData> getIssues(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials) {
+        final Collection<IssueData> issues = new ArrayList<IssueData>(ids.size());
+        for (Integer id : ids) {
+            issues.add(createIssue(id));
+        }
+
+        return issues;
+    }
+
+    @NotNull
+    public Map<Integer, Integer> getIssueRevisions(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials) {
+        final Map<Integer, Integer> revisions = new HashMap<Integer, Integer>();
+        for (Integer id : ids) {
+            revisions.put(id, 1);
+        }
+
+        return revisions;
+    }
+
+    @Nullable
+    public IssueData getIssueById(@NotNull Integer id, @NotNull String host, @Nullable Credentials credentials) {
+        return createIssue(id);
+    }
+
+    @NotNull
+    private static IssueData createIssue(int id) {
+        final Map<String, String> fields = new HashMap<String, String>();
+        fields.put(IssueData.SUMMARY_FIELD, "Work item " + id);
+        fields.put(IssueData.STATE_FIELD, "Active");
+        fields.put(IssueData.TYPE_FIELD, "Bug");
+        fields.put("System.Rev", "1");
+
+        return CompactIssueData.create(id, fields, false, true, URL_TEMPLATE);
+    }
+}
@@ -0,0 +1,103 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueData;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.cache.EhCacheUtil;
+import jetbrains.buildServer.util.cache.ResetCacheRegister;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures batch reads of the issue fetcher against a data provider that answers from memory, with every issue
+ * cached and with every issue missing so the whole batch goes to the provider.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IssueBatchBenchmark {
+
+    @Param({ "10", "200" })
+    public int batchSize;
+
+    private TfsCacheManager cacheManager;
+    private TfsIssueFetcher fetcher;
+    private List<String> ids;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        final EhCacheUtil cacheUtil = new EhCacheUtil(new ServerPaths(System.getProperty("java.io.tmpdir")),
+                mock(EventDispatcher.class), mock(ResetCacheRegister.class));
+
+        cacheManager = new TfsCacheManager();
+        fetcher = new TfsIssueFetcher(cacheUtil, new FakeTfsDataProvider(), new CacheRevalidator(), IssueStore.disabled(), cacheManager);
+
+        ids = new ArrayList<String>();
+        for (int id = 1; id <= batchSize; id++) {
+            ids.add(String.valueOf(id));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.dispose();
+    }
+
+    @Benchmark
+    public Collection<IssueData> allCached(CachedState state) {
+        return fetcher.getIssuesInBatch(FakeTfsDataProvider.HOST, ids, null);
+    }
+
+    @Benchmark
+    public Collection<IssueData> allMissing(EmptyState state) {
+        return fetcher.getIssuesInBatch(FakeTfsDataProvider.HOST, ids, null);
+    }
+
+    /**
+     * Fills the cache once before the cached batches are read.
+     */
+    @State(Scope.Benchmark)
+    public static class CachedState {
+
+        @Setup
+        public void setUp(IssueBatchBenchmark benchmark) {
+            benchmark.fetcher.getCache(FakeTfsDataProvider.HOST).removeAll();
+            benchmark.fetcher.getIssuesInBatch(FakeTfsDataProvider.HOST, benchmark.ids, null);
+        }
+    }
+
+    /**
+     * Empties the cache before every missing batch is read.
+     */
+    @State(Scope.Benchmark)
+    public static class EmptyState {
+
+        @Setup(Level.Invocation)
+        public void setUp(IssueBatchBenchmark benchmark) {
+            benchmark.fetcher.getCache(FakeTfsDataProvider.HOST).removeAll();
+        }
+    }
+}
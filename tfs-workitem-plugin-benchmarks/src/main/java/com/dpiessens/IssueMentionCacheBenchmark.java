@@ -0,0 +1,83 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueFetcher;
+import jetbrains.buildServer.vcs.VcsManager;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures the changeset link cache of the issue provider. A hit decodes the cached mentions of a revision;
+ * a miss runs the fetch function, which answers right away here, and encodes its result into the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IssueMentionCacheBenchmark {
+
+    private static final Integer CACHED_REVISION = 1;
+
+    @Param({ "1", "10" })
+    public int mentionCount;
+
+    private TfsCacheManager cacheManager;
+    private TfsIssueProvider provider;
+    private TfsIssueProvider.FetchFunction fetchFunction;
+    private int nextRevision;
+
+    @Setup
+    public void setUp() throws Exception {
+        cacheManager = new TfsCacheManager();
+        provider = new TfsIssueProvider(mock(IssueFetcher.class), new FakeTfsDataProvider(), mock(VcsManager.class), cacheManager);
+
+        final Collection<SerializableIssueMention> mentions = new ArrayList<SerializableIssueMention>();
+        for (int id = 1000; id < 1000 + mentionCount; id++) {
+            mentions.add(new SerializableIssueMention(String.valueOf(id), FakeTfsDataProvider.URL_TEMPLATE.format(id)));
+        }
+
+        fetchFunction = new TfsIssueProvider.FetchFunction() {
+            @NotNull
+            public Collection<SerializableIssueMention> fetch() {
+                return mentions;
+            }
+        };
+
+        provider.getFromCacheOrFetch(CACHED_REVISION, fetchFunction);
+        nextRevision = CACHED_REVISION + 1;
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.dispose();
+    }
+
+    @Benchmark
+    public Collection<SerializableIssueMention> cacheHit() throws Exception {
+        return provider.getFromCacheOrFetch(CACHED_REVISION, fetchFunction);
+    }
+
+    @Benchmark
+    public Collection<SerializableIssueMention> cacheMiss() throws Exception {
+        // Each revision is new, older ones are evicted once the memory budget of the cache is used up
+        return provider.getFromCacheOrFetch(nextRevision++, fetchFunction);
+    }
+}
@@ -0,0 +1,67 @@
+package com.dpiessens;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures round trips of the issue mentions of a revision through Java serialization, which a disk backed cache
+ * uses for serializable values, and through the compact encoding the changeset link cache keeps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IssueMentionSerializationBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int mentionCount;
+
+    private ArrayList<SerializableIssueMention> mentions;
+
+    @Setup
+    public void setUp() {
+        mentions = new ArrayList<SerializableIssueMention>();
+        for (int id = 1000; id < 1000 + mentionCount; id++) {
+            mentions.add(new SerializableIssueMention(String.valueOf(id), FakeTfsDataProvider.URL_TEMPLATE.format(id)));
+        }
+    }
+
+    @Benchmark
+    public Object javaSerializationRoundTrip() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(mentions);
+        output.close();
+
+        final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        try {
+            return input.readObject();
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    @Benchmark
+    public ArrayList<SerializableIssueMention> codecRoundTrip() {
+        return IssueMentionCodec.decode(IssueMentionCodec.encode(mentions));
+    }
+}
@@ -0,0 +1,44 @@
+package com.dpiessens;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of issue IDs, which runs for every issue of a batch. IDs that are not numbers throw,
+ * so that path is measured separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseIssueIdBenchmark {
+
+    public String numericId = "123456";
+    public String invalidId = "PROJ-123";
+
+    @Benchmark
+    public Integer parseNumericId() {
+        return TfsIssueFetcher.parseIssueId(numericId);
+    }
+
+    @Benchmark
+    public Object parseInvalidId() {
+        try {
+            return TfsIssueFetcher.parseIssueId(invalidId);
+        }
+        catch (NumberFormatException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.clients.workitem.CoreFieldReferenceNames;
+import com.microsoft.tfs.core.clients.workitem.WorkItem;
+import com.microsoft.tfs.core.clients.workitem.fields.Field;
+import com.microsoft.tfs.core.clients.workitem.fields.FieldCollection;
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a TFS work item into the cached issue data.
+ * The SDK work items can only be created from a live TFS connection, so the benchmark converts in-memory work
+ * items backed by dynamic proxies that answer the few calls the conversion makes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkItemConversionBenchmark {
+
+    private static final String ASSIGNED_TO = "System.AssignedTo";
+    private static final String AREA_PATH = "System.AreaPath";
+
+    @Param({ "false", "true" })
+    public boolean extraFields;
+
+    private WorkItem workItem;
+    private WorkItemUrlTemplate urlTemplate;
+    private WorkItemProjection projection;
+
+    @Setup
+    public void setUp() {
+        urlTemplate = new WorkItemUrlTemplate("http://tfs:8080/tfs/web/wi.aspx?pcguid=1234&id=", "");
+        projection = new WorkItemProjection(true, extraFields
+                ? Arrays.asList(ASSIGNED_TO, AREA_PATH)
+                : Collections.<String>emptyList());
+
+        final Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put(CoreFieldReferenceNames.STATE, "Active");
+        fields.put(CoreFieldReferenceNames.WORK_ITEM_TYPE, "Bug");
+        fields.put(CoreFieldReferenceNames.REVISION, 7);
+        fields.put(ASSIGNED_TO, "Jane Developer");
+        fields.put(AREA_PATH, "Project\\Team");
+        workItem = createWorkItem(4711, "Crash when the build log is empty", true, fields);
+    }
+
+    @Benchmark
+    public IssueData convertWorkItem() {
+        return TfsJavaDataProvider.convertWorkItemToIssueData(workItem, urlTemplate, projection);
+    }
+
+    /**
+     * Creates an in-memory work item.
+     * @param id The work item ID.
+     * @param title The title.
+     * @param open True if the work item is open; otherwise false.
+     * @param values The field values keyed by reference name.
+     * @return The work item.
+     */
+    private static WorkItem createWorkItem(final int id, final String title, final boolean open, final Map<String, Object> values) {
+        final Map<String, Field> fields = new HashMap<String, Field>();
+        for (final Map.Entry<String, Object> value : values.entrySet()) {
+            fields.put(value.getKey(), proxy(Field.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getValue")) {
+                        return value.getValue();
+                    }
+                    if (method.getName().equals("getReferenceName")) {
+                        return value.getKey();
+                    }
+
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }));
+        }
+
+        final FieldCollection fieldCollection = proxy(FieldCollection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getField")) {
+                    return fields.get(args[0]);
+                }
+                if (method.getName().equals("contains")) {
+                    return fields.containsKey(args[0]);
+                }
+
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        return proxy(WorkItem.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getID")) {
+                    return id;
+                }
+                if (method.getName().equals("getTitle")) {
+                    return title;
+                }
+                if (method.getName().equals("isOpen")) {
+                    return open;
+                }
+                if (method.getName().equals("getFields")) {
+                    return fieldCollection;
+                }
+
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+}
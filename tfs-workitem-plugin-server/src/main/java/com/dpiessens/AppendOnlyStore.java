@@ -0,0 +1,312 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A key value store kept in a single append-only log file.
+ * Every write appends a record, and an in-memory index maps each key to the position of its latest record, so a
+ * read is a single seek. The log is rewritten with only the live records once it is mostly garbage. A record that
+ * was only partly written when the server stopped is cut off when the log is opened.
+ */
+class AppendOnlyStore {
+
+    private static final Logger LOG = Logger.getInstance(AppendOnlyStore.class.getName());
+
+    private static final int TOMBSTONE = -1;
+    private static final long MIN_COMPACT_BYTES = 1024L * 1024L;
+
+    private final File file;
+    private final Map<String, Location> index = new HashMap<String, Location>();
+    private RandomAccessFile log;
+    private long liveBytes;
+
+    /**
+     * Opens the store, creating the log file if needed.
+     * @param file The log file.
+     * @throws IOException Thrown if the log file cannot be read.
+     */
+    AppendOnlyStore(@NotNull File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    /**
+     * Gets a value.
+     * @param key The key.
+     * @return The value if present; otherwise null.
+     * @throws IOException Thrown if the log file cannot be read.
+     */
+    @Nullable
+    synchronized byte[] get(@NotNull String key) throws IOException {
+        final Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+
+        log.seek(location.offset);
+        log.readInt();
+        log.readUTF();
+
+        final byte[] value = new byte[log.readInt()];
+        log.readFully(value);
+        return value;
+    }
+
+    /**
+     * Checks if a key is in the store.
+     * @param key The key.
+     * @return True if the key has a value; otherwise false.
+     */
+    synchronized boolean contains(@NotNull String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Stores a value, replacing any previous value of the key.
+     * @param key The key.
+     * @param value The value.
+     * @throws IOException Thrown if the log file cannot be written.
+     */
+    synchronized void put(@NotNull String key, @NotNull byte[] value) throws IOException {
+        append(key, value);
+    }
+
+    /**
+     * Removes a value.
+     * @param key The key.
+     * @throws IOException Thrown if the log file cannot be written.
+     */
+    synchronized void remove(@NotNull String key) throws IOException {
+        if (index.containsKey(key)) {
+            append(key, null);
+        }
+    }
+
+    /**
+     * Gets the number of keys in the store.
+     * @return The key count.
+     */
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Gets the size of the log file.
+     * @return The size in bytes.
+     * @throws IOException Thrown if the log file cannot be read.
+     */
+    synchronized long getFileSize() throws IOException {
+        return log.length();
+    }
+
+    /**
+     * Closes the log file.
+     */
+    synchronized void close() {
+        try {
+            log.close();
+        }
+        catch (IOException e) {
+            LOG.debug("Failed to close " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the log file and rebuilds the index from it.
+     * @throws IOException Thrown if the log file cannot be read.
+     */
+    private void open() throws IOException {
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+
+        // The server stopped while the log was being replaced by its compacted copy
+        final File previous = getPreviousFile();
+        if (!file.exists() && previous.exists() && !previous.renameTo(file)) {
+            throw new IOException("Cannot restore " + file + " from " + previous);
+        }
+
+        log = new RandomAccessFile(file, "rw");
+        index.clear();
+        liveBytes = 0L;
+
+        long position = 0L;
+        final long length = log.length();
+        try {
+            while (position < length) {
+                log.seek(position);
+                final int recordLength = log.readInt();
+                if (recordLength <= 0 || position + 4 + recordLength > length) {
+                    break;
+                }
+
+                final String key = log.readUTF();
+                final int valueLength = log.readInt();
+                index(key, valueLength == TOMBSTONE ? null : new Location(position, 4 + recordLength));
+                position += 4 + recordLength;
+            }
+        }
+        catch (EOFException e) {
+            // The last record was only partly written
+        }
+
+        if (position < length) {
+            LOG.warn(String.format("Dropping %d bytes of incomplete records from %s", length - position, file));
+            log.setLength(position);
+        }
+    }
+
+    /**
+     * Appends a record and compacts the log if it is mostly garbage.
+     * @param key The key.
+     * @param value The value, or null to remove the key.
+     * @throws IOException Thrown if the log file cannot be written.
+     */
+    private void append(@NotNull String key, @Nullable byte[] value) throws IOException {
+        final byte[] record = encode(key, value);
+        final long position = log.length();
+
+        log.seek(position);
+        log.write(record);
+
+        index(key, value == null ? null : new Location(position, record.length));
+
+        final long fileBytes = log.length();
+        if (fileBytes > MIN_COMPACT_BYTES && fileBytes > liveBytes * 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Updates the index with the latest record of a key.
+     * @param key The key.
+     * @param location The location of the record, or null if the key was removed.
+     */
+    private void index(@NotNull String key, @Nullable Location location) {
+        final Location previous = location != null ? index.put(key, location) : index.remove(key);
+        if (previous != null) {
+            liveBytes -= previous.length;
+        }
+
+        if (location != null) {
+            liveBytes += location.length;
+        }
+    }
+
+    /**
+     * Rewrites the log with only the live records.
+     * @throws IOException Thrown if the log file cannot be written.
+     */
+    private void compact() throws IOException {
+        final File compacted = new File(file.getPath() + ".tmp");
+        final RandomAccessFile output = new RandomAccessFile(compacted, "rw");
+        final Map<String, Location> locations = new HashMap<String, Location>();
+
+        try {
+            output.setLength(0L);
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                final byte[] record = new byte[(int) entry.getValue().length];
+                log.seek(entry.getValue().offset);
+                log.readFully(record);
+
+                locations.put(entry.getKey(), new Location(output.getFilePointer(), record.length));
+                output.write(record);
+            }
+        }
+        finally {
+            output.close();
+        }
+
+        log.close();
+
+        // The old log is moved aside rather than deleted, so it can be put back if the compacted copy cannot be moved in
+        final File previous = getPreviousFile();
+        if ((previous.exists() && !previous.delete()) || !file.renameTo(previous)) {
+            // Keep the old log, the next write tries again
+            LOG.warn("Failed to replace " + file + " with its compacted copy");
+            open();
+            return;
+        }
+
+        if (!compacted.renameTo(file)) {
+            if (!previous.renameTo(file)) {
+                // The old log stays aside and is restored when the store is opened again
+                throw new IOException("Failed to replace " + file + " with its compacted copy or to restore it from " + previous);
+            }
+
+            LOG.warn("Failed to replace " + file + " with its compacted copy");
+            open();
+            return;
+        }
+
+        if (!previous.delete()) {
+            LOG.debug("Failed to delete " + previous);
+        }
+
+        log = new RandomAccessFile(file, "rw");
+        index.clear();
+        index.putAll(locations);
+        LOG.debug(String.format("Compacted %s to %d records", file, locations.size()));
+    }
+
+    /**
+     * Gets the file the log is moved to while it is replaced by its compacted copy.
+     * @return The file.
+     */
+    @NotNull
+    private File getPreviousFile() {
+        return new File(file.getPath() + ".old");
+    }
+
+    /**
+     * Encodes a record.
+     * @param key The key.
+     * @param value The value, or null for a removal.
+     * @return The record bytes.
+     * @throws IOException Thrown if the key cannot be encoded.
+     */
+    @NotNull
+    private static byte[] encode(@NotNull String key, @Nullable byte[] value) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(body);
+        output.writeUTF(key);
+        output.writeInt(value == null ? TOMBSTONE : value.length);
+        if (value != null) {
+            output.write(value);
+        }
+        output.flush();
+
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(body.size() + 4);
+        final DataOutputStream recordOutput = new DataOutputStream(record);
+        recordOutput.writeInt(body.size());
+        body.writeTo(recordOutput);
+        recordOutput.flush();
+        return record.toByteArray();
+    }
+
+    /**
+     * The position and size of a record in the log.
+     */
+    private static class Location {
+
+        final long offset;
+        final long length;
+
+        Location(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.apache.commons.httpclient.Credentials;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An asynchronous variant of the {@link TfsDataProvider} that runs each call off the calling thread.
+ * Every call has a deadline; calls that are still running when it expires are cancelled. A cancelled call keeps
+ * counting against the capacity until its worker actually returns, since an interrupt does not unblock socket I/O.
+ */
+public interface AsyncTfsDataProvider {
+
+    /**
+     * Gets all issues related to a specific source control revision.
+     * @param revision The source control revision number
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @param timeout The deadline of the call.
+     * @param unit The unit of the deadline.
+     * @throws java.util.concurrent.RejectedExecutionException Thrown if too many calls are already pending.
+     * @return A future of the related issues.
+     */
+    @NotNull
+    Future<Collection<IssueData>> getIssuesForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials,
+                                                      long timeout, @NotNull TimeUnit unit);
+
+    /**
+     * Gets the IDs of the work items linked to a specific source control revision without loading the work items.
+     * @param revision The source control revision number
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @param timeout The deadline of the call.
+     * @param unit The unit of the deadline.
+     * @throws java.util.concurrent.RejectedExecutionException Thrown if too many calls are already pending.
+     * @return A future of the IDs of the linked work items.
+     */
+    @NotNull
+    Future<Collection<Integer>> getIssueIdsForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials,
+                                                      long timeout, @NotNull TimeUnit unit);
+
+    /**
+     * Gets the data related to a set of work items.
+     * @param ids The ID collection of the issues to get.
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @param timeout The deadline of the call.
+     * @param unit The unit of the deadline.
+     * @throws java.util.concurrent.RejectedExecutionException Thrown if too many calls are already pending.
+     * @return A future of the work items that could be located.
+     */
+    @NotNull
+    Future<Collection<IssueData>> getIssues(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials,
+                                            long timeout, @NotNull TimeUnit unit);
+
+    /**
+     * Gets the data related to a specific work item.
+     * @param id The ID of the issue to get.
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @param timeout The deadline of the call.
+     * @param unit The unit of the deadline.
+     * @throws java.util.concurrent.RejectedExecutionException Thrown if too many calls are already pending.
+     * @return A future of the work item data, which holds null if the item could not be located.
+     */
+    @NotNull
+    Future<IssueData> getIssueById(@NotNull Integer id, @NotNull String host, @Nullable Credentials credentials,
+                                   long timeout, @NotNull TimeUnit unit);
+}
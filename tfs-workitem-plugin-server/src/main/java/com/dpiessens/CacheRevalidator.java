@@ -0,0 +1,223 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import net.sf.ehcache.Element;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implements stale-while-revalidate for the work item caches. Changeset links never change, so the link cache
+ * keeps its entries for its own time to live and is not revalidated.
+ * Cached entries are kept for the maximum staleness. Once an entry is older than the refresh age it is still served,
+ * and a background task reads it again from TFS. Only entries older than the maximum staleness make a page view
+ * wait on TFS.
+ */
+public class CacheRevalidator {
+
+    private static final Logger LOG = Logger.getInstance(CacheRevalidator.class.getName());
+
+    static final String ENABLED_PROPERTY = "teamcity.tfs.workitems.cache.staleWhileRevalidate";
+    static final String REFRESH_AFTER_PROPERTY = "teamcity.tfs.workitems.cache.refreshAfterSeconds";
+    static final String MAX_STALE_PROPERTY = "teamcity.tfs.workitems.cache.maxStaleSeconds";
+    static final String THREADS_PROPERTY = "teamcity.tfs.workitems.cache.refreshThreads";
+    static final String QUEUE_SIZE_PROPERTY = "teamcity.tfs.workitems.cache.refreshQueueSize";
+
+    private final boolean enabled;
+    private final long refreshAfterMillis;
+    private final int maxStaleSeconds;
+    private final int threads;
+    private final int queueSize;
+
+    private final Collection<Object> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+
+    private ThreadPoolExecutor executor;
+    private boolean disposed;
+
+    /**
+     * Creates a new instance of the CacheRevalidator class from the server internal properties.
+     */
+    public CacheRevalidator() {
+        this(TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY),
+                TeamCityProperties.getInteger(REFRESH_AFTER_PROPERTY, 900) * 1000L,
+                TeamCityProperties.getInteger(MAX_STALE_PROPERTY, 86400),
+                TeamCityProperties.getInteger(THREADS_PROPERTY, 2),
+                TeamCityProperties.getInteger(QUEUE_SIZE_PROPERTY, 1000));
+    }
+
+    /**
+     * Creates a new instance of the CacheRevalidator class.
+     * @param enabled True if stale entries should be served while they are refreshed.
+     * @param refreshAfterMillis The age after which an entry is refreshed in the background.
+     * @param maxStaleSeconds The age after which an entry is dropped and must be read synchronously.
+     * @param threads The number of background refresh threads.
+     * @param queueSize The number of refreshes that may wait for a thread.
+     */
+    CacheRevalidator(boolean enabled, long refreshAfterMillis, int maxStaleSeconds, int threads, int queueSize) {
+        this.enabled = enabled;
+        this.refreshAfterMillis = Math.max(0L, refreshAfterMillis);
+        this.maxStaleSeconds = Math.max(1, maxStaleSeconds);
+        this.threads = Math.max(1, threads);
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    /**
+     * Checks if stale-while-revalidate is turned on.
+     * @return True if enabled; otherwise false.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates a cache element that lives for the maximum staleness rather than the lifetime of the cache.
+     * @param key The cache key.
+     * @param value The cached value.
+     * @return The cache element.
+     */
+    @NotNull
+    public Element createElement(@NotNull Object key, @NotNull Object value) {
+        final Element element = new Element(key, value);
+        if (enabled) {
+            element.setTimeToLive(maxStaleSeconds);
+        }
+
+        return element;
+    }
+
+    /**
+     * Checks if a cached entry is old enough to be refreshed.
+     * @param element The cache element.
+     * @param now The current time in milliseconds.
+     * @return True if the entry should be refreshed; otherwise false.
+     */
+    public boolean isStale(@NotNull Element element, long now) {
+        return isStale(element.getCreationTime(), now);
+    }
+
+    /**
+     * Checks if a cached entry that was last known to match TFS at a point in time is old enough to be refreshed.
+     * @param verifiedAt The time the entry was last known to match TFS, in milliseconds.
+     * @param now The current time in milliseconds.
+     * @return True if the entry should be refreshed; otherwise false.
+     */
+    public boolean isStale(long verifiedAt, long now) {
+        return enabled && now - verifiedAt >= refreshAfterMillis;
+    }
+
+    /**
+     * Refreshes stale entries in the background. Keys that are already being refreshed are skipped, and the
+     * refresh is dropped if the queue is full; the entries are then refreshed on a later read.
+     * @param keys The keys of the stale entries.
+     * @param task The task that reads the entries again and puts them into the cache.
+     * @return True if a refresh was started; otherwise false.
+     */
+    public boolean refresh(@NotNull Collection<?> keys, @NotNull final RefreshTask task) {
+        if (!enabled) {
+            return false;
+        }
+
+        final Collection<Object> claimed = new ArrayList<Object>();
+        for (Object key : keys) {
+            if (refreshing.add(key)) {
+                claimed.add(key);
+            }
+        }
+
+        staleHitCount.addAndGet(keys.size());
+        if (claimed.isEmpty()) {
+            return false;
+        }
+
+        try {
+            getExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.refresh(claimed);
+                        refreshCount.addAndGet(claimed.size());
+                    }
+                    catch (Exception e) {
+                        LOG.debug(String.format("Background refresh of %d cached entries failed: %s", claimed.size(), e.getMessage()));
+                    }
+                    finally {
+                        refreshing.removeAll(claimed);
+                    }
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            refreshing.removeAll(claimed);
+            LOG.debug(String.format("Background refresh queue is full, skipping %d cached entries", claimed.size()));
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of entries that were refreshed in the background.
+     * @return The refreshed entry count.
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * Gets the number of stale entries that were served from the cache.
+     * @return The stale hit count.
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    /**
+     * Stops the background refresh threads.
+     */
+    public synchronized void dispose() {
+        disposed = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the refresh executor, creating it on first use.
+     * @return The executor.
+     */
+    @NotNull
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (disposed) {
+            throw new RejectedExecutionException("The cache revalidator is disposed");
+        }
+
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory("TFS cache refresh"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Reads stale entries again and puts them into the cache.
+     */
+    public interface RefreshTask {
+        /**
+         * Refreshes the entries.
+         * @param keys The keys of the entries to refresh.
+         * @throws Exception in case of an error
+         */
+        void refresh(@NotNull Collection<Object> keys) throws Exception;
+    }
+}
@@ -0,0 +1,224 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.serverSide.InvalidProperty;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The memory budget, time to live, off-heap tier and disk overflow of a plugin cache.
+ * Each issue provider can set these for its changeset link cache and its work item cache; properties that are
+ * not set fall back to the server internal properties.
+ */
+public class CacheSettings {
+
+    static final String LINK_MEGABYTES_PROPERTY = "linkCacheMegabytes";
+    static final String LINK_TTL_HOURS_PROPERTY = "linkCacheTtlHours";
+    static final String ISSUE_MEGABYTES_PROPERTY = "issueCacheMegabytes";
+    static final String ISSUE_TTL_HOURS_PROPERTY = "issueCacheTtlHours";
+    static final String OVERFLOW_PROPERTY = "cacheOverflowToDisk";
+    static final String OFF_HEAP_MEGABYTES_PROPERTY = "cacheOffHeapMegabytes";
+
+    static final String DEFAULT_LINK_MEGABYTES_PROPERTY = "teamcity.tfs.workitems.cache.linkMegabytes";
+    static final String DEFAULT_LINK_TTL_HOURS_PROPERTY = "teamcity.tfs.workitems.cache.linkTtlHours";
+    static final String DEFAULT_ISSUE_MEGABYTES_PROPERTY = "teamcity.tfs.workitems.cache.issueMegabytes";
+    static final String DEFAULT_ISSUE_TTL_HOURS_PROPERTY = "teamcity.tfs.workitems.cache.issueTtlHours";
+    static final String DEFAULT_OVERFLOW_PROPERTY = "teamcity.tfs.workitems.cache.overflowToDisk";
+    static final String DEFAULT_OFF_HEAP_MEGABYTES_PROPERTY = "teamcity.tfs.workitems.cache.offHeapMegabytes";
+
+    // A direct buffer is indexed by int, so one cache cannot use more than this
+    static final int MAX_OFF_HEAP_MEGABYTES = 1024;
+
+    private static final long MEGABYTE = 1024L * 1024L;
+    private static final long HOUR = 3600L * 1000L;
+
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final boolean overflowToDisk;
+    private final long offHeapBytes;
+
+    /**
+     * Creates a new instance of the CacheSettings class without an off-heap tier.
+     * @param maxBytes The estimated heap the cache may use.
+     * @param ttlMillis The time an entry is kept after it was read from TFS.
+     * @param overflowToDisk True if entries evicted from the heap should be written to disk.
+     */
+    public CacheSettings(long maxBytes, long ttlMillis, boolean overflowToDisk) {
+        this(maxBytes, ttlMillis, overflowToDisk, 0L);
+    }
+
+    /**
+     * Creates a new instance of the CacheSettings class.
+     * @param maxBytes The estimated heap the cache may use.
+     * @param ttlMillis The time an entry is kept after it was read from TFS.
+     * @param overflowToDisk True if entries evicted from the heap should be written to disk.
+     * @param offHeapBytes The direct memory entries evicted from the heap may use, or zero for none.
+     */
+    public CacheSettings(long maxBytes, long ttlMillis, boolean overflowToDisk, long offHeapBytes) {
+        this.maxBytes = Math.max(1L, maxBytes);
+        this.ttlMillis = Math.max(1L, ttlMillis);
+        this.overflowToDisk = overflowToDisk;
+        this.offHeapBytes = Math.min(Math.max(0L, offHeapBytes), MAX_OFF_HEAP_MEGABYTES * MEGABYTE);
+    }
+
+    /**
+     * Gets the settings of the changeset link cache. Links of a changeset never change, so they are kept much
+     * longer than work items.
+     * @param properties The issue provider properties.
+     * @return The cache settings.
+     */
+    @NotNull
+    public static CacheSettings forLinks(@Nullable Map<String, String> properties) {
+        return create(properties,
+                LINK_MEGABYTES_PROPERTY, TeamCityProperties.getInteger(DEFAULT_LINK_MEGABYTES_PROPERTY, 16),
+                LINK_TTL_HOURS_PROPERTY, TeamCityProperties.getInteger(DEFAULT_LINK_TTL_HOURS_PROPERTY, 720));
+    }
+
+    /**
+     * Gets the settings of the work item cache.
+     * @param properties The issue provider properties.
+     * @return The cache settings.
+     */
+    @NotNull
+    public static CacheSettings forIssues(@Nullable Map<String, String> properties) {
+        return create(properties,
+                ISSUE_MEGABYTES_PROPERTY, TeamCityProperties.getInteger(DEFAULT_ISSUE_MEGABYTES_PROPERTY, 64),
+                ISSUE_TTL_HOURS_PROPERTY, TeamCityProperties.getInteger(DEFAULT_ISSUE_TTL_HOURS_PROPERTY, 24));
+    }
+
+    /**
+     * Validates the cache properties of an issue provider.
+     * @param properties The issue provider properties.
+     * @return The invalid properties.
+     */
+    @NotNull
+    public static Collection<InvalidProperty> validate(@NotNull Map<String, String> properties) {
+        Collection<InvalidProperty> invalid = new ArrayList<InvalidProperty>();
+        for (String name : new String[] { LINK_MEGABYTES_PROPERTY, LINK_TTL_HOURS_PROPERTY, ISSUE_MEGABYTES_PROPERTY, ISSUE_TTL_HOURS_PROPERTY }) {
+            final String value = properties.get(name);
+            if (value != null && value.trim().length() > 0 && parsePositive(value) == null) {
+                invalid.add(new InvalidProperty(name, "Must be a positive whole number"));
+            }
+        }
+
+        final String offHeap = properties.get(OFF_HEAP_MEGABYTES_PROPERTY);
+        if (offHeap != null && offHeap.trim().length() > 0) {
+            final Integer parsed = parseInteger(offHeap);
+            if (parsed == null || parsed < 0 || parsed > MAX_OFF_HEAP_MEGABYTES) {
+                invalid.add(new InvalidProperty(OFF_HEAP_MEGABYTES_PROPERTY, "Must be a whole number from 0 to " + MAX_OFF_HEAP_MEGABYTES));
+            }
+        }
+
+        return invalid;
+    }
+
+    /**
+     * Gets these settings with a time to live of at least the given time.
+     * @param minTtlMillis The shortest time to live.
+     * @return The cache settings.
+     */
+    @NotNull
+    public CacheSettings withMinTtl(long minTtlMillis) {
+        return ttlMillis >= minTtlMillis ? this : new CacheSettings(maxBytes, minTtlMillis, overflowToDisk, offHeapBytes);
+    }
+
+    /**
+     * Gets the estimated heap the cache may use.
+     * @return The budget in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the time an entry is kept after it was read from TFS.
+     * @return The time to live in milliseconds.
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Checks if entries evicted from the heap should be written to disk.
+     * @return True if the cache overflows to disk; otherwise false.
+     */
+    public boolean isOverflowToDisk() {
+        return overflowToDisk;
+    }
+
+    /**
+     * Gets the direct memory outside of the heap that entries evicted from the heap may use.
+     * @return The size in bytes, or zero if the cache has no off-heap tier.
+     */
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CacheSettings)) {
+            return false;
+        }
+
+        final CacheSettings other = (CacheSettings) o;
+        return maxBytes == other.maxBytes && ttlMillis == other.ttlMillis && overflowToDisk == other.overflowToDisk
+                && offHeapBytes == other.offHeapBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (maxBytes ^ (maxBytes >>> 32)) * 31 + (int) (ttlMillis ^ (ttlMillis >>> 32)) * 7 + (overflowToDisk ? 1 : 0)
+                + (int) (offHeapBytes ^ (offHeapBytes >>> 32)) * 3;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d MB, %d h%s%s]", maxBytes / MEGABYTE, ttlMillis / HOUR,
+                offHeapBytes > 0L ? ", " + offHeapBytes / MEGABYTE + " MB off heap" : "",
+                overflowToDisk ? ", overflow to disk" : "");
+    }
+
+    @NotNull
+    private static CacheSettings create(@Nullable Map<String, String> properties, @NotNull String megabytesProperty, int defaultMegabytes,
+                                        @NotNull String ttlHoursProperty, int defaultTtlHours) {
+        final int megabytes = getPositive(properties, megabytesProperty, defaultMegabytes);
+        final int ttlHours = getPositive(properties, ttlHoursProperty, defaultTtlHours);
+
+        final String overflow = properties != null ? properties.get(OVERFLOW_PROPERTY) : null;
+        final boolean overflowToDisk = overflow != null ? Boolean.parseBoolean(overflow) : TeamCityProperties.getBoolean(DEFAULT_OVERFLOW_PROPERTY);
+
+        final String offHeap = properties != null ? properties.get(OFF_HEAP_MEGABYTES_PROPERTY) : null;
+        Integer offHeapMegabytes = offHeap != null ? parseInteger(offHeap) : null;
+        if (offHeapMegabytes == null || offHeapMegabytes < 0) {
+            offHeapMegabytes = TeamCityProperties.getInteger(DEFAULT_OFF_HEAP_MEGABYTES_PROPERTY, 0);
+        }
+
+        return new CacheSettings(megabytes * MEGABYTE, ttlHours * HOUR, overflowToDisk, offHeapMegabytes * MEGABYTE);
+    }
+
+    private static int getPositive(@Nullable Map<String, String> properties, @NotNull String name, int defaultValue) {
+        final String value = properties != null ? properties.get(name) : null;
+        final Integer parsed = value != null ? parsePositive(value) : null;
+        return parsed != null ? parsed : Math.max(1, defaultValue);
+    }
+
+    @Nullable
+    private static Integer parsePositive(@NotNull String value) {
+        final Integer parsed = parseInteger(value);
+        return parsed != null && parsed > 0 ? parsed : null;
+    }
+
+    @Nullable
+    private static Integer parseInteger(@NotNull String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.dpiessens;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what happens to the misses of a plugin cache: lookups answered by the negative cache, lookups that
+ * waited on an identical lookup already in flight, and the TFS fetches with their latency.
+ * The cache itself counts its hits, misses and evictions.
+ */
+public class CacheStatistics {
+
+    private final AtomicLong negativeHitCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong fetchCount = new AtomicLong();
+    private final AtomicLong fetchFailureCount = new AtomicLong();
+    private final AtomicLong totalFetchMillis = new AtomicLong();
+    private final AtomicLong maxFetchMillis = new AtomicLong();
+
+    /**
+     * Records a lookup that was not sent to TFS because it failed recently.
+     */
+    public void recordNegativeHit() {
+        negativeHitCount.incrementAndGet();
+    }
+
+    /**
+     * Records a lookup that was served by an identical lookup already in flight.
+     */
+    public void recordCoalesced() {
+        coalescedCount.incrementAndGet();
+    }
+
+    /**
+     * Records a fetch from TFS.
+     * @param millis The time the fetch took.
+     * @param failed True if the fetch failed; otherwise false.
+     */
+    public void recordFetch(long millis, boolean failed) {
+        fetchCount.incrementAndGet();
+        if (failed) {
+            fetchFailureCount.incrementAndGet();
+        }
+
+        totalFetchMillis.addAndGet(millis);
+        for (long max = maxFetchMillis.get(); millis > max; max = maxFetchMillis.get()) {
+            if (maxFetchMillis.compareAndSet(max, millis)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of lookups that were not sent to TFS because they failed recently.
+     * @return The negative hit count.
+     */
+    public long getNegativeHitCount() {
+        return negativeHitCount.get();
+    }
+
+    /**
+     * Gets the number of lookups that were served by an identical lookup already in flight.
+     * @return The coalesced lookup count.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Gets the number of fetches from TFS.
+     * @return The fetch count.
+     */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+
+    /**
+     * Gets the number of fetches from TFS that failed.
+     * @return The failed fetch count.
+     */
+    public long getFetchFailureCount() {
+        return fetchFailureCount.get();
+    }
+
+    /**
+     * Gets the time spent fetching from TFS.
+     * @return The total time in milliseconds.
+     */
+    public long getTotalFetchMillis() {
+        return totalFetchMillis.get();
+    }
+
+    /**
+     * Gets the time the slowest fetch from TFS took.
+     * @return The time in milliseconds.
+     */
+    public long getMaxFetchMillis() {
+        return maxFetchMillis.get();
+    }
+
+    /**
+     * Gets the average time of a fetch from TFS.
+     * @return The time in milliseconds, or zero if nothing was fetched.
+     */
+    public long getAverageFetchMillis() {
+        final long count = fetchCount.get();
+        return count > 0L ? totalFetchMillis.get() / count : 0L;
+    }
+}
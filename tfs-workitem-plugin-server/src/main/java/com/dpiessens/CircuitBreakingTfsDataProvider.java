@@ -0,0 +1,207 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException;
+import jetbrains.buildServer.issueTracker.IssueData;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.commons.httpclient.Credentials;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A provider that guards every TFS host with a {@link TfsCircuitBreaker}.
+ * While a host's breaker is open, calls fail fast with a {@link TfsUnavailableException} instead of waiting for
+ * the socket timeout, so callers fall back to the data they already have cached.
+ */
+public class CircuitBreakingTfsDataProvider implements TfsDataProvider {
+
+    static final String FAILURE_RATE_PROPERTY = "teamcity.tfs.workitems.breaker.failureRatePercent";
+    static final String MINIMUM_CALLS_PROPERTY = "teamcity.tfs.workitems.breaker.minimumCalls";
+    static final String SLOW_CALL_PROPERTY = "teamcity.tfs.workitems.breaker.slowCallMillis";
+    static final String OPEN_PROPERTY = "teamcity.tfs.workitems.breaker.openSeconds";
+
+    private final TfsDataProvider dataProvider;
+    private final ConcurrentMap<String, TfsCircuitBreaker> breakers = new ConcurrentHashMap<String, TfsCircuitBreaker>();
+    private final int failureRatePercent;
+    private final int minimumCalls;
+    private final long slowCallMillis;
+    private final long openMillis;
+
+    /**
+     * Creates a new instance of the CircuitBreakingTfsDataProvider class using the server internal properties.
+     * @param dataProvider The provider that does the actual work.
+     */
+    public CircuitBreakingTfsDataProvider(@NotNull TfsDataProvider dataProvider) {
+        this(dataProvider,
+             TeamCityProperties.getInteger(FAILURE_RATE_PROPERTY, 50),
+             TeamCityProperties.getInteger(MINIMUM_CALLS_PROPERTY, 10),
+             TeamCityProperties.getInteger(SLOW_CALL_PROPERTY, 15000),
+             TeamCityProperties.getInteger(OPEN_PROPERTY, 30) * 1000L);
+    }
+
+    /**
+     * Creates a new instance of the CircuitBreakingTfsDataProvider class.
+     * @param dataProvider The provider that does the actual work.
+     * @param failureRatePercent The failure rate, in percent, at which a breaker trips.
+     * @param minimumCalls The number of recent calls the failure rate is measured over.
+     * @param slowCallMillis The latency above which a call counts as a failure.
+     * @param openMillis The time a breaker stays open before a probe call is allowed.
+     */
+    CircuitBreakingTfsDataProvider(@NotNull TfsDataProvider dataProvider, int failureRatePercent, int minimumCalls,
+                                   long slowCallMillis, long openMillis) {
+        this.dataProvider = dataProvider;
+        this.failureRatePercent = failureRatePercent;
+        this.minimumCalls = minimumCalls;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+    }
+
+    @NotNull
+    public Collection<IssueData> getIssuesForVersion(@NotNull final Integer revision, @NotNull final String host,
+                                                     @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call(host, new ProviderCall<Collection<IssueData>>() {
+            public Collection<IssueData> call() throws InvalidCredentialsException {
+                return dataProvider.getIssuesForVersion(revision, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Collection<Integer> getIssueIdsForVersion(@NotNull final Integer revision, @NotNull final String host,
+                                                     @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call(host, new ProviderCall<Collection<Integer>>() {
+            public Collection<Integer> call() throws InvalidCredentialsException {
+                return dataProvider.getIssueIdsForVersion(revision, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Map<Integer, Collection<Integer>> getIssueIdsForVersions(@NotNull final Collection<Integer> revisions, @NotNull final String host,
+                                                                    @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call(host, new ProviderCall<Map<Integer, Collection<Integer>>>() {
+            public Map<Integer, Collection<Integer>> call() throws InvalidCredentialsException {
+                return dataProvider.getIssueIdsForVersions(revisions, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Collection<Integer> getIssueIdsChangedSince(@NotNull final Date since, @NotNull final String host,
+                                                       @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call(host, new ProviderCall<Collection<Integer>>() {
+            public Collection<Integer> call() throws InvalidCredentialsException {
+                return dataProvider.getIssueIdsChangedSince(since, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Collection<IssueData> getIssues(@NotNull final Collection<Integer> ids, @NotNull final String host,
+                                           @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call(host, new ProviderCall<Collection<IssueData>>() {
+            public Collection<IssueData> call() throws InvalidCredentialsException {
+                return dataProvider.getIssues(ids, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Map<Integer, Integer> getIssueRevisions(@NotNull final Collection<Integer> ids, @NotNull final String host,
+                                                   @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call(host, new ProviderCall<Map<Integer, Integer>>() {
+            public Map<Integer, Integer> call() throws InvalidCredentialsException {
+                return dataProvider.getIssueRevisions(ids, host, credentials);
+            }
+        });
+    }
+
+    @Nullable
+    public IssueData getIssueById(@NotNull final Integer id, @NotNull final String host,
+                                  @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call(host, new ProviderCall<IssueData>() {
+            public IssueData call() throws InvalidCredentialsException {
+                return dataProvider.getIssueById(id, host, credentials);
+            }
+        });
+    }
+
+    /**
+     * Gets the breakers of all hosts that have been called.
+     * @return The circuit breakers.
+     */
+    @NotNull
+    public Collection<TfsCircuitBreaker> getBreakers() {
+        return new ArrayList<TfsCircuitBreaker>(breakers.values());
+    }
+
+    /**
+     * Gets the breaker for a host, creating it on first use.
+     * @param host The TFS host URL
+     * @return The circuit breaker.
+     */
+    @NotNull
+    TfsCircuitBreaker getBreaker(@NotNull String host) {
+        final String key = TfsConnectionPool.normalizeHost(host);
+
+        TfsCircuitBreaker breaker = breakers.get(key);
+        if (breaker == null) {
+            breaker = new TfsCircuitBreaker(key, failureRatePercent, minimumCalls, slowCallMillis, openMillis);
+            TfsCircuitBreaker existing = breakers.putIfAbsent(key, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+
+        return breaker;
+    }
+
+    /**
+     * Runs a call through the breaker of its host.
+     * @param host The TFS host URL
+     * @param call The call to run.
+     * @param <T> The result type.
+     * @return The result of the call.
+     * @throws InvalidCredentialsException Thrown if the server rejected the credentials.
+     */
+    private <T> T call(@NotNull String host, @NotNull ProviderCall<T> call) throws InvalidCredentialsException {
+        final TfsCircuitBreaker breaker = getBreaker(host);
+
+        if (!breaker.tryAcquire(System.currentTimeMillis())) {
+            throw new TfsUnavailableException(String.format("TFS host %s is unavailable, circuit breaker is open", host));
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            T result = call.call();
+            breaker.onSuccess(System.currentTimeMillis() - start, System.currentTimeMillis());
+            return result;
+        }
+        catch (InvalidCredentialsException e) {
+            // The server answered, so this says nothing about its health
+            breaker.onSuccess(System.currentTimeMillis() - start, System.currentTimeMillis());
+            throw e;
+        }
+        catch (RuntimeException e) {
+            breaker.onFailure(e.toString(), System.currentTimeMillis());
+            throw e;
+        }
+        catch (Error e) {
+            breaker.onFailure(e.toString(), System.currentTimeMillis());
+            throw e;
+        }
+    }
+
+    /**
+     * A call to the wrapped provider.
+     */
+    private interface ProviderCall<T> {
+        T call() throws InvalidCredentialsException;
+    }
+}
@@ -0,0 +1,261 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueData;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A work item kept in the issue cache with as little heap as possible.
+ * The fields live in a fixed slot array that shares its key layout with every work item read with the same
+ * projection, repeated values such as states and types are shared through a dictionary, and the URL is built
+ * from the per-host prefix and suffix when it is asked for instead of being stored for every work item.
+ */
+public class CompactIssueData extends IssueData {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String DICTIONARY_SIZE_PROPERTY = "teamcity.tfs.workitems.cache.dictionarySize";
+
+    private static final StringDictionary DICTIONARY =
+            new StringDictionary(TeamCityProperties.getInteger(DICTIONARY_SIZE_PROPERTY, 10000));
+
+    private static final ConcurrentHashMap<List<String>, FieldLayout> LAYOUTS = new ConcurrentHashMap<List<String>, FieldLayout>();
+
+    private final String urlPrefix;
+    private final String urlSuffix;
+
+    private CompactIssueData(@NotNull String id, @NotNull FieldMap fields, boolean resolved, boolean featureRequest,
+                             @Nullable String urlPrefix, @Nullable String urlSuffix, @Nullable String url) {
+        super(id, fields, resolved, featureRequest, url);
+        this.urlPrefix = urlPrefix;
+        this.urlSuffix = urlSuffix;
+    }
+
+    /**
+     * Creates a compact work item whose URL is built from a URL template.
+     * @param id The work item ID.
+     * @param fields The work item fields.
+     * @param resolved True if the work item is closed.
+     * @param featureRequest True if the work item is not a task.
+     * @param urlTemplate The URL template of the team project collection.
+     * @return The compact work item.
+     */
+    @NotNull
+    public static IssueData create(int id, @NotNull Map<String, String> fields, boolean resolved, boolean featureRequest,
+                                   @NotNull WorkItemUrlTemplate urlTemplate) {
+        final String prefix = urlTemplate.getPrefix();
+        if (prefix == null) {
+            return create(Integer.toString(id), fields, resolved, featureRequest, urlTemplate.format(id));
+        }
+
+        return new CompactIssueData(Integer.toString(id), createFields(fields), resolved, featureRequest,
+                DICTIONARY.intern(prefix), DICTIONARY.intern(urlTemplate.getSuffix()), null);
+    }
+
+    /**
+     * Creates a compact work item from its URL. The URL is split around the ID so the prefix can be shared.
+     * @param id The work item ID.
+     * @param fields The work item fields.
+     * @param resolved True if the work item is closed.
+     * @param featureRequest True if the work item is not a task.
+     * @param url The URL of the work item.
+     * @return The compact work item.
+     */
+    @NotNull
+    public static IssueData create(@NotNull String id, @NotNull Map<String, String> fields, boolean resolved, boolean featureRequest,
+                                   @Nullable String url) {
+        final int index = url != null ? url.lastIndexOf(id) : -1;
+        if (index < 0) {
+            return new CompactIssueData(id, createFields(fields), resolved, featureRequest, null, null, url);
+        }
+
+        return new CompactIssueData(id, createFields(fields), resolved, featureRequest,
+                DICTIONARY.intern(url.substring(0, index)), DICTIONARY.intern(url.substring(index + id.length())), null);
+    }
+
+    @Override
+    public String getUrl() {
+        if (urlPrefix == null) {
+            return super.getUrl();
+        }
+
+        return urlPrefix + getId() + urlSuffix;
+    }
+
+    /**
+     * Estimates the heap retained by this work item, counting shared values as if they were not shared.
+     * @return The estimated size in bytes.
+     */
+    long getEstimatedSize() {
+        long size = 96L + 40L + 2L * getId().length();
+        final Map<String, String> fields = getAllFields();
+        if (fields != null) {
+            for (String value : fields.values()) {
+                size += 8L + 40L + 2L * value.length();
+            }
+        }
+
+        if (urlPrefix == null && super.getUrl() != null) {
+            size += 40L + 2L * super.getUrl().length();
+        }
+
+        return size;
+    }
+
+    /**
+     * Gets the number of shared field values, for diagnostics.
+     * @return The dictionary size.
+     */
+    static int getDictionarySize() {
+        return DICTIONARY.size();
+    }
+
+    /**
+     * Copies fields into a fixed slot map. The summary is unique to each work item and is not shared.
+     * @param fields The fields.
+     * @return The fixed slot map.
+     */
+    @NotNull
+    private static FieldMap createFields(@NotNull Map<String, String> fields) {
+        final TreeMap<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (field.getKey() != null && field.getValue() != null) {
+                sorted.put(field.getKey(), field.getValue());
+            }
+        }
+
+        final FieldLayout layout = FieldLayout.get(sorted.keySet().toArray(new String[sorted.size()]));
+        final String[] values = new String[sorted.size()];
+
+        int i = 0;
+        for (Map.Entry<String, String> field : sorted.entrySet()) {
+            values[i++] = SUMMARY_FIELD.equals(field.getKey()) ? field.getValue() : DICTIONARY.intern(field.getValue());
+        }
+
+        return new FieldMap(layout, values);
+    }
+
+    /**
+     * The field names of a fixed slot map, shared by all maps with the same fields.
+     */
+    private static final class FieldLayout implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] keys;
+
+        private FieldLayout(@NotNull String[] keys) {
+            this.keys = keys;
+        }
+
+        @NotNull
+        static FieldLayout get(@NotNull String[] keys) {
+            final List<String> name = Arrays.asList(keys);
+            final FieldLayout layout = LAYOUTS.get(name);
+            if (layout != null) {
+                return layout;
+            }
+
+            final FieldLayout created = new FieldLayout(keys);
+            final FieldLayout previous = LAYOUTS.putIfAbsent(name, created);
+            return previous != null ? previous : created;
+        }
+
+        int indexOf(@Nullable Object key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        // Share the layout again when a cached work item is read back from disk
+        private Object readResolve() throws ObjectStreamException {
+            return get(keys);
+        }
+    }
+
+    /**
+     * A read-only map that keeps its values in a fixed slot array.
+     */
+    private static final class FieldMap extends AbstractMap<String, String> implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FieldLayout layout;
+        private final String[] values;
+
+        FieldMap(@NotNull FieldLayout layout, @NotNull String[] values) {
+            this.layout = layout;
+            this.values = values;
+        }
+
+        @Override
+        public String get(Object key) {
+            final int index = layout.indexOf(key);
+            return index < 0 ? null : values[index];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return layout.indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int index;
+
+                        public boolean hasNext() {
+                            return index < values.length;
+                        }
+
+                        public Map.Entry<String, String> next() {
+                            if (index >= values.length) {
+                                throw new NoSuchElementException();
+                            }
+
+                            final Map.Entry<String, String> entry =
+                                    new AbstractMap.SimpleImmutableEntry<String, String>(layout.keys[index], values[index]);
+                            index++;
+                            return entry;
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return values.length;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException;
+import jetbrains.buildServer.issueTracker.IssueData;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.commons.httpclient.Credentials;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A TfsDataProvider for the calls made while a page is rendered. They run on the bounded executor of an
+ * {@link AsyncTfsDataProvider} and the web request thread waits for them only until their deadline; a call that misses
+ * its deadline or finds the executor full fails with a {@link TfsUnavailableException}, so the page falls back to the
+ * data that is cached. The batch calls of background jobs go straight to the underlying provider.
+ */
+public class DeadlineTfsDataProvider implements TfsDataProvider {
+
+    static final String TIMEOUT_PROPERTY = "teamcity.tfs.workitems.async.timeoutSeconds";
+
+    private final AsyncTfsDataProvider asyncDataProvider;
+    private final TfsDataProvider dataProvider;
+    private final long timeoutMillis;
+
+    /**
+     * Creates a new instance of the DeadlineTfsDataProvider class using the server internal properties.
+     * @param asyncDataProvider The provider that runs the page view calls.
+     * @param dataProvider The provider that runs the background calls.
+     */
+    public DeadlineTfsDataProvider(@NotNull AsyncTfsDataProvider asyncDataProvider, @NotNull TfsDataProvider dataProvider) {
+        this(asyncDataProvider, dataProvider, TeamCityProperties.getInteger(TIMEOUT_PROPERTY, 20) * 1000L);
+    }
+
+    /**
+     * Creates a new instance of the DeadlineTfsDataProvider class.
+     * @param asyncDataProvider The provider that runs the page view calls.
+     * @param dataProvider The provider that runs the background calls.
+     * @param timeoutMillis How long a page view call is waited for.
+     */
+    DeadlineTfsDataProvider(@NotNull AsyncTfsDataProvider asyncDataProvider, @NotNull TfsDataProvider dataProvider, long timeoutMillis) {
+        this.asyncDataProvider = asyncDataProvider;
+        this.dataProvider = dataProvider;
+        this.timeoutMillis = Math.max(1L, timeoutMillis);
+    }
+
+    @NotNull
+    public Collection<IssueData> getIssuesForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
+        try {
+            return await(asyncDataProvider.getIssuesForVersion(revision, host, credentials, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        catch (RejectedExecutionException e) {
+            throw rejected(e);
+        }
+    }
+
+    @NotNull
+    public Collection<Integer> getIssueIdsForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
+        try {
+            return await(asyncDataProvider.getIssueIdsForVersion(revision, host, credentials, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        catch (RejectedExecutionException e) {
+            throw rejected(e);
+        }
+    }
+
+    @NotNull
+    public Map<Integer, Collection<Integer>> getIssueIdsForVersions(@NotNull Collection<Integer> revisions, @NotNull String host,
+                                                                    @Nullable Credentials credentials) throws InvalidCredentialsException {
+        return dataProvider.getIssueIdsForVersions(revisions, host, credentials);
+    }
+
+    @NotNull
+    public Collection<Integer> getIssueIdsChangedSince(@NotNull Date since, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
+        return dataProvider.getIssueIdsChangedSince(since, host, credentials);
+    }
+
+    @NotNull
+    public Collection<IssueData> getIssues(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
+        try {
+            return await(asyncDataProvider.getIssues(ids, host, credentials, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        catch (RejectedExecutionException e) {
+            throw rejected(e);
+        }
+    }
+
+    @NotNull
+    public Map<Integer, Integer> getIssueRevisions(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
+        return dataProvider.getIssueRevisions(ids, host, credentials);
+    }
+
+    @Nullable
+    public IssueData getIssueById(@NotNull Integer id, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
+        try {
+            return await(asyncDataProvider.getIssueById(id, host, credentials, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        catch (RejectedExecutionException e) {
+            throw rejected(e);
+        }
+    }
+
+    /**
+     * Waits for a call until its deadline and passes on its result or failure.
+     * @param future The future of the call.
+     * @param <T> The result type.
+     * @return The result of the call.
+     * @throws InvalidCredentialsException Thrown if the call could not connect to the server.
+     * @throws TfsUnavailableException Thrown if the call missed its deadline or the wait was interrupted.
+     */
+    private <T> T await(@NotNull Future<T> future) throws InvalidCredentialsException {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            future.cancel(true);
+            throw new TfsUnavailableException(String.format("TFS did not answer within %d ms", timeoutMillis));
+        }
+        catch (CancellationException e) {
+            throw new TfsUnavailableException(String.format("TFS did not answer within %d ms", timeoutMillis));
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new TfsUnavailableException("Waiting for TFS was interrupted");
+        }
+        catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof InvalidCredentialsException) {
+                throw (InvalidCredentialsException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @NotNull
+    private static TfsUnavailableException rejected(@NotNull RejectedExecutionException e) {
+        return new TfsUnavailableException("Cannot queue the TFS request: " + e.getMessage());
+    }
+}
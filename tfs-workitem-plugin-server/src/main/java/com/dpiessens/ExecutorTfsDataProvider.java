@@ -0,0 +1,250 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.issueTracker.IssueData;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.commons.httpclient.Credentials;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link TfsDataProvider} calls on a dedicated, bounded executor so that a slow TFS server cannot tie up
+ * the web request threads of the server. Virtual threads are used when the JVM supports them.
+ */
+public class ExecutorTfsDataProvider implements AsyncTfsDataProvider {
+
+    private static final Logger LOG = Logger.getInstance(ExecutorTfsDataProvider.class.getName());
+
+    static final String THREADS_PROPERTY = "teamcity.tfs.workitems.async.threads";
+    static final String QUEUE_SIZE_PROPERTY = "teamcity.tfs.workitems.async.queueSize";
+    static final String VIRTUAL_THREADS_PROPERTY = "teamcity.tfs.workitems.async.virtualThreads";
+
+    private final TfsDataProvider dataProvider;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService deadlineTimer;
+    private final Semaphore capacity;
+    private final Semaphore concurrency;
+
+    /**
+     * Creates a new instance of the ExecutorTfsDataProvider class using the server internal properties.
+     * @param dataProvider The provider that does the actual work.
+     */
+    public ExecutorTfsDataProvider(@NotNull TfsDataProvider dataProvider) {
+        this(dataProvider,
+             TeamCityProperties.getInteger(THREADS_PROPERTY, 8),
+             TeamCityProperties.getInteger(QUEUE_SIZE_PROPERTY, 100),
+             TeamCityProperties.getBooleanOrTrue(VIRTUAL_THREADS_PROPERTY));
+    }
+
+    /**
+     * Creates a new instance of the ExecutorTfsDataProvider class.
+     * @param dataProvider The provider that does the actual work.
+     * @param threads The maximum number of calls talking to TFS at once.
+     * @param queueSize The maximum number of calls waiting for a free thread.
+     * @param preferVirtualThreads True if virtual threads should be used when the JVM supports them.
+     */
+    ExecutorTfsDataProvider(@NotNull TfsDataProvider dataProvider, int threads, int queueSize, boolean preferVirtualThreads) {
+        this.dataProvider = dataProvider;
+
+        final int maxThreads = Math.max(1, threads);
+        final int maxQueued = Math.max(0, queueSize);
+        this.capacity = new Semaphore(maxThreads + maxQueued);
+
+        final ExecutorService virtualExecutor = preferVirtualThreads ? createVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            LOG.info(String.format("Running TFS requests on virtual threads, at most %d at once", maxThreads));
+            this.executor = virtualExecutor;
+            this.concurrency = new Semaphore(maxThreads);
+        } else {
+            LOG.info(String.format("Running TFS requests on %d threads with a queue of %d", maxThreads, maxQueued));
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueued)), new NamedThreadFactory("TFS request"));
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+            this.concurrency = null;
+        }
+
+        this.deadlineTimer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("TFS request deadline"));
+    }
+
+    @NotNull
+    public Future<Collection<IssueData>> getIssuesForVersion(@NotNull final Integer revision, @NotNull final String host,
+                                                             @Nullable final Credentials credentials, long timeout, @NotNull TimeUnit unit) {
+        return submit(new Callable<Collection<IssueData>>() {
+            public Collection<IssueData> call() throws Exception {
+                return dataProvider.getIssuesForVersion(revision, host, credentials);
+            }
+        }, timeout, unit);
+    }
+
+    @NotNull
+    public Future<Collection<Integer>> getIssueIdsForVersion(@NotNull final Integer revision, @NotNull final String host,
+                                                             @Nullable final Credentials credentials, long timeout, @NotNull TimeUnit unit) {
+        return submit(new Callable<Collection<Integer>>() {
+            public Collection<Integer> call() throws Exception {
+                return dataProvider.getIssueIdsForVersion(revision, host, credentials);
+            }
+        }, timeout, unit);
+    }
+
+    @NotNull
+    public Future<Collection<IssueData>> getIssues(@NotNull final Collection<Integer> ids, @NotNull final String host,
+                                                   @Nullable final Credentials credentials, long timeout, @NotNull TimeUnit unit) {
+        return submit(new Callable<Collection<IssueData>>() {
+            public Collection<IssueData> call() throws Exception {
+                return dataProvider.getIssues(ids, host, credentials);
+            }
+        }, timeout, unit);
+    }
+
+    @NotNull
+    public Future<IssueData> getIssueById(@NotNull final Integer id, @NotNull final String host,
+                                          @Nullable final Credentials credentials, long timeout, @NotNull TimeUnit unit) {
+        return submit(new Callable<IssueData>() {
+            public IssueData call() throws Exception {
+                return dataProvider.getIssueById(id, host, credentials);
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Gets the number of calls that can still be accepted before new ones are rejected.
+     * @return The remaining capacity.
+     */
+    public int getAvailableCapacity() {
+        return capacity.availablePermits();
+    }
+
+    /**
+     * Stops the executor, cancelling any pending calls.
+     */
+    public void dispose() {
+        executor.shutdownNow();
+        deadlineTimer.shutdownNow();
+    }
+
+    /**
+     * Submits a call to the executor and arms its deadline.
+     * @param call The call to run.
+     * @param timeout The deadline of the call.
+     * @param unit The unit of the deadline.
+     * @param <T> The result type.
+     * @return The future of the call.
+     */
+    @NotNull
+    private <T> Future<T> submit(@NotNull Callable<T> call, long timeout, @NotNull TimeUnit unit) {
+        if (!capacity.tryAcquire()) {
+            throw new RejectedExecutionException("Too many TFS requests are pending");
+        }
+
+        final DeadlineTask<T> task = new DeadlineTask<T>(concurrency != null ? new BoundedCall<T>(call, concurrency) : call);
+
+        // The deadline is armed before the task can run, so a task that completes right away always disarms it
+        task.deadline = deadlineTimer.schedule(new Runnable() {
+            public void run() {
+                if (task.cancel(true)) {
+                    LOG.warn("TFS request did not complete before its deadline and was cancelled");
+                }
+            }
+        }, timeout, unit);
+
+        try {
+            executor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            task.deadline.cancel(false);
+            capacity.release();
+            throw e;
+        }
+
+        return task;
+    }
+
+    /**
+     * Creates a virtual thread per task executor if the JVM supports it.
+     * @return The executor, or null if virtual threads are not available.
+     */
+    @Nullable
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (NoSuchMethodException e) {
+            LOG.debug("Virtual threads are not supported by this JVM");
+        }
+        catch (Exception e) {
+            LOG.debug("Virtual threads could not be used: " + e);
+        }
+
+        return null;
+    }
+
+    /**
+     * A task that disarms its deadline when it completes or is cancelled, and releases its capacity only when its
+     * worker returns. A call cancelled while blocked in socket I/O keeps its worker busy, so it keeps its capacity.
+     */
+    private class DeadlineTask<T> extends FutureTask<T> {
+
+        volatile ScheduledFuture<?> deadline;
+
+        DeadlineTask(@NotNull Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            }
+            finally {
+                capacity.release();
+            }
+        }
+
+        @Override
+        protected void done() {
+            final ScheduledFuture<?> myDeadline = deadline;
+            if (myDeadline != null) {
+                myDeadline.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * A call that limits how many calls talk to TFS at once when every call gets its own virtual thread.
+     */
+    private static class BoundedCall<T> implements Callable<T> {
+
+        private final Callable<T> call;
+        private final Semaphore permits;
+
+        BoundedCall(@NotNull Callable<T> call, @NotNull Semaphore permits) {
+            this.call = call;
+            this.permits = permits;
+        }
+
+        public T call() throws Exception {
+            permits.acquire();
+            try {
+                return call.call();
+            }
+            finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Java Flight Recorder event of a TFS round trip or a cache miss, carrying the host, the number of changesets or
+ * work items and the outcome, so a recording shows which TFS calls a slow request thread was waiting for.
+ * The plugin is built for Java 5, so the event types cannot extend jdk.jfr.Event; they are defined at runtime
+ * through jdk.jfr.EventFactory instead. On a JVM without that API, or while no recording enables the events,
+ * beginning an event returns a shared instance that does nothing.
+ */
+final class FlightRecorderEvent {
+
+    static final String ENABLED_PROPERTY = "teamcity.tfs.workitems.jfr.enabled";
+
+    private static final Logger LOG = Logger.getInstance(FlightRecorderEvent.class.getName());
+
+    private static final String CATEGORY = "TeamCity";
+    private static final String SUBCATEGORY = "TFS Work Items";
+
+    /**
+     * The event types.
+     */
+    enum Type {
+        CONNECT("com.dpiessens.TfsConnect", "TFS Connect", "Waiting for a connection to a TFS collection"),
+        CHANGESET_FETCH("com.dpiessens.ChangesetFetch", "TFS Changeset Fetch", "Reading the work item links of changesets from TFS"),
+        WORK_ITEM_FETCH("com.dpiessens.WorkItemFetch", "TFS Work Item Fetch", "Reading work items from TFS"),
+        CACHE_MISS("com.dpiessens.CacheMiss", "TFS Cache Miss", "Resolving a changeset or work item that was not cached");
+
+        private final String name;
+        private final String label;
+        private final String description;
+
+        Type(@NotNull String name, @NotNull String label, @NotNull String description) {
+            this.name = name;
+            this.label = label;
+            this.description = description;
+        }
+    }
+
+    private static final FlightRecorderEvent DISABLED = new FlightRecorderEvent(null);
+
+    // Set by createFactories, which runs once when the class is initialized
+    private static Method newEventMethod;
+    private static Method getEventTypeMethod;
+    private static Method isEnabledMethod;
+    private static Method beginMethod;
+    private static Method endMethod;
+    private static Method shouldCommitMethod;
+    private static Method setMethod;
+    private static Method commitMethod;
+
+    // The event factory of each type, or null if flight recorder events cannot be used
+    private static final Object[] FACTORIES = createFactories();
+
+    private final Object event;
+
+    private FlightRecorderEvent(@Nullable Object event) {
+        this.event = event;
+    }
+
+    /**
+     * Begins an event.
+     * @param type The event type.
+     * @return The event, which does nothing if the type is not enabled by a recording.
+     */
+    @NotNull
+    static FlightRecorderEvent begin(@NotNull Type type) {
+        if (FACTORIES == null) {
+            return DISABLED;
+        }
+
+        try {
+            final Object factory = FACTORIES[type.ordinal()];
+            if (!(Boolean) isEnabledMethod.invoke(getEventTypeMethod.invoke(factory))) {
+                return DISABLED;
+            }
+
+            final Object event = newEventMethod.invoke(factory);
+            beginMethod.invoke(event);
+            return new FlightRecorderEvent(event);
+        }
+        catch (Exception e) {
+            LOG.debug("Cannot begin a flight recorder event: " + e);
+            return DISABLED;
+        }
+    }
+
+    /**
+     * Checks if the event is recorded.
+     * @return True if a recording enables the event type; otherwise false.
+     */
+    boolean isEnabled() {
+        return event != null;
+    }
+
+    /**
+     * Ends the event and commits it to the recording if it passes the recording's thresholds.
+     * @param host The TFS host URL
+     * @param count The number of changesets or work items, or zero for a connect.
+     * @param outcome The outcome, such as ok or failed.
+     */
+    void commit(@Nullable String host, int count, @NotNull String outcome) {
+        if (event == null) {
+            return;
+        }
+
+        try {
+            endMethod.invoke(event);
+            if ((Boolean) shouldCommitMethod.invoke(event)) {
+                setMethod.invoke(event, 0, host);
+                setMethod.invoke(event, 1, count);
+                setMethod.invoke(event, 2, outcome);
+                commitMethod.invoke(event);
+            }
+        }
+        catch (Exception e) {
+            LOG.debug("Cannot commit a flight recorder event: " + e);
+        }
+    }
+
+    /**
+     * Defines the event types.
+     * @return The event factories, or null if the JVM has no flight recorder API or the events are turned off.
+     */
+    @Nullable
+    private static Object[] createFactories() {
+        if (!TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY)) {
+            return null;
+        }
+
+        try {
+            final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            final Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+            final Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+            final Class<?> valueClass = Class.forName("jdk.jfr.ValueDescriptor");
+
+            final Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+            final Constructor<?> value = valueClass.getConstructor(Class.class, String.class, List.class);
+            final Method create = factoryClass.getMethod("create", List.class, List.class);
+
+            final List<Object> fields = new ArrayList<Object>();
+            fields.add(value.newInstance(String.class, "host",
+                    Collections.singletonList(annotation.newInstance(Class.forName("jdk.jfr.Label"), "Host"))));
+            fields.add(value.newInstance(int.class, "count",
+                    Collections.singletonList(annotation.newInstance(Class.forName("jdk.jfr.Label"), "Count"))));
+            fields.add(value.newInstance(String.class, "outcome",
+                    Collections.singletonList(annotation.newInstance(Class.forName("jdk.jfr.Label"), "Outcome"))));
+
+            final Object[] factories = new Object[Type.values().length];
+            for (Type type : Type.values()) {
+                final List<Object> annotations = Arrays.asList(
+                        annotation.newInstance(Class.forName("jdk.jfr.Name"), type.name),
+                        annotation.newInstance(Class.forName("jdk.jfr.Label"), type.label),
+                        annotation.newInstance(Class.forName("jdk.jfr.Description"), type.description),
+                        annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { CATEGORY, SUBCATEGORY }));
+                factories[type.ordinal()] = create.invoke(null, annotations, fields);
+            }
+
+            newEventMethod = factoryClass.getMethod("newEvent");
+            getEventTypeMethod = factoryClass.getMethod("getEventType");
+            isEnabledMethod = eventTypeClass.getMethod("isEnabled");
+            beginMethod = eventClass.getMethod("begin");
+            endMethod = eventClass.getMethod("end");
+            shouldCommitMethod = eventClass.getMethod("shouldCommit");
+            setMethod = eventClass.getMethod("set", int.class, Object.class);
+            commitMethod = eventClass.getMethod("commit");
+            return factories;
+        }
+        catch (ClassNotFoundException e) {
+            LOG.debug("The JVM has no flight recorder API, TFS events are not recorded");
+            return null;
+        }
+        catch (Exception e) {
+            LOG.info("Cannot define the TFS flight recorder events: " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Encodes the cached issue mentions of a revision as a plain byte array.
+ * Work item URLs of a collection only differ by the work item ID, so the URL prefix and suffix are written once
+ * followed by the varint packed IDs. Mentions whose URLs do not share a pattern fall back to one URL per mention.
+ * A byte array needs no plugin classes to be read back, so the cache can deserialize it with any class loader.
+ */
+final class IssueMentionCodec {
+
+    private static final int FORMAT_TEMPLATE = 1;
+    private static final int FORMAT_URLS = 2;
+    private static final String CHARSET = "UTF-8";
+
+    private IssueMentionCodec() {
+    }
+
+    /**
+     * Encodes issue mentions.
+     * @param mentions The issue mentions, each with a numeric work item ID.
+     * @return The encoded mentions.
+     * @throws IllegalArgumentException Thrown if a mention does not have a numeric ID.
+     */
+    @NotNull
+    static byte[] encode(@NotNull Collection<SerializableIssueMention> mentions) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(16 + mentions.size() * 3);
+        final String[] template = findTemplate(mentions);
+
+        if (template != null) {
+            output.write(FORMAT_TEMPLATE);
+            writeString(output, template[0]);
+            writeString(output, template[1]);
+            writeVarInt(output, mentions.size());
+            for (SerializableIssueMention mention : mentions) {
+                writeVarInt(output, parseId(mention.getId()));
+            }
+        } else {
+            output.write(FORMAT_URLS);
+            writeVarInt(output, mentions.size());
+            for (SerializableIssueMention mention : mentions) {
+                writeVarInt(output, parseId(mention.getId()));
+                writeString(output, mention.getUrl());
+            }
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Decodes issue mentions.
+     * @param bytes The encoded mentions.
+     * @return The issue mentions in their original order.
+     * @throws IllegalArgumentException Thrown if the bytes are not encoded mentions.
+     */
+    @NotNull
+    static ArrayList<SerializableIssueMention> decode(@NotNull byte[] bytes) {
+        final Reader reader = new Reader(bytes);
+        final int format = reader.readByte();
+
+        if (format == FORMAT_TEMPLATE) {
+            final String prefix = reader.readString();
+            final String suffix = reader.readString();
+            final int count = reader.readVarInt();
+            final ArrayList<SerializableIssueMention> mentions = new ArrayList<SerializableIssueMention>(count);
+            for (int i = 0; i < count; i++) {
+                final String id = String.valueOf(reader.readVarInt());
+                mentions.add(new SerializableIssueMention(id, prefix == null ? null : prefix + id + suffix));
+            }
+
+            return mentions;
+        }
+
+        if (format == FORMAT_URLS) {
+            final int count = reader.readVarInt();
+            final ArrayList<SerializableIssueMention> mentions = new ArrayList<SerializableIssueMention>(count);
+            for (int i = 0; i < count; i++) {
+                final String id = String.valueOf(reader.readVarInt());
+                mentions.add(new SerializableIssueMention(id, reader.readString()));
+            }
+
+            return mentions;
+        }
+
+        throw new IllegalArgumentException("Unknown issue mention format " + format);
+    }
+
+    /**
+     * Finds the URL prefix and suffix shared by all mentions.
+     * @param mentions The issue mentions.
+     * @return The prefix and suffix, both null if no mention has a URL, or null if the URLs do not share a pattern.
+     */
+    @Nullable
+    private static String[] findTemplate(@NotNull Collection<SerializableIssueMention> mentions) {
+        String[] template = null;
+        for (SerializableIssueMention mention : mentions) {
+            final String id = mention.getId();
+            final String url = mention.getUrl();
+
+            final String[] current;
+            if (url == null) {
+                current = new String[] { null, null };
+            } else {
+                final int index = url.lastIndexOf(id);
+                if (index < 0) {
+                    return null;
+                }
+
+                current = new String[] { url.substring(0, index), url.substring(index + id.length()) };
+            }
+
+            if (template == null) {
+                template = current;
+            } else if (!equal(template[0], current[0]) || !equal(template[1], current[1])) {
+                return null;
+            }
+        }
+
+        return template != null ? template : new String[] { null, null };
+    }
+
+    private static boolean equal(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int parseId(@NotNull String id) {
+        final int value;
+        try {
+            value = Integer.parseInt(id);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Work item ID is not a number: " + id);
+        }
+
+        if (value < 0 || !id.equals(String.valueOf(value))) {
+            throw new IllegalArgumentException("Work item ID is not a canonical positive number: " + id);
+        }
+
+        return value;
+    }
+
+    /**
+     * Writes an unsigned integer in 7 bit groups, least significant first.
+     */
+    private static void writeVarInt(@NotNull ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        output.write(value);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length plus one, so zero marks a null string, followed by the UTF-8 bytes.
+     */
+    private static void writeString(@NotNull ByteArrayOutputStream output, @Nullable String value) {
+        if (value == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+
+        final byte[] bytes;
+        try {
+            bytes = value.getBytes(CHARSET);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        writeVarInt(output, bytes.length + 1);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reads the encoded values back from a byte array.
+     */
+    private static class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        Reader(@NotNull byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Truncated issue mentions");
+            }
+
+            return bytes[position++] & 0xFF;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                final int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IllegalArgumentException("Malformed varint in issue mentions");
+        }
+
+        @Nullable
+        String readString() {
+            final int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+
+            if (length > bytes.length - position) {
+                throw new IllegalArgumentException("Truncated issue mentions");
+            }
+
+            try {
+                final String value = new String(bytes, position, length, CHARSET);
+                position += length;
+                return value;
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
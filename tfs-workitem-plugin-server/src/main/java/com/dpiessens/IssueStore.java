@@ -0,0 +1,307 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.issueTracker.IssueData;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps changeset links and work item summaries on disk under the TeamCity data directory, so the issue caches
+ * do not start cold after a server restart or upgrade.
+ * Changeset links never change and are kept indefinitely; work item summaries are revalidated against TFS when
+ * they are read back. Any disk error turns the store off for the rest of the server run.
+ */
+public class IssueStore {
+
+    private static final Logger LOG = Logger.getInstance(IssueStore.class.getName());
+
+    static final String ENABLED_PROPERTY = "teamcity.tfs.workitems.store.enabled";
+
+    private final AppendOnlyStore links;
+    private final AppendOnlyStore issues;
+    private volatile boolean enabled;
+
+    /**
+     * Creates a new instance of the IssueStore class in the plugin data directory.
+     * @param serverPaths The server paths.
+     */
+    public IssueStore(@NotNull ServerPaths serverPaths) {
+        this(new File(serverPaths.getPluginDataDirectory(), "tfs-workitems"), TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY));
+    }
+
+    /**
+     * Creates a new instance of the IssueStore class.
+     * @param directory The directory of the store files.
+     * @param enabled True if the store should be used.
+     */
+    IssueStore(@NotNull File directory, boolean enabled) {
+        AppendOnlyStore linkStore = null;
+        AppendOnlyStore issueStore = null;
+
+        if (enabled) {
+            try {
+                linkStore = new AppendOnlyStore(new File(directory, "links.log"));
+                issueStore = new AppendOnlyStore(new File(directory, "issues.log"));
+                LOG.info(String.format("Loaded %d changeset links and %d work items from %s", linkStore.size(), issueStore.size(), directory));
+            }
+            catch (IOException e) {
+                LOG.warn("Cannot open the TFS work item store in " + directory + ", it will not be used", e);
+                if (linkStore != null) {
+                    linkStore.close();
+                }
+            }
+        }
+
+        this.links = linkStore;
+        this.issues = issueStore;
+        this.enabled = linkStore != null && issueStore != null;
+    }
+
+    /**
+     * Creates a store that keeps nothing.
+     * @return The disabled store.
+     */
+    @NotNull
+    public static IssueStore disabled() {
+        return new IssueStore(new File("."), false);
+    }
+
+    /**
+     * Checks if the store is in use.
+     * @return True if enabled; otherwise false.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the IDs of the work items linked to a changeset.
+     * @param host The TFS host URL
+     * @param revision The changeset number.
+     * @return The linked work item IDs if the changeset is stored; otherwise null.
+     */
+    @Nullable
+    public Collection<Integer> getLinks(@NotNull String host, int revision) {
+        if (!enabled) {
+            return null;
+        }
+
+        try {
+            final byte[] value = links.get(getLinkKey(host, revision));
+            if (value == null) {
+                return null;
+            }
+
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(value));
+            final int count = input.readInt();
+            final Collection<Integer> ids = new ArrayList<Integer>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(input.readInt());
+            }
+
+            return ids;
+        }
+        catch (IOException e) {
+            disable(e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the IDs of the work items linked to a changeset.
+     * @param host The TFS host URL
+     * @param revision The changeset number.
+     * @param ids The linked work item IDs.
+     */
+    public void putLinks(@NotNull String host, int revision, @NotNull Collection<Integer> ids) {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            final ByteArrayOutputStream value = new ByteArrayOutputStream(4 + ids.size() * 4);
+            final DataOutputStream output = new DataOutputStream(value);
+            output.writeInt(ids.size());
+            for (Integer id : ids) {
+                output.writeInt(id);
+            }
+            output.flush();
+
+            links.put(getLinkKey(host, revision), value.toByteArray());
+        }
+        catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * Gets a stored work item summary.
+     * @param host The TFS host URL
+     * @param id The work item ID.
+     * @return The work item if stored; otherwise null.
+     */
+    @Nullable
+    public IssueData getIssue(@NotNull String host, @NotNull String id) {
+        if (!enabled) {
+            return null;
+        }
+
+        try {
+            final byte[] value = issues.get(getIssueKey(host, id));
+            if (value == null) {
+                return null;
+            }
+
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(value));
+            final String issueId = input.readUTF();
+            final String url = input.readUTF();
+            final boolean resolved = input.readBoolean();
+            final boolean featureRequest = input.readBoolean();
+
+            final int count = input.readInt();
+            final Map<String, String> fields = new HashMap<String, String>();
+            for (int i = 0; i < count; i++) {
+                fields.put(input.readUTF(), input.readUTF());
+            }
+
+            return CompactIssueData.create(issueId, fields, resolved, featureRequest, url);
+        }
+        catch (IOException e) {
+            disable(e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a work item summary, replacing any previous one.
+     * @param host The TFS host URL
+     * @param issue The work item.
+     */
+    public void putIssue(@NotNull String host, @NotNull IssueData issue) {
+        if (!enabled) {
+            return;
+        }
+
+        final byte[] value;
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeUTF(issue.getId());
+            output.writeUTF(issue.getUrl() != null ? issue.getUrl() : "");
+            output.writeBoolean(issue.isResolved());
+            output.writeBoolean(issue.isFeatureRequest());
+
+            final Map<String, String> fields = issue.getAllFields();
+            final Map<String, String> stored = new HashMap<String, String>();
+            if (fields != null) {
+                for (Map.Entry<String, String> field : fields.entrySet()) {
+                    if (field.getKey() != null && field.getValue() != null) {
+                        stored.put(field.getKey(), field.getValue());
+                    }
+                }
+            }
+
+            output.writeInt(stored.size());
+            for (Map.Entry<String, String> field : stored.entrySet()) {
+                output.writeUTF(field.getKey());
+                output.writeUTF(field.getValue());
+            }
+            output.flush();
+            value = bytes.toByteArray();
+        }
+        catch (IOException e) {
+            // A field too long to encode, keep the work item out of the store
+            LOG.debug(String.format("Cannot store work item %s: %s", issue.getId(), e.getMessage()));
+            return;
+        }
+
+        try {
+            issues.put(getIssueKey(host, issue.getId()), value);
+        }
+        catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * Removes a work item summary.
+     * @param host The TFS host URL
+     * @param id The work item ID.
+     */
+    public void removeIssue(@NotNull String host, @NotNull String id) {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            issues.remove(getIssueKey(host, id));
+        }
+        catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * Gets the number of stored changesets.
+     * @return The changeset count.
+     */
+    public int getLinkCount() {
+        return enabled ? links.size() : 0;
+    }
+
+    /**
+     * Gets the number of stored work items.
+     * @return The work item count.
+     */
+    public int getIssueCount() {
+        return enabled ? issues.size() : 0;
+    }
+
+    /**
+     * Closes the store files.
+     */
+    public void dispose() {
+        enabled = false;
+        if (links != null) {
+            links.close();
+        }
+
+        if (issues != null) {
+            issues.close();
+        }
+    }
+
+    /**
+     * Turns the store off after a disk error.
+     * @param e The error.
+     */
+    private void disable(@NotNull IOException e) {
+        if (enabled) {
+            enabled = false;
+            LOG.warn("The TFS work item store failed and is turned off until the next restart", e);
+        }
+    }
+
+    @NotNull
+    private static String getLinkKey(@NotNull String host, int revision) {
+        return TfsConnectionPool.normalizeHost(host) + "#" + revision;
+    }
+
+    @NotNull
+    private static String getIssueKey(@NotNull String host, @NotNull String id) {
+        return TfsConnectionPool.normalizeHost(host) + "/" + id;
+    }
+}
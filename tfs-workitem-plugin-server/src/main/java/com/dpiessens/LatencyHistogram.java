@@ -0,0 +1,128 @@
+package com.dpiessens;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in fixed buckets whose bounds grow roughly tenfold every three buckets, so recording a value
+ * costs a few comparisons and the histogram has the same small size however many values it holds.
+ */
+public class LatencyHistogram {
+
+    private static final long[] BUCKET_BOUNDS = {
+            1L, 2L, 5L, 10L, 25L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L, 30000L, 60000L, Long.MAX_VALUE
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS.length);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    /**
+     * Records a latency.
+     * @param millis The latency in milliseconds.
+     */
+    public void record(long millis) {
+        final long value = Math.max(0L, millis);
+
+        int bucket = 0;
+        while (value > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMillis.addAndGet(value);
+        for (long max = maxMillis.get(); value > max; max = maxMillis.get()) {
+            if (maxMillis.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     * @return The count.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the average of the recorded latencies.
+     * @return The average in milliseconds, or zero if nothing was recorded.
+     */
+    public long getAverageMillis() {
+        final long recorded = count.get();
+        return recorded > 0L ? totalMillis.get() / recorded : 0L;
+    }
+
+    /**
+     * Gets the largest recorded latency.
+     * @return The latency in milliseconds.
+     */
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /**
+     * Gets an upper bound of a percentile of the recorded latencies: the bound of the bucket the percentile falls
+     * into, or the largest latency if that is smaller.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency in milliseconds, or zero if nothing was recorded.
+     */
+    public long getPercentileMillis(double percentile) {
+        final long recorded = count.get();
+        if (recorded == 0L) {
+            return 0L;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(recorded * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0L;
+        for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(BUCKET_BOUNDS[bucket], maxMillis.get());
+            }
+        }
+
+        return maxMillis.get();
+    }
+
+    /**
+     * Gets an upper bound of the 95th percentile of the recorded latencies.
+     * @return The latency in milliseconds, or zero if nothing was recorded.
+     */
+    public long getP95Millis() {
+        return getPercentileMillis(95.0);
+    }
+
+    /**
+     * Gets an upper bound of the 99th percentile of the recorded latencies.
+     * @return The latency in milliseconds, or zero if nothing was recorded.
+     */
+    public long getP99Millis() {
+        return getPercentileMillis(99.0);
+    }
+
+    /**
+     * Gets the upper bounds of the buckets.
+     * @return The bounds in milliseconds; the last bucket has no bound.
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * Gets the number of latencies in each bucket.
+     * @return The counts, in the order of the bucket bounds.
+     */
+    public long[] getBucketCounts() {
+        final long[] result = new long[BUCKET_BOUNDS.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+
+        return result;
+    }
+}
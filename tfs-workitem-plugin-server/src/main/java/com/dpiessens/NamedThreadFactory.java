@@ -0,0 +1,25 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the background work of the plugin.
+ */
+class NamedThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    NamedThreadFactory(@NotNull String prefix) {
+        this.prefix = prefix;
+    }
+
+    public Thread newThread(@NotNull Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + " " + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,162 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers lookups that recently failed or found nothing, so they are not sent to TFS again until a short
+ * time to live has passed. Each consecutive failure of the same key doubles the time to live up to a maximum,
+ * and a success forgets the key, so a transient outage only hides a result for a short while.
+ */
+public class NegativeCache {
+
+    static final String TTL_PROPERTY = "teamcity.tfs.workitems.negativeCache.ttlSeconds";
+    static final String MAX_TTL_PROPERTY = "teamcity.tfs.workitems.negativeCache.maxTtlSeconds";
+    static final String MAX_ENTRIES_PROPERTY = "teamcity.tfs.workitems.negativeCache.maxEntries";
+
+    private final long ttlMillis;
+    private final long maxTtlMillis;
+    private final int maxEntries;
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<Object, Entry>();
+
+    /**
+     * Creates a new instance of the NegativeCache class from the server internal properties.
+     */
+    public NegativeCache() {
+        this(TeamCityProperties.getInteger(TTL_PROPERTY, 30) * 1000L,
+                TeamCityProperties.getInteger(MAX_TTL_PROPERTY, 900) * 1000L,
+                TeamCityProperties.getInteger(MAX_ENTRIES_PROPERTY, 10000));
+    }
+
+    /**
+     * Creates a new instance of the NegativeCache class.
+     * @param ttlMillis The time a key is suppressed after its first failure.
+     * @param maxTtlMillis The longest time a key is suppressed after repeated failures.
+     * @param maxEntries The number of keys above which expired keys are purged.
+     */
+    public NegativeCache(long ttlMillis, long maxTtlMillis, int maxEntries) {
+        this.ttlMillis = Math.max(0L, ttlMillis);
+        this.maxTtlMillis = Math.max(this.ttlMillis, maxTtlMillis);
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Checks if a lookup should be skipped because it failed recently.
+     * @param key The lookup key.
+     * @param now The current time in milliseconds.
+     * @return True if the key is suppressed; otherwise false.
+     */
+    public boolean isSuppressed(@NotNull Object key, long now) {
+        final Entry entry = entries.get(key);
+        return entry != null && now < entry.expiresAt;
+    }
+
+    /**
+     * Gets the reason of the last failure of a suppressed key.
+     * @param key The lookup key.
+     * @return The failure reason if the key has failed; otherwise null.
+     */
+    @Nullable
+    public String getReason(@NotNull Object key) {
+        final Entry entry = entries.get(key);
+        return entry != null ? entry.reason : null;
+    }
+
+    /**
+     * Records a failed or empty lookup and suppresses the key for a time that grows with each consecutive failure.
+     * @param key The lookup key.
+     * @param reason A short description of the failure.
+     * @param now The current time in milliseconds.
+     * @return The time the key is suppressed for, in milliseconds.
+     */
+    public long recordFailure(@NotNull Object key, @NotNull String reason, long now) {
+        if (entries.size() >= maxEntries) {
+            purge(now);
+        }
+
+        while (true) {
+            final Entry previous = entries.get(key);
+            final int failures = previous != null && now - previous.expiresAt < maxTtlMillis ? previous.failures + 1 : 1;
+            final long ttl = getTtl(failures);
+            final Entry entry = new Entry(failures, now + ttl, reason);
+
+            if (previous == null ? entries.putIfAbsent(key, entry) == null : entries.replace(key, previous, entry)) {
+                return ttl;
+            }
+        }
+    }
+
+    /**
+     * Records a successful lookup, which ends any backoff of the key.
+     * @param key The lookup key.
+     */
+    public void recordSuccess(@NotNull Object key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Gets the number of keys that have failed recently.
+     * @return The key count.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Forgets all failures.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Gets the time to live after a number of consecutive failures.
+     * @param failures The consecutive failure count.
+     * @return The time to live in milliseconds.
+     */
+    private long getTtl(int failures) {
+        long ttl = ttlMillis;
+        for (int i = 1; i < failures && ttl < maxTtlMillis; i++) {
+            ttl *= 2;
+        }
+
+        return Math.min(ttl, maxTtlMillis);
+    }
+
+    /**
+     * Removes the keys whose suppression has expired, or all keys if that does not bring the cache under its limit.
+     * @param now The current time in milliseconds.
+     */
+    private void purge(long now) {
+        for (Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+            if (now >= iterator.next().getValue().expiresAt) {
+                iterator.remove();
+            }
+        }
+
+        if (entries.size() >= maxEntries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * The failure state of a single key.
+     */
+    private static class Entry {
+
+        final int failures;
+        final long expiresAt;
+        final String reason;
+
+        Entry(int failures, long expiresAt, @NotNull String reason) {
+            this.failures = failures;
+            this.expiresAt = expiresAt;
+            this.reason = reason;
+        }
+    }
+}
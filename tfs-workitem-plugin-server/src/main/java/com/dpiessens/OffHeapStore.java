@@ -0,0 +1,334 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A key value store kept in a direct byte buffer outside of the Java heap.
+ * Records are appended to the buffer and found through an open addressing index of key hashes, so the store
+ * adds only two int arrays to the heap no matter how many entries it holds. When the buffer is full the live
+ * records are moved to its start, and if that does not free enough space the oldest records are dropped.
+ * The store is not thread safe.
+ */
+class OffHeapStore {
+
+    private static final String CHARSET = "UTF-8";
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+    private static final int MIN_SLOTS = 16;
+
+    private final ByteBuffer arena;
+
+    // Each slot holds the record offset plus one, so zero marks a free slot
+    private int[] hashes;
+    private int[] offsets;
+    private int size;
+    private int deleted;
+
+    private int writePosition;
+    private long liveBytes;
+
+    /**
+     * Creates a new instance of the OffHeapStore class.
+     * @param capacity The size of the buffer in bytes.
+     * @throws OutOfMemoryError Thrown if the direct memory limit of the JVM does not allow the buffer.
+     */
+    OffHeapStore(int capacity) {
+        this.arena = ByteBuffer.allocateDirect(capacity);
+        clear();
+    }
+
+    /**
+     * Gets a value.
+     * @param key The key.
+     * @return The value if present; otherwise null.
+     */
+    @Nullable
+    byte[] get(@NotNull String key) {
+        final byte[] keyBytes = encode(key);
+        final int slot = find(keyBytes, hash(keyBytes));
+        if (slot < 0) {
+            return null;
+        }
+
+        final int offset = offsets[slot] - 1;
+        final int valueLength = arena.getInt(offset + 4 + keyBytes.length);
+        final byte[] value = new byte[valueLength];
+
+        final ByteBuffer reader = arena.duplicate();
+        reader.position(offset + 8 + keyBytes.length);
+        reader.get(value);
+        return value;
+    }
+
+    /**
+     * Checks if a key is in the store.
+     * @param key The key.
+     * @return True if the key has a value; otherwise false.
+     */
+    boolean contains(@NotNull String key) {
+        final byte[] keyBytes = encode(key);
+        return find(keyBytes, hash(keyBytes)) >= 0;
+    }
+
+    /**
+     * Stores a value, replacing any previous value of the key. Old records are dropped to make room.
+     * @param key The key.
+     * @param value The value.
+     * @return True if the value was stored; false if it is larger than the whole buffer.
+     */
+    boolean put(@NotNull String key, @NotNull byte[] value) {
+        final byte[] keyBytes = encode(key);
+        final int recordLength = 8 + keyBytes.length + value.length;
+        if (recordLength > arena.capacity()) {
+            return false;
+        }
+
+        remove(keyBytes, hash(keyBytes));
+        if (arena.capacity() - writePosition < recordLength) {
+            makeRoom(recordLength);
+        }
+
+        final int offset = writePosition;
+        final ByteBuffer writer = arena.duplicate();
+        writer.position(offset);
+        writer.putInt(keyBytes.length);
+        writer.put(keyBytes);
+        writer.putInt(value.length);
+        writer.put(value);
+        writePosition += recordLength;
+        liveBytes += recordLength;
+
+        insert(hash(keyBytes), offset);
+        return true;
+    }
+
+    /**
+     * Removes a value.
+     * @param key The key.
+     * @return True if the key was in the store; otherwise false.
+     */
+    boolean remove(@NotNull String key) {
+        final byte[] keyBytes = encode(key);
+        return remove(keyBytes, hash(keyBytes));
+    }
+
+    /**
+     * Removes all values.
+     */
+    void clear() {
+        hashes = new int[MIN_SLOTS];
+        offsets = new int[MIN_SLOTS];
+        size = 0;
+        deleted = 0;
+        writePosition = 0;
+        liveBytes = 0L;
+    }
+
+    /**
+     * Gets the number of keys in the store.
+     * @return The key count.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the bytes used by live records.
+     * @return The used size in bytes.
+     */
+    long getUsedBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Gets the size of the buffer.
+     * @return The capacity in bytes.
+     */
+    int getCapacity() {
+        return arena.capacity();
+    }
+
+    private boolean remove(@NotNull byte[] keyBytes, int hash) {
+        final int slot = find(keyBytes, hash);
+        if (slot < 0) {
+            return false;
+        }
+
+        liveBytes -= getRecordLength(offsets[slot] - 1);
+        offsets[slot] = DELETED;
+        size--;
+        deleted++;
+        return true;
+    }
+
+    /**
+     * Finds the slot of a key.
+     * @return The slot, or -1 if the key is not in the store.
+     */
+    private int find(@NotNull byte[] keyBytes, int hash) {
+        final int mask = offsets.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            final int offset = offsets[slot];
+            if (offset == EMPTY) {
+                return -1;
+            }
+
+            if (offset != DELETED && hashes[slot] == hash && keyEquals(offset - 1, keyBytes)) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(int hash, int offset) {
+        if ((size + deleted + 1) * 2 > offsets.length) {
+            rehash(size + 1);
+        }
+
+        final int mask = offsets.length - 1;
+        int slot = hash & mask;
+        while (offsets[slot] != EMPTY && offsets[slot] != DELETED) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (offsets[slot] == DELETED) {
+            deleted--;
+        }
+
+        hashes[slot] = hash;
+        offsets[slot] = offset + 1;
+        size++;
+    }
+
+    /**
+     * Rebuilds the index with room for a number of keys, dropping deleted slots.
+     */
+    private void rehash(int keys) {
+        int slots = MIN_SLOTS;
+        while (slots < keys * 4) {
+            slots <<= 1;
+        }
+
+        final int[] oldHashes = hashes;
+        final int[] oldOffsets = offsets;
+        hashes = new int[slots];
+        offsets = new int[slots];
+        deleted = 0;
+
+        final int mask = slots - 1;
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] != EMPTY && oldOffsets[i] != DELETED) {
+                int slot = oldHashes[i] & mask;
+                while (offsets[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+
+                hashes[slot] = oldHashes[i];
+                offsets[slot] = oldOffsets[i];
+            }
+        }
+    }
+
+    /**
+     * Moves the live records to the start of the buffer, oldest first, and drops the oldest ones until a record
+     * of the given length fits.
+     */
+    private void makeRoom(int recordLength) {
+        final List<int[]> records = new ArrayList<int[]>(size);
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] != EMPTY && offsets[i] != DELETED) {
+                records.add(new int[] { offsets[i] - 1, hashes[i] });
+            }
+        }
+
+        Collections.sort(records, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+
+        long remaining = liveBytes;
+        int first = 0;
+        while (first < records.size() && arena.capacity() - remaining < recordLength) {
+            remaining -= getRecordLength(records.get(first)[0]);
+            first++;
+        }
+
+        hashes = new int[MIN_SLOTS];
+        offsets = new int[MIN_SLOTS];
+        size = 0;
+        deleted = 0;
+        liveBytes = 0L;
+
+        int position = 0;
+        final ByteBuffer reader = arena.duplicate();
+        final ByteBuffer writer = arena.duplicate();
+        byte[] buffer = new byte[0];
+
+        for (int i = first; i < records.size(); i++) {
+            final int offset = records.get(i)[0];
+            final int length = getRecordLength(offset);
+            if (offset != position) {
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+
+                reader.limit(offset + length).position(offset);
+                reader.get(buffer, 0, length);
+                writer.position(position);
+                writer.put(buffer, 0, length);
+            }
+
+            liveBytes += length;
+            insert(records.get(i)[1], position);
+            position += length;
+        }
+
+        writePosition = position;
+    }
+
+    private int getRecordLength(int offset) {
+        final int keyLength = arena.getInt(offset);
+        return 8 + keyLength + arena.getInt(offset + 4 + keyLength);
+    }
+
+    private boolean keyEquals(int offset, @NotNull byte[] keyBytes) {
+        if (arena.getInt(offset) != keyBytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (arena.get(offset + 4 + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int hash(@NotNull byte[] keyBytes) {
+        int hash = 0x811C9DC5;
+        for (byte b : keyBytes) {
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        }
+
+        return hash;
+    }
+
+    @NotNull
+    private static byte[] encode(@NotNull String key) {
+        try {
+            return key.getBytes(CHARSET);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls for the same key so that only one of them does the work.
+ * Callers that arrive while a call is in flight wait for it and share its result or failure.
+ * @param <K> The key type.
+ * @param <V> The result type.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Runs the loader for the key unless a call for the same key is already in flight, in which case
+     * the result of that call is returned.
+     * @param key The key that identifies identical calls.
+     * @param loader The function that does the actual work.
+     * @return The result of the call.
+     * @throws Exception Thrown if the call failed.
+     */
+    public V execute(@NotNull K key, @NotNull Callable<V> loader) throws Exception {
+        final FutureTask<V> task = new FutureTask<V>(loader);
+        final FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return await(existing);
+        }
+
+        executedCount.incrementAndGet();
+
+        try {
+            task.run();
+            return await(task);
+        }
+        finally {
+            inFlight.remove(key, task);
+        }
+    }
+
+    /**
+     * Gets the number of calls that did the actual work.
+     * @return The executed call count.
+     */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * Gets the number of calls that waited on another in-flight call instead of doing the work.
+     * @return The coalesced call count.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Gets the number of calls currently in flight.
+     * @return The in-flight call count.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Waits for the task and unwraps its failure.
+     * @param task The task to wait for.
+     * @return The result of the task.
+     * @throws Exception Thrown if the task failed.
+     */
+    private V await(@NotNull FutureTask<V> task) throws Exception {
+        try {
+            return task.get();
+        }
+        catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded pool of shared string instances.
+ * Work item states, types and URL prefixes repeat across millions of cached work items, so every item points
+ * at the same instance instead of holding its own copy. Once the pool is full new values are no longer shared,
+ * which keeps a field with unexpectedly many distinct values from growing the pool without bound.
+ */
+class StringDictionary {
+
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+    private final int maxEntries;
+
+    /**
+     * Creates a new instance of the StringDictionary class.
+     * @param maxEntries The number of distinct values the dictionary shares.
+     */
+    StringDictionary(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Gets the shared instance of a value.
+     * @param value The value.
+     * @return The shared instance, or the value itself if the dictionary is full.
+     */
+    @Nullable
+    String intern(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+
+        final String shared = values.get(value);
+        if (shared != null) {
+            return shared;
+        }
+
+        if (values.size() >= maxEntries) {
+            return value;
+        }
+
+        final String previous = values.putIfAbsent(value, value);
+        return previous != null ? previous : value;
+    }
+
+    /**
+     * Gets the number of shared values.
+     * @return The value count.
+     */
+    int size() {
+        return values.size();
+    }
+}
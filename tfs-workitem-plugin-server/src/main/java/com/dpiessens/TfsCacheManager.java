@@ -0,0 +1,138 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the memory budgeted caches of the plugin and keeps track of them for diagnostics.
+ * Caches are looked up by name, so every caller asking for the same name shares one cache, and they stay open
+ * until the manager is disposed when the server stops. Overflow files are kept in the plugin data directory; they only hold evicted cache entries, so they are
+ * deleted when a cache opens them and when the server stops.
+ */
+public class TfsCacheManager {
+
+    static final String MAX_OVERFLOW_MEGABYTES_PROPERTY = "teamcity.tfs.workitems.cache.overflowMaxMegabytes";
+
+    private final File overflowDirectory;
+    private final long maxOverflowBytes;
+    private final AtomicInteger overflowFileCount = new AtomicInteger();
+    private final Map<String, WeightedCache> caches = new LinkedHashMap<String, WeightedCache>();
+
+    /**
+     * Creates a cache manager whose caches cannot overflow to disk.
+     */
+    public TfsCacheManager() {
+        this((File) null);
+    }
+
+    /**
+     * Creates a cache manager that keeps overflow files in the plugin data directory.
+     * @param serverPaths The server paths.
+     */
+    public TfsCacheManager(@NotNull ServerPaths serverPaths) {
+        this(new File(new File(serverPaths.getPluginDataDirectory(), "tfs-workitems"), "overflow"));
+    }
+
+    /**
+     * Creates a new instance of the TfsCacheManager class.
+     * @param overflowDirectory The directory of the overflow files, or null if caches cannot overflow to disk.
+     */
+    TfsCacheManager(@Nullable File overflowDirectory) {
+        this.overflowDirectory = overflowDirectory;
+        this.maxOverflowBytes = TeamCityProperties.getInteger(MAX_OVERFLOW_MEGABYTES_PROPERTY, 256) * 1024L * 1024L;
+        deleteOverflowFiles();
+    }
+
+    /**
+     * Gets the cache with a name, creating it on first use. The settings only apply to a new cache; callers that
+     * change them later use {@link WeightedCache#configure(CacheSettings)}.
+     * @param name The cache name, used in diagnostics.
+     * @param settings The memory budget, time to live, off-heap tier and disk overflow of the cache.
+     * @return The cache.
+     */
+    @NotNull
+    public synchronized WeightedCache getCache(@NotNull String name, @NotNull CacheSettings settings) {
+        WeightedCache cache = caches.get(name);
+        if (cache != null) {
+            return cache;
+        }
+
+        final File overflowFile = overflowDirectory != null
+                ? new File(overflowDirectory, "cache-" + overflowFileCount.incrementAndGet() + ".log")
+                : null;
+
+        cache = new WeightedCache(name, settings, overflowFile, maxOverflowBytes);
+        caches.put(name, cache);
+        return cache;
+    }
+
+    /**
+     * Gets the caches created so far.
+     * @return A snapshot of the caches.
+     */
+    @NotNull
+    public synchronized Collection<WeightedCache> getCaches() {
+        return new ArrayList<WeightedCache>(caches.values());
+    }
+
+    /**
+     * Gets the estimated heap used by all caches.
+     * @return The size in bytes.
+     */
+    public long getTotalWeight() {
+        long weight = 0L;
+        for (WeightedCache cache : getCaches()) {
+            weight += cache.getWeight();
+        }
+
+        return weight;
+    }
+
+    /**
+     * Gets the direct memory used by the off-heap tiers of all caches.
+     * @return The size in bytes.
+     */
+    public long getTotalOffHeapBytes() {
+        long bytes = 0L;
+        for (WeightedCache cache : getCaches()) {
+            bytes += cache.getOffHeapBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Empties all caches and deletes their overflow files.
+     */
+    public void dispose() {
+        final Collection<WeightedCache> disposed;
+        synchronized (this) {
+            disposed = new ArrayList<WeightedCache>(caches.values());
+            caches.clear();
+        }
+
+        for (WeightedCache cache : disposed) {
+            cache.dispose();
+        }
+
+        deleteOverflowFiles();
+    }
+
+    private void deleteOverflowFiles() {
+        final File[] files = overflowDirectory != null ? overflowDirectory.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
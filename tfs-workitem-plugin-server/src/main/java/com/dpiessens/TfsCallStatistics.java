@@ -0,0 +1,123 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latency histograms of one data provider method on one TFS collection, for the whole call and for each of
+ * its phases.
+ */
+public class TfsCallStatistics {
+
+    private final String host;
+    private final String method;
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram[] phases = new LatencyHistogram[TfsCallTimer.Phase.values().length];
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong slowCount = new AtomicLong();
+
+    /**
+     * Creates a new instance of the TfsCallStatistics class.
+     * @param host The TFS collection URL.
+     * @param method The data provider method.
+     */
+    public TfsCallStatistics(@NotNull String host, @NotNull String method) {
+        this.host = host;
+        this.method = method;
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records a call.
+     * @param timer The timer of the call.
+     * @param failed True if the call failed; otherwise false.
+     * @param slow True if the call was slower than the slow call threshold; otherwise false.
+     */
+    void record(@NotNull TfsCallTimer timer, boolean failed, boolean slow) {
+        total.record(timer.getTotalMillis());
+        for (TfsCallTimer.Phase phase : TfsCallTimer.Phase.values()) {
+            phases[phase.ordinal()].record(timer.getMillis(phase));
+        }
+
+        if (failed) {
+            failureCount.incrementAndGet();
+        }
+
+        if (slow) {
+            slowCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the TFS collection URL.
+     * @return The URL.
+     */
+    @NotNull
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Gets the data provider method.
+     * @return The method name.
+     */
+    @NotNull
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Gets the latencies of the whole calls.
+     * @return The histogram.
+     */
+    @NotNull
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets the time spent waiting for a connection.
+     * @return The histogram.
+     */
+    @NotNull
+    public LatencyHistogram getConnect() {
+        return phases[TfsCallTimer.Phase.CONNECT.ordinal()];
+    }
+
+    /**
+     * Gets the time spent in TFS requests.
+     * @return The histogram.
+     */
+    @NotNull
+    public LatencyHistogram getQuery() {
+        return phases[TfsCallTimer.Phase.QUERY.ordinal()];
+    }
+
+    /**
+     * Gets the time spent converting work items.
+     * @return The histogram.
+     */
+    @NotNull
+    public LatencyHistogram getConvert() {
+        return phases[TfsCallTimer.Phase.CONVERT.ordinal()];
+    }
+
+    /**
+     * Gets the number of calls that failed.
+     * @return The failure count.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Gets the number of calls that were slower than the slow call threshold.
+     * @return The slow call count.
+     */
+    public long getSlowCount() {
+        return slowCount.get();
+    }
+}
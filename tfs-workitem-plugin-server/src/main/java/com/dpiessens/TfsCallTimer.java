@@ -0,0 +1,98 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Splits the time of a TFS call into the phases it spends connecting, querying and converting work items.
+ * The data provider marks the start of each phase; while no timer was started on the thread, marking a phase
+ * does nothing, so the provider can mark phases whether its calls are timed or not.
+ */
+final class TfsCallTimer {
+
+    /**
+     * The phases of a TFS call.
+     */
+    enum Phase {
+        CONNECT,
+        QUERY,
+        CONVERT
+    }
+
+    private static final ThreadLocal<TfsCallTimer> CURRENT = new ThreadLocal<TfsCallTimer>();
+
+    private final TfsCallTimer outer;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final long startNanos;
+    private long stopNanos;
+    private Phase phase;
+    private long phaseStartNanos;
+
+    private TfsCallTimer(@Nullable TfsCallTimer outer, long now) {
+        this.outer = outer;
+        this.startNanos = now;
+    }
+
+    /**
+     * Starts timing a call on the current thread.
+     * @return The timer, which must be stopped on the same thread.
+     */
+    @NotNull
+    static TfsCallTimer start() {
+        final TfsCallTimer timer = new TfsCallTimer(CURRENT.get(), System.nanoTime());
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    /**
+     * Marks the start of a phase of the call timed on the current thread.
+     * @param phase The phase.
+     */
+    static void enter(@NotNull Phase phase) {
+        final TfsCallTimer timer = CURRENT.get();
+        if (timer != null) {
+            timer.switchTo(phase, System.nanoTime());
+        }
+    }
+
+    /**
+     * Stops timing the call.
+     */
+    void stop() {
+        final long now = System.nanoTime();
+        switchTo(null, now);
+        stopNanos = now;
+
+        if (outer != null) {
+            CURRENT.set(outer);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Gets the time of the whole call.
+     * @return The time in milliseconds.
+     */
+    long getTotalMillis() {
+        return (stopNanos - startNanos) / 1000000L;
+    }
+
+    /**
+     * Gets the time spent in a phase.
+     * @param phase The phase.
+     * @return The time in milliseconds.
+     */
+    long getMillis(@NotNull Phase phase) {
+        return phaseNanos[phase.ordinal()] / 1000000L;
+    }
+
+    private void switchTo(@Nullable Phase next, long now) {
+        if (phase != null) {
+            phaseNanos[phase.ordinal()] += now - phaseStartNanos;
+        }
+
+        phase = next;
+        phaseStartNanos = now;
+    }
+}
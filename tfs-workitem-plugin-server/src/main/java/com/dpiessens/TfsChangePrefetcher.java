@@ -0,0 +1,237 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.vcs.VcsModification;
+import jetbrains.buildServer.vcs.VcsRoot;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the related issues of new TFS changesets as soon as the server detects them, so the change and build
+ * pages are served from the caches instead of waiting on TFS.
+ * Changesets are queued per VCS root and read in batches shortly after they arrive, which fills both the issue
+ * mention cache and the issue cache of the fetcher.
+ */
+public class TfsChangePrefetcher extends BuildServerAdapter {
+
+    private static final Logger LOG = Logger.getInstance(TfsChangePrefetcher.class.getName());
+
+    static final String ENABLED_PROPERTY = "teamcity.tfs.workitems.prefetch.enabled";
+    static final String DELAY_PROPERTY = "teamcity.tfs.workitems.prefetch.delayMillis";
+    static final String MAX_QUEUED_PROPERTY = "teamcity.tfs.workitems.prefetch.maxQueued";
+
+    private final EventDispatcher<BuildServerListener> events;
+    private final TfsIssueProviderFactory providerFactory;
+    private final boolean enabled;
+    private final long delayMillis;
+    private final int maxQueued;
+    private final ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+    private Map<Long, PendingRoot> pending = new LinkedHashMap<Long, PendingRoot>();
+    private int queuedCount = 0;
+    private boolean drainScheduled = false;
+
+    private final AtomicLong prefetchedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    public TfsChangePrefetcher(EventDispatcher<BuildServerListener> events, TfsIssueProviderFactory providerFactory) {
+        this(events, providerFactory,
+                TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY),
+                TeamCityProperties.getInteger(DELAY_PROPERTY, 2000),
+                TeamCityProperties.getInteger(MAX_QUEUED_PROPERTY, 10000));
+    }
+
+    TfsChangePrefetcher(EventDispatcher<BuildServerListener> events, TfsIssueProviderFactory providerFactory,
+                        boolean enabled, long delayMillis, int maxQueued) {
+        this.events = events;
+        this.providerFactory = providerFactory;
+        this.enabled = enabled;
+        this.delayMillis = Math.max(0L, delayMillis);
+        this.maxQueued = Math.max(1, maxQueued);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("TFS issue prefetch"));
+    }
+
+    /**
+     * Registers the prefetcher with the server events.
+     */
+    public void register() {
+        if (!enabled) {
+            LOG.info("Prefetching of TFS work item links is disabled");
+            return;
+        }
+
+        LOG.info("Registering TFS work item link prefetcher with server events");
+        this.events.addListener(this);
+    }
+
+    /**
+     * Called when the server detects a new modification in a VCS root.
+     * @param modification The new modification.
+     * @param root The VCS root of the modification.
+     * @param buildTypes The build configurations affected by the modification.
+     */
+    @Override
+    public void changeAdded(@NotNull VcsModification modification, @NotNull VcsRoot root, @Nullable Collection<SBuildType> buildTypes) {
+        if (!enabled || modification.isPersonal() || !"tfs".equalsIgnoreCase(root.getVcsName())) {
+            return;
+        }
+
+        final int revision;
+        try {
+            revision = Integer.parseInt(modification.getVersion());
+        }
+        catch (NumberFormatException ex) {
+            LOG.debug("Revision number could not be parsed: " + modification.getVersion());
+            return;
+        }
+
+        if (revision > 0) {
+            enqueue(root, revision);
+        }
+    }
+
+    @Override
+    public void serverShutdown() {
+        dispose();
+    }
+
+    /**
+     * Stops the background prefetching and drops any queued changesets.
+     */
+    public void dispose() {
+        executor.shutdownNow();
+        synchronized (lock) {
+            pending = new LinkedHashMap<Long, PendingRoot>();
+            queuedCount = 0;
+        }
+    }
+
+    /**
+     * Gets the number of changesets whose related issues were read ahead of time.
+     * @return The prefetched changeset count.
+     */
+    public long getPrefetchedCount() {
+        return prefetchedCount.get();
+    }
+
+    /**
+     * Gets the number of changesets that were not queued because the queue was full.
+     * @return The dropped changeset count.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets the number of changesets waiting to be prefetched.
+     * @return The queued changeset count.
+     */
+    public int getQueuedCount() {
+        synchronized (lock) {
+            return queuedCount;
+        }
+    }
+
+    /**
+     * Queues a changeset and schedules a drain if none is pending, so changesets that arrive together are read
+     * in the same batch.
+     * @param root The VCS root of the changeset.
+     * @param revision The changeset number.
+     */
+    private void enqueue(@NotNull VcsRoot root, int revision) {
+        synchronized (lock) {
+            if (queuedCount >= maxQueued) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+
+            PendingRoot pendingRoot = pending.get(root.getId());
+            if (pendingRoot == null) {
+                pendingRoot = new PendingRoot(root);
+                pending.put(root.getId(), pendingRoot);
+            }
+
+            if (pendingRoot.revisions.add(revision)) {
+                queuedCount++;
+            }
+
+            if (drainScheduled) {
+                return;
+            }
+
+            try {
+                executor.schedule(new Runnable() {
+                    public void run() {
+                        drain();
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+                drainScheduled = true;
+            }
+            catch (RejectedExecutionException e) {
+                LOG.debug("TFS issue prefetch is shut down, changeset " + revision + " will be resolved on demand");
+            }
+        }
+    }
+
+    /**
+     * Reads the related issues of all queued changesets, one batch per VCS root and provider.
+     */
+    void drain() {
+        final Map<Long, PendingRoot> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = new LinkedHashMap<Long, PendingRoot>();
+            queuedCount = 0;
+            drainScheduled = false;
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final Collection<TfsIssueProvider> providers = providerFactory.getProviders();
+
+        for (PendingRoot pendingRoot : batch.values()) {
+            for (TfsIssueProvider provider : providers) {
+                try {
+                    if (provider.isProviderFor(pendingRoot.root)) {
+                        prefetchedCount.addAndGet(provider.prefetchRelatedIssues(pendingRoot.revisions, pendingRoot.root));
+                    }
+                }
+                catch (Exception e) {
+                    LOG.warn("Failed to prefetch TFS work item links for " + pendingRoot.revisions.size() + " changesets", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The changesets queued for a single VCS root.
+     */
+    private static class PendingRoot {
+
+        final VcsRoot root;
+        final Set<Integer> revisions = new LinkedHashSet<Integer>();
+
+        PendingRoot(@NotNull VcsRoot root) {
+            this.root = root;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A circuit breaker for a single TFS host.
+ * The breaker trips when the failure rate over the most recent calls crosses a threshold, where calls slower
+ * than the latency threshold count as failures. While open, calls fail fast. Once the open period has passed a
+ * single probe call is let through; its outcome closes the breaker or opens it again.
+ */
+public class TfsCircuitBreaker {
+
+    private static final Logger LOG = Logger.getInstance(TfsCircuitBreaker.class.getName());
+
+    /**
+     * The state of the breaker.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String host;
+    private final int failureRatePercent;
+    private final int minimumCalls;
+    private final long slowCallMillis;
+    private final long openMillis;
+
+    private final boolean[] failures;
+    private int position;
+    private int recorded;
+    private int failureCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long tripCount;
+    private long rejectedCount;
+    private String lastFailure;
+
+    /**
+     * Creates a new instance of the TfsCircuitBreaker class.
+     * @param host The TFS host the breaker protects.
+     * @param failureRatePercent The failure rate, in percent, at which the breaker trips.
+     * @param minimumCalls The number of recent calls the failure rate is measured over.
+     * @param slowCallMillis The latency above which a successful call counts as a failure.
+     * @param openMillis The time the breaker stays open before a probe call is allowed.
+     */
+    public TfsCircuitBreaker(@NotNull String host, int failureRatePercent, int minimumCalls, long slowCallMillis, long openMillis) {
+        this.host = host;
+        this.failureRatePercent = failureRatePercent;
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+        this.failures = new boolean[this.minimumCalls];
+    }
+
+    /**
+     * Checks if a call may go to the server.
+     * @param now The current time in milliseconds.
+     * @return True if the call is allowed; otherwise false.
+     */
+    public synchronized boolean tryAcquire(long now) {
+        if (state == State.OPEN && now - openedAt >= openMillis) {
+            LOG.info(String.format("Circuit breaker for %s is half open, probing the server", host));
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+
+        rejectedCount++;
+        return false;
+    }
+
+    /**
+     * Records a call that reached the server.
+     * @param latencyMillis The time the call took.
+     * @param now The current time in milliseconds.
+     */
+    public synchronized void onSuccess(long latencyMillis, long now) {
+        if (latencyMillis > slowCallMillis) {
+            onFailure(String.format("Call took %d ms", latencyMillis), now);
+            return;
+        }
+
+        if (state == State.HALF_OPEN) {
+            LOG.info(String.format("Circuit breaker for %s closed, the server is responding again", host));
+            state = State.CLOSED;
+            probeInFlight = false;
+            resetWindow();
+        }
+
+        record(false);
+    }
+
+    /**
+     * Records a failed call.
+     * @param reason The reason the call failed.
+     * @param now The current time in milliseconds.
+     */
+    public synchronized void onFailure(@NotNull String reason, long now) {
+        lastFailure = reason;
+
+        if (state == State.HALF_OPEN) {
+            LOG.warn(String.format("Circuit breaker for %s re-opened, probe failed: %s", host, reason));
+            open(now);
+            return;
+        }
+
+        record(true);
+
+        if (state == State.CLOSED && recorded >= minimumCalls && failureCount * 100 >= failureRatePercent * recorded) {
+            LOG.warn(String.format("Circuit breaker for %s opened after %d of the last %d calls failed; last failure: %s",
+                    host, failureCount, recorded, reason));
+            open(now);
+        }
+    }
+
+    /**
+     * Gets the host the breaker protects.
+     * @return The TFS host.
+     */
+    @NotNull
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Gets the current state of the breaker.
+     * @return The breaker state.
+     */
+    @NotNull
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the failure rate over the recent calls.
+     * @return The failure rate in percent.
+     */
+    public synchronized int getFailureRatePercent() {
+        return recorded == 0 ? 0 : failureCount * 100 / recorded;
+    }
+
+    /**
+     * Gets the number of times the breaker has tripped.
+     * @return The trip count.
+     */
+    public synchronized long getTripCount() {
+        return tripCount;
+    }
+
+    /**
+     * Gets the number of calls rejected without contacting the server.
+     * @return The rejected call count.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Gets the time the breaker last opened.
+     * @return The time in milliseconds, or 0 if it never opened.
+     */
+    public synchronized long getOpenedAt() {
+        return openedAt;
+    }
+
+    /**
+     * Gets the reason of the most recent failure.
+     * @return The failure reason, if any.
+     */
+    @Nullable
+    public synchronized String getLastFailure() {
+        return lastFailure;
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        probeInFlight = false;
+        tripCount++;
+        resetWindow();
+    }
+
+    private void record(boolean failed) {
+        if (recorded == failures.length) {
+            if (failures[position]) {
+                failureCount--;
+            }
+        } else {
+            recorded++;
+        }
+
+        failures[position] = failed;
+        if (failed) {
+            failureCount++;
+        }
+
+        position = (position + 1) % failures.length;
+    }
+
+    private void resetWindow() {
+        position = 0;
+        recorded = 0;
+        failureCount = 0;
+    }
+}
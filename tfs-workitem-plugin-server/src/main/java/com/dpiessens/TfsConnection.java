@@ -0,0 +1,135 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoft.tfs.core.TFSTeamProjectCollection;
+import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
+import com.microsoft.tfs.core.clients.workitem.WorkItemClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * A shared connection to a TFS team project collection handed out by the {@link TfsConnectionPool}.
+ * The collection and its clients are thread safe, so a single connection may be leased by many callers at once.
+ */
+public class TfsConnection {
+
+    private static final Logger LOG = Logger.getInstance(TfsConnection.class.getName());
+
+    private final String key;
+    private final String host;
+    private final byte[] credentialsFingerprint;
+    private final TFSTeamProjectCollection collection;
+
+    private WorkItemClient workItemClient;
+    private VersionControlClient versionControlClient;
+
+    // The following fields are guarded by the owning pool
+    int leases;
+    long lastUsed;
+    boolean retired;
+    boolean pooled;
+
+    /**
+     * Creates a new instance of the TfsConnection class.
+     * @param key The pool key of the connection.
+     * @param host The normalized TFS host URL.
+     * @param credentialsFingerprint A digest of the credentials used to open the connection.
+     * @param collection The team project collection.
+     */
+    TfsConnection(@NotNull String key, @NotNull String host, @NotNull byte[] credentialsFingerprint,
+                  @NotNull TFSTeamProjectCollection collection) {
+        this.key = key;
+        this.host = host;
+        this.credentialsFingerprint = credentialsFingerprint;
+        this.collection = collection;
+    }
+
+    /**
+     * Gets the pool key of the connection.
+     * @return The pool key.
+     */
+    @NotNull
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the normalized host the connection points to.
+     * @return The normalized TFS host URL.
+     */
+    @NotNull
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Gets the shared team project collection.
+     * @return The team project collection.
+     */
+    @NotNull
+    public TFSTeamProjectCollection getCollection() {
+        return collection;
+    }
+
+    /**
+     * Gets the shared work item client, creating it on first use.
+     * @return The work item client.
+     */
+    @NotNull
+    public synchronized WorkItemClient getWorkItemClient() {
+        if (workItemClient == null) {
+            workItemClient = collection.getWorkItemClient();
+        }
+
+        return workItemClient;
+    }
+
+    /**
+     * Gets the shared version control client, creating it on first use.
+     * @return The version control client.
+     */
+    @NotNull
+    public synchronized VersionControlClient getVersionControlClient() {
+        if (versionControlClient == null) {
+            versionControlClient = collection.getVersionControlClient();
+        }
+
+        return versionControlClient;
+    }
+
+    /**
+     * Checks if the connection was opened with the given credentials.
+     * @param fingerprint The credential fingerprint to compare.
+     * @return True if the credentials match; otherwise false.
+     */
+    boolean hasCredentials(@NotNull byte[] fingerprint) {
+        return Arrays.equals(credentialsFingerprint, fingerprint);
+    }
+
+    /**
+     * Closes the clients and the underlying collection.
+     */
+    synchronized void close() {
+        LOG.debug(String.format("Closing TFS connection to %s", host));
+
+        try {
+            if (workItemClient != null) {
+                workItemClient.close();
+            }
+
+            if (versionControlClient != null) {
+                versionControlClient.close();
+            }
+
+            collection.close();
+        }
+        catch (RuntimeException e) {
+            LOG.warn("Failed to close TFS connection to " + host + ": " + e);
+        }
+        finally {
+            workItemClient = null;
+            versionControlClient = null;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoft.tfs.core.TFSTeamProjectCollection;
+import com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException;
+import com.microsoft.tfs.core.util.CredentialsUtils;
+import com.microsoft.tfs.core.util.URIUtils;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A pool of shared TFS team project collection connections keyed by host and credential identity.
+ * Connections stay open between lookups so that each call does not pay for a new connect, NTLM handshake and
+ * location service round trip. The collection is thread safe, so each identity holds exactly one connection to a
+ * host that all of its concurrent calls share; the per-host limit caps how many identities keep a pooled connection.
+ */
+public class TfsConnectionPool {
+
+    private static final Logger LOG = Logger.getInstance(TfsConnectionPool.class.getName());
+
+    static final String IDLE_TIMEOUT_PROPERTY = "teamcity.tfs.workitems.connection.idleTimeoutSeconds";
+    static final String MAX_IDENTITIES_PER_HOST_PROPERTY = "teamcity.tfs.workitems.connection.maxIdentitiesPerHost";
+
+    private static final String DEFAULT_IDENTITY = "<default>";
+
+    private final Map<String, TfsConnection> connections = new HashMap<String, TfsConnection>();
+    private final long idleTimeoutMillis;
+    private final int maxIdentitiesPerHost;
+    private final Timer evictionTimer;
+
+    /**
+     * Creates a new instance of the TfsConnectionPool class using the server internal properties.
+     */
+    public TfsConnectionPool() {
+        this(TeamCityProperties.getInteger(IDLE_TIMEOUT_PROPERTY, 600) * 1000L,
+             TeamCityProperties.getInteger(MAX_IDENTITIES_PER_HOST_PROPERTY, 4));
+    }
+
+    /**
+     * Creates a new instance of the TfsConnectionPool class.
+     * @param idleTimeoutMillis The time a connection may stay unused before it is closed.
+     * @param maxIdentitiesPerHost The maximum number of identities that keep a pooled connection to a single host.
+     */
+    TfsConnectionPool(long idleTimeoutMillis, int maxIdentitiesPerHost) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxIdentitiesPerHost = Math.max(1, maxIdentitiesPerHost);
+
+        final long period = Math.max(1000L, idleTimeoutMillis / 2);
+        this.evictionTimer = new Timer("TFS connection pool eviction", true);
+        this.evictionTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                evictIdleConnections(System.currentTimeMillis());
+            }
+        }, period, period);
+    }
+
+    /**
+     * Leases a connection for the host and credentials, opening a new one if none is pooled.
+     * Every leased connection must be handed back with {@link #release(TfsConnection, boolean)}.
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @return The leased connection.
+     * @throws InvalidCredentialsException Thrown if the credentials cannot be used to connect.
+     */
+    @NotNull
+    public TfsConnection acquire(@NotNull String host, @Nullable Credentials credentials) throws InvalidCredentialsException {
+
+        final String normalizedHost = normalizeHost(host);
+        final UsernamePasswordCredentials userPass = (UsernamePasswordCredentials) credentials;
+        final boolean useDefault = userPass == null || userPass.getUserName() == null || userPass.getUserName().isEmpty();
+
+        final String identity = useDefault ? DEFAULT_IDENTITY : userPass.getUserName().toLowerCase();
+        final String key = normalizedHost + "|" + identity;
+        final byte[] fingerprint = useDefault ? new byte[0] : fingerprint(userPass.getUserName(), userPass.getPassword());
+
+        final List<TfsConnection> toClose = new ArrayList<TfsConnection>();
+
+        try {
+            synchronized (this) {
+                TfsConnection connection = connections.get(key);
+                if (connection != null && !connection.hasCredentials(fingerprint)) {
+                    LOG.info(String.format("Credentials for %s on %s changed, invalidating pooled connection", identity, normalizedHost));
+                    retire(connection, toClose);
+                    connection = null;
+                }
+
+                if (connection == null) {
+                    connection = new TfsConnection(key, normalizedHost, fingerprint,
+                            createCollection(URIUtils.newURI(host), createTfsCredentials(host, userPass, useDefault)));
+                    connection.pooled = makeRoomFor(normalizedHost, toClose);
+
+                    if (connection.pooled) {
+                        connections.put(key, connection);
+                    } else {
+                        LOG.debug(String.format("Identity limit of %d reached for %s, using an unpooled connection for %s",
+                                maxIdentitiesPerHost, normalizedHost, identity));
+                    }
+                }
+
+                connection.leases++;
+                connection.lastUsed = System.currentTimeMillis();
+                return connection;
+            }
+        }
+        finally {
+            closeAll(toClose);
+        }
+    }
+
+    /**
+     * Hands a leased connection back to the pool.
+     * @param connection The connection to release.
+     * @param failed True if the call failed in a way that makes the connection unusable.
+     */
+    public void release(@NotNull TfsConnection connection, boolean failed) {
+        final List<TfsConnection> toClose = new ArrayList<TfsConnection>();
+
+        synchronized (this) {
+            connection.leases--;
+            connection.lastUsed = System.currentTimeMillis();
+
+            if (failed && !connection.retired) {
+                LOG.debug(String.format("Invalidating failed TFS connection to %s", connection.getHost()));
+                retire(connection, toClose);
+            } else if ((connection.retired || !connection.pooled) && connection.leases <= 0) {
+                toClose.add(connection);
+            }
+        }
+
+        closeAll(toClose);
+    }
+
+    /**
+     * Invalidates every pooled connection for a host, e.g. when its settings changed.
+     * Connections in use are closed once their last lease is released.
+     * @param host The TFS host URL
+     */
+    public void invalidate(@NotNull String host) {
+        final String normalizedHost = normalizeHost(host);
+        final List<TfsConnection> toClose = new ArrayList<TfsConnection>();
+
+        synchronized (this) {
+            for (TfsConnection connection : new ArrayList<TfsConnection>(connections.values())) {
+                if (connection.getHost().equals(normalizedHost)) {
+                    retire(connection, toClose);
+                }
+            }
+        }
+
+        closeAll(toClose);
+    }
+
+    /**
+     * Gets the number of pooled connections.
+     * @return The pooled connection count.
+     */
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    /**
+     * Closes all pooled connections and stops the eviction timer.
+     */
+    public void dispose() {
+        evictionTimer.cancel();
+
+        final List<TfsConnection> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<TfsConnection>(connections.values());
+            connections.clear();
+        }
+
+        closeAll(toClose);
+    }
+
+    /**
+     * Closes every connection that has been idle for longer than the idle timeout.
+     * @param now The current time in milliseconds.
+     */
+    void evictIdleConnections(long now) {
+        final List<TfsConnection> toClose = new ArrayList<TfsConnection>();
+
+        synchronized (this) {
+            Iterator<TfsConnection> iterator = connections.values().iterator();
+            while (iterator.hasNext()) {
+                TfsConnection connection = iterator.next();
+                if (connection.leases <= 0 && now - connection.lastUsed >= idleTimeoutMillis) {
+                    LOG.debug(String.format("Evicting idle TFS connection to %s", connection.getHost()));
+                    iterator.remove();
+                    connection.retired = true;
+                    toClose.add(connection);
+                }
+            }
+        }
+
+        closeAll(toClose);
+    }
+
+    /**
+     * Creates the team project collection; this does not contact the server until the first request.
+     * @param host The TFS host URI
+     * @param credentials The TFS credentials.
+     * @return The team project collection
+     */
+    @NotNull
+    protected TFSTeamProjectCollection createCollection(@NotNull URI host, @NotNull com.microsoft.tfs.core.httpclient.Credentials credentials) {
+        return new TFSTeamProjectCollection(host, credentials);
+    }
+
+    /**
+     * Normalizes the host so that equivalent URLs share a pool entry.
+     * @param host The TFS host URL
+     * @return The normalized host.
+     */
+    @NotNull
+    static String normalizeHost(@NotNull String host) {
+        String normalized = host.trim().toLowerCase();
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Ensures the host has room for the pooled connection of another identity by evicting the least recently used
+     * idle one. Must be called while holding the pool lock.
+     * @param normalizedHost The normalized host.
+     * @param toClose The list that receives connections to close.
+     * @return True if the new connection can be pooled; otherwise false.
+     */
+    private boolean makeRoomFor(@NotNull String normalizedHost, @NotNull Collection<TfsConnection> toClose) {
+        int count = 0;
+        TfsConnection oldestIdle = null;
+
+        for (TfsConnection connection : connections.values()) {
+            if (!connection.getHost().equals(normalizedHost)) {
+                continue;
+            }
+
+            count++;
+            if (connection.leases <= 0 && (oldestIdle == null || connection.lastUsed < oldestIdle.lastUsed)) {
+                oldestIdle = connection;
+            }
+        }
+
+        if (count < maxIdentitiesPerHost) {
+            return true;
+        }
+
+        if (oldestIdle != null) {
+            retire(oldestIdle, toClose);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes a connection from the pool, scheduling it to be closed once it is no longer leased.
+     * Must be called while holding the pool lock.
+     * @param connection The connection to retire.
+     * @param toClose The list that receives connections to close.
+     */
+    private void retire(@NotNull TfsConnection connection, @NotNull Collection<TfsConnection> toClose) {
+        if (connections.get(connection.getKey()) == connection) {
+            connections.remove(connection.getKey());
+        }
+
+        connection.retired = true;
+        if (connection.leases <= 0) {
+            toClose.add(connection);
+        }
+    }
+
+    /**
+     * Closes the connections outside of the pool lock.
+     * @param toClose The connections to close.
+     */
+    private static void closeAll(@NotNull Collection<TfsConnection> toClose) {
+        for (TfsConnection connection : toClose) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Creates the TFS SDK credentials for the connection.
+     * @param host The TFS host URL
+     * @param userPass The user name and password, if any.
+     * @param useDefault True if the default NT credentials should be used.
+     * @return The TFS credentials.
+     * @throws InvalidCredentialsException Thrown if default credentials are not supported on this platform.
+     */
+    @NotNull
+    private static com.microsoft.tfs.core.httpclient.Credentials createTfsCredentials(@NotNull String host,
+                                                                                     @Nullable UsernamePasswordCredentials userPass,
+                                                                                     boolean useDefault)
+            throws InvalidCredentialsException {
+
+        if (useDefault) {
+            if (CredentialsUtils.supportsDefaultCredentials()) {
+                LOG.debug(String.format("Connecting to host %s with default NT Credentials", host));
+                return new com.microsoft.tfs.core.httpclient.DefaultNTCredentials();
+            }
+
+            throw new InvalidCredentialsException("Native credentials are not supported; please enter a username and password.");
+        }
+
+        LOG.debug(String.format("Connecting to host %s with user: %s", host, userPass.getUserName()));
+        return new com.microsoft.tfs.core.httpclient.UsernamePasswordCredentials(userPass.getUserName(), userPass.getPassword());
+    }
+
+    /**
+     * Creates a digest of the credentials so that changes can be detected without keeping the password around.
+     * @param userName The user name.
+     * @param password The password.
+     * @return The credential fingerprint.
+     */
+    @NotNull
+    private static byte[] fingerprint(@NotNull String userName, @Nullable String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(userName.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            if (password != null) {
+                digest.update(password.getBytes("UTF-8"));
+            }
+
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
 
 /**
  * An interface that represents the connection to TFS.
@@ -26,10 +28,58 @@ public interface TfsDataProvider {
     @NotNull
     Collection<IssueData> getIssuesForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials) throws InvalidCredentialsException;
 
+    /**
+     * Gets the IDs of the work items linked to a specific source control revision without loading the work items.
+     * @param revision The source control revision number
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @throws com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException Thrown if we cannot connect to the server.
+     * @return The IDs of the linked work items.
+     */
+    @NotNull
+    Collection<Integer> getIssueIdsForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException;
+
+    /**
+     * Gets the IDs of the work items linked to a set of source control revisions with a single link lookup.
+     * @param revisions The source control revision numbers
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @throws com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException Thrown if we cannot connect to the server.
+     * @return The IDs of the linked work items keyed by revision, with an entry for every requested revision.
+     */
+    @NotNull
+    Map<Integer, Collection<Integer>> getIssueIdsForVersions(@NotNull Collection<Integer> revisions, @NotNull String host,
+                                                             @Nullable Credentials credentials) throws InvalidCredentialsException;
+
+    /**
+     * Gets the IDs of the work items that changed after a point in time.
+     * @param since The point in time.
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @throws com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException Thrown if we cannot connect to the server.
+     * @return The IDs of the changed work items.
+     */
+    @NotNull
+    Collection<Integer> getIssueIdsChangedSince(@NotNull Date since, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException;
+
     @NotNull
     Collection<IssueData> getIssues(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials)
             throws InvalidCredentialsException;
 
+    /**
+     * Gets the current revision of a set of work items without loading the work items.
+     * @param ids The work item IDs.
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @throws com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException Thrown if we cannot connect to the server.
+     * @return The revisions keyed by work item ID; work items that no longer exist are missing.
+     */
+    @NotNull
+    Map<Integer, Integer> getIssueRevisions(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException;
+
     /**
      * Gets the data related to a specific work item.
      * @param id The ID of the issue to get.
@@ -0,0 +1,301 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the counters of the plugin caches, TFS calls, circuit breakers and background jobs for the diagnostics page and
+ * its machine readable endpoint. Each issue provider has its own changeset link cache and each TFS collection its
+ * own work item cache, so the cache counters are kept per provider and per host.
+ */
+public class TfsDiagnostics {
+
+    private final TfsIssueProviderFactory providerFactory;
+    private final TfsIssueFetcher issueFetcher;
+    private final CircuitBreakingTfsDataProvider dataProvider;
+    private final TimingTfsDataProvider timingProvider;
+    private final CacheRevalidator revalidator;
+    private final IssueStore store;
+    private final TfsChangePrefetcher prefetcher;
+    private final TfsCacheManager cacheManager;
+
+    /**
+     * Creates a new instance of the TfsDiagnostics class.
+     * @param providerFactory The issue provider factory.
+     * @param issueFetcher The issue fetcher.
+     * @param dataProvider The data provider that guards TFS with circuit breakers.
+     * @param timingProvider The data provider that times the TFS calls.
+     * @param revalidator The cache revalidator.
+     * @param store The issue store.
+     * @param prefetcher The change prefetcher.
+     * @param cacheManager The cache manager.
+     */
+    public TfsDiagnostics(@NotNull TfsIssueProviderFactory providerFactory, @NotNull TfsIssueFetcher issueFetcher,
+                          @NotNull CircuitBreakingTfsDataProvider dataProvider, @NotNull TimingTfsDataProvider timingProvider,
+                          @NotNull CacheRevalidator revalidator,
+                          @NotNull IssueStore store, @NotNull TfsChangePrefetcher prefetcher, @NotNull TfsCacheManager cacheManager) {
+        this.providerFactory = providerFactory;
+        this.issueFetcher = issueFetcher;
+        this.dataProvider = dataProvider;
+        this.timingProvider = timingProvider;
+        this.revalidator = revalidator;
+        this.store = store;
+        this.prefetcher = prefetcher;
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * Gets the changeset link caches of the issue providers.
+     * @return The caches keyed by the TFS collection URL of their provider.
+     */
+    @NotNull
+    public Map<String, WeightedCache> getMentionCaches() {
+        final Map<String, WeightedCache> caches = new LinkedHashMap<String, WeightedCache>();
+        for (TfsIssueProvider provider : providerFactory.getProviders()) {
+            // Providers of the same collection share one cache
+            if (caches.containsValue(provider.getMentionCache())) {
+                continue;
+            }
+
+            String host = provider.getTfsHost() != null ? provider.getTfsHost() : "(not configured)";
+            for (int i = 2; caches.containsKey(host); i++) {
+                host = provider.getTfsHost() + " #" + i;
+            }
+
+            caches.put(host, provider.getMentionCache());
+        }
+
+        return caches;
+    }
+
+    /**
+     * Gets the work item caches.
+     * @return The caches keyed by TFS collection URL.
+     */
+    @NotNull
+    public Map<String, WeightedCache> getIssueCaches() {
+        return issueFetcher.getCaches();
+    }
+
+    /**
+     * Gets the circuit breakers of the TFS collections.
+     * @return The breakers.
+     */
+    @NotNull
+    public Collection<TfsCircuitBreaker> getBreakers() {
+        return dataProvider.getBreakers();
+    }
+
+    /**
+     * Gets the latencies of the TFS calls.
+     * @return The statistics of each method and host.
+     */
+    @NotNull
+    public Collection<TfsCallStatistics> getCallStatistics() {
+        return timingProvider.getCallStatistics();
+    }
+
+    /**
+     * Gets the counters that are not kept per cache.
+     * @return The counters keyed by name, in display order.
+     */
+    @NotNull
+    public Map<String, Long> getCounters() {
+        int suppressedRevisions = 0;
+        for (TfsIssueProvider provider : providerFactory.getProviders()) {
+            suppressedRevisions += provider.getSuppressedCount();
+        }
+
+        final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+        counters.put("coalescedMentionFetches", providerFactory.getCoalescedFetchCount());
+        counters.put("coalescedIssueFetches", issueFetcher.getCoalescedFetchCount());
+        counters.put("suppressedRevisions", (long) suppressedRevisions);
+        counters.put("suppressedIssues", (long) issueFetcher.getSuppressedCount());
+        counters.put("unchangedRefreshes", issueFetcher.getUnchangedRefreshCount());
+        counters.put("backgroundRefreshes", revalidator.getRefreshCount());
+        counters.put("staleHits", revalidator.getStaleHitCount());
+        counters.put("prefetchedChanges", prefetcher.getPrefetchedCount());
+        counters.put("droppedPrefetches", prefetcher.getDroppedCount());
+        counters.put("queuedPrefetches", (long) prefetcher.getQueuedCount());
+        counters.put("storedLinks", (long) store.getLinkCount());
+        counters.put("storedIssues", (long) store.getIssueCount());
+        counters.put("dictionarySize", (long) CompactIssueData.getDictionarySize());
+        counters.put("cacheWeightBytes", cacheManager.getTotalWeight());
+        counters.put("offHeapBytes", cacheManager.getTotalOffHeapBytes());
+        return counters;
+    }
+
+    /**
+     * Writes all counters as a JSON document.
+     * @return The JSON text.
+     */
+    @NotNull
+    public String toJson() {
+        final StringBuilder json = new StringBuilder(4096);
+        json.append('{');
+
+        json.append("\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            first = appendSeparator(json, first);
+            appendString(json, counter.getKey());
+            json.append(':').append(counter.getValue().longValue());
+        }
+        json.append('}');
+
+        json.append(",\"breakers\":[");
+        first = true;
+        for (TfsCircuitBreaker breaker : getBreakers()) {
+            first = appendSeparator(json, first);
+            json.append("{\"host\":");
+            appendString(json, breaker.getHost());
+            json.append(",\"state\":");
+            appendString(json, breaker.getState().name());
+            appendNumber(json, "failureRatePercent", breaker.getFailureRatePercent());
+            appendNumber(json, "trips", breaker.getTripCount());
+            appendNumber(json, "rejected", breaker.getRejectedCount());
+            json.append(",\"lastFailure\":");
+            appendString(json, breaker.getLastFailure());
+            json.append('}');
+        }
+        json.append(']');
+
+        json.append(",\"calls\":[");
+        first = true;
+        for (TfsCallStatistics call : getCallStatistics()) {
+            first = appendSeparator(json, first);
+            json.append("{\"host\":");
+            appendString(json, call.getHost());
+            json.append(",\"method\":");
+            appendString(json, call.getMethod());
+            appendNumber(json, "failures", call.getFailureCount());
+            appendNumber(json, "slowCalls", call.getSlowCount());
+            appendHistogram(json, "total", call.getTotal());
+            appendHistogram(json, "connect", call.getConnect());
+            appendHistogram(json, "query", call.getQuery());
+            appendHistogram(json, "convert", call.getConvert());
+            json.append('}');
+        }
+        json.append(']');
+
+        json.append(",\"mentionCaches\":");
+        appendCaches(json, getMentionCaches());
+        json.append(",\"issueCaches\":");
+        appendCaches(json, getIssueCaches());
+
+        json.append('}');
+        return json.toString();
+    }
+
+    private static void appendCaches(@NotNull StringBuilder json, @NotNull Map<String, WeightedCache> caches) {
+        json.append('[');
+        boolean first = true;
+        for (Map.Entry<String, WeightedCache> entry : caches.entrySet()) {
+            first = appendSeparator(json, first);
+            final WeightedCache cache = entry.getValue();
+            final CacheStatistics statistics = cache.getStatistics();
+            json.append("{\"host\":");
+            appendString(json, entry.getKey());
+            json.append(",\"name\":");
+            appendString(json, cache.getName());
+            json.append(",\"settings\":");
+            appendString(json, cache.getSettings().toString());
+            appendNumber(json, "entries", cache.getSize());
+            appendNumber(json, "weightBytes", cache.getWeight());
+            appendNumber(json, "offHeapEntries", cache.getOffHeapSize());
+            appendNumber(json, "offHeapBytes", cache.getOffHeapBytes());
+            appendNumber(json, "overflowEntries", cache.getOverflowSize());
+            appendNumber(json, "hits", cache.getHitCount());
+            appendNumber(json, "offHeapHits", cache.getOffHeapHitCount());
+            appendNumber(json, "overflowHits", cache.getOverflowHitCount());
+            appendNumber(json, "misses", cache.getMissCount());
+            appendNumber(json, "negativeHits", statistics.getNegativeHitCount());
+            appendNumber(json, "evictions", cache.getEvictionCount());
+            appendNumber(json, "coalescedFetches", statistics.getCoalescedCount());
+            appendNumber(json, "fetches", statistics.getFetchCount());
+            appendNumber(json, "failedFetches", statistics.getFetchFailureCount());
+            appendNumber(json, "averageFetchMillis", statistics.getAverageFetchMillis());
+            appendNumber(json, "maxFetchMillis", statistics.getMaxFetchMillis());
+            json.append('}');
+        }
+        json.append(']');
+    }
+
+    private static void appendHistogram(@NotNull StringBuilder json, @NotNull String name, @NotNull LatencyHistogram histogram) {
+        json.append(',');
+        appendString(json, name);
+        json.append(":{\"count\":").append(histogram.getCount());
+        appendNumber(json, "averageMillis", histogram.getAverageMillis());
+        appendNumber(json, "p50Millis", histogram.getPercentileMillis(50.0));
+        appendNumber(json, "p95Millis", histogram.getP95Millis());
+        appendNumber(json, "p99Millis", histogram.getP99Millis());
+        appendNumber(json, "maxMillis", histogram.getMaxMillis());
+
+        json.append(",\"buckets\":{");
+        final long[] bounds = LatencyHistogram.getBucketBounds();
+        final long[] counts = histogram.getBucketCounts();
+        for (int i = 0; i < bounds.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+
+            appendString(json, bounds[i] == Long.MAX_VALUE ? "inf" : String.valueOf(bounds[i]));
+            json.append(':').append(counts[i]);
+        }
+        json.append("}}");
+    }
+
+    private static void appendNumber(@NotNull StringBuilder json, @NotNull String name, long value) {
+        json.append(',');
+        appendString(json, name);
+        json.append(':').append(value);
+    }
+
+    private static boolean appendSeparator(@NotNull StringBuilder json, boolean first) {
+        if (!first) {
+            json.append(',');
+        }
+
+        return false;
+    }
+
+    private static void appendString(@NotNull StringBuilder json, @Nullable String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,53 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the counters of the diagnostics page as JSON, so they can be collected by monitoring tools.
+ */
+public class TfsDiagnosticsController extends BaseController {
+
+    static final String PATH = "/admin/tfsWorkItems/diagnostics.html";
+
+    private final TfsDiagnostics diagnostics;
+
+    /**
+     * Creates and registers the diagnostics controller.
+     * @param server The build server.
+     * @param controllerManager The web controller manager.
+     * @param diagnostics The diagnostics counters.
+     */
+    public TfsDiagnosticsController(@NotNull SBuildServer server, @NotNull WebControllerManager controllerManager,
+                                    @NotNull TfsDiagnostics diagnostics) {
+        super(server);
+        this.diagnostics = diagnostics;
+        controllerManager.registerController(PATH, this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+        final SUser user = SessionUser.getUser(request);
+        if (user == null || !user.isPermissionGrantedGlobally(Permission.VIEW_SERVER_SETTINGS)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return null;
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.getWriter().write(diagnostics.toJson());
+        return null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.controllers.admin.AdminPage;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.web.openapi.PagePlaces;
+import jetbrains.buildServer.web.openapi.PluginDescriptor;
+import jetbrains.buildServer.web.openapi.PositionConstraint;
+import org.jetbrains.annotations.NotNull;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+/**
+ * The administration page that shows the cache and circuit breaker counters of the plugin.
+ */
+public class TfsDiagnosticsPage extends AdminPage {
+
+    private final TfsDiagnostics diagnostics;
+
+    /**
+     * Creates and registers the diagnostics page.
+     * @param pagePlaces The page places of the server.
+     * @param pluginDescriptor The plugin descriptor.
+     * @param diagnostics The diagnostics counters.
+     */
+    public TfsDiagnosticsPage(@NotNull PagePlaces pagePlaces, @NotNull PluginDescriptor pluginDescriptor, @NotNull TfsDiagnostics diagnostics) {
+        super(pagePlaces, "tfsWorkItems", pluginDescriptor.getPluginResourcesPath("admin/diagnostics.jsp"), "TFS Work Items");
+        this.diagnostics = diagnostics;
+        setPosition(PositionConstraint.last());
+        register();
+    }
+
+    @Override
+    public boolean isAvailable(@NotNull HttpServletRequest request) {
+        return super.isAvailable(request) && checkHasGlobalPermission(request, Permission.VIEW_SERVER_SETTINGS);
+    }
+
+    @NotNull
+    @Override
+    public String getGroup() {
+        return SERVER_RELATED_GROUP;
+    }
+
+    @Override
+    public void fillModel(@NotNull Map<String, Object> model, @NotNull HttpServletRequest request) {
+        super.fillModel(model, request);
+        model.put("diagnostics", diagnostics);
+        model.put("jsonUrl", TfsDiagnosticsController.PATH);
+    }
+}
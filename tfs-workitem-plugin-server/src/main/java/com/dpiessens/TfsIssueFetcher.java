@@ -1,6 +1,7 @@
 package com.dpiessens;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.microsoft.tfs.core.clients.workitem.CoreFieldReferenceNames;
 import jetbrains.buildServer.issueTracker.AbstractIssueFetcher;
 import jetbrains.buildServer.issueTracker.IssueData;
 import jetbrains.buildServer.util.cache.EhCacheUtil;
@@ -11,23 +12,156 @@ import org.jfree.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TfsIssueFetcher extends AbstractIssueFetcher {
 
     private static final Logger LOG = Logger.getInstance(TfsIssueFetcher.class.getName());
 
+    // The negative cache reason of work items TFS did not return, as opposed to lookups that failed
+    private static final String NOT_FOUND_REASON = "Work item was not found";
+
     @NotNull
     private final TfsDataProvider tfsDataProvider;
 
+    @NotNull
+    private final TfsDataProvider pageViewDataProvider;
+
+    @NotNull
+    private final SingleFlight<String, IssueData> issueFlights = new SingleFlight<String, IssueData>();
+
+    @NotNull
+    private final NegativeCache failedIssues = new NegativeCache();
+
+    @NotNull
+    private final CacheRevalidator revalidator;
+
+    @NotNull
+    private final IssueStore store;
+
+    @NotNull
+    private final AtomicLong unchangedRefreshCount = new AtomicLong();
+
+    @NotNull
+    private final Map<String, SyncState> syncStates = new HashMap<String, SyncState>();
+
+    @NotNull
+    private final TfsCacheManager cacheManager;
+
+    @NotNull
+    private final Map<String, WeightedCache> caches = new HashMap<String, WeightedCache>();
+
+    private volatile long syncTtlMillis;
+
     /**
      * Creates a new instance of TfsIssueFetcher
      * @param cacheUtil The cache utility manager.
      * @param tfsDataProvider The TFS data provider to get data
      */
     public TfsIssueFetcher(@NotNull EhCacheUtil cacheUtil, @NotNull TfsDataProvider tfsDataProvider) {
+        this(cacheUtil, tfsDataProvider, new CacheRevalidator(), IssueStore.disabled(), new TfsCacheManager());
+    }
+
+    /**
+     * Creates a new instance of TfsIssueFetcher
+     * @param cacheUtil The cache utility manager.
+     * @param tfsDataProvider The TFS data provider to get data
+     * @param revalidator Refreshes stale issues in the background.
+     * @param store The on-disk store that keeps issues across server restarts.
+     * @param cacheManager Creates the memory budgeted issue cache of each host.
+     */
+    public TfsIssueFetcher(@NotNull EhCacheUtil cacheUtil, @NotNull TfsDataProvider tfsDataProvider, @NotNull CacheRevalidator revalidator,
+                           @NotNull IssueStore store, @NotNull TfsCacheManager cacheManager) {
+        this(cacheUtil, tfsDataProvider, revalidator, store, cacheManager, tfsDataProvider);
+    }
+
+    /**
+     * Creates a new instance of TfsIssueFetcher
+     * @param cacheUtil The cache utility manager.
+     * @param tfsDataProvider The TFS data provider used by background refreshes.
+     * @param revalidator Refreshes stale issues in the background.
+     * @param store The on-disk store that keeps issues across server restarts.
+     * @param cacheManager Creates the memory budgeted issue cache of each host.
+     * @param pageViewDataProvider The TFS data provider used while a page is rendered, which bounds how long it waits.
+     */
+    public TfsIssueFetcher(@NotNull EhCacheUtil cacheUtil, @NotNull TfsDataProvider tfsDataProvider, @NotNull CacheRevalidator revalidator,
+                           @NotNull IssueStore store, @NotNull TfsCacheManager cacheManager, @NotNull TfsDataProvider pageViewDataProvider) {
         super(cacheUtil);
         this.tfsDataProvider = tfsDataProvider;
+        this.pageViewDataProvider = pageViewDataProvider;
+        this.revalidator = revalidator;
+        this.store = store;
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * Sets the memory budget, time to live and disk overflow of the issue cache of a host.
+     * @param host The TFS collection URL
+     * @param settings The cache settings.
+     */
+    public void configureCache(@NotNull String host, @NotNull CacheSettings settings) {
+        getCache(host, settings);
+    }
+
+    /**
+     * Gets the issue cache of a host, creating it with the server defaults on first use.
+     * @param host The TFS collection URL
+     * @return The issue cache.
+     */
+    @NotNull
+    public WeightedCache getCache(@NotNull String host) {
+        return getCache(host, null);
+    }
+
+    /**
+     * Gets the work item caches.
+     * @return A snapshot of the caches keyed by TFS collection URL.
+     */
+    @NotNull
+    public Map<String, WeightedCache> getCaches() {
+        synchronized (caches) {
+            return new TreeMap<String, WeightedCache>(caches);
+        }
+    }
+
+    @NotNull
+    private WeightedCache getCache(@NotNull String host, @Nullable CacheSettings settings) {
+        final String normalizedHost = TfsConnectionPool.normalizeHost(host);
+        synchronized (caches) {
+            WeightedCache cache = caches.get(normalizedHost);
+            if (cache == null) {
+                final CacheSettings issueSettings = settings != null ? settings : CacheSettings.forIssues(null);
+                cache = cacheManager.getCache("tfsIssues " + normalizedHost, issueSettings.withMinTtl(syncTtlMillis));
+                caches.put(normalizedHost, cache);
+            } else if (settings != null) {
+                cache.configure(settings.withMinTtl(syncTtlMillis));
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * Keeps cached issues for at least the given time, because a sync job now refreshes the ones that change in TFS.
+     * @param ttlMillis The time an issue is kept after it was read from TFS.
+     */
+    public void enableSync(long ttlMillis) {
+        synchronized (caches) {
+            syncTtlMillis = Math.max(0L, ttlMillis);
+            for (WeightedCache cache : caches.values()) {
+                cache.configure(cache.getSettings().withMinTtl(syncTtlMillis));
+            }
+        }
     }
 
     /**
@@ -42,13 +176,231 @@ public class TfsIssueFetcher extends AbstractIssueFetcher {
     public IssueData getIssue(@NotNull final String host, @NotNull String id, @Nullable Credentials credentials) throws Exception {
         final String myId = id;
         final Credentials myCredentials = credentials;
+        final String key = getUrl(host, id);
+
+        final long now = System.currentTimeMillis();
+        trackHost(host, credentials, now);
 
-        return getFromCacheOrFetch(getUrl(host, id), new FetchFunction(){
-            @NotNull
-            public IssueData fetch() throws Exception {
-                return getTfsIssue(myId, host, myCredentials);
+        final WeightedCache cache = getCache(host);
+        final net.sf.ehcache.Element cached = cache.get(key);
+        if (cached != null) {
+            if (isStale(host, cached, now)) {
+                LOG.debug(String.format("Issue %s is stale, refreshing it in the background", id));
+                refreshInBackground(host, Collections.singletonList(id), credentials);
             }
-        });
+
+            return (IssueData) cached.getObjectValue();
+        }
+
+        final FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.CACHE_MISS);
+        if (failedIssues.isSuppressed(key, now)) {
+            cache.getStatistics().recordNegativeHit();
+            event.commit(host, 1, "suppressed");
+            throw new TfsUnavailableException(String.format("Lookup of issue %s failed recently: %s", id, failedIssues.getReason(key)));
+        }
+
+        final boolean[] loaded = new boolean[1];
+        try {
+            // Concurrent cache misses for the same issue share a single TFS request
+            final IssueData issue = issueFlights.execute(key, new Callable<IssueData>() {
+                public IssueData call() throws Exception {
+                    loaded[0] = true;
+                    final IssueData stored = store.getIssue(host, myId);
+                    if (stored != null) {
+                        // Serve the stored issue right away and check it against TFS in the background
+                        cache.put(createIssueElement(key, stored));
+                        refreshInBackground(host, Collections.singletonList(myId), myCredentials);
+                        return stored;
+                    }
+
+                    final IssueData issue = getTfsIssue(myId, host, myCredentials);
+                    store.putIssue(host, issue);
+                    return issue;
+                }
+            });
+
+            cache.getStatistics().recordFetch(System.currentTimeMillis() - now, false);
+            event.commit(host, 1, loaded[0] ? "ok" : "coalesced");
+            failedIssues.recordSuccess(key);
+            cache.put(createIssueElement(key, issue));
+            return issue;
+        }
+        catch (Exception e) {
+            cache.getStatistics().recordFetch(System.currentTimeMillis() - now, true);
+            event.commit(host, 1, "failed");
+            failedIssues.recordFailure(key, String.valueOf(e.getMessage()), now);
+            throw e;
+        }
+        finally {
+            if (!loaded[0]) {
+                cache.getStatistics().recordCoalesced();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of issue lookups that were served by an identical lookup already in flight.
+     * @return The coalesced lookup count.
+     */
+    public long getCoalescedFetchCount() {
+        return issueFlights.getCoalescedCount();
+    }
+
+    /**
+     * Gets the number of issues whose lookup failed recently and is not retried yet.
+     * @return The suppressed issue count.
+     */
+    public int getSuppressedCount() {
+        return failedIssues.size();
+    }
+
+    /**
+     * Refreshes the cached issues of every host the fetcher has served that changed since the watermark of the host.
+     * A single query per host reads the IDs of the changed work items; only the ones in the cache are read again.
+     * @param now The current time in milliseconds.
+     * @param overlapMillis How far the next watermark is moved back to allow for clock skew between the servers.
+     * @return The number of cached issues that were refreshed.
+     */
+    public int syncChangedIssues(long now, long overlapMillis) {
+        final Collection<SyncState> states;
+        synchronized (syncStates) {
+            states = new ArrayList<SyncState>(syncStates.values());
+        }
+
+        int refreshed = 0;
+        for (SyncState state : states) {
+            final String host = state.host;
+
+            try {
+                refreshed += refreshChangedIssues(host, state.credentials, new Date(state.watermark));
+                state.watermark = now - overlapMillis;
+                state.syncedAt = now;
+            }
+            catch (TfsUnavailableException e) {
+                LOG.debug(String.format("Cannot sync changed issues of %s: %s", host, e.getMessage()));
+            }
+            catch (Exception e) {
+                LOG.warn(String.format("Cannot sync changed issues of %s: %s", host, e));
+            }
+        }
+
+        return refreshed;
+    }
+
+    /**
+     * Gets the point in time after which changes of the host have not been synced yet.
+     * @param host The TFS collection URL
+     * @return The watermark if the host is known; otherwise null.
+     */
+    @Nullable
+    public Date getWatermark(@NotNull String host) {
+        synchronized (syncStates) {
+            final SyncState state = syncStates.get(TfsConnectionPool.normalizeHost(host));
+            return state != null ? new Date(state.watermark) : null;
+        }
+    }
+
+    /**
+     * Checks if a cached issue is old enough to be refreshed. The watermark of a host only moves when a sync
+     * succeeds, so every change made after an issue was cached up to the last successful sync has been read again;
+     * the issue is as current as that sync and the background refresh is skipped until the sync falls behind.
+     * @param host The TFS collection URL
+     * @param element The cache element of the issue.
+     * @param now The current time in milliseconds.
+     * @return True if the issue should be refreshed; otherwise false.
+     */
+    boolean isStale(@NotNull String host, @NotNull net.sf.ehcache.Element element, long now) {
+        final long createdAt = element.getCreationTime();
+        final SyncState state;
+        synchronized (syncStates) {
+            state = syncStates.get(TfsConnectionPool.normalizeHost(host));
+        }
+
+        final long verifiedAt = state != null && createdAt >= state.trackedSince ? Math.max(createdAt, state.syncedAt) : createdAt;
+        return revalidator.isStale(verifiedAt, now);
+    }
+
+    /**
+     * Creates the cache element of an issue, kept for at least the sync time to live while the sync job runs.
+     * @param key The cache key.
+     * @param issue The issue.
+     * @return The cache element.
+     */
+    @NotNull
+    private net.sf.ehcache.Element createIssueElement(@NotNull Object key, @NotNull IssueData issue) {
+        final net.sf.ehcache.Element element = revalidator.createElement(key, issue);
+        final long ttlSeconds = syncTtlMillis / 1000L;
+        if (ttlSeconds > element.getTimeToLive()) {
+            element.setTimeToLive((int) Math.min(Integer.MAX_VALUE, ttlSeconds));
+        }
+
+        return element;
+    }
+
+    /**
+     * Reads the cached issues of a host that changed since a point in time again.
+     * @param host The TFS collection URL
+     * @param credentials The credentials needed to connect to TFS.
+     * @param since The point in time.
+     * @return The number of cached issues that were refreshed.
+     * @throws Exception Thrown if TFS could not be queried.
+     */
+    private int refreshChangedIssues(@NotNull String host, @Nullable Credentials credentials, @NotNull Date since) throws Exception {
+        final WeightedCache cache = getCache(host);
+        if (cache.getSize() == 0 && cache.getOffHeapSize() == 0 && cache.getOverflowSize() == 0) {
+            return 0;
+        }
+
+        // Issues evicted off the heap or to disk are cached too and would be read back with their old state
+        Collection<Integer> changedIds = new ArrayList<Integer>();
+        for (Integer id : tfsDataProvider.getIssueIdsChangedSince(since, host, credentials)) {
+            if (cache.isKeyInCache(getUrl(host, id.toString()))) {
+                changedIds.add(id);
+            }
+        }
+
+        if (changedIds.isEmpty()) {
+            return 0;
+        }
+
+        LOG.debug(String.format("Refreshing %d cached issues of %s changed since %s", changedIds.size(), host, since));
+
+        int refreshed = 0;
+        for (IssueData issue : tfsDataProvider.getIssues(changedIds, host, credentials)) {
+            cacheIssue(host, issue);
+            refreshed++;
+        }
+
+        return refreshed;
+    }
+
+    /**
+     * Puts an issue read from TFS into the cache and the on-disk store.
+     * @param host The TFS collection URL
+     * @param issue The issue.
+     */
+    private void cacheIssue(@NotNull String host, @NotNull IssueData issue) {
+        getCache(host).put(createIssueElement(getUrl(host, issue.getId()), issue));
+        store.putIssue(host, issue);
+    }
+
+    /**
+     * Remembers the credentials used for a host, so the cached issues of the host can be synced later. Spellings of
+     * the URL that share an issue cache share a sync state too.
+     * @param host The TFS collection URL
+     * @param credentials The credentials needed to connect to TFS.
+     * @param now The current time in milliseconds.
+     */
+    private void trackHost(@NotNull String host, @Nullable Credentials credentials, long now) {
+        final String normalizedHost = TfsConnectionPool.normalizeHost(host);
+        synchronized (syncStates) {
+            final SyncState state = syncStates.get(normalizedHost);
+            if (state == null) {
+                syncStates.put(normalizedHost, new SyncState(host, credentials, now));
+            } else {
+                state.credentials = credentials;
+            }
+        }
     }
 
     /**
@@ -61,42 +413,297 @@ public class TfsIssueFetcher extends AbstractIssueFetcher {
     @Nullable
     @Override
     public Collection<IssueData> getIssuesInBatch(@NotNull String host, @NotNull Collection<String> ids, @Nullable Credentials credentials) {
+        return getIssuesInBatch(host, ids, credentials, null);
+    }
 
-        final TfsDataProvider myTfsDataProvider = this.tfsDataProvider;
-        final String myHost = host;
-        final Credentials myCredentials = credentials;
+    /**
+     * Gets the issues in a batch based on the IDs passed in, failing if any of them could not be read. Issues that
+     * TFS reported as missing are left out, so the result can be cached.
+     * @param host The TFS collection URL
+     * @param ids The issue ID collection
+     * @param credentials The credentials needed to connect to TFS.
+     * @return A collection of matching issues.
+     * @throws TfsUnavailableException Thrown if TFS could not be asked for some of the issues.
+     */
+    @NotNull
+    public Collection<IssueData> getIssuesOrFail(@NotNull String host, @NotNull Collection<String> ids, @Nullable Credentials credentials) {
+        final Collection<String> failedIds = new ArrayList<String>();
+        final Collection<IssueData> issues = getIssuesInBatch(host, ids, credentials, failedIds);
+        if (!failedIds.isEmpty()) {
+            throw new TfsUnavailableException(String.format("Cannot read work items %s: %s", failedIds,
+                    failedIssues.getReason(getUrl(host, failedIds.iterator().next()))));
+        }
+
+        return issues;
+    }
+
+    /**
+     * Gets the issues in a batch based on the IDs passed in.
+     * @param host The TFS collection URL
+     * @param ids The issue ID collection
+     * @param credentials The credentials needed to connect to TFS.
+     * @param failedIds Collects the IDs of the issues that could not be read, or null.
+     * @return A collection of matching issues.
+     */
+    @NotNull
+    private Collection<IssueData> getIssuesInBatch(@NotNull String host, @NotNull Collection<String> ids, @Nullable Credentials credentials,
+                                                   @Nullable Collection<String> failedIds) {
 
         LOG.debug(String.format("Fetching issues in batch: %s", ids));
 
-        return defaultGetIssuesInBatch(host, ids, new BatchFetchFunction() {
-            @NotNull
-            public List<IssueData> batchFetch(@NotNull Collection<String> ids) {
+        final long now = System.currentTimeMillis();
+        trackHost(host, credentials, now);
 
-                Collection<Integer> idValues = new ArrayList<Integer>();
-                List<IssueData> issues = new ArrayList<IssueData>();
+        final WeightedCache cache = getCache(host);
+        final List<IssueData> issues = new ArrayList<IssueData>();
+        final Collection<String> staleIds = new ArrayList<String>();
+        final Map<Integer, String> keys = new LinkedHashMap<Integer, String>();
 
-                for (String idString: ids) {
-                    try {
-                        idValues.add(parseIssueId(idString));
-                    }
-                    catch (NumberFormatException e) {
-                        // Drop exception, it has already been logged
-                    }
+        for (String idString : ids) {
+            final String key = getUrl(host, idString);
+            final net.sf.ehcache.Element cached = cache.get(key);
+            if (cached != null) {
+                issues.add((IssueData) cached.getObjectValue());
+                if (isStale(host, cached, now)) {
+                    staleIds.add(idString);
                 }
+                continue;
+            }
 
-                try {
-                    issues.addAll(myTfsDataProvider.getIssues(idValues, myHost, myCredentials));
+            if (failedIssues.isSuppressed(key, now)) {
+                cache.getStatistics().recordNegativeHit();
+                if (failedIds != null && !NOT_FOUND_REASON.equals(failedIssues.getReason(key))) {
+                    failedIds.add(idString);
                 }
-                catch (Exception e) {
-                    LOG.error("Cannot get issues in batch! Details: " + e);
+                continue;
+            }
+
+            final Integer idValue;
+            try {
+                idValue = parseIssueId(idString);
+            }
+            catch (NumberFormatException e) {
+                // Drop exception, it has already been logged
+                continue;
+            }
+
+            final IssueData stored = store.getIssue(host, idString);
+            if (stored != null) {
+                // Issues read back from the store may be outdated, check them together with the stale ones
+                issues.add(stored);
+                cache.put(createIssueElement(key, stored));
+                staleIds.add(idString);
+            } else {
+                keys.put(idValue, key);
+            }
+        }
+
+        if (!keys.isEmpty()) {
+            final Collection<IssueData> fetched = fetchIssues(host, keys, credentials, now);
+            if (fetched == null) {
+                if (failedIds != null) {
+                    for (Integer id : keys.keySet()) {
+                        failedIds.add(id.toString());
+                    }
                 }
-                return issues;
+            } else {
+                issues.addAll(fetched);
+            }
+        }
+
+        if (!staleIds.isEmpty()) {
+            refreshInBackground(host, staleIds, credentials);
+        }
+
+        return issues;
+    }
+
+    /**
+     * Reads missing issues from TFS in a single batch and caches them.
+     * @param host The TFS collection URL
+     * @param keys The cache keys of the issues, keyed by issue ID.
+     * @param credentials The credentials needed to connect to TFS.
+     * @param now The current time in milliseconds.
+     * @return The issues that were found, or null if TFS could not be queried.
+     */
+    @Nullable
+    private Collection<IssueData> fetchIssues(@NotNull String host, @NotNull Map<Integer, String> keys, @Nullable Credentials credentials,
+                                              long now) {
+        final CacheStatistics statistics = getCache(host).getStatistics();
+        final long start = System.currentTimeMillis();
+        final FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.CACHE_MISS);
+        final Collection<IssueData> tfsIssues;
+        try {
+            tfsIssues = pageViewDataProvider.getIssues(new ArrayList<Integer>(keys.keySet()), host, credentials);
+            statistics.recordFetch(System.currentTimeMillis() - start, false);
+            event.commit(host, keys.size(), "ok");
+        }
+        catch (TfsUnavailableException e) {
+            // TFS is known to be down or slow, the lookup was not even tried
+            LOG.debug(String.format("Cannot get issues in batch: %s", e.getMessage()));
+            recordBatchFailure(statistics, event, host, keys, e, start, now);
+            return null;
+        }
+        catch (Exception e) {
+            LOG.error("Cannot get issues in batch! Details: " + e);
+            recordBatchFailure(statistics, event, host, keys, e, start, now);
+            return null;
+        }
+
+        Set<String> found = new HashSet<String>();
+        for (IssueData issue : tfsIssues) {
+            found.add(getUrl(host, issue.getId()));
+            cacheIssue(host, issue);
+        }
+
+        // Work items that were not returned do not exist or are not visible, do not ask for them on every page view
+        for (String key : keys.values()) {
+            if (found.contains(key)) {
+                failedIssues.recordSuccess(key);
+            } else {
+                failedIssues.recordFailure(key, NOT_FOUND_REASON, now);
+            }
+        }
+
+        return tfsIssues;
+    }
+
+    /**
+     * Records a failed batch lookup, so the issues are not asked for again until their backoff has passed.
+     * @param statistics The statistics of the issue cache.
+     * @param event The flight recorder event of the lookup.
+     * @param host The TFS collection URL
+     * @param keys The cache keys of the issues, keyed by issue ID.
+     * @param e The failure.
+     * @param start The time the lookup started, in milliseconds.
+     * @param now The current time in milliseconds.
+     */
+    private void recordBatchFailure(@NotNull CacheStatistics statistics, @NotNull FlightRecorderEvent event, @NotNull String host,
+                                    @NotNull Map<Integer, String> keys, @NotNull Exception e, long start, long now) {
+        statistics.recordFetch(System.currentTimeMillis() - start, true);
+        event.commit(host, keys.size(), "failed");
+        for (String key : keys.values()) {
+            failedIssues.recordFailure(key, String.valueOf(e.getMessage()), now);
+        }
+    }
+
+    /**
+     * Reads stale issues again from TFS in the background, in a single batch.
+     * @param host The TFS collection URL
+     * @param staleIds The IDs of the stale issues.
+     * @param credentials The credentials needed to connect to TFS.
+     */
+    private void refreshInBackground(@NotNull final String host, @NotNull Collection<String> staleIds, @Nullable final Credentials credentials) {
+        final Map<String, String> idsByKey = new LinkedHashMap<String, String>();
+        for (String id : staleIds) {
+            idsByKey.put(getUrl(host, id), id);
+        }
+
+        LOG.debug(String.format("Refreshing %d stale issues in the background", idsByKey.size()));
+
+        revalidator.refresh(idsByKey.keySet(), new CacheRevalidator.RefreshTask() {
+            public void refresh(@NotNull Collection<Object> keys) throws Exception {
+                Collection<String> ids = new ArrayList<String>();
+                for (Object key : keys) {
+                    ids.add(idsByKey.get(key));
+                }
+
+                refreshIssues(host, ids, credentials);
             }
         });
     }
 
     /**
-     * This is a cache key for issues when they have been retrieved.
+     * Refreshes cached issues. The current revisions of the issues are read first with a cheap query, and only
+     * the issues whose revision moved are read again; unchanged issues are kept and their age is reset.
+     * @param host The TFS collection URL
+     * @param ids The IDs of the issues to refresh.
+     * @param credentials The credentials needed to connect to TFS.
+     * @return The number of issues that were read again.
+     * @throws Exception Thrown if TFS could not be queried.
+     */
+    int refreshIssues(@NotNull String host, @NotNull Collection<String> ids, @Nullable Credentials credentials) throws Exception {
+        final WeightedCache cache = getCache(host);
+        final Map<Integer, IssueData> cachedIssues = new LinkedHashMap<Integer, IssueData>();
+        final Collection<Integer> changedIds = new ArrayList<Integer>();
+
+        for (String id : ids) {
+            final Integer idValue = parseIssueId(id);
+            final net.sf.ehcache.Element element = cache.getQuiet(getUrl(host, id));
+            final IssueData issue = element != null ? (IssueData) element.getObjectValue() : null;
+
+            if (issue != null && getRevision(issue) != null) {
+                cachedIssues.put(idValue, issue);
+            } else {
+                changedIds.add(idValue);
+            }
+        }
+
+        if (!cachedIssues.isEmpty()) {
+            final Map<Integer, Integer> revisions = tfsDataProvider.getIssueRevisions(cachedIssues.keySet(), host, credentials);
+
+            for (Map.Entry<Integer, IssueData> entry : cachedIssues.entrySet()) {
+                final String key = getUrl(host, entry.getKey().toString());
+                final Integer revision = revisions.get(entry.getKey());
+
+                if (revision == null) {
+                    // The work item was deleted or is no longer visible
+                    cache.remove(key);
+                    store.removeIssue(host, entry.getKey().toString());
+                } else if (revision.equals(getRevision(entry.getValue()))) {
+                    cache.put(createIssueElement(key, entry.getValue()));
+                    unchangedRefreshCount.incrementAndGet();
+                } else {
+                    changedIds.add(entry.getKey());
+                }
+            }
+        }
+
+        if (changedIds.isEmpty()) {
+            return 0;
+        }
+
+        int refreshed = 0;
+        for (IssueData issue : tfsDataProvider.getIssues(changedIds, host, credentials)) {
+            cacheIssue(host, issue);
+            refreshed++;
+        }
+
+        return refreshed;
+    }
+
+    /**
+     * Gets the number of stale issues that were kept because their revision had not moved.
+     * @return The unchanged refresh count.
+     */
+    public long getUnchangedRefreshCount() {
+        return unchangedRefreshCount.get();
+    }
+
+    /**
+     * Gets the TFS revision stored with a cached issue.
+     * @param issue The issue.
+     * @return The revision if it is known; otherwise null.
+     */
+    @Nullable
+    private static Integer getRevision(@NotNull IssueData issue) {
+        final Map<String, String> fields = issue.getAllFields();
+        final String revision = fields != null ? fields.get(CoreFieldReferenceNames.REVISION) : null;
+        if (revision == null) {
+            return null;
+        }
+
+        try {
+            return Integer.parseInt(revision);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * This is a cache key for issues when they have been retrieved. Spellings of the collection URL that share an
+     * issue cache get the same key.
      * @param host The TFS collection URL
      * @param id The issue ID
      * @return A cache URL string
@@ -104,7 +711,7 @@ public class TfsIssueFetcher extends AbstractIssueFetcher {
     @NotNull
     public String getUrl(@NotNull String host, @NotNull String id) {
         // this is not actually the url of the issue, but nonetheless this method seems unused except for creating the cache key
-        return appendTrailingSlash(host) + id;
+        return appendTrailingSlash(TfsConnectionPool.normalizeHost(host)) + id;
     }
 
     /**
@@ -137,13 +744,17 @@ public class TfsIssueFetcher extends AbstractIssueFetcher {
 
             int issueNumber = parseIssueId(issueId);
 
-            IssueData issueData = this.tfsDataProvider.getIssueById(issueNumber, host, credentials);
+            IssueData issueData = this.pageViewDataProvider.getIssueById(issueNumber, host, credentials);
             if (issueData == null) {
                 throw new Exception("Could not find issue in TFS Id: " + issueId);
             }
 
             return issueData;
         }
+        catch (TfsUnavailableException ex) {
+            LOG.debug(String.format("Cannot get issue %s: %s", issueId, ex.getMessage()));
+            throw ex;
+        }
         catch (Exception ex) {
             LOG.error("Cannot get issue: " + issueId);
             LOG.error(ex);
@@ -152,6 +763,25 @@ public class TfsIssueFetcher extends AbstractIssueFetcher {
         }
     }
 
+    /**
+     * The sync state of a single host.
+     */
+    private static class SyncState {
+
+        final String host;
+        final long trackedSince;
+        volatile Credentials credentials;
+        volatile long watermark;
+        volatile long syncedAt;
+
+        SyncState(@NotNull String host, @Nullable Credentials credentials, long watermark) {
+            this.host = host;
+            this.trackedSince = watermark;
+            this.credentials = credentials;
+            this.watermark = watermark;
+        }
+    }
+
     /**
      * Parses the issue string to convert it to an issue number
      * @param issueId The issue ID as a string
@@ -159,7 +789,7 @@ public class TfsIssueFetcher extends AbstractIssueFetcher {
      * @throws NumberFormatException Thrown if the issue ID is not numeric
      */
     @NotNull
-    private static Integer parseIssueId(@NotNull String issueId)
+    static Integer parseIssueId(@NotNull String issueId)
             throws NumberFormatException {
 
         try {
@@ -5,34 +5,95 @@ import jetbrains.buildServer.issueTracker.AbstractIssueProvider;
 import jetbrains.buildServer.issueTracker.IssueData;
 import jetbrains.buildServer.issueTracker.IssueFetcher;
 import jetbrains.buildServer.issueTracker.IssueMention;
-import jetbrains.buildServer.util.cache.EhCacheUtil;
+import jetbrains.buildServer.serverSide.InvalidProperty;
+import jetbrains.buildServer.serverSide.PropertiesProcessor;
 import jetbrains.buildServer.vcs.*;
-import net.sf.ehcache.Cache;
 import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jfree.util.Log;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class TfsIssueProvider extends AbstractIssueProvider {
 
     private static final String USE_CREDS_PROPERTY = "useVcsCredentials";
+    private static final String TFS_ROOT_NAME = "tfs";
+    private static final String TFS_URL_PROPERTY = "tfs-url";
 
     private static Logger LOG = Logger.getInstance(TfsIssueProvider.class.getName());
 
+    private final IssueFetcher issueFetcher;
     private final TfsDataProvider dataProvider;
     private final VcsManager vcsManager;
-    private final Cache myCache;
+    private final TfsCacheManager cacheManager;
+    private volatile WeightedCache myCache;
+    private final SingleFlight<String, ArrayList<SerializableIssueMention>> mentionFlights;
+    private final IssueStore store;
+    private final NegativeCache failedRevisions = new NegativeCache();
+
+    public TfsIssueProvider(IssueFetcher fetcher, TfsDataProvider dataProvider, VcsManager vcsManager, TfsCacheManager cacheManager) {
+        this(fetcher, dataProvider, vcsManager, cacheManager, new SingleFlight<String, ArrayList<SerializableIssueMention>>(),
+                IssueStore.disabled());
+    }
 
-    public TfsIssueProvider(IssueFetcher fetcher, TfsDataProvider dataProvider, VcsManager vcsManager, EhCacheUtil cacheUtil) {
+    public TfsIssueProvider(IssueFetcher fetcher, TfsDataProvider dataProvider, VcsManager vcsManager, TfsCacheManager cacheManager,
+                            SingleFlight<String, ArrayList<SerializableIssueMention>> mentionFlights, IssueStore store) {
         super("tfs-workitems", fetcher);
+        this.issueFetcher = fetcher;
         this.dataProvider = dataProvider;
         this.vcsManager = vcsManager;
-        this.myCache = cacheUtil.createCache("tfsIssueMentions");
+        this.cacheManager = cacheManager;
+        this.myCache = cacheManager.getCache(getMentionCacheName(null), CacheSettings.forLinks(null));
+        this.mentionFlights = mentionFlights;
+        this.store = store;
+    }
+
+    @Override
+    public void setProperties(@NotNull Map<String, String> map) {
+        super.setProperties(map);
+
+        // Providers of the same collection share its link cache, as they share its work item cache
+        final CacheSettings linkSettings = CacheSettings.forLinks(map);
+        final WeightedCache cache = cacheManager.getCache(getMentionCacheName(myHost), linkSettings);
+        cache.configure(linkSettings);
+        myCache = cache;
+        if (issueFetcher instanceof TfsIssueFetcher && myHost != null) {
+            ((TfsIssueFetcher) issueFetcher).configureCache(myHost, CacheSettings.forIssues(map));
+        }
+    }
+
+    @NotNull
+    @Override
+    public PropertiesProcessor getPropertiesProcessor() {
+        final PropertiesProcessor processor = super.getPropertiesProcessor();
+        return new PropertiesProcessor() {
+            public Collection<InvalidProperty> process(Map<String, String> properties) {
+                final Collection<InvalidProperty> invalid = new ArrayList<InvalidProperty>();
+                if (processor != null) {
+                    invalid.addAll(processor.process(properties));
+                }
+
+                invalid.addAll(CacheSettings.validate(properties));
+                return invalid;
+            }
+        };
+    }
+
+    /**
+     * Gets the cache of the work item links of each changeset.
+     * @return The cache.
+     */
+    @NotNull
+    public WeightedCache getMentionCache() {
+        return myCache;
     }
 
     @Override
@@ -78,7 +139,7 @@ public class TfsIssueProvider extends AbstractIssueProvider {
 
         LOG.debug("Issue Tracker VCS Root Type: " + vcsName);
 
-        if (!vcsName.equalsIgnoreCase("tfs")) {
+        if (!vcsName.equalsIgnoreCase(TFS_ROOT_NAME)) {
             return result;
         }
 
@@ -100,18 +161,31 @@ public class TfsIssueProvider extends AbstractIssueProvider {
                 @NotNull
                 public Collection<SerializableIssueMention> fetch() throws Exception {
 
-                    Collection<SerializableIssueMention> issueMentions = new ArrayList<SerializableIssueMention>();
-
-                    Credentials credentials = checkForVcsCredentials(vcsRoot);
-
-                    LOG.debug("Issue list was not cached, getting issues from TFS");
-                    Collection<IssueData> issueData = dataProvider.getIssuesForVersion(revision, myHost, credentials);
-
-                    for (IssueData issue : issueData) {
-                        issueMentions.add(new SerializableIssueMention(issue.getId(), issue.getUrl()));
+                    // Concurrent cache misses for the same revision share a single TFS request
+                    final boolean[] loaded = new boolean[1];
+                    try {
+                        return mentionFlights.execute(myHost + "#" + revision, new Callable<ArrayList<SerializableIssueMention>>() {
+                            public ArrayList<SerializableIssueMention> call() throws Exception {
+                                loaded[0] = true;
+
+                                Credentials credentials = checkForVcsCredentials(vcsRoot);
+
+                                Collection<Integer> issueIds = store.getLinks(myHost, revision);
+                                if (issueIds == null) {
+                                    LOG.debug("Issue list was not cached, getting linked work item IDs from TFS");
+                                    issueIds = dataProvider.getIssueIdsForVersion(revision, myHost, credentials);
+                                    store.putLinks(myHost, revision, issueIds);
+                                }
+
+                                return createMentions(issueIds, credentials);
+                            }
+                        });
+                    }
+                    finally {
+                        if (!loaded[0]) {
+                            myCache.getStatistics().recordCoalesced();
+                        }
                     }
-
-                    return issueMentions;
                 }
             });
 
@@ -119,6 +193,8 @@ public class TfsIssueProvider extends AbstractIssueProvider {
                 result.add(new IssueMention(mention.getId(), mention.getUrl()));
             }
 
+        } catch (TfsUnavailableException e) {
+            LOG.debug(String.format("Cannot get issues for revision %d: %s", revision, e.getMessage()));
         } catch (Exception e) {
             LOG.error(e);
         }
@@ -126,6 +202,204 @@ public class TfsIssueProvider extends AbstractIssueProvider {
         return result;
     }
 
+    /**
+     * Gets the TFS collection URL of this provider.
+     * @return The URL, or null if the provider is not configured yet.
+     */
+    @Nullable
+    public String getTfsHost() {
+        return myHost;
+    }
+
+    /**
+     * Gets the number of revisions whose lookup failed recently and is not retried yet.
+     * @return The suppressed revision count.
+     */
+    public int getSuppressedCount() {
+        return failedRevisions.size();
+    }
+
+    /**
+     * Checks if the revisions of a VCS root should be resolved by this provider. A TFS root that does not expose
+     * its server URL is accepted by every provider.
+     * @param vcsRoot The VCS root.
+     * @return True if the root is a TFS root of the host of this provider; otherwise false.
+     */
+    public boolean isProviderFor(@NotNull VcsRoot vcsRoot) {
+        if (!TFS_ROOT_NAME.equalsIgnoreCase(vcsRoot.getVcsName()) || myHost == null) {
+            return false;
+        }
+
+        final String rootUrl = vcsRoot.getProperty(TFS_URL_PROPERTY);
+        return rootUrl == null || TfsConnectionPool.normalizeHost(rootUrl).equals(TfsConnectionPool.normalizeHost(myHost));
+    }
+
+    /**
+     * Resolves and caches the related issues of many revisions at once. The work item links of all revisions that are
+     * not cached yet are read with a single lookup and the linked work items with a single batch, so a large changelog
+     * costs a constant number of round trips instead of one per revision.
+     * @param revisions The TFS changeset numbers.
+     * @param vcsRoot The VCS root the revisions belong to.
+     * @return The number of revisions whose related issues were cached.
+     */
+    public int prefetchRelatedIssues(@NotNull Collection<Integer> revisions, @NotNull VcsRoot vcsRoot) {
+
+        final long now = System.currentTimeMillis();
+        Collection<Integer> missing = new LinkedHashSet<Integer>();
+        for (Integer revision : revisions) {
+            if (revision == null || revision <= 0 || myCache.isKeyInCache(revision)) {
+                continue;
+            }
+
+            if (failedRevisions.isSuppressed(revision, now)) {
+                myCache.getStatistics().recordNegativeHit();
+            } else {
+                missing.add(revision);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        LOG.debug(String.format("Prefetching issues for %d revisions from host: %s", missing.size(), this.myHost));
+
+        try {
+            Credentials credentials = checkForVcsCredentials(vcsRoot);
+
+            // Changeset links never change, only the revisions that are not stored yet go to TFS
+            Map<Integer, Collection<Integer>> issueIds = new LinkedHashMap<Integer, Collection<Integer>>();
+            Collection<Integer> unknown = new ArrayList<Integer>();
+            for (Integer revision : missing) {
+                Collection<Integer> stored = store.getLinks(myHost, revision);
+                if (stored != null) {
+                    issueIds.put(revision, stored);
+                } else {
+                    unknown.add(revision);
+                }
+            }
+
+            if (!unknown.isEmpty()) {
+                final long start = System.currentTimeMillis();
+                final FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.CACHE_MISS);
+                final Map<Integer, Collection<Integer>> fetched;
+                try {
+                    fetched = dataProvider.getIssueIdsForVersions(unknown, myHost, credentials);
+                }
+                catch (Exception e) {
+                    myCache.getStatistics().recordFetch(System.currentTimeMillis() - start, true);
+                    event.commit(myHost, unknown.size(), "failed");
+                    throw e;
+                }
+
+                myCache.getStatistics().recordFetch(System.currentTimeMillis() - start, false);
+                event.commit(myHost, unknown.size(), "ok");
+                for (Map.Entry<Integer, Collection<Integer>> entry : fetched.entrySet()) {
+                    store.putLinks(myHost, entry.getKey(), entry.getValue());
+                }
+                issueIds.putAll(fetched);
+            }
+
+            Collection<Integer> allIds = new LinkedHashSet<Integer>();
+            for (Collection<Integer> ids : issueIds.values()) {
+                allIds.addAll(ids);
+            }
+
+            Map<String, String> urls = getIssueUrls(allIds, credentials);
+
+            for (Map.Entry<Integer, Collection<Integer>> entry : issueIds.entrySet()) {
+                ArrayList<SerializableIssueMention> mentions = createMentions(entry.getValue(), urls);
+                failedRevisions.recordSuccess(entry.getKey());
+                putMentions(entry.getKey(), mentions);
+            }
+
+            return issueIds.size();
+
+        } catch (TfsUnavailableException e) {
+            LOG.debug(String.format("Cannot prefetch issues for %d revisions: %s", missing.size(), e.getMessage()));
+            recordFailures(missing, e, now);
+        } catch (Exception e) {
+            LOG.error(e);
+            recordFailures(missing, e, now);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Records a failed lookup for each of the revisions, so they are not retried until their backoff has passed.
+     * @param revisions The revisions that could not be read.
+     * @param e The failure.
+     * @param now The current time in milliseconds.
+     */
+    private void recordFailures(@NotNull Collection<Integer> revisions, @NotNull Exception e, long now) {
+        for (Integer revision : revisions) {
+            failedRevisions.recordFailure(revision, String.valueOf(e.getMessage()), now);
+        }
+    }
+
+    /**
+     * Creates the issue mentions for the linked work items. The work item data comes from the issue fetcher,
+     * which serves cached items and reads only the missing ones from TFS in a single batch.
+     * @param issueIds The linked work item IDs.
+     * @param credentials The credentials needed to access TFS.
+     * @return The issue mentions.
+     */
+    @NotNull
+    private ArrayList<SerializableIssueMention> createMentions(@NotNull Collection<Integer> issueIds, @Nullable Credentials credentials) {
+        return createMentions(issueIds, getIssueUrls(issueIds, credentials));
+    }
+
+    /**
+     * Creates the issue mentions for the linked work items from already resolved URLs.
+     * @param issueIds The linked work item IDs.
+     * @param urls The work item URLs keyed by ID.
+     * @return The issue mentions.
+     */
+    @NotNull
+    private static ArrayList<SerializableIssueMention> createMentions(@NotNull Collection<Integer> issueIds, @NotNull Map<String, String> urls) {
+        ArrayList<SerializableIssueMention> issueMentions = new ArrayList<SerializableIssueMention>();
+        for (Integer issueId : issueIds) {
+            String id = issueId.toString();
+            issueMentions.add(new SerializableIssueMention(id, urls.get(id)));
+        }
+
+        return issueMentions;
+    }
+
+    /**
+     * Gets the URLs of the work items through the issue fetcher, which serves cached items and reads only the
+     * missing ones from TFS in a single batch. Only work items TFS reported as missing are left without a URL;
+     * if TFS could not be asked, the lookup fails so the mentions are not cached without their URLs.
+     * @param issueIds The work item IDs.
+     * @param credentials The credentials needed to access TFS.
+     * @return The work item URLs keyed by ID.
+     * @throws TfsUnavailableException Thrown if some of the work items could not be read.
+     */
+    @NotNull
+    private Map<String, String> getIssueUrls(@NotNull Collection<Integer> issueIds, @Nullable Credentials credentials) {
+        Map<String, String> urls = new HashMap<String, String>();
+        if (issueIds.isEmpty()) {
+            return urls;
+        }
+
+        Collection<String> ids = new ArrayList<String>();
+        for (Integer issueId : issueIds) {
+            ids.add(issueId.toString());
+        }
+
+        Collection<IssueData> issueData = issueFetcher instanceof TfsIssueFetcher
+                ? ((TfsIssueFetcher) issueFetcher).getIssuesOrFail(myHost, ids, credentials)
+                : issueFetcher.getIssuesInBatch(myHost, ids, credentials);
+        if (issueData != null) {
+            for (IssueData issue : issueData) {
+                urls.put(issue.getId(), issue.getUrl());
+            }
+        }
+
+        return urls;
+    }
+
     /**
      * Checks to see if the credentials should be shared from the project VCS root.
      * @param vcsRoot The VCS root for the revision
@@ -149,54 +423,64 @@ public class TfsIssueProvider extends AbstractIssueProvider {
     }
 
     @NotNull
-    private Collection<SerializableIssueMention> getFromCacheOrFetch(@NotNull Object key, @NotNull FetchFunction function)
+    Collection<SerializableIssueMention> getFromCacheOrFetch(@NotNull Object key, @NotNull FetchFunction function)
             throws Exception {
 
-        // NOTE: UGLY HACK!
-        // EhCache uses 'Thread.currentThread().getContextClassLoader()' to load classes of serialized
-        // instances, which is not the same as 'getClass().getClassLoader()'. This causes a problem
-        // for plugin classes, such as IssueDataImpl.
-        // If you can make this work without the hack, you're welcome to fix it.
-        ClassLoader currentLoader = Thread.currentThread().getContextClassLoader();
-        Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-
-        try {
-            net.sf.ehcache.Element element = myCache != null ? myCache.get(key) : null;
-            if (element != null) {
-                Serializable value = element.getValue();
-                if (value == null) {
-                    throw new RuntimeException(String.format("Cached issue mention for %s is not found", key));
-                }
+        // Changeset links never change, so a cached issue list is served until the link cache lets it go
+        net.sf.ehcache.Element element = myCache.get(key);
+        if (element != null) {
+            LOG.debug(String.format("Returning issue list for revision %s from issue cache", key));
+            return IssueMentionCodec.decode((byte[]) element.getObjectValue());
+        }
 
-                LOG.debug(String.format("Returning issue list for revision %s from issue cache", key));
-                return (Collection<SerializableIssueMention>) value;
-            }
+        final long now = System.currentTimeMillis();
+        final FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.CACHE_MISS);
+        if (failedRevisions.isSuppressed(key, now)) {
+            myCache.getStatistics().recordNegativeHit();
+            event.commit(myHost, 1, "suppressed");
+            throw new TfsUnavailableException(String.format("Issue lookup for revision %s failed recently: %s",
+                    key, failedRevisions.getReason(key)));
+        }
 
-            try {
-                LOG.debug(String.format("Adding revision %s to revision cache", key));
-                Collection<SerializableIssueMention> result = function.fetch();
-                if (myCache != null) {
-                    myCache.put(new net.sf.ehcache.Element(key, result));
-                }
-                return result;
-            }
-            catch (Exception e) {
-                if (myCache != null) {
-                    myCache.put(new net.sf.ehcache.Element(key, null));
-                }
-                throw e;
-            }
+        try {
+            LOG.debug(String.format("Adding revision %s to revision cache", key));
+            Collection<SerializableIssueMention> result = function.fetch();
+            myCache.getStatistics().recordFetch(System.currentTimeMillis() - now, false);
+            event.commit(myHost, 1, "ok");
+            failedRevisions.recordSuccess(key);
+            putMentions(key, result);
+            return result;
         }
-        finally {
-            Thread.currentThread().setContextClassLoader(currentLoader);
+        catch (Exception e) {
+            myCache.getStatistics().recordFetch(System.currentTimeMillis() - now, true);
+            event.commit(myHost, 1, "failed");
+            long retryMillis = failedRevisions.recordFailure(key, String.valueOf(e.getMessage()), now);
+            LOG.debug(String.format("Issue lookup for revision %s failed, retrying in %d ms", key, retryMillis));
+            throw e;
         }
     }
 
+    @NotNull
+    private static String getMentionCacheName(@Nullable String host) {
+        return host != null ? "tfsIssueMentions " + TfsConnectionPool.normalizeHost(host) : "tfsIssueMentions";
+    }
+
+    /**
+     * Puts the issue mentions of a revision into the cache. The mentions are cached in their compact encoding,
+     * which the cache can read back without the plugin class loader. The element has no time to live of its own,
+     * so it is kept for the time to live of the link cache.
+     * @param key The revision.
+     * @param mentions The issue mentions.
+     */
+    private void putMentions(@NotNull Object key, @NotNull Collection<SerializableIssueMention> mentions) {
+        myCache.put(new net.sf.ehcache.Element(key, IssueMentionCodec.encode(mentions)));
+    }
+
     /**
      * An interface represents an action of actual issue fetching.
      * This action takes place when a suitable issue isn't found in cache, or expired.
      */
-    private interface FetchFunction {
+    interface FetchFunction {
         /**
          * Fetches the issue. Throws an exception in case of a problem.
          * @return a non-null issue in case of success
@@ -3,27 +3,65 @@ package com.dpiessens;
 import jetbrains.buildServer.issueTracker.AbstractIssueProviderFactory;
 import jetbrains.buildServer.issueTracker.IssueFetcher;
 import jetbrains.buildServer.issueTracker.IssueProvider;
-import jetbrains.buildServer.util.cache.EhCacheUtil;
 import jetbrains.buildServer.vcs.VcsManager;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 public class TfsIssueProviderFactory extends AbstractIssueProviderFactory {
 
     private final IssueFetcher myFetcher;
     private final TfsDataProvider dataProvider;
     private final VcsManager vcsManager;
-    private final EhCacheUtil cacheUtil;
+    private final TfsCacheManager cacheManager;
+    private final IssueStore store;
+    private final SingleFlight<String, ArrayList<SerializableIssueMention>> mentionFlights =
+            new SingleFlight<String, ArrayList<SerializableIssueMention>>();
+    private final Set<TfsIssueProvider> providers =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<TfsIssueProvider, Boolean>()));
+
+    public TfsIssueProviderFactory(IssueFetcher fetcher, TfsDataProvider dataProvider, VcsManager vcsManager, TfsCacheManager cacheManager) {
+        this(fetcher, dataProvider, vcsManager, cacheManager, IssueStore.disabled());
+    }
 
-    public TfsIssueProviderFactory(IssueFetcher fetcher, TfsDataProvider dataProvider, VcsManager vcsManager, EhCacheUtil cacheUtil) {
+    public TfsIssueProviderFactory(IssueFetcher fetcher, TfsDataProvider dataProvider, VcsManager vcsManager, TfsCacheManager cacheManager,
+                                   IssueStore store) {
         super(fetcher, "tfs-workitems");
         this.myFetcher = fetcher;
         this.dataProvider = dataProvider;
         this.vcsManager = vcsManager;
-        this.cacheUtil = cacheUtil;
+        this.cacheManager = cacheManager;
+        this.store = store;
     }
 
     @NotNull
     public IssueProvider createProvider() {
-        return new TfsIssueProvider(this.myFetcher, this.dataProvider, this.vcsManager, this.cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(this.myFetcher, this.dataProvider, this.vcsManager, this.cacheManager,
+                this.mentionFlights, this.store);
+        this.providers.add(provider);
+        return provider;
+    }
+
+    /**
+     * Gets the providers created by this factory that are still in use.
+     * @return A snapshot of the live providers.
+     */
+    @NotNull
+    public Collection<TfsIssueProvider> getProviders() {
+        synchronized (this.providers) {
+            return new ArrayList<TfsIssueProvider>(this.providers);
+        }
+    }
+
+    /**
+     * Gets the number of related issue lookups that were served by an identical lookup already in flight.
+     * @return The coalesced lookup count.
+     */
+    public long getCoalescedFetchCount() {
+        return this.mentionFlights.getCoalescedCount();
     }
 }
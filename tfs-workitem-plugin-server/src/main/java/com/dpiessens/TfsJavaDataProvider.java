@@ -1,30 +1,28 @@
 package com.dpiessens;
 
 import com.intellij.openapi.diagnostic.Logger;
-import com.microsoft.tfs.core.TFSTeamProjectCollection;
-import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
 import com.microsoft.tfs.core.clients.workitem.CoreFieldReferenceNames;
 import com.microsoft.tfs.core.clients.workitem.WorkItem;
 import com.microsoft.tfs.core.clients.workitem.WorkItemClient;
 import com.microsoft.tfs.core.clients.workitem.fields.FieldCollection;
+import com.microsoft.tfs.core.clients.workitem.query.WorkItemCollection;
 import com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException;
-import com.microsoft.tfs.core.util.CredentialsUtils;
-import com.microsoft.tfs.core.util.TSWAHyperlinkBuilder;
-import com.microsoft.tfs.core.util.URIUtils;
 import jetbrains.buildServer.issueTracker.IssueData;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.web.openapi.PluginDescriptor;
 import org.apache.commons.httpclient.Credentials;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jfree.util.Log;
 
 import java.io.File;
-import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,8 +35,21 @@ public class TfsJavaDataProvider implements TfsDataProvider {
 
     private static volatile boolean runtimeSet = false;
 
-    public TfsJavaDataProvider(PluginDescriptor pluginDescriptor) {
+    private static final String CHANGESET_ARTIFACT_PREFIX = "vstfs:///VersionControl/Changeset/";
+
+    static final String BATCH_PAGE_SIZE_PROPERTY = "teamcity.tfs.workitems.batch.pageSize";
+
+    private final TfsConnectionPool connectionPool;
+    private final int batchPageSize;
+    private final WorkItemProjection projection;
+    private final WorkItemUrlTemplateCache urlTemplateCache;
+
+    public TfsJavaDataProvider(PluginDescriptor pluginDescriptor, TfsConnectionPool connectionPool, WorkItemUrlTemplateCache urlTemplateCache) {
         validateRuntimeConfiguration(pluginDescriptor);
+        this.connectionPool = connectionPool;
+        this.urlTemplateCache = urlTemplateCache;
+        this.batchPageSize = TeamCityProperties.getInteger(BATCH_PAGE_SIZE_PROPERTY, 200);
+        this.projection = WorkItemProjection.fromProperties();
     }
 
     /**
@@ -54,55 +65,126 @@ public class TfsJavaDataProvider implements TfsDataProvider {
             throws InvalidCredentialsException {
         Collection<IssueData> issues = new ArrayList<IssueData>();
 
-        TFSTeamProjectCollection collection = null;
-        VersionControlClient versionControlClient = null;
-        WorkItemClient workItemClient = null;
+        final TfsConnection connection = acquire(host, credentials);
+        boolean failed = true;
 
         try {
-            collection = getProjectCollection(host, credentials);
+            // A changeset that does not exist simply has no links, so it is not read first
+            final Collection<Integer> ids = getLinkedWorkItemIds(connection.getWorkItemClient(), revision);
+            if (ids.size() > 0) {
+                LOG.debug(String.format("Changeset %d was linked to %d work items", revision, ids.size()));
+                issues = queryIssues(connection, ids);
+            } else {
+                LOG.debug(String.format("Changeset %d was not linked to any work items", revision));
+            }
 
-            versionControlClient = collection.getVersionControlClient();
-            workItemClient = collection.getWorkItemClient();
+            failed = false;
+        }
+        finally {
+            connectionPool.release(connection, failed);
+        }
 
-            final Changeset changeset = versionControlClient.getChangeset(revision);
+        return issues;
+    }
 
-            if (changeset != null) {
-                final WorkItem[] workItems = changeset.getWorkItems(workItemClient);
-                if (workItems != null && workItems.length > 0) {
-                    LOG.debug(String.format("Changeset %d was linked to %d work items", revision, workItems.length));
+    /**
+     * Gets the IDs of the work items linked to a specific source control revision without loading the work items.
+     * @param revision The source control revision number
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @throws com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException Thrown if we cannot connect to the server.
+     * @return The IDs of the linked work items.
+     */
+    @NotNull
+    public Collection<Integer> getIssueIdsForVersion(@NotNull Integer revision, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
 
-                    TSWAHyperlinkBuilder linkingClient = new TSWAHyperlinkBuilder(collection);
+        final TfsConnection connection = acquire(host, credentials);
+        boolean failed = true;
 
-                    for (WorkItem workItem : workItems) {
-                        LOG.debug(String.format("Adding work item: %d", workItem.getID()));
-                        issues.add(convertWorkItemToIssueData(workItem, linkingClient));
-                    }
-                } else {
-                    LOG.debug(String.format("Changeset %d was not linked to any work items", revision));
-                }
-            } else {
-                LOG.debug(String.format("Changeset %d could not be found in system.", revision));
-            }
+        try {
+            // A changeset that does not exist simply has no links, so it is not read first
+            final Collection<Integer> ids = getLinkedWorkItemIds(connection.getWorkItemClient(), revision);
+            LOG.debug(String.format("Changeset %d was linked to %d work items", revision, ids.size()));
+
+            failed = false;
+            return ids;
         }
         finally {
-            if (workItemClient != null) {
-                workItemClient.close();
-            }
+            connectionPool.release(connection, failed);
+        }
+    }
 
-            if (versionControlClient != null) {
-                versionControlClient.close();
-            }
+    /**
+     * Gets the IDs of the work items linked to a set of source control revisions with a single link lookup per page
+     * of revisions. As for a single revision the changesets are not read first; a changeset that does not exist
+     * simply has no links.
+     * @param revisions The source control revision numbers
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @throws com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException Thrown if we cannot connect to the server.
+     * @return The IDs of the linked work items keyed by revision, with an entry for every requested revision.
+     */
+    @NotNull
+    public Map<Integer, Collection<Integer>> getIssueIdsForVersions(@NotNull Collection<Integer> revisions, @NotNull String host,
+                                                                    @Nullable Credentials credentials) throws InvalidCredentialsException {
+        if (revisions.isEmpty()) {
+            return new HashMap<Integer, Collection<Integer>>();
+        }
 
-            if (collection != null) {
-                collection.close();
-            }
+        final TfsConnection connection = acquire(host, credentials);
+        boolean failed = true;
+
+        try {
+            final Map<Integer, Collection<Integer>> ids = getLinkedWorkItemIds(connection.getWorkItemClient(), revisions);
+            LOG.debug(String.format("Resolved work item links for %d changesets", ids.size()));
+
+            failed = false;
+            return ids;
         }
+        finally {
+            connectionPool.release(connection, failed);
+        }
+    }
 
-        return issues;
+    /**
+     * Gets the IDs of the work items that changed after a point in time with a single query that reads no fields.
+     * @param since The point in time.
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @throws com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException Thrown if we cannot connect to the server.
+     * @return The IDs of the changed work items.
+     */
+    @NotNull
+    public Collection<Integer> getIssueIdsChangedSince(@NotNull Date since, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
+
+        final TfsConnection connection = acquire(host, credentials);
+        boolean failed = true;
+
+        try {
+            final WorkItemCollection workItems = connection.getWorkItemClient().query(WorkItemQuery.buildChangedSinceQuery(since), null, false);
+
+            Collection<Integer> ids = new ArrayList<Integer>();
+            final int[] changedIds = workItems != null ? workItems.getIDs() : null;
+            if (changedIds != null) {
+                for (int id : changedIds) {
+                    ids.add(id);
+                }
+            }
+
+            LOG.debug(String.format("%d work items changed since %s", ids.size(), since));
+
+            failed = false;
+            return ids;
+        }
+        finally {
+            connectionPool.release(connection, failed);
+        }
     }
 
     /**
-     * Gets the data related to a specific work item.
+     * Gets the data related to a set of work items, reading them with as few queries as the page size allows.
      * @param ids The ID collection of the issue to get.
      * @param host The TFS host URL
      * @param credentials The credentials needed to access TFS.
@@ -113,31 +195,61 @@ public class TfsJavaDataProvider implements TfsDataProvider {
     public Collection<IssueData> getIssues(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials)
             throws InvalidCredentialsException {
 
-        TFSTeamProjectCollection collection = null;
-        WorkItemClient client = null;
+        final TfsConnection connection = acquire(host, credentials);
+        boolean failed = true;
 
         try {
-            collection = getProjectCollection(host, credentials);
-            client = collection.getWorkItemClient();
-
-            Collection<IssueData> issues = new ArrayList<IssueData>();
-            for (Integer id: ids) {
-
-                Log.debug(String.format("Getting work item %d from TFS in batch", id));
-                issues.add(getIssueById(id, collection, client));
-            }
+            Collection<IssueData> issues = queryIssues(connection, ids);
 
+            failed = false;
             return issues;
         }
         finally {
+            connectionPool.release(connection, failed);
+        }
+    }
 
-            if (client != null) {
-                client.close();
-            }
+    /**
+     * Gets the current revision of a set of work items, reading only the ID and revision fields.
+     * @param ids The work item IDs.
+     * @param host The TFS host URL
+     * @param credentials The credentials needed to access TFS.
+     * @throws com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException Thrown if we cannot connect to the server.
+     * @return The revisions keyed by work item ID; work items that no longer exist are missing.
+     */
+    @NotNull
+    public Map<Integer, Integer> getIssueRevisions(@NotNull Collection<Integer> ids, @NotNull String host, @Nullable Credentials credentials)
+            throws InvalidCredentialsException {
 
-            if (collection != null) {
-                collection.close();
+        Map<Integer, Integer> revisions = new HashMap<Integer, Integer>();
+        if (ids.isEmpty()) {
+            return revisions;
+        }
+
+        final TfsConnection connection = acquire(host, credentials);
+        boolean failed = true;
+
+        try {
+            final WorkItemClient client = connection.getWorkItemClient();
+            for (String query : WorkItemQuery.buildRevisionQueries(ids, batchPageSize)) {
+
+                final WorkItemCollection workItems = client.query(query);
+                for (int i = 0; i < workItems.size(); i++) {
+                    final WorkItem workItem = workItems.getWorkItem(i);
+                    final Integer revision = getRevision(workItem);
+                    if (revision != null) {
+                        revisions.put(workItem.getID(), revision);
+                    }
+                }
             }
+
+            LOG.debug(String.format("Read the revisions of %d work items from TFS", revisions.size()));
+
+            failed = false;
+            return revisions;
+        }
+        finally {
+            connectionPool.release(connection, failed);
         }
     }
 
@@ -153,89 +265,188 @@ public class TfsJavaDataProvider implements TfsDataProvider {
     public IssueData getIssueById(@NotNull Integer id, @NotNull String host, @Nullable Credentials credentials)
             throws InvalidCredentialsException {
 
-        TFSTeamProjectCollection collection = null;
-        WorkItemClient client = null;
+        final TfsConnection connection = acquire(host, credentials);
+        boolean failed = true;
 
         try {
-            collection = getProjectCollection(host, credentials);
-            client = collection.getWorkItemClient();
-
             Log.debug(String.format("Getting work item %d from TFS", id));
 
-            return getIssueById(id, collection, client);
+            IssueData issueData = getIssueById(id, getUrlTemplate(connection), connection.getWorkItemClient(), projection);
+            failed = false;
+            return issueData;
         }
         finally {
-
-            if (client != null) {
-                client.close();
-            }
-
-            if (collection != null) {
-                collection.close();
-            }
+            connectionPool.release(connection, failed);
         }
     }
 
     /**
-     * Gets the team project collection connection to TFS.
+     * Gets a pooled connection, marking the time spent waiting for it as the connect phase of the call and as a
+     * flight recorder event.
      * @param host The TFS host URL
      * @param credentials The credentials needed to access TFS.
-     * @return The team project collection
+     * @return The connection.
+     * @throws InvalidCredentialsException Thrown if the server rejected the credentials.
      */
     @NotNull
-    private static TFSTeamProjectCollection getProjectCollection(@NotNull String host, @Nullable Credentials credentials)
-            throws InvalidCredentialsException {
+    private TfsConnection acquire(@NotNull String host, @Nullable Credentials credentials) throws InvalidCredentialsException {
+        TfsCallTimer.enter(TfsCallTimer.Phase.CONNECT);
+        final FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.CONNECT);
+        String outcome = "failed";
+        try {
+            final TfsConnection connection = connectionPool.acquire(host, credentials);
+            outcome = "ok";
+            TfsCallTimer.enter(TfsCallTimer.Phase.QUERY);
+            return connection;
+        }
+        catch (InvalidCredentialsException e) {
+            outcome = "invalidCredentials";
+            throw e;
+        }
+        finally {
+            event.commit(host, 0, outcome);
+        }
+    }
 
-        URI tfsHost = URIUtils.newURI(host);
+    /**
+     * Gets the cached work item URL template for the connection's collection.
+     * @param connection The TFS connection.
+     * @return The URL template.
+     */
+    @NotNull
+    private WorkItemUrlTemplate getUrlTemplate(@NotNull TfsConnection connection) {
+        return urlTemplateCache.getTemplate(connection.getHost(), connection.getCollection());
+    }
+
+    /**
+     * Reads work items in pages of projected batch queries.
+     * @param connection The TFS connection.
+     * @param ids The IDs of the work items to read.
+     * @return The work item data of the items that could be located.
+     */
+    @NotNull
+    private Collection<IssueData> queryIssues(@NotNull TfsConnection connection, @NotNull Collection<Integer> ids) {
+        final WorkItemClient client = connection.getWorkItemClient();
+        final WorkItemUrlTemplate urlTemplate = getUrlTemplate(connection);
 
-        UsernamePasswordCredentials userPass = (UsernamePasswordCredentials)credentials;
+        Collection<IssueData> issues = new ArrayList<IssueData>();
+        for (String query : WorkItemQuery.buildIdQueries(ids, batchPageSize, projection)) {
 
-        com.microsoft.tfs.core.httpclient.Credentials tfsCredentials;
-        if (userPass == null || userPass.getUserName() == null || userPass.getUserName().isEmpty()) {
-            if ( CredentialsUtils.supportsDefaultCredentials()) {
-                LOG.debug(String.format("Connecting to host %s with default NT Credentials", tfsHost));
-                tfsCredentials = new com.microsoft.tfs.core.httpclient.DefaultNTCredentials();
+            final WorkItemCollection workItems = client.query(query);
+            LOG.debug(String.format("Batch query returned %d work items from TFS", workItems.size()));
+
+            for (int i = 0; i < workItems.size(); i++) {
+                // Work items are paged in lazily, so reading one is part of the query
+                TfsCallTimer.enter(TfsCallTimer.Phase.QUERY);
+                final WorkItem workItem = workItems.getWorkItem(i);
+                TfsCallTimer.enter(TfsCallTimer.Phase.CONVERT);
+                issues.add(convertWorkItemToIssueData(workItem, urlTemplate, projection));
             }
-            else {
-                throw new InvalidCredentialsException("Native credentials are not supported; please enter a username and password.");
+
+            TfsCallTimer.enter(TfsCallTimer.Phase.QUERY);
+        }
+
+        return issues;
+    }
+
+    /**
+     * Gets the IDs of the work items linked to a changeset through its artifact link, without loading the work items.
+     * @param client The work item client
+     * @param revision The changeset number.
+     * @return The linked work item IDs.
+     */
+    @NotNull
+    private Collection<Integer> getLinkedWorkItemIds(@NotNull WorkItemClient client, int revision) {
+        return getLinkedWorkItemIds(client, Collections.singletonList(revision)).get(revision);
+    }
+
+    /**
+     * Gets the IDs of the work items linked to a set of changesets, resolving the artifact links of a whole page
+     * of changesets in a single request.
+     * @param client The work item client
+     * @param revisions The changeset numbers.
+     * @return The linked work item IDs keyed by changeset, with an entry for every changeset.
+     */
+    @NotNull
+    private Map<Integer, Collection<Integer>> getLinkedWorkItemIds(@NotNull WorkItemClient client, @NotNull Collection<Integer> revisions) {
+        final Map<Integer, Collection<Integer>> result = new LinkedHashMap<Integer, Collection<Integer>>();
+        for (Integer revision : revisions) {
+            if (revision != null) {
+                result.put(revision, new ArrayList<Integer>());
             }
         }
-        else {
-            LOG.debug(String.format("Connecting to host %s with user: %s", tfsHost, userPass.getUserName()));
-            tfsCredentials = new com.microsoft.tfs.core.httpclient.UsernamePasswordCredentials(userPass.getUserName(), userPass.getPassword());
+
+        final List<Integer> pending = new ArrayList<Integer>(result.keySet());
+        final int pageSize = Math.max(1, batchPageSize);
+
+        for (int start = 0; start < pending.size(); start += pageSize) {
+            final List<Integer> page = pending.subList(start, Math.min(start + pageSize, pending.size()));
+
+            final String[] artifactUris = new String[page.size()];
+            for (int i = 0; i < artifactUris.length; i++) {
+                artifactUris[i] = CHANGESET_ARTIFACT_PREFIX + page.get(i);
+            }
+
+            final Map<String, int[]> links = client.getWorkItemIDsForArtifactURIs(artifactUris, null);
+            if (links == null) {
+                continue;
+            }
+
+            for (int i = 0; i < artifactUris.length; i++) {
+                final int[] linkedIds = links.get(artifactUris[i]);
+                if (linkedIds != null) {
+                    final Collection<Integer> ids = result.get(page.get(i));
+                    for (int id : linkedIds) {
+                        ids.add(id);
+                    }
+                }
+            }
         }
 
-        return new TFSTeamProjectCollection(tfsHost, tfsCredentials);
+        return result;
     }
 
     /**
      * Gets an issue from the work item manager by ID.
      * @param id The work item ID.
-     * @param collection The team project collection.
+     * @param urlTemplate The URL template of the team project collection.
      * @param client The work item client
+     * @param projection The fields to read from the work item.
      * @return The issue data if located; otherwise null
      */
     @Nullable
-    private static IssueData getIssueById(int id, @NotNull TFSTeamProjectCollection collection, @NotNull WorkItemClient client) {
+    private static IssueData getIssueById(int id, @NotNull WorkItemUrlTemplate urlTemplate, @NotNull WorkItemClient client,
+                                          @NotNull WorkItemProjection projection) {
+
+        WorkItem workItem = null;
 
-        WorkItem workItem = client.getWorkItemByID(id);
+        if (projection.isEnabled()) {
+            final WorkItemCollection workItems = client.query(WorkItemQuery.buildIdQueries(Collections.singleton(id), 1, projection).get(0));
+            if (workItems.size() > 0) {
+                workItem = workItems.getWorkItem(0);
+            }
+        } else {
+            workItem = client.getWorkItemByID(id);
+        }
 
         if (workItem != null) {
-            TSWAHyperlinkBuilder linkingClient = new TSWAHyperlinkBuilder(collection);
-            return convertWorkItemToIssueData(workItem, linkingClient);
+            TfsCallTimer.enter(TfsCallTimer.Phase.CONVERT);
+            return convertWorkItemToIssueData(workItem, urlTemplate, projection);
         }
 
         return null;
     }
 
     /**
-     * Converts a TFS work item into JetBrains standard IssueData object.
+     * Converts a TFS work item into a compact JetBrains IssueData object.
      * @param workItem The work item to convert.
-     * @param hyperlinkBuilder The hyperlink builder needed to create links.
+     * @param urlTemplate The URL template needed to create links.
+     * @param projection The projection that lists any extra fields to copy.
      * @return The converted IssueData item.
      */
     @NotNull
-    private static IssueData convertWorkItemToIssueData(@NotNull WorkItem workItem, @NotNull TSWAHyperlinkBuilder hyperlinkBuilder) {
+    static IssueData convertWorkItemToIssueData(@NotNull WorkItem workItem, @NotNull WorkItemUrlTemplate urlTemplate,
+                                                @NotNull WorkItemProjection projection) {
         Map<String, String> data = new HashMap<String, String>();
         data.put(IssueData.SUMMARY_FIELD, workItem.getTitle());
 
@@ -252,12 +463,48 @@ public class TfsJavaDataProvider implements TfsDataProvider {
         boolean featureRequest = !issueType.equalsIgnoreCase("task");
         data.put(IssueData.TYPE_FIELD, issueType);
 
-        return new IssueData(
-                Integer.toString(workItem.getID()),
-                data,
-                resolved,
-                featureRequest,
-                hyperlinkBuilder.getWorkItemEditorURL(workItem.getID()).toString());
+        // Keep the revision so cached items are only read again when they changed
+        final Integer revision = getRevision(workItem);
+        if (revision != null) {
+            data.put(CoreFieldReferenceNames.REVISION, revision.toString());
+        }
+
+        // Copy any additional configured fields
+        for (String fieldName : projection.getExtraFields()) {
+            if (fields.contains(fieldName)) {
+                Object fieldValue = fields.getField(fieldName).getValue();
+                if (fieldValue != null) {
+                    data.put(fieldName, fieldValue.toString());
+                }
+            }
+        }
+
+        return CompactIssueData.create(workItem.getID(), data, resolved, featureRequest, urlTemplate);
+    }
+
+    /**
+     * Gets the revision of a work item.
+     * @param workItem The work item.
+     * @return The revision if it was read; otherwise null.
+     */
+    @Nullable
+    private static Integer getRevision(@NotNull WorkItem workItem) {
+        final FieldCollection fields = workItem.getFields();
+        if (!fields.contains(CoreFieldReferenceNames.REVISION)) {
+            return null;
+        }
+
+        final Object value = fields.getField(CoreFieldReferenceNames.REVISION).getValue();
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return Integer.parseInt(value.toString());
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     /**
@@ -0,0 +1,19 @@
+package com.dpiessens;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown when a call to TFS is rejected without contacting the server, because its circuit breaker is open, because
+ * the same lookup failed recently or because too many calls are pending, or when TFS does not answer before the deadline
+ * of a page view.
+ */
+public class TfsUnavailableException extends RuntimeException {
+
+    /**
+     * Creates a new instance of the TfsUnavailableException class.
+     * @param message The exception message.
+     */
+    public TfsUnavailableException(@NotNull String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,211 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException;
+import jetbrains.buildServer.issueTracker.IssueData;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.commons.httpclient.Credentials;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A provider that records latency histograms of every call, split into the connect, query and convert phases and
+ * kept per TFS collection. Calls slower than a threshold are written to a separate slow call log, one line of
+ * key=value pairs per call, so they can be routed to their own file and searched.
+ */
+public class TimingTfsDataProvider implements TfsDataProvider {
+
+    static final String SLOW_CALL_PROPERTY = "teamcity.tfs.workitems.slowCallLogMillis";
+
+    private static final Logger SLOW_CALL_LOG = Logger.getInstance(TimingTfsDataProvider.class.getName() + ".slowCalls");
+
+    private final TfsDataProvider dataProvider;
+    private final long slowCallMillis;
+    private final ConcurrentMap<String, TfsCallStatistics> statistics = new ConcurrentHashMap<String, TfsCallStatistics>();
+
+    /**
+     * Creates a new instance of the TimingTfsDataProvider class using the server internal properties.
+     * @param dataProvider The provider that does the actual work.
+     */
+    public TimingTfsDataProvider(@NotNull TfsDataProvider dataProvider) {
+        this(dataProvider, TeamCityProperties.getInteger(SLOW_CALL_PROPERTY, 5000));
+    }
+
+    /**
+     * Creates a new instance of the TimingTfsDataProvider class.
+     * @param dataProvider The provider that does the actual work.
+     * @param slowCallMillis The latency above which a call is written to the slow call log.
+     */
+    TimingTfsDataProvider(@NotNull TfsDataProvider dataProvider, long slowCallMillis) {
+        this.dataProvider = dataProvider;
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    @NotNull
+    public Collection<IssueData> getIssuesForVersion(@NotNull final Integer revision, @NotNull final String host,
+                                                     @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call("getIssuesForVersion", host, FlightRecorderEvent.Type.CHANGESET_FETCH, 1, "changeset=" + revision, new ProviderCall<Collection<IssueData>>() {
+            public Collection<IssueData> call() throws InvalidCredentialsException {
+                return dataProvider.getIssuesForVersion(revision, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Collection<Integer> getIssueIdsForVersion(@NotNull final Integer revision, @NotNull final String host,
+                                                     @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call("getIssueIdsForVersion", host, FlightRecorderEvent.Type.CHANGESET_FETCH, 1, "changeset=" + revision, new ProviderCall<Collection<Integer>>() {
+            public Collection<Integer> call() throws InvalidCredentialsException {
+                return dataProvider.getIssueIdsForVersion(revision, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Map<Integer, Collection<Integer>> getIssueIdsForVersions(@NotNull final Collection<Integer> revisions, @NotNull final String host,
+                                                                    @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call("getIssueIdsForVersions", host, FlightRecorderEvent.Type.CHANGESET_FETCH, revisions.size(),
+                "changesets=" + revisions.size(), new ProviderCall<Map<Integer, Collection<Integer>>>() {
+            public Map<Integer, Collection<Integer>> call() throws InvalidCredentialsException {
+                return dataProvider.getIssueIdsForVersions(revisions, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Collection<Integer> getIssueIdsChangedSince(@NotNull final Date since, @NotNull final String host,
+                                                       @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call("getIssueIdsChangedSince", host, FlightRecorderEvent.Type.WORK_ITEM_FETCH, 0, "since=" + since.getTime(), new ProviderCall<Collection<Integer>>() {
+            public Collection<Integer> call() throws InvalidCredentialsException {
+                return dataProvider.getIssueIdsChangedSince(since, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Collection<IssueData> getIssues(@NotNull final Collection<Integer> ids, @NotNull final String host,
+                                           @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call("getIssues", host, FlightRecorderEvent.Type.WORK_ITEM_FETCH, ids.size(), "ids=" + ids.size(), new ProviderCall<Collection<IssueData>>() {
+            public Collection<IssueData> call() throws InvalidCredentialsException {
+                return dataProvider.getIssues(ids, host, credentials);
+            }
+        });
+    }
+
+    @NotNull
+    public Map<Integer, Integer> getIssueRevisions(@NotNull final Collection<Integer> ids, @NotNull final String host,
+                                                   @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call("getIssueRevisions", host, FlightRecorderEvent.Type.WORK_ITEM_FETCH, ids.size(), "ids=" + ids.size(), new ProviderCall<Map<Integer, Integer>>() {
+            public Map<Integer, Integer> call() throws InvalidCredentialsException {
+                return dataProvider.getIssueRevisions(ids, host, credentials);
+            }
+        });
+    }
+
+    @Nullable
+    public IssueData getIssueById(@NotNull final Integer id, @NotNull final String host,
+                                  @Nullable final Credentials credentials) throws InvalidCredentialsException {
+        return call("getIssueById", host, FlightRecorderEvent.Type.WORK_ITEM_FETCH, 1, "id=" + id, new ProviderCall<IssueData>() {
+            public IssueData call() throws InvalidCredentialsException {
+                return dataProvider.getIssueById(id, host, credentials);
+            }
+        });
+    }
+
+    /**
+     * Gets the statistics of all methods and hosts that have been called.
+     * @return The statistics ordered by host and method.
+     */
+    @NotNull
+    public Collection<TfsCallStatistics> getCallStatistics() {
+        return new ArrayList<TfsCallStatistics>(new TreeMap<String, TfsCallStatistics>(statistics).values());
+    }
+
+    /**
+     * Gets the statistics of a method on a host, creating them on first use.
+     * @param method The data provider method.
+     * @param host The TFS host URL
+     * @return The statistics.
+     */
+    @NotNull
+    TfsCallStatistics getStatistics(@NotNull String method, @NotNull String host) {
+        final String normalizedHost = TfsConnectionPool.normalizeHost(host);
+        final String key = normalizedHost + " " + method;
+
+        TfsCallStatistics callStatistics = statistics.get(key);
+        if (callStatistics == null) {
+            callStatistics = new TfsCallStatistics(normalizedHost, method);
+            TfsCallStatistics existing = statistics.putIfAbsent(key, callStatistics);
+            if (existing != null) {
+                callStatistics = existing;
+            }
+        }
+
+        return callStatistics;
+    }
+
+    /**
+     * Runs and times a call, and records it as a flight recorder event.
+     * @param method The data provider method.
+     * @param host The TFS host URL
+     * @param eventType The flight recorder event type of the call.
+     * @param count The number of changesets or work items the call reads.
+     * @param arguments The arguments written to the slow call log.
+     * @param call The call to run.
+     * @param <T> The result type.
+     * @return The result of the call.
+     * @throws InvalidCredentialsException Thrown if the server rejected the credentials.
+     */
+    private <T> T call(@NotNull String method, @NotNull String host, @NotNull FlightRecorderEvent.Type eventType, int count,
+                       @NotNull String arguments, @NotNull ProviderCall<T> call) throws InvalidCredentialsException {
+        final FlightRecorderEvent event = FlightRecorderEvent.begin(eventType);
+        final TfsCallTimer timer = TfsCallTimer.start();
+        String outcome = "error";
+        try {
+            final T result = call.call();
+            outcome = "ok";
+            return result;
+        }
+        catch (InvalidCredentialsException e) {
+            outcome = "invalidCredentials";
+            throw e;
+        }
+        catch (TfsUnavailableException e) {
+            outcome = "unavailable";
+            throw e;
+        }
+        finally {
+            timer.stop();
+            event.commit(host, count, outcome);
+            record(method, host, arguments, timer, outcome);
+        }
+    }
+
+    private void record(@NotNull String method, @NotNull String host, @NotNull String arguments, @NotNull TfsCallTimer timer,
+                        @NotNull String outcome) {
+        final boolean slow = timer.getTotalMillis() >= slowCallMillis;
+        getStatistics(method, host).record(timer, !"ok".equals(outcome), slow);
+
+        if (slow) {
+            SLOW_CALL_LOG.info(String.format("method=%s host=%s %s outcome=%s totalMs=%d connectMs=%d queryMs=%d convertMs=%d",
+                    method, TfsConnectionPool.normalizeHost(host), arguments, outcome, timer.getTotalMillis(),
+                    timer.getMillis(TfsCallTimer.Phase.CONNECT), timer.getMillis(TfsCallTimer.Phase.QUERY),
+                    timer.getMillis(TfsCallTimer.Phase.CONVERT)));
+        }
+    }
+
+    /**
+     * A call to the wrapped provider.
+     */
+    private interface ProviderCall<T> {
+        T call() throws InvalidCredentialsException;
+    }
+}
@@ -0,0 +1,765 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.issueTracker.IssueData;
+import net.sf.ehcache.Element;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A plugin cache that evicts the least recently used entries once their estimated size exceeds a memory budget.
+ * Entries expire a fixed time after they were read from TFS, or earlier if the entry sets a shorter time to live of
+ * its own. Evicted entries can be kept in a second tier and read
+ * back on the next miss instead of going to TFS again: an off-heap tier serializes them into direct memory, which
+ * the garbage collector does not have to scan, and disk overflow writes them to a file. When both are turned on,
+ * only entries too large for the off-heap tier go to disk. Entries read back from either tier move into the heap.
+ * The cache lock only guards the heap, so a hit never waits for serialization or tier I/O: evicted entries are
+ * written to the other tiers after the lock is released, and the tiers are guarded by a lock of their own.
+ */
+public class WeightedCache {
+
+    private static final Logger LOG = Logger.getInstance(WeightedCache.class.getName());
+
+    // The element, the map entry and the key object of a cached entry
+    private static final long ENTRY_OVERHEAD = 96L;
+
+    private final String name;
+    private final File overflowFile;
+    private final long maxOverflowBytes;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>();
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    private final Map<Object, Element> demoting = new HashMap<Object, Element>();
+
+    // Guards the off-heap tier and the overflow file; taken before the cache lock when both are needed
+    private final Object tierLock = new Object();
+
+    private volatile CacheSettings settings;
+    private AppendOnlyStore overflow;
+    private OffHeapStore offHeap;
+    private long weight;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long overflowHitCount;
+    private long offHeapHitCount;
+
+    /**
+     * Creates a new instance of the WeightedCache class.
+     * @param name The cache name.
+     * @param settings The memory budget, time to live, off-heap tier and disk overflow of the cache.
+     * @param overflowFile The file evicted entries are written to, or null if the cache cannot overflow to disk.
+     * @param maxOverflowBytes The size after which the overflow file is cleared.
+     */
+    public WeightedCache(@NotNull String name, @NotNull CacheSettings settings, @Nullable File overflowFile, long maxOverflowBytes) {
+        this.name = name;
+        this.overflowFile = overflowFile;
+        this.maxOverflowBytes = maxOverflowBytes;
+        configure(settings);
+    }
+
+    /**
+     * Gets the cache name.
+     * @return The name.
+     */
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the counters of the lookups that missed the cache.
+     * @return The statistics.
+     */
+    @NotNull
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Changes the settings of the cache. Entries above a smaller budget are evicted right away.
+     * @param settings The new settings.
+     */
+    public void configure(@NotNull CacheSettings settings) {
+        synchronized (tierLock) {
+            synchronized (this) {
+                if (settings.equals(this.settings)) {
+                    return;
+                }
+
+                this.settings = settings;
+            }
+
+            if (settings.isOverflowToDisk() && overflowFile != null) {
+                if (overflow == null) {
+                    openOverflow();
+                }
+            } else {
+                closeOverflow();
+            }
+
+            if (offHeap == null || offHeap.getCapacity() != settings.getOffHeapBytes()) {
+                openOffHeap();
+            }
+        }
+
+        final List<Element> evicted;
+        synchronized (this) {
+            evicted = evict();
+        }
+
+        demote(evicted);
+    }
+
+    /**
+     * Gets the settings of the cache.
+     * @return The settings.
+     */
+    @NotNull
+    public CacheSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Gets an entry and marks it as recently used. An entry that was evicted off the heap or to disk is read back
+     * into the heap.
+     * @param key The key.
+     * @return The entry if it is cached and has not expired; otherwise null.
+     */
+    @Nullable
+    public Element get(@NotNull Object key) {
+        final long now = System.currentTimeMillis();
+
+        List<Element> evicted = null;
+        Element element = null;
+        synchronized (this) {
+            final Entry entry = entries.remove(key);
+            if (entry != null) {
+                if (!isExpired(entry.element, now)) {
+                    entries.put(key, entry);
+                    hitCount++;
+                    return entry.element;
+                }
+
+                weight -= entry.weight;
+            }
+
+            // An entry evicted a moment ago may not have reached the other tiers yet
+            final Element demoted = demoting.remove(key);
+            if (demoted != null && !isExpired(demoted, now)) {
+                hitCount++;
+                element = demoted;
+                evicted = insert(key, demoted);
+            }
+        }
+
+        if (element == null) {
+            synchronized (tierLock) {
+                element = readOffHeap(key, now);
+                final boolean offHeapHit = element != null;
+                if (element == null) {
+                    element = readOverflow(key, now);
+                }
+
+                synchronized (this) {
+                    if (element == null) {
+                        missCount++;
+                        return null;
+                    }
+
+                    if (offHeapHit) {
+                        offHeapHitCount++;
+                    } else {
+                        overflowHitCount++;
+                    }
+
+                    // A put while the entry was read back wins over the older copy
+                    final Entry current = entries.get(key);
+                    if (current != null) {
+                        return current.element;
+                    }
+
+                    if (!demoting.containsKey(key)) {
+                        evicted = insert(key, element);
+                    }
+                }
+            }
+        }
+
+        if (evicted != null) {
+            demote(evicted);
+        }
+
+        return element;
+    }
+
+    /**
+     * Gets an entry from the heap without marking it as recently used.
+     * @param key The key.
+     * @return The entry if it is in the heap and has not expired; otherwise null.
+     */
+    @Nullable
+    public synchronized Element getQuiet(@NotNull Object key) {
+        final Entry entry = entries.get(key);
+        return entry != null && !isExpired(entry.element, System.currentTimeMillis()) ? entry.element : null;
+    }
+
+    /**
+     * Checks if an entry is cached in the heap, off the heap or on disk.
+     * @param key The key.
+     * @return True if the entry is cached; otherwise false.
+     */
+    public boolean isKeyInCache(@NotNull Object key) {
+        synchronized (this) {
+            if (getQuiet(key) != null || demoting.containsKey(key)) {
+                return true;
+            }
+        }
+
+        synchronized (tierLock) {
+            return (offHeap != null && offHeap.contains(getOverflowKey(key)))
+                    || (overflow != null && overflow.contains(getOverflowKey(key)));
+        }
+    }
+
+    /**
+     * Puts an entry into the cache, evicting the least recently used entries if the budget is exceeded.
+     * @param element The entry.
+     */
+    public void put(@NotNull Element element) {
+        final Object key = element.getObjectKey();
+        final List<Element> evicted;
+        synchronized (this) {
+            final Entry previous = entries.remove(key);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+
+            demoting.remove(key);
+            evicted = insert(key, element);
+        }
+
+        synchronized (tierLock) {
+            removeOverflow(key);
+        }
+
+        demote(evicted);
+    }
+
+    /**
+     * Removes an entry from the heap, the off-heap tier and the disk.
+     * @param key The key.
+     * @return True if the entry was in the heap; otherwise false.
+     */
+    public boolean remove(@NotNull Object key) {
+        // Held across both tiers so that a concurrent read cannot bring the entry back from disk
+        synchronized (tierLock) {
+            final Entry entry;
+            synchronized (this) {
+                entry = entries.remove(key);
+                if (entry != null) {
+                    weight -= entry.weight;
+                }
+
+                demoting.remove(key);
+            }
+
+            removeOverflow(key);
+            return entry != null;
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void removeAll() {
+        synchronized (tierLock) {
+            synchronized (this) {
+                entries.clear();
+                demoting.clear();
+                weight = 0L;
+            }
+
+            if (offHeap != null) {
+                offHeap.clear();
+            }
+
+            if (overflow != null) {
+                closeOverflow();
+                openOverflow();
+            }
+        }
+    }
+
+    /**
+     * Gets the keys of the entries in the heap.
+     * @return A snapshot of the keys.
+     */
+    @NotNull
+    public synchronized List<Object> getKeys() {
+        return new ArrayList<Object>(entries.keySet());
+    }
+
+    /**
+     * Gets the number of entries in the heap.
+     * @return The entry count.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of entries on disk.
+     * @return The entry count.
+     */
+    public int getOverflowSize() {
+        synchronized (tierLock) {
+            return overflow != null ? overflow.size() : 0;
+        }
+    }
+
+    /**
+     * Gets the number of entries in the off-heap tier.
+     * @return The entry count.
+     */
+    public int getOffHeapSize() {
+        synchronized (tierLock) {
+            return offHeap != null ? offHeap.size() : 0;
+        }
+    }
+
+    /**
+     * Gets the direct memory used by the entries in the off-heap tier.
+     * @return The size in bytes.
+     */
+    public long getOffHeapBytes() {
+        synchronized (tierLock) {
+            return offHeap != null ? offHeap.getUsedBytes() : 0L;
+        }
+    }
+
+    /**
+     * Gets the estimated heap used by the entries.
+     * @return The size in bytes.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Gets the number of reads served from the heap.
+     * @return The hit count.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of reads that found nothing.
+     * @return The miss count.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the number of entries evicted from the heap to stay in the budget.
+     * @return The eviction count.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the number of reads served from the overflow file.
+     * @return The overflow hit count.
+     */
+    public synchronized long getOverflowHitCount() {
+        return overflowHitCount;
+    }
+
+    /**
+     * Gets the number of reads served from the off-heap tier.
+     * @return The off-heap hit count.
+     */
+    public synchronized long getOffHeapHitCount() {
+        return offHeapHitCount;
+    }
+
+    /**
+     * Removes all entries, releases the off-heap tier and deletes the overflow file.
+     */
+    public void dispose() {
+        synchronized (tierLock) {
+            synchronized (this) {
+                entries.clear();
+                demoting.clear();
+                weight = 0L;
+            }
+
+            offHeap = null;
+            closeOverflow();
+        }
+    }
+
+    /**
+     * Estimates the heap retained by a cached value.
+     * @param key The key.
+     * @param value The value.
+     * @return The estimated size in bytes.
+     */
+    static long estimateWeight(@Nullable Object key, @Nullable Object value) {
+        return ENTRY_OVERHEAD + estimateSize(key) + estimateSize(value);
+    }
+
+    private static long estimateSize(@Nullable Object value) {
+        if (value == null) {
+            return 0L;
+        }
+
+        if (value instanceof byte[]) {
+            return 16L + ((byte[]) value).length;
+        }
+
+        if (value instanceof String) {
+            return 40L + 2L * ((String) value).length();
+        }
+
+        if (value instanceof CompactIssueData) {
+            return ((CompactIssueData) value).getEstimatedSize();
+        }
+
+        if (value instanceof IssueData) {
+            final IssueData issue = (IssueData) value;
+            long size = 64L + estimateSize(issue.getId()) + estimateSize(issue.getUrl());
+            final Map<String, String> fields = issue.getAllFields();
+            if (fields != null) {
+                for (Map.Entry<String, String> field : fields.entrySet()) {
+                    size += 32L + estimateSize(field.getKey()) + estimateSize(field.getValue());
+                }
+            }
+
+            return size;
+        }
+
+        return 16L;
+    }
+
+    /**
+     * Inserts an entry into the heap. Must be called while holding the cache lock.
+     * @return The entries evicted to make room, which the caller hands to demote once it released the lock.
+     */
+    @NotNull
+    private List<Element> insert(@NotNull Object key, @NotNull Element element) {
+        final Entry entry = new Entry(element, estimateWeight(key, element.getObjectValue()));
+        entries.put(key, entry);
+        weight += entry.weight;
+        return evict();
+    }
+
+    private boolean isExpired(@NotNull Element element, long now) {
+        long ttlMillis = settings.getTtlMillis();
+        if (!element.isEternal() && element.getTimeToLive() > 0) {
+            ttlMillis = Math.min(ttlMillis, element.getTimeToLive() * 1000L);
+        }
+
+        return now - element.getCreationTime() >= ttlMillis;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits its budget. Must be called while holding the
+     * cache lock; the evicted entries stay readable until demote has written them to the other tiers.
+     * @return The evicted entries.
+     */
+    @NotNull
+    private List<Element> evict() {
+        List<Element> evicted = Collections.emptyList();
+        for (Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator(); weight > settings.getMaxBytes() && iterator.hasNext(); ) {
+            final Map.Entry<Object, Entry> entry = iterator.next();
+            iterator.remove();
+            weight -= entry.getValue().weight;
+            evictionCount++;
+
+            if (evicted.isEmpty()) {
+                evicted = new ArrayList<Element>();
+            }
+
+            evicted.add(entry.getValue().element);
+            demoting.put(entry.getKey(), entry.getValue().element);
+        }
+
+        return evicted;
+    }
+
+    /**
+     * Serializes evicted entries and writes them to the off-heap tier, or to disk if they do not fit there.
+     * Must be called without holding the cache lock, so that reads of the heap do not wait for it.
+     * @param evicted The entries returned by evict.
+     */
+    private void demote(@NotNull List<Element> evicted) {
+        final long now = System.currentTimeMillis();
+        for (Element element : evicted) {
+            final Object key = element.getObjectKey();
+
+            byte[] value = null;
+            if (!isExpired(element, now) && element.getObjectValue() instanceof Serializable) {
+                try {
+                    value = serialize(element);
+                }
+                catch (IOException e) {
+                    LOG.debug(String.format("Cannot serialize %s of cache %s: %s", key, name, e.getMessage()));
+                }
+            }
+
+            synchronized (tierLock) {
+                synchronized (this) {
+                    // The entry was read back, put again or removed in the meantime
+                    if (demoting.get(key) != element) {
+                        continue;
+                    }
+
+                    demoting.remove(key);
+                }
+
+                if (value != null && !writeOffHeap(key, value)) {
+                    writeOverflow(key, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the off-heap tier with one of the configured size. The entries of the old tier are dropped and its
+     * memory is returned once the buffer is collected.
+     */
+    private void openOffHeap() {
+        offHeap = null;
+        if (settings.getOffHeapBytes() <= 0L) {
+            return;
+        }
+
+        try {
+            offHeap = new OffHeapStore((int) settings.getOffHeapBytes());
+        }
+        catch (OutOfMemoryError e) {
+            LOG.warn(String.format("Cannot allocate %d bytes of direct memory for cache %s, the off-heap tier is turned off. " +
+                    "Raise -XX:MaxDirectMemorySize to use it.", settings.getOffHeapBytes(), name));
+        }
+    }
+
+    /**
+     * Writes a serialized entry to the off-heap tier.
+     * @return True if the entry was stored; false if there is no off-heap tier or the entry does not fit in it.
+     */
+    private boolean writeOffHeap(@NotNull Object key, @NotNull byte[] value) {
+        return offHeap != null && offHeap.put(getOverflowKey(key), value);
+    }
+
+    @Nullable
+    private Element readOffHeap(@NotNull Object key, long now) {
+        if (offHeap == null) {
+            return null;
+        }
+
+        final String offHeapKey = getOverflowKey(key);
+        final byte[] value = offHeap.get(offHeapKey);
+        if (value == null) {
+            return null;
+        }
+
+        offHeap.remove(offHeapKey);
+        try {
+            return deserialize(key, value, now);
+        }
+        catch (ClassNotFoundException e) {
+            LOG.debug(String.format("Cannot read %s from the off-heap tier of cache %s: %s", key, name, e.getMessage()));
+            return null;
+        }
+        catch (IOException e) {
+            LOG.debug(String.format("Cannot read %s from the off-heap tier of cache %s: %s", key, name, e.getMessage()));
+            return null;
+        }
+    }
+
+    private void openOverflow() {
+        if (overflowFile.exists() && !overflowFile.delete()) {
+            LOG.warn(String.format("Cannot delete the overflow file %s of cache %s, disk overflow is turned off", overflowFile, name));
+            return;
+        }
+
+        try {
+            overflow = new AppendOnlyStore(overflowFile);
+        }
+        catch (IOException e) {
+            LOG.warn(String.format("Cannot open the overflow file of cache %s, disk overflow is turned off", name), e);
+        }
+    }
+
+    private void closeOverflow() {
+        if (overflow != null) {
+            overflow.close();
+            overflow = null;
+            if (!overflowFile.delete()) {
+                LOG.debug(String.format("Failed to delete the overflow file %s", overflowFile));
+            }
+        }
+    }
+
+    private void writeOverflow(@NotNull Object key, @NotNull byte[] value) {
+        if (overflow == null) {
+            return;
+        }
+
+        try {
+            overflow.put(getOverflowKey(key), value);
+
+            if (overflow.getFileSize() > maxOverflowBytes) {
+                LOG.debug(String.format("The overflow file of cache %s is full, clearing it", name));
+                closeOverflow();
+                openOverflow();
+            }
+        }
+        catch (IOException e) {
+            LOG.warn(String.format("Cannot write to the overflow file of cache %s, disk overflow is turned off", name), e);
+            closeOverflow();
+        }
+    }
+
+    @Nullable
+    private Element readOverflow(@NotNull Object key, long now) {
+        if (overflow == null) {
+            return null;
+        }
+
+        final String overflowKey = getOverflowKey(key);
+        try {
+            final byte[] value = overflow.get(overflowKey);
+            if (value == null) {
+                return null;
+            }
+
+            overflow.remove(overflowKey);
+            return deserialize(key, value, now);
+        }
+        catch (ClassNotFoundException e) {
+            LOG.debug(String.format("Cannot read %s from the overflow file of cache %s: %s", key, name, e.getMessage()));
+            return null;
+        }
+        catch (IOException e) {
+            LOG.warn(String.format("Cannot read from the overflow file of cache %s, disk overflow is turned off", name), e);
+            closeOverflow();
+            return null;
+        }
+    }
+
+    private void removeOverflow(@NotNull Object key) {
+        if (offHeap != null) {
+            offHeap.remove(getOverflowKey(key));
+        }
+
+        if (overflow == null) {
+            return;
+        }
+
+        try {
+            overflow.remove(getOverflowKey(key));
+        }
+        catch (IOException e) {
+            LOG.warn(String.format("Cannot write to the overflow file of cache %s, disk overflow is turned off", name), e);
+            closeOverflow();
+        }
+    }
+
+    /**
+     * Writes the creation time, the time to live and the value of an entry, which must be serializable.
+     */
+    @NotNull
+    private static byte[] serialize(@NotNull Element element) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeLong(element.getCreationTime());
+        output.writeInt(element.isEternal() ? 0 : element.getTimeToLive());
+        final ObjectOutputStream objectOutput = new ObjectOutputStream(output);
+        objectOutput.writeObject(element.getObjectValue());
+        objectOutput.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads an entry written by serialize.
+     * @return The entry, or null if it has expired.
+     */
+    @Nullable
+    private Element deserialize(@NotNull Object key, @NotNull byte[] value, long now) throws IOException, ClassNotFoundException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(value));
+        final long creationTime = input.readLong();
+        final int timeToLive = input.readInt();
+        final Object cached = new PluginObjectInputStream(input).readObject();
+
+        final Element element = new Element(key, cached, 1L, creationTime, now, 0L, creationTime, 0L);
+        if (timeToLive > 0) {
+            element.setTimeToLive(timeToLive);
+        }
+
+        return isExpired(element, now) ? null : element;
+    }
+
+    @NotNull
+    private static String getOverflowKey(@NotNull Object key) {
+        return key.getClass().getName() + ":" + key;
+    }
+
+    /**
+     * A cached element together with its estimated size.
+     */
+    private static class Entry {
+
+        final Element element;
+        final long weight;
+
+        Entry(@NotNull Element element, long weight) {
+            this.element = element;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Reads overflowed values with the plugin class loader, which the thread reading them may not use.
+     */
+    private static class PluginObjectInputStream extends ObjectInputStream {
+
+        PluginObjectInputStream(@NotNull InputStream input) throws IOException {
+            super(input);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(description.getName(), false, WeightedCache.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e) {
+                return super.resolveClass(description);
+            }
+        }
+    }
+}
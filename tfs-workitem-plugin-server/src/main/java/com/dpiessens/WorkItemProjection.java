@@ -0,0 +1,114 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.clients.workitem.CoreFieldReferenceNames;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the work item fields the plugin asks TFS for.
+ * When enabled, work items are read through WIQL queries that select only these fields instead of
+ * hydrating the whole work item with its history, links and attachments.
+ */
+public class WorkItemProjection {
+
+    static final String ENABLED_PROPERTY = "teamcity.tfs.workitems.projection.enabled";
+    static final String EXTRA_FIELDS_PROPERTY = "teamcity.tfs.workitems.projection.extraFields";
+
+    private static final List<String> DISPLAY_FIELDS = Collections.unmodifiableList(Arrays.asList(
+            CoreFieldReferenceNames.ID,
+            CoreFieldReferenceNames.TITLE,
+            CoreFieldReferenceNames.STATE,
+            CoreFieldReferenceNames.WORK_ITEM_TYPE,
+            CoreFieldReferenceNames.REVISION));
+
+    private final boolean enabled;
+    private final List<String> extraFields;
+    private final List<String> fields;
+
+    /**
+     * Creates a new instance of the WorkItemProjection class.
+     * @param enabled True if work items should be read with projected queries.
+     * @param extraFields Additional field reference names to read and expose on the issue.
+     */
+    public WorkItemProjection(boolean enabled, @NotNull Collection<String> extraFields) {
+        this.enabled = enabled;
+
+        List<String> extra = new ArrayList<String>();
+        if (enabled) {
+            for (String field : extraFields) {
+                String name = field.trim();
+                if (name.length() > 0 && !DISPLAY_FIELDS.contains(name) && !extra.contains(name)) {
+                    extra.add(name);
+                }
+            }
+        }
+
+        List<String> all = new ArrayList<String>(DISPLAY_FIELDS);
+        all.addAll(extra);
+
+        this.extraFields = Collections.unmodifiableList(extra);
+        this.fields = Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Creates the projection from the server internal properties.
+     * @return The configured projection.
+     */
+    @NotNull
+    public static WorkItemProjection fromProperties() {
+        final boolean enabled = TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+        final String extra = TeamCityProperties.getProperty(EXTRA_FIELDS_PROPERTY, "");
+
+        return new WorkItemProjection(enabled, Arrays.asList(extra.split(",")));
+    }
+
+    /**
+     * Checks if work items should be read with projected queries.
+     * @return True if projection is enabled; otherwise false.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the configured fields in addition to the ones the plugin always renders.
+     * @return The extra field reference names.
+     */
+    @NotNull
+    public List<String> getExtraFields() {
+        return extraFields;
+    }
+
+    /**
+     * Gets all fields to select.
+     * @return The field reference names.
+     */
+    @NotNull
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Gets the WIQL select list for the projected fields.
+     * @return The select list, e.g. "[System.Id], [System.Title]".
+     */
+    @NotNull
+    public String getSelectList() {
+        StringBuilder builder = new StringBuilder();
+        for (String field : fields) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+
+            builder.append('[').append(field).append(']');
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.clients.workitem.CoreFieldReferenceNames;
+import org.jetbrains.annotations.NotNull;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Builds the WIQL queries used to read work items from TFS in batches.
+ */
+public final class WorkItemQuery {
+
+    private WorkItemQuery() {
+    }
+
+    /**
+     * Builds the queries needed to read all of the work items, splitting them into pages.
+     * @param ids The work item IDs to read.
+     * @param pageSize The maximum number of IDs in a single query.
+     * @param projection The fields to select.
+     * @return One WIQL query per page of IDs.
+     */
+    @NotNull
+    public static List<String> buildIdQueries(@NotNull Collection<Integer> ids, int pageSize, @NotNull WorkItemProjection projection) {
+        return buildIdQueries(ids, pageSize, projection.getSelectList());
+    }
+
+    /**
+     * Builds the queries that read only the current revision of the work items, splitting them into pages.
+     * @param ids The work item IDs to read.
+     * @param pageSize The maximum number of IDs in a single query.
+     * @return One WIQL query per page of IDs.
+     */
+    @NotNull
+    public static List<String> buildRevisionQueries(@NotNull Collection<Integer> ids, int pageSize) {
+        return buildIdQueries(ids, pageSize, "[" + CoreFieldReferenceNames.ID + "], [" + CoreFieldReferenceNames.REVISION + "]");
+    }
+
+    /**
+     * Builds the queries needed to read all of the work items, splitting them into pages.
+     * @param ids The work item IDs to read.
+     * @param pageSize The maximum number of IDs in a single query.
+     * @param selectList The fields to select.
+     * @return One WIQL query per page of IDs.
+     */
+    @NotNull
+    private static List<String> buildIdQueries(@NotNull Collection<Integer> ids, int pageSize, @NotNull String selectList) {
+        final int size = Math.max(1, pageSize);
+        final Set<Integer> uniqueIds = new LinkedHashSet<Integer>();
+        for (Integer id : ids) {
+            if (id != null) {
+                uniqueIds.add(id);
+            }
+        }
+
+        List<String> queries = new ArrayList<String>();
+        StringBuilder idList = new StringBuilder();
+        int count = 0;
+
+        for (Integer id : uniqueIds) {
+            if (count > 0) {
+                idList.append(", ");
+            }
+
+            idList.append(id);
+            count++;
+
+            if (count == size) {
+                queries.add(buildQuery(idList, selectList));
+                idList.setLength(0);
+                count = 0;
+            }
+        }
+
+        if (count > 0) {
+            queries.add(buildQuery(idList, selectList));
+        }
+
+        return queries;
+    }
+
+    /**
+     * Builds the query for the IDs of all work items changed after a point in time. The query has to be run
+     * without day precision, otherwise TFS ignores the time of day.
+     * @param since The point in time.
+     * @return The WIQL query.
+     */
+    @NotNull
+    public static String buildChangedSinceQuery(@NotNull Date since) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        StringBuilder query = new StringBuilder("SELECT [").append(CoreFieldReferenceNames.ID).append("] FROM WorkItems WHERE [");
+        query.append(CoreFieldReferenceNames.CHANGED_DATE).append("] > '").append(format.format(since)).append('\'');
+        return query.toString();
+    }
+
+    /**
+     * Builds a single query for a comma separated ID list.
+     * @param idList The ID list.
+     * @param selectList The fields to select.
+     * @return The WIQL query.
+     */
+    @NotNull
+    private static String buildQuery(@NotNull CharSequence idList, @NotNull String selectList) {
+        StringBuilder query = new StringBuilder("SELECT ").append(selectList);
+        query.append(" FROM WorkItems WHERE [").append(CoreFieldReferenceNames.ID).append("] IN (").append(idList).append(')');
+        return query.toString();
+    }
+}
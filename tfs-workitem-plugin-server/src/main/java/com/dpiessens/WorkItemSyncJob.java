@@ -0,0 +1,108 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically refreshes the cached work items that changed in TFS since the last run, using the
+ * System.ChangedDate watermark the issue fetcher keeps per host. While the sync keeps up, cached issues count as
+ * current as of the last run and are not refreshed in the background, and they are kept for the sync time to live
+ * instead of the cache time to live; state changes still show within one interval.
+ */
+public class WorkItemSyncJob {
+
+    private static final Logger LOG = Logger.getInstance(WorkItemSyncJob.class.getName());
+
+    static final String ENABLED_PROPERTY = "teamcity.tfs.workitems.sync.enabled";
+    static final String INTERVAL_PROPERTY = "teamcity.tfs.workitems.sync.intervalSeconds";
+    static final String OVERLAP_PROPERTY = "teamcity.tfs.workitems.sync.overlapSeconds";
+    static final String ISSUE_TTL_HOURS_PROPERTY = "teamcity.tfs.workitems.sync.issueTtlHours";
+
+    private final TfsIssueFetcher issueFetcher;
+    private final boolean enabled;
+    private final long intervalMillis;
+    private final long overlapMillis;
+    private final long issueTtlMillis;
+    private final AtomicLong refreshedCount = new AtomicLong();
+
+    private ScheduledExecutorService executor;
+
+    public WorkItemSyncJob(TfsIssueFetcher issueFetcher) {
+        this(issueFetcher,
+                TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY),
+                TeamCityProperties.getInteger(INTERVAL_PROPERTY, 60) * 1000L,
+                TeamCityProperties.getInteger(OVERLAP_PROPERTY, 120) * 1000L,
+                TeamCityProperties.getInteger(ISSUE_TTL_HOURS_PROPERTY, 168) * 3600L * 1000L);
+    }
+
+    WorkItemSyncJob(TfsIssueFetcher issueFetcher, boolean enabled, long intervalMillis, long overlapMillis, long issueTtlMillis) {
+        this.issueFetcher = issueFetcher;
+        this.enabled = enabled;
+        this.intervalMillis = Math.max(1000L, intervalMillis);
+        this.overlapMillis = Math.max(0L, overlapMillis);
+        this.issueTtlMillis = Math.max(0L, issueTtlMillis);
+    }
+
+    /**
+     * Starts the periodic sync.
+     */
+    public synchronized void start() {
+        if (!enabled) {
+            LOG.info("Incremental sync of cached TFS work items is disabled");
+            return;
+        }
+
+        if (executor == null) {
+            issueFetcher.enableSync(issueTtlMillis);
+            executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("TFS work item sync"));
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    sync();
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Refreshes the cached work items that changed since the last run.
+     * @return The number of refreshed work items.
+     */
+    int sync() {
+        try {
+            final int refreshed = issueFetcher.syncChangedIssues(System.currentTimeMillis(), overlapMillis);
+            if (refreshed > 0) {
+                LOG.debug(String.format("Refreshed %d changed work items", refreshed));
+                refreshedCount.addAndGet(refreshed);
+            }
+
+            return refreshed;
+        }
+        catch (Exception e) {
+            LOG.warn("Failed to sync changed TFS work items", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Gets the number of cached work items the sync has refreshed.
+     * @return The refreshed work item count.
+     */
+    public long getRefreshedCount() {
+        return refreshedCount.get();
+    }
+
+    /**
+     * Stops the periodic sync.
+     */
+    public synchronized void dispose() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.util.TSWAHyperlinkBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A Web Access work item URL template for a single team project collection.
+ * Issue URLs are created by splicing the work item ID into the template, so no server traffic or
+ * hyperlink builder is needed per work item.
+ */
+public class WorkItemUrlTemplate {
+
+    private final String prefix;
+    private final String suffix;
+    private final TSWAHyperlinkBuilder fallbackBuilder;
+
+    /**
+     * Creates a new instance of the WorkItemUrlTemplate class.
+     * @param prefix The part of the URL before the work item ID.
+     * @param suffix The part of the URL after the work item ID.
+     */
+    public WorkItemUrlTemplate(@NotNull String prefix, @NotNull String suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.fallbackBuilder = null;
+    }
+
+    /**
+     * Creates a template that delegates to a hyperlink builder, used when the URL format could not be resolved.
+     * @param fallbackBuilder The hyperlink builder.
+     */
+    public WorkItemUrlTemplate(@NotNull TSWAHyperlinkBuilder fallbackBuilder) {
+        this.prefix = null;
+        this.suffix = null;
+        this.fallbackBuilder = fallbackBuilder;
+    }
+
+    /**
+     * Creates a template from a URL that was generated for a known work item ID.
+     * @param sampleUrl The URL generated for the sample ID.
+     * @param sampleId The sample work item ID.
+     * @return The template, or null if the ID could not be located in the URL.
+     */
+    @Nullable
+    public static WorkItemUrlTemplate fromSample(@NotNull String sampleUrl, int sampleId) {
+        final String idText = Integer.toString(sampleId);
+        final int index = sampleUrl.lastIndexOf(idText);
+        if (index < 0) {
+            return null;
+        }
+
+        return new WorkItemUrlTemplate(sampleUrl.substring(0, index), sampleUrl.substring(index + idText.length()));
+    }
+
+    /**
+     * Gets the part of the URL before the work item ID.
+     * @return The prefix, or null if URLs are created by a hyperlink builder.
+     */
+    @Nullable
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Gets the part of the URL after the work item ID.
+     * @return The suffix, or null if URLs are created by a hyperlink builder.
+     */
+    @Nullable
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Creates the URL of a work item.
+     * @param id The work item ID.
+     * @return The Web Access URL of the work item.
+     */
+    @NotNull
+    public String format(int id) {
+        if (fallbackBuilder != null) {
+            return fallbackBuilder.getWorkItemEditorURL(id).toString();
+        }
+
+        return prefix + id + suffix;
+    }
+}
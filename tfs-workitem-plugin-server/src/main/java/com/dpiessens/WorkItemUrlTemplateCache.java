@@ -0,0 +1,101 @@
+package com.dpiessens;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoft.tfs.core.TFSTeamProjectCollection;
+import com.microsoft.tfs.core.util.TSWAHyperlinkBuilder;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the Web Access work item URL template of each team project collection.
+ * The template is resolved once through the hyperlink builder and refreshed after a configurable interval.
+ */
+public class WorkItemUrlTemplateCache {
+
+    private static final Logger LOG = Logger.getInstance(WorkItemUrlTemplateCache.class.getName());
+
+    static final String REFRESH_INTERVAL_PROPERTY = "teamcity.tfs.workitems.urlTemplate.refreshSeconds";
+
+    // A work item ID that cannot otherwise appear in the generated URL
+    static final int SAMPLE_ID = Integer.MAX_VALUE;
+
+    private final ConcurrentMap<String, CachedTemplate> templates = new ConcurrentHashMap<String, CachedTemplate>();
+    private final long refreshIntervalMillis;
+
+    /**
+     * Creates a new instance of the WorkItemUrlTemplateCache class using the server internal properties.
+     */
+    public WorkItemUrlTemplateCache() {
+        this(TeamCityProperties.getInteger(REFRESH_INTERVAL_PROPERTY, 3600) * 1000L);
+    }
+
+    /**
+     * Creates a new instance of the WorkItemUrlTemplateCache class.
+     * @param refreshIntervalMillis The time after which a template is resolved again.
+     */
+    WorkItemUrlTemplateCache(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * Gets the URL template for a collection, resolving it if it is missing or due for a refresh.
+     * @param host The normalized TFS host URL
+     * @param collection The team project collection.
+     * @return The URL template.
+     */
+    @NotNull
+    public WorkItemUrlTemplate getTemplate(@NotNull String host, @NotNull TFSTeamProjectCollection collection) {
+        final long now = System.currentTimeMillis();
+
+        CachedTemplate cached = templates.get(host);
+        if (cached != null && now - cached.resolvedAt < refreshIntervalMillis) {
+            return cached.template;
+        }
+
+        LOG.debug(String.format("Resolving work item URL template for %s", host));
+
+        final TSWAHyperlinkBuilder builder = createHyperlinkBuilder(collection);
+        WorkItemUrlTemplate template = WorkItemUrlTemplate.fromSample(builder.getWorkItemEditorURL(SAMPLE_ID).toString(), SAMPLE_ID);
+        if (template == null) {
+            LOG.warn(String.format("Could not derive a work item URL template for %s, building links per work item", host));
+            template = new WorkItemUrlTemplate(builder);
+        }
+
+        templates.put(host, new CachedTemplate(template, now));
+        return template;
+    }
+
+    /**
+     * Removes the cached template of a host.
+     * @param host The normalized TFS host URL
+     */
+    public void invalidate(@NotNull String host) {
+        templates.remove(host);
+    }
+
+    /**
+     * Creates the hyperlink builder for a collection.
+     * @param collection The team project collection.
+     * @return The hyperlink builder.
+     */
+    @NotNull
+    protected TSWAHyperlinkBuilder createHyperlinkBuilder(@NotNull TFSTeamProjectCollection collection) {
+        return new TSWAHyperlinkBuilder(collection);
+    }
+
+    /**
+     * A resolved template together with the time it was resolved.
+     */
+    private static class CachedTemplate {
+        final WorkItemUrlTemplate template;
+        final long resolvedAt;
+
+        CachedTemplate(@NotNull WorkItemUrlTemplate template, long resolvedAt) {
+            this.template = template;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
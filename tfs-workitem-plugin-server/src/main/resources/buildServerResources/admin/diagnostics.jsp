@@ -0,0 +1,136 @@
+<%@ include file="/include.jsp"%>
+<jsp:useBean id="diagnostics" type="com.dpiessens.TfsDiagnostics" scope="request"/>
+
+<div>
+  <p>
+    Counters since the server started. The same data is available as JSON at
+    <a href="<c:url value='${jsonUrl}'/>"><c:out value="${jsonUrl}"/></a>.
+  </p>
+
+  <h2 class="noBorder">Circuit breakers</h2>
+  <c:choose>
+    <c:when test="${empty diagnostics.breakers}">
+      <p>No TFS collection has been contacted yet.</p>
+    </c:when>
+    <c:otherwise>
+      <table class="runnerFormTable">
+        <tr>
+          <th>Collection</th>
+          <th>State</th>
+          <th>Failure rate</th>
+          <th>Trips</th>
+          <th>Rejected calls</th>
+          <th>Last failure</th>
+        </tr>
+        <c:forEach items="${diagnostics.breakers}" var="breaker">
+          <tr>
+            <td><c:out value="${breaker.host}"/></td>
+            <td><c:out value="${breaker.state}"/></td>
+            <td>${breaker.failureRatePercent}%</td>
+            <td>${breaker.tripCount}</td>
+            <td>${breaker.rejectedCount}</td>
+            <td><c:out value="${breaker.lastFailure}"/></td>
+          </tr>
+        </c:forEach>
+      </table>
+    </c:otherwise>
+  </c:choose>
+
+  <h2 class="noBorder">TFS calls</h2>
+  <c:choose>
+    <c:when test="${empty diagnostics.callStatistics}">
+      <p>No TFS calls yet.</p>
+    </c:when>
+    <c:otherwise>
+      <table class="runnerFormTable">
+        <tr>
+          <th>Collection</th>
+          <th>Method</th>
+          <th>Calls (failed, slow)</th>
+          <th>Average</th>
+          <th>95th percentile</th>
+          <th>Max</th>
+          <th>Connect / query / convert average</th>
+        </tr>
+        <c:forEach items="${diagnostics.callStatistics}" var="call">
+          <tr>
+            <td><c:out value="${call.host}"/></td>
+            <td>${call.method}</td>
+            <td>${call.total.count} (${call.failureCount}, ${call.slowCount})</td>
+            <td>${call.total.averageMillis} ms</td>
+            <td>&le; ${call.total.p95Millis} ms</td>
+            <td>${call.total.maxMillis} ms</td>
+            <td>${call.connect.averageMillis} / ${call.query.averageMillis} / ${call.convert.averageMillis} ms</td>
+          </tr>
+        </c:forEach>
+      </table>
+    </c:otherwise>
+  </c:choose>
+
+  <c:forTokens items="mentions,issues" delims="," var="kind">
+    <c:choose>
+      <c:when test="${kind == 'mentions'}">
+        <h2 class="noBorder">Changeset link caches</h2>
+        <c:set var="caches" value="${diagnostics.mentionCaches}"/>
+      </c:when>
+      <c:otherwise>
+        <h2 class="noBorder">Work item caches</h2>
+        <c:set var="caches" value="${diagnostics.issueCaches}"/>
+      </c:otherwise>
+    </c:choose>
+    <c:choose>
+      <c:when test="${empty caches}">
+        <p>None yet.</p>
+      </c:when>
+      <c:otherwise>
+        <table class="runnerFormTable">
+          <tr>
+            <th>Collection</th>
+            <th>Settings</th>
+            <th>Entries</th>
+            <th>Heap bytes</th>
+            <th>Off heap</th>
+            <th>On disk</th>
+            <th>Hits</th>
+            <th>Off-heap / disk hits</th>
+            <th>Misses</th>
+            <th>Negative hits</th>
+            <th>Evictions</th>
+            <th>Fetches (failed)</th>
+            <th>Coalesced</th>
+            <th>Fetch avg / max</th>
+          </tr>
+          <c:forEach items="${caches}" var="entry">
+            <c:set var="cache" value="${entry.value}"/>
+            <tr>
+              <td><c:out value="${entry.key}"/></td>
+              <td><c:out value="${cache.settings}"/></td>
+              <td>${cache.size}</td>
+              <td>${cache.weight}</td>
+              <td>${cache.offHeapSize}</td>
+              <td>${cache.overflowSize}</td>
+              <td>${cache.hitCount}</td>
+              <td>${cache.offHeapHitCount} / ${cache.overflowHitCount}</td>
+              <td>${cache.missCount}</td>
+              <td>${cache.statistics.negativeHitCount}</td>
+              <td>${cache.evictionCount}</td>
+              <td>${cache.statistics.fetchCount} (${cache.statistics.fetchFailureCount})</td>
+              <td>${cache.statistics.coalescedCount}</td>
+              <td>${cache.statistics.averageFetchMillis} / ${cache.statistics.maxFetchMillis} ms</td>
+            </tr>
+          </c:forEach>
+        </table>
+      </c:otherwise>
+    </c:choose>
+  </c:forTokens>
+
+  <h2 class="noBorder">Other counters</h2>
+  <table class="runnerFormTable">
+    <c:forEach items="${diagnostics.counters}" var="counter">
+      <tr>
+        <th><c:out value="${counter.key}"/></th>
+        <td>${counter.value}</td>
+      </tr>
+    </c:forEach>
+  </table>
+</div>
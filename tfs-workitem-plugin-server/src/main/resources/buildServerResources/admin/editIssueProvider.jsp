@@ -43,6 +43,42 @@
         <props:checkboxProperty name="useVcsCredentials"/>
         <span id="error_useVcsCredentials" class="error"></span>
       </td>
+    </tr>
+    <tr>
+      <th><label for="linkCacheMegabytes" class="shortLabel">Changeset cache:</label></th>
+      <td>
+        <props:textProperty name="linkCacheMegabytes" maxlength="6" className="smallField" /> MB, kept for
+        <props:textProperty name="linkCacheTtlHours" maxlength="6" className="smallField" /> hours
+        <span id="error_linkCacheMegabytes" class="error"></span>
+        <span id="error_linkCacheTtlHours" class="error"></span>
+        <span class="smallNote">Work item links of each changeset. Leave empty to use the server defaults (16 MB, 720 hours).</span>
+      </td>
+    </tr>
+    <tr>
+      <th><label for="issueCacheMegabytes" class="shortLabel">Work item cache:</label></th>
+      <td>
+        <props:textProperty name="issueCacheMegabytes" maxlength="6" className="smallField" /> MB, kept for
+        <props:textProperty name="issueCacheTtlHours" maxlength="6" className="smallField" /> hours
+        <span id="error_issueCacheMegabytes" class="error"></span>
+        <span id="error_issueCacheTtlHours" class="error"></span>
+        <span class="smallNote">Titles and states of work items. Leave empty to use the server defaults (64 MB, 24 hours).</span>
+      </td>
+    </tr>
+    <tr>
+      <th><label for="cacheOffHeapMegabytes" class="shortLabel">Off-heap cache:</label></th>
+      <td>
+        <props:textProperty name="cacheOffHeapMegabytes" maxlength="4" className="smallField" /> MB per cache
+        <span id="error_cacheOffHeapMegabytes" class="error"></span>
+        <span class="smallNote">Entries evicted from memory are kept outside of the Java heap. Needs enough -XX:MaxDirectMemorySize; leave empty to use the server default (off).</span>
+      </td>
+    </tr>
     <tr>
+      <th><label for="cacheOverflowToDisk">Overflow caches to disk</label></th>
+      <td>
+        <props:checkboxProperty name="cacheOverflowToDisk"/>
+        <span id="error_cacheOverflowToDisk" class="error"></span>
+        <span class="smallNote">Entries evicted from memory are kept in the TeamCity data directory instead of being read from TFS again.</span>
+      </td>
+    </tr>
   </table>
 </div>
@@ -0,0 +1,97 @@
+package com.dpiessens;
+
+import net.sf.ehcache.Element;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CacheRevalidator class.
+ */
+public class CacheRevalidatorTest {
+
+    @Test
+    public void testIsStale_whenEntryIsOlderThanRefreshAge_returnsTrue() throws Exception {
+
+        CacheRevalidator revalidator = new CacheRevalidator(true, 1000L, 60, 1, 10);
+        Element element = revalidator.createElement("key", "value");
+
+        assertFalse(revalidator.isStale(element, element.getCreationTime() + 999L));
+        assertTrue(revalidator.isStale(element, element.getCreationTime() + 1000L));
+    }
+
+    @Test
+    public void testIsStale_whenDisabled_returnsFalse() throws Exception {
+
+        CacheRevalidator revalidator = new CacheRevalidator(false, 1000L, 60, 1, 10);
+        Element element = revalidator.createElement("key", "value");
+
+        assertFalse(revalidator.isStale(element, element.getCreationTime() + 60000L));
+    }
+
+    @Test
+    public void testRefresh_runsTaskInBackground() throws Exception {
+
+        CacheRevalidator revalidator = new CacheRevalidator(true, 1000L, 60, 1, 10);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger refreshed = new AtomicInteger();
+
+        assertTrue(revalidator.refresh(Arrays.asList("a", "b"), new CacheRevalidator.RefreshTask() {
+            public void refresh(@NotNull Collection<Object> keys) throws Exception {
+                refreshed.addAndGet(keys.size());
+                done.countDown();
+            }
+        }));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, refreshed.get());
+        assertEquals(2, revalidator.getStaleHitCount());
+
+        revalidator.dispose();
+    }
+
+    @Test
+    public void testRefresh_whenKeyIsAlreadyRefreshing_skipsKey() throws Exception {
+
+        CacheRevalidator revalidator = new CacheRevalidator(true, 1000L, 60, 1, 10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        revalidator.refresh(Arrays.asList("a"), new CacheRevalidator.RefreshTask() {
+            public void refresh(@NotNull Collection<Object> keys) throws Exception {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertFalse(revalidator.refresh(Arrays.asList("a"), new CacheRevalidator.RefreshTask() {
+            public void refresh(@NotNull Collection<Object> keys) throws Exception {
+                fail("The key is already being refreshed");
+            }
+        }));
+
+        release.countDown();
+        revalidator.dispose();
+    }
+
+    @Test
+    public void testRefresh_whenDisabled_doesNothing() throws Exception {
+
+        CacheRevalidator revalidator = new CacheRevalidator(false, 1000L, 60, 1, 10);
+
+        assertFalse(revalidator.refresh(Arrays.asList("a"), new CacheRevalidator.RefreshTask() {
+            public void refresh(@NotNull Collection<Object> keys) throws Exception {
+                fail("Refresh is disabled");
+            }
+        }));
+    }
+}
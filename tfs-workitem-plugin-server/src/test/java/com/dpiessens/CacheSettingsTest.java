@@ -0,0 +1,102 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CacheSettings class.
+ */
+public class CacheSettingsTest {
+
+    @Test
+    public void testForLinks_whenNotConfigured_usesDefaults() throws Exception {
+
+        CacheSettings settings = CacheSettings.forLinks(new HashMap<String, String>());
+
+        assertEquals(16L * 1024L * 1024L, settings.getMaxBytes());
+        assertEquals(720L * 3600L * 1000L, settings.getTtlMillis());
+        assertFalse(settings.isOverflowToDisk());
+    }
+
+    @Test
+    public void testForIssues_whenConfigured_usesProviderProperties() throws Exception {
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(CacheSettings.ISSUE_MEGABYTES_PROPERTY, "128");
+        properties.put(CacheSettings.ISSUE_TTL_HOURS_PROPERTY, " 2 ");
+        properties.put(CacheSettings.OVERFLOW_PROPERTY, "true");
+
+        CacheSettings settings = CacheSettings.forIssues(properties);
+
+        assertEquals(128L * 1024L * 1024L, settings.getMaxBytes());
+        assertEquals(2L * 3600L * 1000L, settings.getTtlMillis());
+        assertTrue(settings.isOverflowToDisk());
+    }
+
+    @Test
+    public void testWithMinTtl_raisesShorterTimeToLiveOnly() throws Exception {
+
+        CacheSettings settings = new CacheSettings(1024L, 3600L * 1000L, true, 2048L);
+
+        assertEquals(new CacheSettings(1024L, 7200L * 1000L, true, 2048L), settings.withMinTtl(7200L * 1000L));
+        assertSame(settings, settings.withMinTtl(60L * 1000L));
+    }
+
+    @Test
+    public void testForIssues_whenInvalid_usesDefaults() throws Exception {
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(CacheSettings.ISSUE_MEGABYTES_PROPERTY, "lots");
+        properties.put(CacheSettings.ISSUE_TTL_HOURS_PROPERTY, "-1");
+
+        CacheSettings settings = CacheSettings.forIssues(properties);
+
+        assertEquals(64L * 1024L * 1024L, settings.getMaxBytes());
+        assertEquals(24L * 3600L * 1000L, settings.getTtlMillis());
+    }
+
+    @Test
+    public void testValidate_reportsInvalidNumbers() throws Exception {
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(CacheSettings.LINK_MEGABYTES_PROPERTY, "16");
+        properties.put(CacheSettings.LINK_TTL_HOURS_PROPERTY, "");
+        properties.put(CacheSettings.ISSUE_MEGABYTES_PROPERTY, "lots");
+        properties.put(CacheSettings.ISSUE_TTL_HOURS_PROPERTY, "0");
+
+        assertEquals(2, CacheSettings.validate(properties).size());
+    }
+
+    @Test
+    public void testForIssues_whenOffHeapConfigured_usesProviderProperty() throws Exception {
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(CacheSettings.OFF_HEAP_MEGABYTES_PROPERTY, "32");
+
+        assertEquals(32L * 1024L * 1024L, CacheSettings.forIssues(properties).getOffHeapBytes());
+        assertEquals(0L, CacheSettings.forIssues(new HashMap<String, String>()).getOffHeapBytes());
+    }
+
+    @Test
+    public void testValidate_reportsOffHeapOutOfRange() throws Exception {
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(CacheSettings.OFF_HEAP_MEGABYTES_PROPERTY, "4096");
+
+        assertEquals(1, CacheSettings.validate(properties).size());
+
+        properties.put(CacheSettings.OFF_HEAP_MEGABYTES_PROPERTY, "0");
+
+        assertTrue(CacheSettings.validate(properties).isEmpty());
+    }
+
+    @Test
+    public void testValidate_whenNotConfigured_returnsNothing() throws Exception {
+
+        assertTrue(CacheSettings.validate(new HashMap<String, String>()).isEmpty());
+    }
+}
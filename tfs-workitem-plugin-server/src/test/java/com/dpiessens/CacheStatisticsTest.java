@@ -0,0 +1,45 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CacheStatistics class.
+ */
+public class CacheStatisticsTest {
+
+    @Test
+    public void testRecordFetch_tracksLatency() throws Exception {
+
+        CacheStatistics statistics = new CacheStatistics();
+        statistics.recordFetch(10L, false);
+        statistics.recordFetch(50L, true);
+        statistics.recordFetch(30L, false);
+
+        assertEquals(3, statistics.getFetchCount());
+        assertEquals(1, statistics.getFetchFailureCount());
+        assertEquals(90L, statistics.getTotalFetchMillis());
+        assertEquals(50L, statistics.getMaxFetchMillis());
+        assertEquals(30L, statistics.getAverageFetchMillis());
+    }
+
+    @Test
+    public void testGetAverageFetchMillis_whenNothingFetched_returnsZero() throws Exception {
+
+        assertEquals(0L, new CacheStatistics().getAverageFetchMillis());
+    }
+
+    @Test
+    public void testRecord_countsNegativeHitsAndCoalescedLookups() throws Exception {
+
+        CacheStatistics statistics = new CacheStatistics();
+        statistics.recordNegativeHit();
+        statistics.recordNegativeHit();
+        statistics.recordCoalesced();
+
+        assertEquals(2, statistics.getNegativeHitCount());
+        assertEquals(1, statistics.getCoalescedCount());
+        assertEquals(0, statistics.getFetchCount());
+    }
+}
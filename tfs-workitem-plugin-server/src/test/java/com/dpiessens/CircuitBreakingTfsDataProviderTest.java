@@ -0,0 +1,86 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException;
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.apache.commons.httpclient.Credentials;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the CircuitBreakingTfsDataProvider class.
+ */
+public class CircuitBreakingTfsDataProviderTest {
+
+    static final String HOST = "http://tfs.com";
+
+    @Test
+    public void testGetIssueById_whenBreakerClosed_callsProvider() throws Exception {
+
+        Credentials credentials = mock(Credentials.class);
+        IssueData issueData = new IssueData("1", "MyIssue", "Done", HOST, true);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueById(1, HOST, credentials)).thenReturn(issueData);
+
+        CircuitBreakingTfsDataProvider provider = new CircuitBreakingTfsDataProvider(dataProvider, 50, 2, 60000L, 60000L);
+
+        assertSame(issueData, provider.getIssueById(1, HOST, credentials));
+        assertEquals(TfsCircuitBreaker.State.CLOSED, provider.getBreaker(HOST).getState());
+    }
+
+    @Test
+    public void testGetIssueById_whenBreakerOpen_failsFastWithoutCallingProvider() throws Exception {
+
+        Credentials credentials = mock(Credentials.class);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueById(1, HOST, credentials)).thenThrow(new IllegalStateException("Connection refused"));
+
+        CircuitBreakingTfsDataProvider provider = new CircuitBreakingTfsDataProvider(dataProvider, 100, 2, 60000L, 60000L);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                provider.getIssueById(1, HOST, credentials);
+                fail("Expected the provider failure");
+            }
+            catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+
+        try {
+            provider.getIssueById(1, HOST + "/", credentials);
+            fail("Expected the breaker to reject the call");
+        }
+        catch (TfsUnavailableException e) {
+            // Expected
+        }
+
+        verify(dataProvider, times(2)).getIssueById(1, HOST, credentials);
+        assertEquals(1, provider.getBreakers().size());
+        assertEquals(TfsCircuitBreaker.State.OPEN, provider.getBreaker(HOST).getState());
+    }
+
+    @Test
+    public void testGetIssueById_whenCredentialsInvalid_doesNotTripBreaker() throws Exception {
+
+        Credentials credentials = mock(Credentials.class);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueById(1, HOST, credentials)).thenThrow(new InvalidCredentialsException("Boo!"));
+
+        CircuitBreakingTfsDataProvider provider = new CircuitBreakingTfsDataProvider(dataProvider, 100, 1, 60000L, 60000L);
+
+        try {
+            provider.getIssueById(1, HOST, credentials);
+            fail("Expected the credentials failure");
+        }
+        catch (InvalidCredentialsException e) {
+            // Expected
+        }
+
+        assertEquals(TfsCircuitBreaker.State.CLOSED, provider.getBreaker(HOST).getState());
+    }
+}
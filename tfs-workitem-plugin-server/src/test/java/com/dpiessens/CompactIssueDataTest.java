@@ -0,0 +1,108 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CompactIssueData class.
+ */
+public class CompactIssueDataTest {
+
+    private static final WorkItemUrlTemplate TEMPLATE = new WorkItemUrlTemplate("http://tfs.com/tfs/web/wi.aspx?id=", "&view=1");
+
+    @Test
+    public void testCreate_withTemplate_buildsUrlFromId() throws Exception {
+
+        IssueData issue = CompactIssueData.create(42, createFields("My Title", "Active", "Bug"), false, true, TEMPLATE);
+
+        assertEquals("42", issue.getId());
+        assertEquals("http://tfs.com/tfs/web/wi.aspx?id=42&view=1", issue.getUrl());
+        assertEquals("My Title", issue.getSummary());
+        assertEquals("Active", issue.getState());
+        assertEquals("Bug", issue.getType());
+        assertFalse(issue.isResolved());
+        assertTrue(issue.isFeatureRequest());
+    }
+
+    @Test
+    public void testCreate_withUrl_keepsUrl() throws Exception {
+
+        IssueData withId = CompactIssueData.create("42", createFields("My Title", "Active", "Bug"), false, true,
+                "http://tfs.com/tfs/_workitems/edit/42");
+        IssueData withoutId = CompactIssueData.create("42", createFields("My Title", "Active", "Bug"), false, true,
+                "http://tfs.com/tfs/_workitems/");
+        IssueData withoutUrl = CompactIssueData.create("42", createFields("My Title", "Active", "Bug"), false, true, null);
+
+        assertEquals("http://tfs.com/tfs/_workitems/edit/42", withId.getUrl());
+        assertEquals("http://tfs.com/tfs/_workitems/", withoutId.getUrl());
+        assertNull(withoutUrl.getUrl());
+    }
+
+    @Test
+    public void testGetAllFields_returnsAllNonNullFields() throws Exception {
+
+        Map<String, String> fields = createFields("My Title", "Active", "Bug");
+        fields.put("System.Reason", null);
+
+        IssueData issue = CompactIssueData.create(42, fields, false, true, TEMPLATE);
+
+        Map<String, String> allFields = issue.getAllFields();
+        assertEquals(3, allFields.size());
+        assertEquals("My Title", allFields.get(IssueData.SUMMARY_FIELD));
+        assertTrue(allFields.containsKey(IssueData.STATE_FIELD));
+        assertFalse(allFields.containsKey("System.Reason"));
+        assertNull(allFields.get("System.Reason"));
+
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put(IssueData.SUMMARY_FIELD, "My Title");
+        expected.put(IssueData.STATE_FIELD, "Active");
+        expected.put(IssueData.TYPE_FIELD, "Bug");
+        assertEquals(expected, allFields);
+    }
+
+    @Test
+    public void testCreate_sharesRepeatedValues() throws Exception {
+
+        IssueData first = CompactIssueData.create(1, createFields("First", new String("Active"), new String("Bug")), false, true, TEMPLATE);
+        IssueData second = CompactIssueData.create(2, createFields("Second", new String("Active"), new String("Bug")), false, true, TEMPLATE);
+
+        assertSame(first.getState(), second.getState());
+        assertSame(first.getType(), second.getType());
+    }
+
+    @Test
+    public void testSerialization_keepsFieldsAndUrl() throws Exception {
+
+        IssueData issue = CompactIssueData.create(42, createFields("My Title", "Active", "Bug"), true, false, TEMPLATE);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(issue);
+        output.close();
+
+        IssueData copy = (IssueData) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        assertEquals("42", copy.getId());
+        assertEquals("http://tfs.com/tfs/web/wi.aspx?id=42&view=1", copy.getUrl());
+        assertEquals("My Title", copy.getSummary());
+        assertEquals(issue.getAllFields(), copy.getAllFields());
+        assertTrue(copy.isResolved());
+    }
+
+    private static Map<String, String> createFields(String summary, String state, String type) {
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put(IssueData.SUMMARY_FIELD, summary);
+        fields.put(IssueData.STATE_FIELD, state);
+        fields.put(IssueData.TYPE_FIELD, type);
+        return fields;
+    }
+}
@@ -0,0 +1,134 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.httpclient.auth.InvalidCredentialsException;
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.apache.commons.httpclient.Credentials;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the DeadlineTfsDataProvider class.
+ */
+public class DeadlineTfsDataProviderTest {
+
+    static final String HOST = "http://tfs.com";
+
+    @Test
+    public void testGetIssueById_whenAnsweredInTime_returnsData() throws Exception {
+
+        Credentials credentials = mock(Credentials.class);
+        IssueData issueData = new IssueData("1", "MyIssue", "Done", HOST, true);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueById(1, HOST, credentials)).thenReturn(issueData);
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 2, 2, false);
+        try {
+            DeadlineTfsDataProvider provider = new DeadlineTfsDataProvider(asyncProvider, dataProvider, 5000L);
+
+            assertSame(issueData, provider.getIssueById(1, HOST, credentials));
+        }
+        finally {
+            asyncProvider.dispose();
+        }
+    }
+
+    @Test(expected = TfsUnavailableException.class)
+    public void testGetIssues_whenDeadlineExpires_throwsUnavailable() throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+        Collection<Integer> ids = Arrays.asList(1, 2);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssues(eq(ids), eq(HOST), any(Credentials.class))).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                release.await(5, TimeUnit.SECONDS);
+                return Collections.emptyList();
+            }
+        });
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 1, 1, false);
+        try {
+            new DeadlineTfsDataProvider(asyncProvider, dataProvider, 50L).getIssues(ids, HOST, null);
+        }
+        finally {
+            release.countDown();
+            asyncProvider.dispose();
+        }
+    }
+
+    @Test
+    public void testGetIssueIdsForVersion_whenTooManyCallsArePending_throwsUnavailable() throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueIdsForVersion(anyInt(), eq(HOST), any(Credentials.class))).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                release.await(5, TimeUnit.SECONDS);
+                return Collections.emptyList();
+            }
+        });
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 1, 0, false);
+        try {
+            asyncProvider.getIssueIdsForVersion(1, HOST, null, 5, TimeUnit.SECONDS);
+
+            try {
+                new DeadlineTfsDataProvider(asyncProvider, dataProvider, 5000L).getIssueIdsForVersion(2, HOST, null);
+                fail("Expected the call to be rejected");
+            }
+            catch (TfsUnavailableException e) {
+                // Expected
+            }
+
+            verify(dataProvider, never()).getIssueIdsForVersion(eq(2), eq(HOST), any(Credentials.class));
+        }
+        finally {
+            release.countDown();
+            asyncProvider.dispose();
+        }
+    }
+
+    @Test(expected = InvalidCredentialsException.class)
+    public void testGetIssueById_whenCredentialsAreInvalid_throwsProviderFailure() throws Exception {
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueById(1, HOST, null)).thenThrow(new InvalidCredentialsException("Boo!"));
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 2, 2, false);
+        try {
+            new DeadlineTfsDataProvider(asyncProvider, dataProvider, 5000L).getIssueById(1, HOST, null);
+        }
+        finally {
+            asyncProvider.dispose();
+        }
+    }
+
+    @Test
+    public void testGetIssueRevisions_callsProviderDirectly() throws Exception {
+
+        Date since = new Date();
+        AsyncTfsDataProvider asyncProvider = mock(AsyncTfsDataProvider.class);
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+
+        DeadlineTfsDataProvider provider = new DeadlineTfsDataProvider(asyncProvider, dataProvider, 5000L);
+        provider.getIssueIdsChangedSince(since, HOST, null);
+        provider.getIssueRevisions(Arrays.asList(1, 2), HOST, null);
+
+        verify(dataProvider).getIssueIdsChangedSince(since, HOST, null);
+        verify(dataProvider).getIssueRevisions(Arrays.asList(1, 2), HOST, null);
+        verifyZeroInteractions(asyncProvider);
+    }
+}
@@ -0,0 +1,173 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.apache.commons.httpclient.Credentials;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the ExecutorTfsDataProvider class.
+ */
+public class ExecutorTfsDataProviderTest {
+
+    static final String HOST = "http://tfs.com";
+
+    @Test
+    public void testGetIssueById_whenIssueExists_completesWithData() throws Exception {
+
+        Credentials credentials = mock(Credentials.class);
+        IssueData issueData = new IssueData("1", "MyIssue", "Done", HOST, true);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueById(1, HOST, credentials)).thenReturn(issueData);
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 2, 2, false);
+        try {
+            Future<IssueData> result = asyncProvider.getIssueById(1, HOST, credentials, 5, TimeUnit.SECONDS);
+
+            assertSame(issueData, result.get(5, TimeUnit.SECONDS));
+            verify(dataProvider).getIssueById(1, HOST, credentials);
+        }
+        finally {
+            asyncProvider.dispose();
+        }
+    }
+
+    @Test
+    public void testGetIssues_whenProviderFails_completesWithFailure() throws Exception {
+
+        Credentials credentials = mock(Credentials.class);
+        Collection<Integer> ids = Arrays.asList(1, 2);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssues(ids, HOST, credentials)).thenThrow(new IllegalStateException("Boo!"));
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 2, 2, true);
+        try {
+            Future<Collection<IssueData>> result = asyncProvider.getIssues(ids, HOST, credentials, 5, TimeUnit.SECONDS);
+
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Expected the provider failure");
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        finally {
+            asyncProvider.dispose();
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testGetIssuesForVersion_whenDeadlineExpires_cancelsCall() throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssuesForVersion(eq(123), eq(HOST), any(Credentials.class))).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 1, 1, false);
+        try {
+            Future<Collection<IssueData>> result = asyncProvider.getIssuesForVersion(123, HOST, null, 50, TimeUnit.MILLISECONDS);
+            result.get(5, TimeUnit.SECONDS);
+        }
+        finally {
+            release.countDown();
+            asyncProvider.dispose();
+        }
+    }
+
+    @Test
+    public void testGetIssuesForVersion_whenCancelledCallIsStillBlocked_keepsCapacity() throws Exception {
+
+        // Like socket I/O, the call does not return when it is interrupted
+        final Semaphore release = new Semaphore(0);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssuesForVersion(eq(123), eq(HOST), any(Credentials.class))).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                release.acquireUninterruptibly();
+                return null;
+            }
+        });
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 1, 1, false);
+        try {
+            Future<Collection<IssueData>> result = asyncProvider.getIssuesForVersion(123, HOST, null, 50, TimeUnit.MILLISECONDS);
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Expected the call to be cancelled");
+            }
+            catch (CancellationException e) {
+                // Expected
+            }
+
+            assertEquals(1, asyncProvider.getAvailableCapacity());
+
+            release.release();
+            for (int i = 0; i < 100 && asyncProvider.getAvailableCapacity() < 2; i++) {
+                Thread.sleep(50);
+            }
+
+            assertEquals(2, asyncProvider.getAvailableCapacity());
+        }
+        finally {
+            release.release();
+            asyncProvider.dispose();
+        }
+    }
+
+    @Test
+    public void testGetIssueById_whenCapacityExhausted_rejectsCall() throws Exception {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueById(anyInt(), eq(HOST), any(Credentials.class))).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+
+        ExecutorTfsDataProvider asyncProvider = new ExecutorTfsDataProvider(dataProvider, 1, 1, false);
+        try {
+            asyncProvider.getIssueById(1, HOST, null, 5, TimeUnit.SECONDS);
+            asyncProvider.getIssueById(2, HOST, null, 5, TimeUnit.SECONDS);
+
+            assertEquals(0, asyncProvider.getAvailableCapacity());
+
+            try {
+                asyncProvider.getIssueById(3, HOST, null, 5, TimeUnit.SECONDS);
+                fail("Expected the call to be rejected");
+            }
+            catch (RejectedExecutionException e) {
+                // Expected
+            }
+        }
+        finally {
+            release.countDown();
+            asyncProvider.dispose();
+        }
+    }
+}
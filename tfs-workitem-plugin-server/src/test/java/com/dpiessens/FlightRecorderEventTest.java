@@ -0,0 +1,53 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the FlightRecorderEvent class.
+ */
+public class FlightRecorderEventTest {
+
+    @Test
+    public void testBegin_whenNotRecording_returnsDisabledEvent() throws Exception {
+
+        FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.WORK_ITEM_FETCH);
+
+        assertFalse(event.isEnabled());
+        assertSame(event, FlightRecorderEvent.begin(FlightRecorderEvent.Type.CACHE_MISS));
+
+        event.commit("http://tfs:8080/tfs/Collection", 3, "ok");
+    }
+
+    @Test
+    public void testBegin_whenRecording_returnsEnabledEvent() throws Exception {
+
+        final Class<?> recordingClass;
+        try {
+            recordingClass = Class.forName("jdk.jfr.Recording");
+        }
+        catch (ClassNotFoundException e) {
+            // Java 10 and older have no flight recorder API, the events are never enabled there
+            return;
+        }
+
+        Object recording = recordingClass.newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, "com.dpiessens.TfsConnect");
+        Method close = recordingClass.getMethod("close");
+        try {
+            recordingClass.getMethod("start").invoke(recording);
+
+            FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.CONNECT);
+
+            assertTrue(event.isEnabled());
+
+            event.commit(null, 0, "failed");
+        }
+        finally {
+            close.invoke(recording);
+        }
+    }
+}
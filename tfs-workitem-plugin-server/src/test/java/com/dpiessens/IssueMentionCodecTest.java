@@ -0,0 +1,105 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the IssueMentionCodec class.
+ */
+public class IssueMentionCodecTest {
+
+    @Test
+    public void testDecode_whenUrlsShareTemplate_returnsSameMentions() throws Exception {
+
+        List<SerializableIssueMention> mentions = Arrays.asList(
+                new SerializableIssueMention("1", "http://localhost:8080/tfs/web/wi.aspx?id=1"),
+                new SerializableIssueMention("300", "http://localhost:8080/tfs/web/wi.aspx?id=300"),
+                new SerializableIssueMention("70000", "http://localhost:8080/tfs/web/wi.aspx?id=70000"));
+
+        List<SerializableIssueMention> decoded = IssueMentionCodec.decode(IssueMentionCodec.encode(mentions));
+
+        assertMentions(mentions, decoded);
+    }
+
+    @Test
+    public void testDecode_whenUrlsDiffer_returnsSameMentions() throws Exception {
+
+        List<SerializableIssueMention> mentions = Arrays.asList(
+                new SerializableIssueMention("1", "http://localhost/tfs/DefaultCollection/web/wi.aspx?id=1"),
+                new SerializableIssueMention("2", "http://otherhost/tfs/web/wi.aspx?id=2"),
+                new SerializableIssueMention("3", null));
+
+        List<SerializableIssueMention> decoded = IssueMentionCodec.decode(IssueMentionCodec.encode(mentions));
+
+        assertMentions(mentions, decoded);
+    }
+
+    @Test
+    public void testDecode_whenNoUrls_returnsMentionsWithoutUrls() throws Exception {
+
+        List<SerializableIssueMention> mentions = Arrays.asList(
+                new SerializableIssueMention("5", null),
+                new SerializableIssueMention("6", null));
+
+        List<SerializableIssueMention> decoded = IssueMentionCodec.decode(IssueMentionCodec.encode(mentions));
+
+        assertMentions(mentions, decoded);
+    }
+
+    @Test
+    public void testDecode_whenEmpty_returnsEmptyList() throws Exception {
+
+        byte[] bytes = IssueMentionCodec.encode(Collections.<SerializableIssueMention>emptyList());
+
+        assertTrue(IssueMentionCodec.decode(bytes).isEmpty());
+    }
+
+    @Test
+    public void testEncode_isSmallerThanJavaSerialization() throws Exception {
+
+        ArrayList<SerializableIssueMention> mentions = new ArrayList<SerializableIssueMention>();
+        for (int id = 1000; id < 1010; id++) {
+            mentions.add(new SerializableIssueMention(String.valueOf(id), "http://localhost:8080/tfs/web/wi.aspx?id=" + id));
+        }
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(serialized);
+        output.writeObject(mentions);
+        output.close();
+
+        byte[] encoded = IssueMentionCodec.encode(mentions);
+
+        assertTrue(encoded.length < 70);
+        assertTrue(encoded.length * 5 < serialized.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncode_whenIdIsNotANumber_throwsException() throws Exception {
+
+        IssueMentionCodec.encode(Arrays.asList(new SerializableIssueMention("ABC", null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecode_whenTruncated_throwsException() throws Exception {
+
+        byte[] bytes = IssueMentionCodec.encode(Arrays.asList(new SerializableIssueMention("1", "http://localhost/1")));
+
+        IssueMentionCodec.decode(Arrays.copyOf(bytes, bytes.length - 2));
+    }
+
+    private static void assertMentions(List<SerializableIssueMention> expected, List<SerializableIssueMention> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getUrl(), actual.get(i).getUrl());
+        }
+    }
+}
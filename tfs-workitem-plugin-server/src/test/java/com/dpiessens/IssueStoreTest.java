@@ -0,0 +1,186 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the IssueStore class.
+ */
+public class IssueStoreTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("tfs-workitems", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void testGetLinks_whenRevisionStored_returnsIds() throws Exception {
+
+        IssueStore store = new IssueStore(directory, true);
+        store.putLinks("http://localhost/", 22, Arrays.asList(1, 2, 3));
+
+        assertEquals(Arrays.asList(1, 2, 3), store.getLinks("http://localhost", 22));
+        assertNull(store.getLinks("http://localhost", 23));
+        assertNull(store.getLinks("http://otherhost", 22));
+
+        store.dispose();
+    }
+
+    @Test
+    public void testGetLinks_whenNoLinkedWorkItems_returnsEmptyList() throws Exception {
+
+        IssueStore store = new IssueStore(directory, true);
+        store.putLinks("http://localhost", 22, Collections.<Integer>emptyList());
+
+        assertEquals(Collections.<Integer>emptyList(), store.getLinks("http://localhost", 22));
+
+        store.dispose();
+    }
+
+    @Test
+    public void testGetIssue_afterReopen_returnsStoredIssue() throws Exception {
+
+        IssueStore store = new IssueStore(directory, true);
+        store.putIssue("http://localhost", createIssue("5", "Old Title"));
+        store.putIssue("http://localhost", createIssue("5", "My Title"));
+        store.putLinks("http://localhost", 22, Arrays.asList(5));
+        store.dispose();
+
+        IssueStore reopened = new IssueStore(directory, true);
+        IssueData issue = reopened.getIssue("http://localhost", "5");
+
+        assertNotNull(issue);
+        assertEquals("5", issue.getId());
+        assertEquals("My Title", issue.getSummary());
+        assertEquals("http://localhost/5", issue.getUrl());
+        assertFalse(issue.isResolved());
+        assertEquals(1, reopened.getIssueCount());
+        assertEquals(1, reopened.getLinkCount());
+
+        reopened.dispose();
+    }
+
+    @Test
+    public void testRemoveIssue_afterReopen_issueStaysRemoved() throws Exception {
+
+        IssueStore store = new IssueStore(directory, true);
+        store.putIssue("http://localhost", createIssue("5", "My Title"));
+        store.removeIssue("http://localhost", "5");
+        store.dispose();
+
+        IssueStore reopened = new IssueStore(directory, true);
+
+        assertNull(reopened.getIssue("http://localhost", "5"));
+        assertEquals(0, reopened.getIssueCount());
+
+        reopened.dispose();
+    }
+
+    @Test
+    public void testOpen_whenLastRecordIncomplete_keepsEarlierRecords() throws Exception {
+
+        IssueStore store = new IssueStore(directory, true);
+        store.putLinks("http://localhost", 22, Arrays.asList(1));
+        store.putLinks("http://localhost", 23, Arrays.asList(2));
+        store.dispose();
+
+        File log = new File(directory, "links.log");
+        RandomAccessFile file = new RandomAccessFile(log, "rw");
+        long length = file.length();
+        file.setLength(length - 3);
+        file.close();
+
+        IssueStore reopened = new IssueStore(directory, true);
+
+        assertEquals(Arrays.asList(1), reopened.getLinks("http://localhost", 22));
+        assertNull(reopened.getLinks("http://localhost", 23));
+
+        reopened.putLinks("http://localhost", 24, Arrays.asList(3));
+        reopened.dispose();
+
+        IssueStore again = new IssueStore(directory, true);
+        assertEquals(Arrays.asList(3), again.getLinks("http://localhost", 24));
+        again.dispose();
+    }
+
+    @Test
+    public void testOpen_whenStoppedWhileCompacting_restoresOldLog() throws Exception {
+
+        IssueStore store = new IssueStore(directory, true);
+        store.putLinks("http://localhost", 22, Arrays.asList(1));
+        store.dispose();
+
+        // The old log was moved aside but its compacted copy never made it into place
+        File log = new File(directory, "links.log");
+        File previous = new File(directory, "links.log.old");
+        assertTrue(log.renameTo(previous));
+
+        IssueStore reopened = new IssueStore(directory, true);
+
+        assertEquals(Arrays.asList(1), reopened.getLinks("http://localhost", 22));
+        assertTrue(log.exists());
+        assertFalse(previous.exists());
+
+        reopened.dispose();
+    }
+
+    @Test
+    public void testDisabled_storesNothing() throws Exception {
+
+        IssueStore store = new IssueStore(directory, false);
+        store.putLinks("http://localhost", 22, Arrays.asList(1));
+        store.putIssue("http://localhost", createIssue("5", "My Title"));
+
+        assertFalse(store.isEnabled());
+        assertNull(store.getLinks("http://localhost", 22));
+        assertNull(store.getIssue("http://localhost", "5"));
+        assertFalse(new File(directory, "links.log").exists());
+    }
+
+    @Test
+    public void testOpen_whenDirectoryCannotBeCreated_disablesStore() throws Exception {
+
+        File blocker = new File(directory, "blocker");
+        assertTrue(blocker.createNewFile());
+
+        IssueStore store = new IssueStore(new File(blocker, "store"), true);
+
+        assertFalse(store.isEnabled());
+        assertNull(store.getLinks("http://localhost", 22));
+    }
+
+    private static IssueData createIssue(String id, String summary) throws IOException {
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put(IssueData.SUMMARY_FIELD, summary);
+        fields.put(IssueData.STATE_FIELD, "Active");
+        return new IssueData(id, fields, false, false, "http://localhost/" + id);
+    }
+}
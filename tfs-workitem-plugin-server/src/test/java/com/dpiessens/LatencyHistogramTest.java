@@ -0,0 +1,52 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the LatencyHistogram class.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testRecord_countsValuesInBuckets() throws Exception {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0L);
+        histogram.record(3L);
+        histogram.record(5L);
+        histogram.record(120000L);
+
+        long[] counts = histogram.getBucketCounts();
+        assertEquals(1, counts[0]);
+        assertEquals(2, counts[2]);
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(4, histogram.getCount());
+        assertEquals(120000L, histogram.getMaxMillis());
+        assertEquals(30002L, histogram.getAverageMillis());
+    }
+
+    @Test
+    public void testGetPercentileMillis_returnsBucketBound() throws Exception {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 95; i++) {
+            histogram.record(20L);
+        }
+        for (int i = 0; i < 5; i++) {
+            histogram.record(700L);
+        }
+
+        assertEquals(25L, histogram.getPercentileMillis(50.0));
+        assertEquals(25L, histogram.getP95Millis());
+        assertEquals(700L, histogram.getP99Millis());
+    }
+
+    @Test
+    public void testGetPercentileMillis_whenEmpty_returnsZero() throws Exception {
+
+        assertEquals(0L, new LatencyHistogram().getP95Millis());
+        assertEquals(0L, new LatencyHistogram().getAverageMillis());
+    }
+}
@@ -0,0 +1,82 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the NegativeCache class.
+ */
+public class NegativeCacheTest {
+
+    @Test
+    public void testIsSuppressed_whenKeyNeverFailed_returnsFalse() throws Exception {
+
+        NegativeCache cache = new NegativeCache(1000L, 8000L, 100);
+
+        assertFalse(cache.isSuppressed("key", 0L));
+        assertNull(cache.getReason("key"));
+    }
+
+    @Test
+    public void testRecordFailure_suppressesKeyUntilTtlPassed() throws Exception {
+
+        NegativeCache cache = new NegativeCache(1000L, 8000L, 100);
+
+        long ttl = cache.recordFailure("key", "Boo!", 0L);
+
+        assertEquals(1000L, ttl);
+        assertTrue(cache.isSuppressed("key", 999L));
+        assertFalse(cache.isSuppressed("key", 1000L));
+        assertEquals("Boo!", cache.getReason("key"));
+    }
+
+    @Test
+    public void testRecordFailure_whenKeyKeepsFailing_backsOffUpToMaximum() throws Exception {
+
+        NegativeCache cache = new NegativeCache(1000L, 4000L, 100);
+
+        assertEquals(1000L, cache.recordFailure("key", "Boo!", 0L));
+        assertEquals(2000L, cache.recordFailure("key", "Boo!", 1000L));
+        assertEquals(4000L, cache.recordFailure("key", "Boo!", 3000L));
+        assertEquals(4000L, cache.recordFailure("key", "Boo!", 7000L));
+    }
+
+    @Test
+    public void testRecordFailure_whenLastFailureIsLongAgo_startsOver() throws Exception {
+
+        NegativeCache cache = new NegativeCache(1000L, 4000L, 100);
+
+        cache.recordFailure("key", "Boo!", 0L);
+        cache.recordFailure("key", "Boo!", 1000L);
+
+        assertEquals(1000L, cache.recordFailure("key", "Boo!", 60000L));
+    }
+
+    @Test
+    public void testRecordSuccess_endsBackoff() throws Exception {
+
+        NegativeCache cache = new NegativeCache(1000L, 4000L, 100);
+
+        cache.recordFailure("key", "Boo!", 0L);
+        cache.recordSuccess("key");
+
+        assertFalse(cache.isSuppressed("key", 0L));
+        assertEquals(1000L, cache.recordFailure("key", "Boo!", 0L));
+    }
+
+    @Test
+    public void testRecordFailure_whenFull_purgesExpiredKeys() throws Exception {
+
+        NegativeCache cache = new NegativeCache(1000L, 4000L, 2);
+
+        cache.recordFailure("first", "Boo!", 0L);
+        cache.recordFailure("second", "Boo!", 5000L);
+        cache.recordFailure("third", "Boo!", 5000L);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.getReason("first"));
+        assertTrue(cache.isSuppressed("second", 5000L));
+        assertTrue(cache.isSuppressed("third", 5000L));
+    }
+}
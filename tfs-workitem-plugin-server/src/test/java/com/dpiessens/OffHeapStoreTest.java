@@ -0,0 +1,105 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the OffHeapStore class.
+ */
+public class OffHeapStoreTest {
+
+    @Test
+    public void testGet_whenPut_returnsValue() throws Exception {
+
+        OffHeapStore store = new OffHeapStore(1024);
+        store.put("a", new byte[] { 1, 2, 3 });
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, store.get("a"));
+        assertNull(store.get("b"));
+        assertTrue(store.contains("a"));
+        assertEquals(1, store.size());
+        assertEquals(8L + 1L + 3L, store.getUsedBytes());
+    }
+
+    @Test
+    public void testPut_whenKeyReplaced_returnsNewValue() throws Exception {
+
+        OffHeapStore store = new OffHeapStore(1024);
+        store.put("a", new byte[] { 1 });
+        store.put("a", new byte[] { 2, 2 });
+
+        assertArrayEquals(new byte[] { 2, 2 }, store.get("a"));
+        assertEquals(1, store.size());
+        assertEquals(8L + 1L + 2L, store.getUsedBytes());
+    }
+
+    @Test
+    public void testRemove_removesValue() throws Exception {
+
+        OffHeapStore store = new OffHeapStore(1024);
+        store.put("a", new byte[] { 1 });
+
+        assertTrue(store.remove("a"));
+        assertFalse(store.remove("a"));
+        assertNull(store.get("a"));
+        assertEquals(0, store.size());
+        assertEquals(0L, store.getUsedBytes());
+    }
+
+    @Test
+    public void testPut_whenManyKeys_growsIndex() throws Exception {
+
+        OffHeapStore store = new OffHeapStore(1024 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            store.put("issue/" + i, new byte[] { (byte) i });
+        }
+
+        for (int i = 0; i < 10000; i += 7) {
+            store.remove("issue/" + i);
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            byte[] value = store.get("issue/" + i);
+            if (i % 7 == 0) {
+                assertNull(value);
+            } else {
+                assertEquals((byte) i, value[0]);
+            }
+        }
+    }
+
+    @Test
+    public void testPut_whenFull_compactsBeforeDroppingOldest() throws Exception {
+
+        // Each record is 8 + 1 + 91 = 100 bytes
+        OffHeapStore store = new OffHeapStore(300);
+        store.put("a", new byte[91]);
+        store.put("b", new byte[91]);
+        store.put("c", new byte[91]);
+        store.remove("b");
+
+        store.put("d", new byte[91]);
+
+        assertTrue(store.contains("a"));
+        assertTrue(store.contains("c"));
+        assertTrue(store.contains("d"));
+
+        store.put("e", new byte[91]);
+
+        assertFalse(store.contains("a"));
+        assertTrue(store.contains("c"));
+        assertTrue(store.contains("d"));
+        assertTrue(store.contains("e"));
+        assertEquals(300L, store.getUsedBytes());
+    }
+
+    @Test
+    public void testPut_whenLargerThanBuffer_returnsFalse() throws Exception {
+
+        OffHeapStore store = new OffHeapStore(64);
+
+        assertFalse(store.put("a", new byte[64]));
+        assertEquals(0, store.size());
+    }
+}
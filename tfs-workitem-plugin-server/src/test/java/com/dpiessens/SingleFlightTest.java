@@ -0,0 +1,124 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SingleFlight class.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testExecute_whenNoCallInFlight_runsLoader() throws Exception {
+
+        SingleFlight<String, String> flights = new SingleFlight<String, String>();
+
+        String result = flights.execute("key", new Callable<String>() {
+            public String call() throws Exception {
+                return "value";
+            }
+        });
+
+        assertEquals("value", result);
+        assertEquals(1, flights.getExecutedCount());
+        assertEquals(0, flights.getCoalescedCount());
+        assertEquals(0, flights.getInFlightCount());
+    }
+
+    @Test
+    public void testExecute_whenConcurrentCallsForSameKey_runsLoaderOnce() throws Exception {
+
+        final SingleFlight<String, String> flights = new SingleFlight<String, String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+
+            results.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return flights.execute("key", new Callable<String>() {
+                        public String call() throws Exception {
+                            loads.incrementAndGet();
+                            started.countDown();
+                            release.await(5, TimeUnit.SECONDS);
+                            return "value";
+                        }
+                    });
+                }
+            }));
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return flights.execute("key", new Callable<String>() {
+                            public String call() throws Exception {
+                                loads.incrementAndGet();
+                                return "other";
+                            }
+                        });
+                    }
+                }));
+            }
+
+            while (flights.getCoalescedCount() < 3) {
+                Thread.sleep(10);
+            }
+
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("value", result.get(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals(1, loads.get());
+            assertEquals(1, flights.getExecutedCount());
+            assertEquals(3, flights.getCoalescedCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecute_whenLoaderFails_rethrowsAndForgetsKey() throws Exception {
+
+        SingleFlight<String, String> flights = new SingleFlight<String, String>();
+
+        try {
+            flights.execute("key", new Callable<String>() {
+                public String call() throws Exception {
+                    throw new IllegalStateException("Boo!");
+                }
+            });
+            fail("Expected the loader failure to be rethrown");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("Boo!", e.getMessage());
+        }
+
+        String result = flights.execute("key", new Callable<String>() {
+            public String call() throws Exception {
+                return "value";
+            }
+        });
+
+        assertEquals("value", result);
+        assertEquals(2, flights.getExecutedCount());
+    }
+}
@@ -0,0 +1,73 @@
+package com.dpiessens;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the TfsCacheManager class.
+ */
+public class TfsCacheManagerTest {
+
+    private static final long HOUR = 3600L * 1000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("tfs-cache", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void testGetCache_whenNameRequestedTwice_returnsSameCache() throws Exception {
+
+        TfsCacheManager manager = new TfsCacheManager(directory);
+
+        WeightedCache first = manager.getCache("tfsIssueMentions http://localhost", new CacheSettings(1024L, HOUR, true));
+        WeightedCache second = manager.getCache("tfsIssueMentions http://localhost", new CacheSettings(2048L, HOUR, false));
+        WeightedCache other = manager.getCache("tfsIssueMentions http://otherhost", new CacheSettings(1024L, HOUR, true));
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(1024L, second.getSettings().getMaxBytes());
+        assertEquals(2, manager.getCaches().size());
+
+        manager.dispose();
+    }
+
+    @Test
+    public void testDispose_deletesOverflowFilesOfAllCaches() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, new byte[100]);
+        TfsCacheManager manager = new TfsCacheManager(directory);
+
+        WeightedCache cache = manager.getCache("test", new CacheSettings(entryWeight, HOUR, true));
+        cache.put(new net.sf.ehcache.Element(1, new byte[100]));
+        cache.put(new net.sf.ehcache.Element(2, new byte[100]));
+        assertEquals(1, cache.getOverflowSize());
+
+        manager.dispose();
+
+        assertTrue(manager.getCaches().isEmpty());
+        assertEquals(0, cache.getOverflowSize());
+        assertEquals(0, directory.listFiles().length);
+    }
+}
@@ -0,0 +1,153 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.vcs.VcsModification;
+import jetbrains.buildServer.vcs.VcsRoot;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the TfsChangePrefetcher class.
+ */
+public class TfsChangePrefetcherTest {
+
+    @Test
+    public void testDrain_whenChangesAddedForTfsRoot_prefetchesThemInOneBatch() throws Exception {
+
+        final TfsIssueProviderFactory factory = mock(TfsIssueProviderFactory.class);
+        final TfsIssueProvider provider = mock(TfsIssueProvider.class);
+        final VcsRoot root = createRoot(1L, "tfs");
+
+        when(factory.getProviders()).thenReturn(Arrays.asList(provider));
+        when(provider.isProviderFor(root)).thenReturn(true);
+        when(provider.prefetchRelatedIssues(anyCollectionOf(Integer.class), eq(root))).thenReturn(2);
+
+        TfsChangePrefetcher prefetcher = createPrefetcher(factory, 100);
+
+        prefetcher.changeAdded(createModification("123"), root, null);
+        prefetcher.changeAdded(createModification("124"), root, null);
+        prefetcher.changeAdded(createModification("124"), root, null);
+
+        assertEquals(2, prefetcher.getQueuedCount());
+
+        prefetcher.drain();
+
+        verify(provider).prefetchRelatedIssues(argThat(new IsRevisions(Arrays.asList(123, 124))), eq(root));
+        assertEquals(0, prefetcher.getQueuedCount());
+        assertEquals(2, prefetcher.getPrefetchedCount());
+
+        prefetcher.dispose();
+    }
+
+    @Test
+    public void testChangeAdded_whenRootIsNotTfs_ignoresChange() throws Exception {
+
+        final TfsIssueProviderFactory factory = mock(TfsIssueProviderFactory.class);
+
+        TfsChangePrefetcher prefetcher = createPrefetcher(factory, 100);
+
+        prefetcher.changeAdded(createModification("123"), createRoot(1L, "jetbrains.git"), null);
+        prefetcher.drain();
+
+        assertEquals(0, prefetcher.getQueuedCount());
+        verifyZeroInteractions(factory);
+
+        prefetcher.dispose();
+    }
+
+    @Test
+    public void testChangeAdded_whenVersionIsNotANumber_ignoresChange() throws Exception {
+
+        final TfsIssueProviderFactory factory = mock(TfsIssueProviderFactory.class);
+
+        TfsChangePrefetcher prefetcher = createPrefetcher(factory, 100);
+
+        prefetcher.changeAdded(createModification("abc"), createRoot(1L, "tfs"), null);
+
+        assertEquals(0, prefetcher.getQueuedCount());
+
+        prefetcher.dispose();
+    }
+
+    @Test
+    public void testChangeAdded_whenQueueIsFull_dropsChange() throws Exception {
+
+        final TfsIssueProviderFactory factory = mock(TfsIssueProviderFactory.class);
+        final VcsRoot root = createRoot(1L, "tfs");
+
+        TfsChangePrefetcher prefetcher = createPrefetcher(factory, 1);
+
+        prefetcher.changeAdded(createModification("123"), root, null);
+        prefetcher.changeAdded(createModification("124"), root, null);
+
+        assertEquals(1, prefetcher.getQueuedCount());
+        assertEquals(1, prefetcher.getDroppedCount());
+
+        prefetcher.dispose();
+    }
+
+    @Test
+    public void testDrain_whenProviderIsForAnotherHost_skipsProvider() throws Exception {
+
+        final TfsIssueProviderFactory factory = mock(TfsIssueProviderFactory.class);
+        final TfsIssueProvider provider = mock(TfsIssueProvider.class);
+        final VcsRoot root = createRoot(1L, "tfs");
+
+        when(factory.getProviders()).thenReturn(Arrays.asList(provider));
+        when(provider.isProviderFor(root)).thenReturn(false);
+
+        TfsChangePrefetcher prefetcher = createPrefetcher(factory, 100);
+
+        prefetcher.changeAdded(createModification("123"), root, null);
+        prefetcher.drain();
+
+        verify(provider).isProviderFor(root);
+        verifyNoMoreInteractions(provider);
+
+        prefetcher.dispose();
+    }
+
+    private static TfsChangePrefetcher createPrefetcher(TfsIssueProviderFactory factory, int maxQueued) {
+        @SuppressWarnings("unchecked")
+        EventDispatcher<BuildServerListener> events = mock(EventDispatcher.class);
+
+        // A long delay keeps the background drain out of the way of the test
+        return new TfsChangePrefetcher(events, factory, true, 60000L, maxQueued);
+    }
+
+    private static VcsModification createModification(String version) {
+        VcsModification modification = mock(VcsModification.class);
+        when(modification.isPersonal()).thenReturn(false);
+        when(modification.getVersion()).thenReturn(version);
+        return modification;
+    }
+
+    private static VcsRoot createRoot(long id, String vcsName) {
+        VcsRoot root = mock(VcsRoot.class);
+        when(root.getId()).thenReturn(id);
+        when(root.getVcsName()).thenReturn(vcsName);
+        return root;
+    }
+
+    static class IsRevisions extends ArgumentMatcher<Collection<Integer>> {
+
+        private final List<Integer> revisions;
+
+        IsRevisions(List<Integer> revisions) {
+            this.revisions = revisions;
+        }
+
+        public boolean matches(Object argument) {
+            Collection actual = (Collection) argument;
+            return actual.size() == revisions.size() && actual.containsAll(revisions);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the TfsCircuitBreaker class.
+ */
+public class TfsCircuitBreakerTest {
+
+    static final String HOST = "http://tfs.com";
+
+    @Test
+    public void testTryAcquire_whenNewBreaker_isClosed() throws Exception {
+
+        TfsCircuitBreaker breaker = new TfsCircuitBreaker(HOST, 50, 4, 1000L, 30000L);
+
+        assertTrue(breaker.tryAcquire(0L));
+        assertEquals(TfsCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOnFailure_whenFailureRateReached_opensBreaker() throws Exception {
+
+        TfsCircuitBreaker breaker = new TfsCircuitBreaker(HOST, 50, 4, 1000L, 30000L);
+
+        breaker.onSuccess(10L, 0L);
+        breaker.onSuccess(10L, 0L);
+        breaker.onFailure("Timeout", 0L);
+        assertEquals(TfsCircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onFailure("Timeout", 100L);
+
+        assertEquals(TfsCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getTripCount());
+        assertEquals(100L, breaker.getOpenedAt());
+        assertEquals("Timeout", breaker.getLastFailure());
+        assertFalse(breaker.tryAcquire(200L));
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testOnSuccess_whenCallIsSlow_countsAsFailure() throws Exception {
+
+        TfsCircuitBreaker breaker = new TfsCircuitBreaker(HOST, 100, 2, 1000L, 30000L);
+
+        breaker.onSuccess(5000L, 0L);
+        breaker.onSuccess(5000L, 0L);
+
+        assertEquals(TfsCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testTryAcquire_whenOpenPeriodElapsed_allowsSingleProbe() throws Exception {
+
+        TfsCircuitBreaker breaker = new TfsCircuitBreaker(HOST, 100, 1, 1000L, 30000L);
+        breaker.onFailure("Timeout", 0L);
+
+        assertTrue(breaker.tryAcquire(30000L));
+        assertEquals(TfsCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire(30001L));
+    }
+
+    @Test
+    public void testOnSuccess_whenProbeSucceeds_closesBreaker() throws Exception {
+
+        TfsCircuitBreaker breaker = new TfsCircuitBreaker(HOST, 100, 1, 1000L, 30000L);
+        breaker.onFailure("Timeout", 0L);
+        breaker.tryAcquire(30000L);
+
+        breaker.onSuccess(10L, 30010L);
+
+        assertEquals(TfsCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailureRatePercent());
+        assertTrue(breaker.tryAcquire(30020L));
+    }
+
+    @Test
+    public void testOnFailure_whenProbeFails_reopensBreaker() throws Exception {
+
+        TfsCircuitBreaker breaker = new TfsCircuitBreaker(HOST, 100, 1, 1000L, 30000L);
+        breaker.onFailure("Timeout", 0L);
+        breaker.tryAcquire(30000L);
+
+        breaker.onFailure("Timeout", 30010L);
+
+        assertEquals(TfsCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTripCount());
+        assertFalse(breaker.tryAcquire(30020L));
+    }
+}
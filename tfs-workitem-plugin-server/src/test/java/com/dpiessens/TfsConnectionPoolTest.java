@@ -0,0 +1,205 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.TFSTeamProjectCollection;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the TfsConnectionPool class.
+ */
+public class TfsConnectionPoolTest {
+
+    static final String HOST = "http://tfs.com/tfs/DefaultCollection";
+
+    @Test
+    public void testAcquire_whenSameHostAndCredentials_returnsSharedConnection() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 4);
+
+        TfsConnection first = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        pool.release(first, false);
+
+        TfsConnection second = pool.acquire(HOST.toUpperCase() + "/", new UsernamePasswordCredentials("BOB", "abc1234"));
+        pool.release(second, false);
+
+        assertSame(first, second);
+        assertEquals(1, pool.collections.size());
+        verify(pool.collections.get(0), never()).close();
+
+        pool.dispose();
+    }
+
+    @Test
+    public void testAcquire_whenDifferentUsers_returnsSeparateConnections() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 4);
+
+        TfsConnection first = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        TfsConnection second = pool.acquire(HOST, new UsernamePasswordCredentials("alice", "abc1234"));
+
+        assertNotSame(first, second);
+        assertEquals(2, pool.size());
+
+        pool.dispose();
+    }
+
+    @Test
+    public void testAcquire_whenPasswordChanged_invalidatesPooledConnection() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 4);
+
+        TfsConnection first = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        pool.release(first, false);
+
+        TfsConnection second = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "newPassword"));
+
+        assertNotSame(first, second);
+        assertEquals(1, pool.size());
+        verify(pool.collections.get(0)).close();
+
+        pool.dispose();
+    }
+
+    @Test
+    public void testAcquire_whenHostLimitReachedAndAllBusy_returnsUnpooledConnection() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 1);
+
+        TfsConnection first = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        TfsConnection second = pool.acquire(HOST, new UsernamePasswordCredentials("alice", "abc1234"));
+
+        assertEquals(1, pool.size());
+
+        pool.release(second, false);
+        verify(pool.collections.get(1)).close();
+
+        pool.release(first, false);
+        verify(pool.collections.get(0), never()).close();
+
+        pool.dispose();
+    }
+
+    @Test
+    public void testAcquire_whenMoreIdentitiesThanLimit_closesUnpooledConnectionsOnRelease() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 2);
+
+        TfsConnection bob = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        TfsConnection alice = pool.acquire(HOST, new UsernamePasswordCredentials("alice", "abc1234"));
+        TfsConnection carol = pool.acquire(HOST, new UsernamePasswordCredentials("carol", "abc1234"));
+        TfsConnection dave = pool.acquire(HOST, new UsernamePasswordCredentials("dave", "abc1234"));
+
+        // Concurrent calls of a pooled identity share its connection
+        assertSame(bob, pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234")));
+        assertEquals(2, pool.size());
+        assertEquals(4, pool.collections.size());
+
+        pool.release(carol, false);
+        pool.release(dave, false);
+        verify(pool.collections.get(2)).close();
+        verify(pool.collections.get(3)).close();
+
+        pool.release(bob, false);
+        pool.release(bob, false);
+        pool.release(alice, false);
+        verify(pool.collections.get(0), never()).close();
+        verify(pool.collections.get(1), never()).close();
+
+        pool.dispose();
+    }
+
+    @Test
+    public void testAcquire_whenHostLimitReached_evictsIdleConnection() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 1);
+
+        TfsConnection first = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        pool.release(first, false);
+
+        pool.acquire(HOST, new UsernamePasswordCredentials("alice", "abc1234"));
+
+        assertEquals(1, pool.size());
+        verify(pool.collections.get(0)).close();
+
+        pool.dispose();
+    }
+
+    @Test
+    public void testRelease_whenCallFailed_closesConnection() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 4);
+
+        TfsConnection connection = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        pool.release(connection, true);
+
+        assertEquals(0, pool.size());
+        verify(pool.collections.get(0)).close();
+
+        pool.dispose();
+    }
+
+    @Test
+    public void testEvictIdleConnections_whenConnectionIsIdle_closesConnection() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 4);
+
+        TfsConnection idle = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        pool.release(idle, false);
+
+        TfsConnection busy = pool.acquire(HOST, new UsernamePasswordCredentials("alice", "abc1234"));
+
+        pool.evictIdleConnections(System.currentTimeMillis() + 120000L);
+
+        assertEquals(1, pool.size());
+        verify(pool.collections.get(0)).close();
+        verify(pool.collections.get(1), never()).close();
+
+        pool.release(busy, false);
+        pool.dispose();
+    }
+
+    @Test
+    public void testInvalidate_whenConnectionIsLeased_closesOnRelease() throws Exception {
+
+        TestConnectionPool pool = new TestConnectionPool(60000L, 4);
+
+        TfsConnection connection = pool.acquire(HOST, new UsernamePasswordCredentials("bob", "abc1234"));
+        pool.invalidate(HOST + "/");
+
+        assertEquals(0, pool.size());
+        verify(pool.collections.get(0), never()).close();
+
+        pool.release(connection, false);
+        verify(pool.collections.get(0)).close();
+
+        pool.dispose();
+    }
+
+    /**
+     * A pool that hands out mock collections instead of connecting to a server.
+     */
+    static class TestConnectionPool extends TfsConnectionPool {
+
+        final List<TFSTeamProjectCollection> collections = new ArrayList<TFSTeamProjectCollection>();
+
+        TestConnectionPool(long idleTimeoutMillis, int maxIdentitiesPerHost) {
+            super(idleTimeoutMillis, maxIdentitiesPerHost);
+        }
+
+        @NotNull
+        @Override
+        protected TFSTeamProjectCollection createCollection(@NotNull URI host, @NotNull com.microsoft.tfs.core.httpclient.Credentials credentials) {
+            TFSTeamProjectCollection collection = mock(TFSTeamProjectCollection.class);
+            collections.add(collection);
+            return collection;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.dpiessens;
+
+import net.sf.ehcache.Element;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the TfsDiagnostics class.
+ */
+public class TfsDiagnosticsTest {
+
+    private static final String HOST = "http://tfs.com";
+
+    private TfsIssueProviderFactory providerFactory;
+    private TfsIssueFetcher issueFetcher;
+    private CircuitBreakingTfsDataProvider dataProvider;
+    private TimingTfsDataProvider timingProvider;
+    private TfsDiagnostics diagnostics;
+
+    @Before
+    public void setUp() throws Exception {
+        providerFactory = mock(TfsIssueProviderFactory.class);
+        issueFetcher = mock(TfsIssueFetcher.class);
+        dataProvider = mock(CircuitBreakingTfsDataProvider.class);
+        timingProvider = new TimingTfsDataProvider(mock(TfsDataProvider.class), 1000L);
+
+        diagnostics = new TfsDiagnostics(providerFactory, issueFetcher, dataProvider, timingProvider, mock(CacheRevalidator.class),
+                IssueStore.disabled(), mock(TfsChangePrefetcher.class), new TfsCacheManager());
+    }
+
+    @Test
+    public void testGetMentionCaches_keysCachesByProviderHost() throws Exception {
+
+        TfsIssueProvider first = mockProvider(HOST);
+        TfsIssueProvider second = mockProvider(HOST);
+        TfsIssueProvider unconfigured = mockProvider(null);
+        when(providerFactory.getProviders()).thenReturn(Arrays.asList(first, second, unconfigured));
+
+        Map<String, WeightedCache> caches = diagnostics.getMentionCaches();
+
+        assertEquals(3, caches.size());
+        assertSame(first.getMentionCache(), caches.get(HOST));
+        assertSame(second.getMentionCache(), caches.get(HOST + " #2"));
+        assertSame(unconfigured.getMentionCache(), caches.get("(not configured)"));
+    }
+
+    @Test
+    public void testToJson_includesCacheCountersAndBreakers() throws Exception {
+
+        WeightedCache cache = new WeightedCache("tfsIssues " + HOST, new CacheSettings(1024L * 1024L, 3600000L, false), null, 0L);
+        cache.put(new Element("a", "b"));
+        cache.get("a");
+        cache.get("c");
+        cache.getStatistics().recordFetch(20L, false);
+        cache.getStatistics().recordNegativeHit();
+
+        when(issueFetcher.getCaches()).thenReturn(Collections.singletonMap(HOST, cache));
+        when(issueFetcher.getCoalescedFetchCount()).thenReturn(4L);
+        when(dataProvider.getBreakers()).thenReturn(Collections.singletonList(new TfsCircuitBreaker(HOST, 50, 10, 1000L, 1000L)));
+
+        String json = diagnostics.toJson();
+
+        assertTrue(json, json.contains("\"coalescedIssueFetches\":4"));
+        assertTrue(json, json.contains("\"breakers\":[{\"host\":\"http://tfs.com\",\"state\":\"CLOSED\""));
+        assertTrue(json, json.contains("\"mentionCaches\":[]"));
+        assertTrue(json, json.contains("\"issueCaches\":[{\"host\":\"http://tfs.com\",\"name\":\"tfsIssues http://tfs.com\""));
+        assertTrue(json, json.contains("\"hits\":1,"));
+        assertTrue(json, json.contains("\"misses\":1,"));
+        assertTrue(json, json.contains("\"negativeHits\":1,"));
+        assertTrue(json, json.contains("\"fetches\":1,"));
+        assertTrue(json, json.contains("\"maxFetchMillis\":20}"));
+    }
+
+    @Test
+    public void testToJson_includesCallLatencies() throws Exception {
+
+        timingProvider.getIssues(Arrays.asList(1, 2), HOST, null);
+
+        String json = diagnostics.toJson();
+
+        assertTrue(json, json.contains("\"calls\":[{\"host\":\"http://tfs.com\",\"method\":\"getIssues\",\"failures\":0,\"slowCalls\":0"));
+        assertTrue(json, json.contains("\"total\":{\"count\":1,"));
+        assertTrue(json, json.contains("\"inf\":0}"));
+    }
+
+    private static TfsIssueProvider mockProvider(String host) {
+        TfsIssueProvider provider = mock(TfsIssueProvider.class);
+        WeightedCache cache = new WeightedCache("tfsIssueMentions", new CacheSettings(1024L, 1000L, false), null, 0L);
+        when(provider.getTfsHost()).thenReturn(host);
+        when(provider.getMentionCache()).thenReturn(cache);
+        return provider;
+    }
+}
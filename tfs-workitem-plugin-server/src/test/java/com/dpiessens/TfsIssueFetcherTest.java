@@ -13,7 +13,10 @@ import org.mockito.ArgumentMatcher;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -151,6 +154,293 @@ public class TfsIssueFetcherTest {
         verifyZeroInteractions(credentials);
     }
 
+    @Test
+    public void testGetIssuesInBatch_whenIssueWasNotFound_doesNotQueryItAgain() throws Exception {
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+
+        IssueData issueData10 = new IssueData("10", "MyIssue 10", "Done", HOST, true);
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssues(argThat(new IsListOf(Arrays.asList(10, 11))), eq(HOST), eq(credentials)))
+                .thenReturn(Arrays.asList(issueData10));
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        fetcher.getIssuesInBatch(HOST, Arrays.asList("10", "11"), credentials);
+        Collection<IssueData> result = fetcher.getIssuesInBatch(HOST, Arrays.asList("10", "11"), credentials);
+
+        assertNotNull(result);
+        assertEquals(1, result.size());
+
+        CacheStatistics statistics = fetcher.getCache(HOST).getStatistics();
+        assertEquals(1, statistics.getFetchCount());
+        assertEquals(1, statistics.getNegativeHitCount());
+        assertEquals(1, fetcher.getSuppressedCount());
+
+        verify(tfsDataProvider).getIssues(argThat(new IsListOf(Arrays.asList(10, 11))), eq(HOST), eq(credentials));
+        verifyNoMoreInteractions(tfsDataProvider);
+    }
+
+    @Test
+    public void testGetIssue_whenLookupFailedRecently_doesNotQueryAgain() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssueById(12, HOST, credentials)).thenReturn(null);
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        try {
+            fetcher.getIssue(HOST, "12", credentials);
+            fail("Expected the missing issue to fail");
+        } catch (Exception e) {
+            assertEquals("Could not find issue in TFS Id: 12", e.getMessage());
+        }
+
+        try {
+            fetcher.getIssue(HOST, "12", credentials);
+            fail("Expected the missing issue to fail");
+        } catch (TfsUnavailableException e) {
+            // Expected, the lookup is suppressed
+        }
+
+        CacheStatistics statistics = fetcher.getCache(HOST).getStatistics();
+        assertEquals(1, statistics.getFetchFailureCount());
+        assertEquals(1, statistics.getNegativeHitCount());
+
+        verify(tfsDataProvider).getIssueById(12, HOST, credentials);
+        verifyNoMoreInteractions(tfsDataProvider);
+    }
+
+    @Test
+    public void testGetIssuesOrFail_whenIssueIsMissing_leavesItOut() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+
+        IssueData issueData = new IssueData("40", "MyIssue 40", "Active", HOST, false);
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssues(argThat(new IsListOf(Arrays.asList(40, 41))), eq(HOST), eq(credentials)))
+                .thenReturn(Arrays.asList(issueData));
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        assertEquals(Arrays.asList(issueData), fetcher.getIssuesOrFail(HOST, Arrays.asList("40", "41"), credentials));
+        assertEquals(Arrays.asList(issueData), fetcher.getIssuesOrFail(HOST, Arrays.asList("40", "41"), credentials));
+
+        verify(tfsDataProvider).getIssues(argThat(new IsListOf(Arrays.asList(40, 41))), eq(HOST), eq(credentials));
+    }
+
+    @Test
+    public void testGetIssuesOrFail_whenBatchFails_throwsUnavailable() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssues(argThat(new IsListOf(Arrays.asList(42))), eq(HOST), eq(credentials)))
+                .thenThrow(new TfsUnavailableException("Circuit breaker is open"));
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        assertTrue(fetcher.getIssuesInBatch(HOST, Arrays.asList("42"), credentials).isEmpty());
+
+        // The failed lookup is suppressed now, it must still not look like a missing work item
+        try {
+            fetcher.getIssuesOrFail(HOST, Arrays.asList("42"), credentials);
+            fail("Expected the lookup to fail");
+        }
+        catch (TfsUnavailableException e) {
+            assertTrue(e.getMessage().contains("Circuit breaker is open"));
+        }
+
+        verify(tfsDataProvider).getIssues(argThat(new IsListOf(Arrays.asList(42))), eq(HOST), eq(credentials));
+    }
+
+    @Test
+    public void testSyncChangedIssues_whenCachedIssueChanged_refreshesOnlyCachedIssues() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+
+        IssueData issueData = new IssueData("20", "MyIssue 20", "Active", HOST, false);
+        IssueData changedIssueData = new IssueData("20", "MyIssue 20", "Done", HOST, true);
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssueById(20, HOST, credentials)).thenReturn(issueData);
+        when(tfsDataProvider.getIssueIdsChangedSince(any(Date.class), eq(HOST), eq(credentials))).thenReturn(Arrays.asList(20, 21));
+        when(tfsDataProvider.getIssues(argThat(new IsListOf(Arrays.asList(20))), eq(HOST), eq(credentials)))
+                .thenReturn(Arrays.asList(changedIssueData));
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        fetcher.getIssue(HOST, "20", credentials);
+
+        long now = System.currentTimeMillis() + 60000L;
+        int refreshed = fetcher.syncChangedIssues(now, 1000L);
+
+        assertEquals(1, refreshed);
+        assertEquals(new Date(now - 1000L), fetcher.getWatermark(HOST));
+        assertSame(changedIssueData, fetcher.getIssue(HOST, "20", credentials));
+
+        verify(tfsDataProvider).getIssueById(20, HOST, credentials);
+        verify(tfsDataProvider).getIssues(argThat(new IsListOf(Arrays.asList(20))), eq(HOST), eq(credentials));
+    }
+
+    @Test
+    public void testSyncChangedIssues_whenChangedIssueIsOffHeap_refreshesIssue() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+
+        IssueData issueData = new IssueData("22", "MyIssue 22", "Active", HOST, false);
+        IssueData changedIssueData = new IssueData("22", "MyIssue 22", "Done", HOST, true);
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssueById(22, HOST, credentials)).thenReturn(issueData);
+        when(tfsDataProvider.getIssueIdsChangedSince(any(Date.class), eq(HOST), eq(credentials))).thenReturn(Arrays.asList(22));
+        when(tfsDataProvider.getIssues(argThat(new IsListOf(Arrays.asList(22))), eq(HOST), eq(credentials)))
+                .thenReturn(Arrays.asList(changedIssueData));
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        // A budget of one byte moves every issue to the off-heap tier right away
+        fetcher.configureCache(HOST, new CacheSettings(1L, 3600L * 1000L, false, 1024L * 1024L));
+        fetcher.getIssue(HOST, "22", credentials);
+        assertEquals(0, fetcher.getCache(HOST).getSize());
+
+        assertEquals(1, fetcher.syncChangedIssues(System.currentTimeMillis() + 60000L, 1000L));
+        assertEquals("Done", fetcher.getIssue(HOST, "22", credentials).getState());
+    }
+
+    @Test
+    public void testIsStale_whenSyncIsCurrent_skipsBackgroundRefresh() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssueById(23, HOST, credentials)).thenReturn(new IssueData("23", "MyIssue 23", "Active", HOST, false));
+        when(tfsDataProvider.getIssueIdsChangedSince(any(Date.class), eq(HOST), eq(credentials))).thenReturn(Arrays.<Integer>asList());
+
+        CacheRevalidator revalidator = new CacheRevalidator(true, 1000L, 86400, 1, 10);
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider, revalidator, IssueStore.disabled(), new TfsCacheManager());
+
+        fetcher.getIssue(HOST, "23", credentials);
+        net.sf.ehcache.Element element = fetcher.getCache(HOST).getQuiet(fetcher.getUrl(HOST, "23"));
+        long cachedAt = element.getCreationTime();
+
+        assertTrue(fetcher.isStale(HOST, element, cachedAt + 5000L));
+
+        fetcher.syncChangedIssues(cachedAt + 5000L, 1000L);
+
+        assertFalse(fetcher.isStale(HOST, element, cachedAt + 5500L));
+        assertTrue(fetcher.isStale(HOST, element, cachedAt + 6000L));
+    }
+
+    @Test
+    public void testEnableSync_keepsIssuesForSyncTimeToLive() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+        long week = 7L * 24L * 3600L * 1000L;
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssueById(24, HOST, credentials)).thenReturn(new IssueData("24", "MyIssue 24", "Active", HOST, false));
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+        fetcher.configureCache(HOST, new CacheSettings(1024L * 1024L, 3600L * 1000L, false));
+        fetcher.enableSync(week);
+        fetcher.getIssue(HOST, "24", credentials);
+
+        assertEquals(week, fetcher.getCache(HOST).getSettings().getTtlMillis());
+        assertEquals(week / 1000L, fetcher.getCache(HOST).getQuiet(fetcher.getUrl(HOST, "24")).getTimeToLive());
+
+        fetcher.configureCache(HOST, new CacheSettings(1024L * 1024L, 3600L * 1000L, false));
+        assertEquals(week, fetcher.getCache(HOST).getSettings().getTtlMillis());
+    }
+
+    @Test
+    public void testSyncChangedIssues_whenHostIsSpelledDifferently_queriesHostOnce() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+        String otherSpelling = "HTTP://TFS.com/";
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssueById(25, HOST, credentials)).thenReturn(new IssueData("25", "MyIssue 25", "Active", HOST, false));
+        when(tfsDataProvider.getIssueIdsChangedSince(any(Date.class), anyString(), eq(credentials))).thenReturn(Arrays.asList(25));
+        when(tfsDataProvider.getIssues(argThat(new IsListOf(Arrays.asList(25))), anyString(), eq(credentials)))
+                .thenReturn(Arrays.asList(new IssueData("25", "MyIssue 25", "Done", HOST, true)));
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        fetcher.getIssue(HOST, "25", credentials);
+        fetcher.getIssue(otherSpelling, "25", credentials);
+
+        long now = System.currentTimeMillis() + 60000L;
+        assertEquals(1, fetcher.syncChangedIssues(now, 1000L));
+        assertEquals(fetcher.getWatermark(HOST), fetcher.getWatermark(otherSpelling));
+        assertEquals("Done", fetcher.getIssue(otherSpelling, "25", credentials).getState());
+
+        verify(tfsDataProvider).getIssueById(25, HOST, credentials);
+        verify(tfsDataProvider).getIssueIdsChangedSince(any(Date.class), anyString(), eq(credentials));
+    }
+
+    @Test
+    public void testSyncChangedIssues_whenNothingIsCached_skipsTfs() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        assertEquals(0, fetcher.syncChangedIssues(System.currentTimeMillis(), 1000L));
+        assertNull(fetcher.getWatermark(HOST));
+
+        verifyZeroInteractions(tfsDataProvider);
+    }
+
+    @Test
+    public void testRefreshIssues_whenRevisionDidNotMove_keepsCachedIssue() throws Exception {
+
+        EhCacheUtil cacheUtil = this.createCacheUtil();
+        Credentials credentials = mock(Credentials.class);
+
+        IssueData unchanged = createIssue("30", "5");
+        IssueData outdated = createIssue("31", "2");
+        IssueData changed = createIssue("31", "3");
+
+        TfsDataProvider tfsDataProvider = mock(TfsDataProvider.class);
+        when(tfsDataProvider.getIssueById(30, HOST, credentials)).thenReturn(unchanged);
+        when(tfsDataProvider.getIssueById(31, HOST, credentials)).thenReturn(outdated);
+
+        Map<Integer, Integer> revisions = new HashMap<Integer, Integer>();
+        revisions.put(30, 5);
+        revisions.put(31, 3);
+        when(tfsDataProvider.getIssueRevisions(anyCollectionOf(Integer.class), eq(HOST), eq(credentials))).thenReturn(revisions);
+        when(tfsDataProvider.getIssues(argThat(new IsListOf(Arrays.asList(31))), eq(HOST), eq(credentials)))
+                .thenReturn(Arrays.asList(changed));
+
+        TfsIssueFetcher fetcher = new TfsIssueFetcher(cacheUtil, tfsDataProvider);
+
+        fetcher.getIssue(HOST, "30", credentials);
+        fetcher.getIssue(HOST, "31", credentials);
+
+        int refreshed = fetcher.refreshIssues(HOST, Arrays.asList("30", "31"), credentials);
+
+        assertEquals(1, refreshed);
+        assertEquals(1, fetcher.getUnchangedRefreshCount());
+        assertSame(unchanged, fetcher.getIssue(HOST, "30", credentials));
+        assertSame(changed, fetcher.getIssue(HOST, "31", credentials));
+
+        verify(tfsDataProvider).getIssues(argThat(new IsListOf(Arrays.asList(31))), eq(HOST), eq(credentials));
+    }
+
     @Test
     public void testGetUrl_whenHostContainsTrailingSlash_returnsFormattedValue() throws Exception {
 
@@ -181,6 +471,15 @@ public class TfsIssueFetcherTest {
         verifyZeroInteractions(tfsDataProvider);
     }
 
+    private static IssueData createIssue(String id, String revision) {
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put(IssueData.SUMMARY_FIELD, "MyIssue " + id);
+        fields.put(IssueData.STATE_FIELD, "Active");
+        fields.put("System.Rev", revision);
+
+        return new IssueData(id, fields, false, false, HOST);
+    }
+
     @SuppressWarnings("unchecked")
     private EhCacheUtil createCacheUtil() {
         EventDispatcher<BuildServerListener> listener = mock(EventDispatcher.class);
@@ -2,11 +2,12 @@ package com.dpiessens;
 
 import jetbrains.buildServer.issueTracker.IssueFetcher;
 import jetbrains.buildServer.issueTracker.IssueProvider;
-import jetbrains.buildServer.util.cache.EhCacheUtil;
 import jetbrains.buildServer.vcs.VcsManager;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
@@ -22,9 +23,9 @@ public class TfsIssueProviderFactoryTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProviderFactory factory = new TfsIssueProviderFactory(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProviderFactory factory = new TfsIssueProviderFactory(fetcher, dataProvider, vcsManager, cacheManager);
 
         IssueProvider provider = factory.createProvider();
 
@@ -34,4 +35,20 @@ public class TfsIssueProviderFactoryTest {
         verifyZeroInteractions(dataProvider);
         verifyZeroInteractions(vcsManager);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetProviders_returnsCreatedProviders() throws Exception {
+
+        final IssueFetcher fetcher = mock(IssueFetcher.class);
+        final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        final VcsManager vcsManager = mock(VcsManager.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
+
+        TfsIssueProviderFactory factory = new TfsIssueProviderFactory(fetcher, dataProvider, vcsManager, cacheManager);
+
+        IssueProvider provider = factory.createProvider();
+
+        assertEquals(1, factory.getProviders().size());
+        assertTrue(factory.getProviders().contains(provider));
+    }
+}
@@ -3,16 +3,19 @@ package com.dpiessens;
 import jetbrains.buildServer.issueTracker.IssueData;
 import jetbrains.buildServer.issueTracker.IssueFetcher;
 import jetbrains.buildServer.issueTracker.IssueMention;
-import jetbrains.buildServer.util.cache.EhCacheUtil;
 import jetbrains.buildServer.vcs.SVcsModification;
 import jetbrains.buildServer.vcs.VcsManager;
 import jetbrains.buildServer.vcs.VcsModification;
 import jetbrains.buildServer.vcs.VcsRootInstance;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -30,9 +33,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         Boolean usePrefix = provider.useIdPrefix();
 
@@ -49,9 +52,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         String providerType = provider.getType();
 
@@ -68,9 +71,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         Boolean usePrefix = provider.isBatchFetchSupported();
 
@@ -87,9 +90,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(true);
@@ -112,9 +115,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(false);
@@ -139,9 +142,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(false);
@@ -166,9 +169,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(true);
@@ -193,9 +196,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(false);
@@ -225,9 +228,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(false);
@@ -265,9 +268,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(false);
@@ -307,9 +310,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(false);
@@ -324,7 +327,10 @@ public class TfsIssueProviderTest {
 
         when(vcsManager.findModificationById(11234L, false)).thenReturn(serverModification);
 
-        when(dataProvider.getIssuesForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+        when(dataProvider.getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenReturn(Arrays.asList(1));
+
+        when(fetcher.getIssuesInBatch(anyString(), argThat(new IsListOf(Arrays.asList("1"))), any(org.apache.commons.httpclient.Credentials.class)))
                 .thenReturn(new ArrayList<IssueData>() {{
                     add(new IssueData("1", "My Issue", "Done", "http://myapp.com/1", true));
                 }});
@@ -344,9 +350,142 @@ public class TfsIssueProviderTest {
 
         verify(vcsManager).findModificationById(11234L, false);
 
-        verify(dataProvider).getIssuesForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class));
+        verify(dataProvider).getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class));
+
+        verify(fetcher).getIssuesInBatch(anyString(), argThat(new IsListOf(Arrays.asList("1"))), any(org.apache.commons.httpclient.Credentials.class));
+
+        verifyNoMoreInteractions(vcsManager, modification, vcsRootInstance, serverModification, dataProvider, fetcher);
+    }
+
+    @Test
+    public void testGetRelatedIssues_cachesLinksForLinkCacheTtl() throws Exception {
+
+        final IssueFetcher fetcher = mock(IssueFetcher.class);
+        final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        final VcsManager vcsManager = mock(VcsManager.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
+
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+
+        final VcsModification modification = mock(VcsModification.class);
+        when(modification.isPersonal()).thenReturn(false);
+        when(modification.getId()).thenReturn(11234L);
+        when(modification.getVersion()).thenReturn("123");
+
+        final VcsRootInstance vcsRootInstance = mock(VcsRootInstance.class);
+        when(vcsRootInstance.getVcsName()).thenReturn("tfs");
+
+        final SVcsModification serverModification = mock(SVcsModification.class);
+        when(serverModification.getVcsRoot()).thenReturn(vcsRootInstance);
+
+        when(vcsManager.findModificationById(11234L, false)).thenReturn(serverModification);
+
+        when(dataProvider.getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenReturn(new ArrayList<Integer>());
+
+        provider.getRelatedIssues(modification);
+
+        net.sf.ehcache.Element element = provider.getMentionCache().getQuiet(123);
+        assertNotNull(element);
+        assertEquals(0, element.getTimeToLive());
+        assertEquals(720L * 3600L * 1000L, provider.getMentionCache().getSettings().getTtlMillis());
+    }
+
+    @Test
+    public void testSetProperties_whenProvidersShareHost_shareLinkCache() throws Exception {
+
+        final IssueFetcher fetcher = mock(IssueFetcher.class);
+        final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        final VcsManager vcsManager = mock(VcsManager.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
+
+        TfsIssueProvider first = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+        TfsIssueProvider second = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+        TfsIssueProvider other = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+
+        first.setProperties(Collections.singletonMap("host", "http://tfs:8080/tfs/DefaultCollection/"));
+        second.setProperties(Collections.singletonMap("host", "HTTP://TFS:8080/tfs/defaultcollection"));
+        other.setProperties(Collections.singletonMap("host", "http://tfs:8080/tfs/OtherCollection"));
+
+        assertSame(first.getMentionCache(), second.getMentionCache());
+        assertNotSame(first.getMentionCache(), other.getMentionCache());
+        assertTrue(cacheManager.getCaches().contains(first.getMentionCache()));
+
+        cacheManager.dispose();
+        assertTrue(cacheManager.getCaches().isEmpty());
+    }
+
+    @Test
+    public void testGetRelatedIssues_whenIssuesCannotBeRead_doesNotCacheMentions() throws Exception {
+
+        final TfsIssueFetcher fetcher = mock(TfsIssueFetcher.class);
+        final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        final VcsManager vcsManager = mock(VcsManager.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
+
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+
+        final VcsModification modification = mock(VcsModification.class);
+        when(modification.isPersonal()).thenReturn(false);
+        when(modification.getId()).thenReturn(11234L);
+        when(modification.getVersion()).thenReturn("123");
+
+        final VcsRootInstance vcsRootInstance = mock(VcsRootInstance.class);
+        when(vcsRootInstance.getVcsName()).thenReturn("tfs");
+
+        final SVcsModification serverModification = mock(SVcsModification.class);
+        when(serverModification.getVcsRoot()).thenReturn(vcsRootInstance);
+
+        when(vcsManager.findModificationById(11234L, false)).thenReturn(serverModification);
+
+        when(dataProvider.getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenReturn(Arrays.asList(1));
+
+        when(fetcher.getIssuesOrFail(anyString(), argThat(new IsListOf(Arrays.asList("1"))), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenThrow(new TfsUnavailableException("TFS did not answer within 20000 ms"));
+
+        Collection<IssueMention> relatedIssues = provider.getRelatedIssues(modification);
 
-        verifyNoMoreInteractions(vcsManager, modification, vcsRootInstance, serverModification, dataProvider);
+        assertNotNull(relatedIssues);
+        assertEquals(0, relatedIssues.size());
+        assertFalse(provider.getMentionCache().isKeyInCache(123));
+        assertEquals(1, provider.getSuppressedCount());
+    }
+
+    @Test
+    public void testGetRelatedIssues_whenVcsRevisionHasNoIssues_skipsIssueFetcher() throws Exception {
+
+        final IssueFetcher fetcher = mock(IssueFetcher.class);
+        final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        final VcsManager vcsManager = mock(VcsManager.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
+
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+
+        final VcsModification modification = mock(VcsModification.class);
+        when(modification.isPersonal()).thenReturn(false);
+        when(modification.getId()).thenReturn(11234L);
+        when(modification.getVersion()).thenReturn("123");
+
+        final VcsRootInstance vcsRootInstance = mock(VcsRootInstance.class);
+        when(vcsRootInstance.getVcsName()).thenReturn("tfs");
+
+        final SVcsModification serverModification = mock(SVcsModification.class);
+        when(serverModification.getVcsRoot()).thenReturn(vcsRootInstance);
+
+        when(vcsManager.findModificationById(11234L, false)).thenReturn(serverModification);
+
+        when(dataProvider.getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenReturn(new ArrayList<Integer>());
+
+        Collection<IssueMention> relatedIssues = provider.getRelatedIssues(modification);
+
+        assertNotNull(relatedIssues);
+        assertEquals(0, relatedIssues.size());
+
+        verify(dataProvider).getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class));
+
+        verifyNoMoreInteractions(dataProvider);
         verifyZeroInteractions(fetcher);
     }
 
@@ -356,9 +495,9 @@ public class TfsIssueProviderTest {
         final IssueFetcher fetcher = mock(IssueFetcher.class);
         final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
         final VcsManager vcsManager = mock(VcsManager.class);
-        final EhCacheUtil cacheUtil = mock(EhCacheUtil.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheUtil);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
 
         final VcsModification modification = mock(VcsModification.class);
         when(modification.isPersonal()).thenReturn(false);
@@ -376,7 +515,10 @@ public class TfsIssueProviderTest {
 
         when(vcsManager.findModificationById(11234L, false)).thenReturn(serverModification);
 
-        when(dataProvider.getIssuesForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+        when(dataProvider.getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenReturn(Arrays.asList(1));
+
+        when(fetcher.getIssuesInBatch(anyString(), argThat(new IsListOf(Arrays.asList("1"))), any(org.apache.commons.httpclient.Credentials.class)))
                 .thenReturn(new ArrayList<IssueData>() {{
                     add(new IssueData("1", "My Issue", "Done", "http://myapp.com/1", true));
                 }});
@@ -406,9 +548,124 @@ public class TfsIssueProviderTest {
 
         verify(vcsManager).findModificationById(11234L, false);
 
-        verify(dataProvider).getIssuesForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class));
+        verify(dataProvider).getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class));
+
+        verify(fetcher).getIssuesInBatch(anyString(), argThat(new IsListOf(Arrays.asList("1"))), any(org.apache.commons.httpclient.Credentials.class));
+
+        verifyNoMoreInteractions(vcsManager, modification, vcsRootInstance, serverModification, dataProvider, fetcher);
+    }
+
+    @Test
+    public void testGetRelatedIssues_whenLookupFailedRecently_doesNotQueryTfsAgain() throws Exception {
+
+        final IssueFetcher fetcher = mock(IssueFetcher.class);
+        final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        final VcsManager vcsManager = mock(VcsManager.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
 
-        verifyNoMoreInteractions(vcsManager, modification, vcsRootInstance, serverModification, dataProvider);
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+
+        final VcsModification modification = mock(VcsModification.class);
+        when(modification.isPersonal()).thenReturn(false);
+        when(modification.getId()).thenReturn(11234L);
+        when(modification.getVersion()).thenReturn("123");
+
+        final VcsRootInstance vcsRootInstance = mock(VcsRootInstance.class);
+        when(vcsRootInstance.getVcsName()).thenReturn("tfs");
+
+        final SVcsModification serverModification = mock(SVcsModification.class);
+        when(serverModification.getVcsRoot()).thenReturn(vcsRootInstance);
+
+        when(vcsManager.findModificationById(11234L, false)).thenReturn(serverModification);
+
+        when(dataProvider.getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenThrow(new IllegalStateException("Boo!"));
+
+        assertEquals(0, provider.getRelatedIssues(modification).size());
+        assertEquals(0, provider.getRelatedIssues(modification).size());
+
+        verify(dataProvider).getIssueIdsForVersion(eq(123), anyString(), any(org.apache.commons.httpclient.Credentials.class));
+        verifyNoMoreInteractions(dataProvider);
         verifyZeroInteractions(fetcher);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPrefetchRelatedIssues_whenRevisionsAreNotCached_readsAllRevisionsInOneBatch() throws Exception {
+
+        final IssueFetcher fetcher = mock(IssueFetcher.class);
+        final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        final VcsManager vcsManager = mock(VcsManager.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
+
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+
+        final VcsRootInstance vcsRootInstance = mock(VcsRootInstance.class);
+
+        final Map<Integer, Collection<Integer>> links = new HashMap<Integer, Collection<Integer>>();
+        links.put(123, Arrays.asList(1, 2));
+        links.put(124, Arrays.asList(2));
+        links.put(125, new ArrayList<Integer>());
+
+        when(dataProvider.getIssueIdsForVersions(anyCollectionOf(Integer.class), anyString(), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenReturn(links);
+
+        when(fetcher.getIssuesInBatch(anyString(), argThat(new IsListOf(Arrays.asList("1", "2"))), any(org.apache.commons.httpclient.Credentials.class)))
+                .thenReturn(new ArrayList<IssueData>() {{
+                    add(new IssueData("1", "My Issue", "Done", "http://myapp.com/1", true));
+                    add(new IssueData("2", "Other Issue", "Done", "http://myapp.com/2", true));
+                }});
+
+        int prefetched = provider.prefetchRelatedIssues(Arrays.asList(123, 124, 125), vcsRootInstance);
+
+        assertEquals(3, prefetched);
+
+        verify(dataProvider).getIssueIdsForVersions(anyCollectionOf(Integer.class), anyString(), any(org.apache.commons.httpclient.Credentials.class));
+
+        verify(fetcher).getIssuesInBatch(anyString(), argThat(new IsListOf(Arrays.asList("1", "2"))), any(org.apache.commons.httpclient.Credentials.class));
+
+        verifyNoMoreInteractions(dataProvider, fetcher);
+    }
+
+    @Test
+    public void testPrefetchRelatedIssues_whenNoRevisions_skipsTfs() throws Exception {
+
+        final IssueFetcher fetcher = mock(IssueFetcher.class);
+        final TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        final VcsManager vcsManager = mock(VcsManager.class);
+        final TfsCacheManager cacheManager = new TfsCacheManager();
+
+        TfsIssueProvider provider = new TfsIssueProvider(fetcher, dataProvider, vcsManager, cacheManager);
+
+        int prefetched = provider.prefetchRelatedIssues(new ArrayList<Integer>(), mock(VcsRootInstance.class));
+
+        assertEquals(0, prefetched);
+
+        verifyZeroInteractions(dataProvider, fetcher);
+    }
+
+    class IsListOf extends ArgumentMatcher<Collection<String>> {
+
+        private final List matchItems;
+
+        public IsListOf(List matchItems) {
+            this.matchItems = matchItems;
+        }
+
+        public boolean matches(Object list) {
+
+            Collection matchList = (Collection) list;
+
+            if (matchList.size() != this.matchItems.size()) {
+                return false;
+            }
+
+            for (Object item : this.matchItems) {
+                if (!matchList.contains(item)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.dpiessens;
+
+import jetbrains.buildServer.issueTracker.IssueData;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the TimingTfsDataProvider class.
+ */
+public class TimingTfsDataProviderTest {
+
+    private static final String HOST = "http://tfs.com";
+
+    @Test
+    public void testGetIssues_recordsPhases() throws Exception {
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssues(Arrays.asList(1, 2), HOST, null)).thenAnswer(new Answer<Collection<IssueData>>() {
+            public Collection<IssueData> answer(InvocationOnMock invocation) throws Throwable {
+                TfsCallTimer.enter(TfsCallTimer.Phase.CONNECT);
+                Thread.sleep(5L);
+                TfsCallTimer.enter(TfsCallTimer.Phase.QUERY);
+                Thread.sleep(20L);
+                TfsCallTimer.enter(TfsCallTimer.Phase.CONVERT);
+                return Collections.emptyList();
+            }
+        });
+
+        TimingTfsDataProvider provider = new TimingTfsDataProvider(dataProvider, 10000L);
+        provider.getIssues(Arrays.asList(1, 2), HOST + "/", null);
+
+        TfsCallStatistics statistics = provider.getStatistics("getIssues", HOST);
+        assertEquals(1, statistics.getTotal().getCount());
+        assertTrue(statistics.getConnect().getMaxMillis() >= 5L);
+        assertTrue(statistics.getQuery().getMaxMillis() >= 20L);
+        assertTrue(statistics.getTotal().getMaxMillis() >= 25L);
+        assertEquals(0, statistics.getFailureCount());
+        assertEquals(0, statistics.getSlowCount());
+        assertEquals(1, provider.getCallStatistics().size());
+    }
+
+    @Test
+    public void testGetIssueById_whenCallFails_countsFailure() throws Exception {
+
+        TfsDataProvider dataProvider = mock(TfsDataProvider.class);
+        when(dataProvider.getIssueById(1, HOST, null)).thenThrow(new TfsUnavailableException("down"));
+
+        TimingTfsDataProvider provider = new TimingTfsDataProvider(dataProvider, 0L);
+
+        try {
+            provider.getIssueById(1, HOST, null);
+            fail("Expected the call to fail");
+        } catch (TfsUnavailableException e) {
+            // Expected
+        }
+
+        TfsCallStatistics statistics = provider.getStatistics("getIssueById", HOST);
+        assertEquals(1, statistics.getFailureCount());
+        assertEquals(1, statistics.getSlowCount());
+    }
+
+    @Test
+    public void testEnter_whenNoCallIsTimed_doesNothing() throws Exception {
+
+        TfsCallTimer.enter(TfsCallTimer.Phase.QUERY);
+
+        TfsCallTimer timer = TfsCallTimer.start();
+        timer.stop();
+
+        assertEquals(0L, timer.getMillis(TfsCallTimer.Phase.QUERY));
+    }
+}
@@ -0,0 +1,303 @@
+package com.dpiessens;
+
+import net.sf.ehcache.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the WeightedCache class.
+ */
+public class WeightedCacheTest {
+
+    private static final long HOUR = 3600L * 1000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("tfs-cache", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void testGet_whenPut_returnsElement() throws Exception {
+
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(1024L * 1024L, HOUR, false), null, 0L);
+        cache.put(new Element(1, new byte[10]));
+
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertTrue(cache.isKeyInCache(1));
+        assertEquals(1, cache.getSize());
+        assertEquals(WeightedCache.estimateWeight(1, new byte[10]), cache.getWeight());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testPut_whenBudgetExceeded_evictsLeastRecentlyUsed() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, new byte[100]);
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(entryWeight * 2, HOUR, false), null, 0L);
+
+        cache.put(new Element(1, new byte[100]));
+        cache.put(new Element(2, new byte[100]));
+        cache.get(1);
+        cache.put(new Element(3, new byte[100]));
+
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(entryWeight * 2, cache.getWeight());
+    }
+
+    @Test
+    public void testPut_whenKeyReplaced_keepsWeight() throws Exception {
+
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(1024L * 1024L, HOUR, false), null, 0L);
+
+        cache.put(new Element(1, new byte[100]));
+        cache.put(new Element(1, new byte[10]));
+
+        assertEquals(1, cache.getSize());
+        assertEquals(WeightedCache.estimateWeight(1, new byte[10]), cache.getWeight());
+    }
+
+    @Test
+    public void testGet_whenTtlPassed_returnsNull() throws Exception {
+
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(1024L * 1024L, HOUR, false), null, 0L);
+        long created = System.currentTimeMillis() - 2 * HOUR;
+        cache.put(new Element(1, new byte[10], 1L, created, created, 0L, created, 0L));
+
+        assertNull(cache.get(1));
+        assertEquals(0L, cache.getWeight());
+    }
+
+    @Test
+    public void testGet_whenElementTtlPassed_returnsNull() throws Exception {
+
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(1024L * 1024L, 24 * HOUR, false), null, 0L);
+        long created = System.currentTimeMillis() - 2 * HOUR;
+        Element expired = new Element(1, new byte[10], 1L, created, created, 0L, created, 0L);
+        expired.setTimeToLive(3600);
+        Element eternal = new Element(2, new byte[10], 1L, created, created, 0L, created, 0L);
+        eternal.setEternal(true);
+        cache.put(expired);
+        cache.put(eternal);
+
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+    }
+
+    @Test
+    public void testGet_whenElementHasNoTtl_usesCacheTtl() throws Exception {
+
+        // Changeset links are cached without an element TTL and outlive the maximum staleness of work items
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(1024L * 1024L, 720 * HOUR, false), null, 0L);
+        long created = System.currentTimeMillis() - 48 * HOUR;
+        cache.put(new Element(1, new byte[10], 1L, created, created, 0L, created, 0L));
+        created = System.currentTimeMillis() - 721 * HOUR;
+        cache.put(new Element(2, new byte[10], 1L, created, created, 0L, created, 0L));
+
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+    }
+
+    @Test
+    public void testGet_whenElementTtlPassedOffHeap_returnsNull() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, new byte[100]);
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(entryWeight, 24 * HOUR, false, 1024L * 1024L), null, 0L);
+        long created = System.currentTimeMillis() - 2 * HOUR;
+        Element expiring = new Element(1, new byte[100], 1L, created, created, 0L, created, 0L);
+        expiring.setTimeToLive(3 * 3600);
+        cache.put(expiring);
+        cache.put(new Element(2, new byte[100]));
+
+        Element element = cache.get(1);
+        assertNotNull(element);
+        assertEquals(3 * 3600, element.getTimeToLive());
+
+        element = new Element(3, new byte[100], 1L, created, created, 0L, created, 0L);
+        element.setTimeToLive(3600);
+        cache.put(element);
+        cache.put(new Element(4, new byte[100]));
+
+        assertNull(cache.get(3));
+    }
+
+    @Test
+    public void testConfigure_whenBudgetShrinks_evictsEntries() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, new byte[100]);
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(entryWeight * 4, HOUR, false), null, 0L);
+        for (int i = 0; i < 4; i++) {
+            cache.put(new Element(i, new byte[100]));
+        }
+
+        cache.configure(new CacheSettings(entryWeight, HOUR, false));
+
+        assertEquals(1, cache.getSize());
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    public void testGet_whenEvictedWithOverflow_readsBackFromDisk() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, new byte[100]);
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(entryWeight, HOUR, true),
+                new File(directory, "overflow.log"), 1024L * 1024L);
+
+        byte[] value = new byte[100];
+        value[0] = 42;
+        cache.put(new Element(1, value));
+        cache.put(new Element(2, new byte[100]));
+
+        assertNull(cache.getQuiet(1));
+        assertTrue(cache.isKeyInCache(1));
+        assertEquals(1, cache.getOverflowSize());
+
+        Element element = cache.get(1);
+
+        assertNotNull(element);
+        assertEquals(42, ((byte[]) element.getObjectValue())[0]);
+        assertEquals(1, cache.getOverflowHitCount());
+
+        cache.dispose();
+        assertFalse(new File(directory, "overflow.log").exists());
+    }
+
+    @Test
+    public void testGet_whenEvictedOffHeap_promotesBackToHeap() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, new byte[100]);
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(entryWeight, HOUR, true, 1024L * 1024L),
+                new File(directory, "overflow.log"), 1024L * 1024L);
+
+        byte[] value = new byte[100];
+        value[0] = 42;
+        cache.put(new Element(1, value));
+        cache.put(new Element(2, new byte[100]));
+
+        assertNull(cache.getQuiet(1));
+        assertTrue(cache.isKeyInCache(1));
+        assertEquals(1, cache.getOffHeapSize());
+        assertEquals(0, cache.getOverflowSize());
+
+        Element element = cache.get(1);
+
+        assertNotNull(element);
+        assertEquals(42, ((byte[]) element.getObjectValue())[0]);
+        assertEquals(1, cache.getOffHeapHitCount());
+        assertNotNull(cache.getQuiet(1));
+        assertNull(cache.getQuiet(2));
+        assertEquals(1, cache.getOffHeapSize());
+    }
+
+    @Test
+    public void testConfigure_whenOffHeapTurnedOff_dropsOffHeapEntries() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, new byte[100]);
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(entryWeight, HOUR, false, 1024L * 1024L), null, 0L);
+
+        cache.put(new Element(1, new byte[100]));
+        cache.put(new Element(2, new byte[100]));
+        cache.configure(new CacheSettings(entryWeight, HOUR, false));
+
+        assertEquals(0, cache.getOffHeapSize());
+        assertEquals(0L, cache.getOffHeapBytes());
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void testRemove_removesFromHeapAndDisk() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, new byte[100]);
+        WeightedCache cache = new WeightedCache("test", new CacheSettings(entryWeight, HOUR, true),
+                new File(directory, "overflow.log"), 1024L * 1024L);
+
+        cache.put(new Element(1, new byte[100]));
+        cache.put(new Element(2, new byte[100]));
+
+        cache.remove(1);
+        cache.remove(2);
+
+        assertNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getOverflowSize());
+    }
+
+    @Test
+    public void testGet_whenUsedConcurrently_neverReturnsStaleEntries() throws Exception {
+
+        long entryWeight = WeightedCache.estimateWeight(1, "0:0000");
+        final WeightedCache cache = new WeightedCache("test", new CacheSettings(entryWeight * 8, HOUR, true, 2048L),
+                new File(directory, "overflow.log"), 1024L * 1024L);
+
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    // Each thread owns its keys, so it knows what the cache must hold for them
+                    final String[] expected = new String[16];
+                    for (int i = 0; i < 5000; i++) {
+                        final int slot = i % expected.length;
+                        final Integer key = thread * 100 + slot;
+                        final Element element = cache.get(key);
+                        final Object actual = element != null ? element.getObjectValue() : null;
+                        if (actual != null && !actual.equals(expected[slot])) {
+                            failures.add(String.format("%d: expected %s but was %s", key, expected[slot], actual));
+                        }
+
+                        if (i % 7 == 0) {
+                            cache.remove(key);
+                            expected[slot] = null;
+                        } else {
+                            expected[slot] = String.format("%d:%04d", thread, i);
+                            cache.put(new Element(key, expected[slot]));
+                        }
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Collections.<String>emptyList(), failures);
+        assertTrue(cache.getOffHeapHitCount() + cache.getOverflowHitCount() > 0);
+        cache.dispose();
+    }
+}
@@ -0,0 +1,49 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the WorkItemProjection class.
+ */
+public class WorkItemProjectionTest {
+
+    @Test
+    public void testGetFields_whenNoExtraFields_returnsDisplayFields() throws Exception {
+
+        WorkItemProjection projection = new WorkItemProjection(true, Arrays.asList(""));
+
+        assertEquals(Arrays.asList("System.Id", "System.Title", "System.State", "System.WorkItemType", "System.Rev"), projection.getFields());
+        assertEquals(0, projection.getExtraFields().size());
+    }
+
+    @Test
+    public void testGetExtraFields_whenFieldsConfigured_returnsTrimmedUniqueFields() throws Exception {
+
+        WorkItemProjection projection = new WorkItemProjection(true,
+                Arrays.asList(" Microsoft.VSTS.Common.Priority", "System.Title", "Microsoft.VSTS.Common.Priority", "System.AssignedTo "));
+
+        assertEquals(Arrays.asList("Microsoft.VSTS.Common.Priority", "System.AssignedTo"), projection.getExtraFields());
+        assertEquals(7, projection.getFields().size());
+    }
+
+    @Test
+    public void testGetExtraFields_whenDisabled_ignoresExtraFields() throws Exception {
+
+        WorkItemProjection projection = new WorkItemProjection(false, Arrays.asList("Microsoft.VSTS.Common.Priority"));
+
+        assertFalse(projection.isEnabled());
+        assertEquals(0, projection.getExtraFields().size());
+    }
+
+    @Test
+    public void testGetSelectList() throws Exception {
+
+        WorkItemProjection projection = new WorkItemProjection(true, Arrays.asList("System.AssignedTo"));
+
+        assertEquals("[System.Id], [System.Title], [System.State], [System.WorkItemType], [System.Rev], [System.AssignedTo]", projection.getSelectList());
+    }
+}
@@ -0,0 +1,91 @@
+package com.dpiessens;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the WorkItemQuery class.
+ */
+public class WorkItemQueryTest {
+
+    static final WorkItemProjection PROJECTION = new WorkItemProjection(true, new ArrayList<String>());
+
+    @Test
+    public void testBuildIdQueries_whenIdsFitInOnePage_returnsSingleQuery() throws Exception {
+
+        List<String> queries = WorkItemQuery.buildIdQueries(Arrays.asList(1, 2, 3), 200, PROJECTION);
+
+        assertEquals(1, queries.size());
+        assertEquals("SELECT [System.Id], [System.Title], [System.State], [System.WorkItemType], [System.Rev] FROM WorkItems WHERE [System.Id] IN (1, 2, 3)",
+                queries.get(0));
+    }
+
+    @Test
+    public void testBuildIdQueries_whenIdsExceedPageSize_splitsIntoPages() throws Exception {
+
+        Collection<Integer> ids = new ArrayList<Integer>();
+        for (int i = 1; i <= 5; i++) {
+            ids.add(i);
+        }
+
+        List<String> queries = WorkItemQuery.buildIdQueries(ids, 2, PROJECTION);
+
+        assertEquals(3, queries.size());
+        assertTrue(queries.get(0).endsWith("IN (1, 2)"));
+        assertTrue(queries.get(1).endsWith("IN (3, 4)"));
+        assertTrue(queries.get(2).endsWith("IN (5)"));
+    }
+
+    @Test
+    public void testBuildIdQueries_whenIdsContainDuplicatesAndNulls_skipsThem() throws Exception {
+
+        List<String> queries = WorkItemQuery.buildIdQueries(Arrays.asList(7, null, 7, 8), 200, PROJECTION);
+
+        assertEquals(1, queries.size());
+        assertTrue(queries.get(0).endsWith("IN (7, 8)"));
+    }
+
+    @Test
+    public void testBuildIdQueries_whenProjectionHasExtraFields_selectsExtraFields() throws Exception {
+
+        WorkItemProjection projection = new WorkItemProjection(true, Arrays.asList("Microsoft.VSTS.Common.Priority"));
+
+        List<String> queries = WorkItemQuery.buildIdQueries(Arrays.asList(1), 200, projection);
+
+        assertEquals(1, queries.size());
+        assertEquals("SELECT [System.Id], [System.Title], [System.State], [System.WorkItemType], [System.Rev], [Microsoft.VSTS.Common.Priority] FROM WorkItems WHERE [System.Id] IN (1)",
+                queries.get(0));
+    }
+
+    @Test
+    public void testBuildIdQueries_whenNoIds_returnsNoQueries() throws Exception {
+
+        List<String> queries = WorkItemQuery.buildIdQueries(new ArrayList<Integer>(), 200, PROJECTION);
+
+        assertEquals(0, queries.size());
+    }
+
+    @Test
+    public void testBuildChangedSinceQuery_formatsDateInUtc() throws Exception {
+
+        String query = WorkItemQuery.buildChangedSinceQuery(new Date(0L));
+
+        assertEquals("SELECT [System.Id] FROM WorkItems WHERE [System.ChangedDate] > '1970-01-01T00:00:00.000Z'", query);
+    }
+
+    @Test
+    public void testBuildRevisionQueries_selectsOnlyIdAndRevision() throws Exception {
+
+        List<String> queries = WorkItemQuery.buildRevisionQueries(Arrays.asList(1, 2), 200);
+
+        assertEquals(1, queries.size());
+        assertEquals("SELECT [System.Id], [System.Rev] FROM WorkItems WHERE [System.Id] IN (1, 2)", queries.get(0));
+    }
+}
@@ -0,0 +1,81 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.TFSTeamProjectCollection;
+import com.microsoft.tfs.core.util.TSWAHyperlinkBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the WorkItemUrlTemplateCache class.
+ */
+public class WorkItemUrlTemplateCacheTest {
+
+    static final String HOST = "http://tfs.com/tfs/defaultcollection";
+
+    @Test
+    public void testGetTemplate_whenCalledTwice_resolvesOnce() throws Exception {
+
+        TestTemplateCache cache = new TestTemplateCache(60000L);
+        TFSTeamProjectCollection collection = mock(TFSTeamProjectCollection.class);
+
+        WorkItemUrlTemplate first = cache.getTemplate(HOST, collection);
+        WorkItemUrlTemplate second = cache.getTemplate(HOST, collection);
+
+        assertSame(first, second);
+        assertEquals("http://tfs.com/wi.aspx?id=12", second.format(12));
+        assertEquals(1, cache.builds);
+        verify(cache.builder).getWorkItemEditorURL(WorkItemUrlTemplateCache.SAMPLE_ID);
+        verifyNoMoreInteractions(cache.builder);
+    }
+
+    @Test
+    public void testGetTemplate_whenRefreshIntervalElapsed_resolvesAgain() throws Exception {
+
+        TestTemplateCache cache = new TestTemplateCache(0L);
+        TFSTeamProjectCollection collection = mock(TFSTeamProjectCollection.class);
+
+        cache.getTemplate(HOST, collection);
+        cache.getTemplate(HOST, collection);
+
+        assertEquals(2, cache.builds);
+    }
+
+    @Test
+    public void testInvalidate_whenTemplateCached_resolvesAgain() throws Exception {
+
+        TestTemplateCache cache = new TestTemplateCache(60000L);
+        TFSTeamProjectCollection collection = mock(TFSTeamProjectCollection.class);
+
+        cache.getTemplate(HOST, collection);
+        cache.invalidate(HOST);
+        cache.getTemplate(HOST, collection);
+
+        assertEquals(2, cache.builds);
+    }
+
+    /**
+     * A template cache that uses a mock hyperlink builder.
+     */
+    static class TestTemplateCache extends WorkItemUrlTemplateCache {
+
+        final TSWAHyperlinkBuilder builder = mock(TSWAHyperlinkBuilder.class);
+        int builds;
+
+        TestTemplateCache(long refreshIntervalMillis) throws Exception {
+            super(refreshIntervalMillis);
+            when(builder.getWorkItemEditorURL(SAMPLE_ID)).thenReturn(new URI("http://tfs.com/wi.aspx?id=" + SAMPLE_ID));
+        }
+
+        @NotNull
+        @Override
+        protected TSWAHyperlinkBuilder createHyperlinkBuilder(@NotNull TFSTeamProjectCollection collection) {
+            builds++;
+            return builder;
+        }
+    }
+}
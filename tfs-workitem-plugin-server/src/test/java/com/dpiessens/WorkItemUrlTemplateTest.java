@@ -0,0 +1,54 @@
+package com.dpiessens;
+
+import com.microsoft.tfs.core.util.TSWAHyperlinkBuilder;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the WorkItemUrlTemplate class.
+ */
+public class WorkItemUrlTemplateTest {
+
+    @Test
+    public void testFromSample_whenIdIsInQuery_returnsTemplate() throws Exception {
+
+        WorkItemUrlTemplate template = WorkItemUrlTemplate.fromSample(
+                "http://tfs.com/tfs/web/wi.aspx?pcguid=abc&id=2147483647", Integer.MAX_VALUE);
+
+        assertNotNull(template);
+        assertEquals("http://tfs.com/tfs/web/wi.aspx?pcguid=abc&id=42", template.format(42));
+    }
+
+    @Test
+    public void testFromSample_whenIdIsInPath_keepsSuffix() throws Exception {
+
+        WorkItemUrlTemplate template = WorkItemUrlTemplate.fromSample(
+                "http://tfs.com/tfs/DefaultCollection/_workitems/edit/2147483647?fullScreen=true", Integer.MAX_VALUE);
+
+        assertNotNull(template);
+        assertEquals("http://tfs.com/tfs/DefaultCollection/_workitems/edit/7?fullScreen=true", template.format(7));
+    }
+
+    @Test
+    public void testFromSample_whenIdIsMissing_returnsNull() throws Exception {
+
+        WorkItemUrlTemplate template = WorkItemUrlTemplate.fromSample("http://tfs.com/tfs/web/", Integer.MAX_VALUE);
+
+        assertNull(template);
+    }
+
+    @Test
+    public void testFormat_whenFallbackBuilder_usesBuilder() throws Exception {
+
+        TSWAHyperlinkBuilder builder = mock(TSWAHyperlinkBuilder.class);
+        when(builder.getWorkItemEditorURL(5)).thenReturn(new URI("http://tfs.com/wi/5"));
+
+        WorkItemUrlTemplate template = new WorkItemUrlTemplate(builder);
+
+        assertEquals("http://tfs.com/wi/5", template.format(5));
+    }
+}
@@ -0,0 +1,113 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Emulates the location service, which the SDK calls first to authenticate and to find the URLs of the other
+ * services of a collection. Only the services the stand-in server emulates are registered.
+ */
+class LocationService implements SoapService {
+
+    static final String PATH = "/Services/v3.0/LocationService.asmx";
+
+    private static final String NAMESPACE = "http://microsoft.com/webservices/";
+    private static final String ACCESS_MAPPING = "PublicAccessMapping";
+    private static final String USER_ID = "6f8ad1bb-4c3f-4bb7-9b15-5a0aa3b2a1b5";
+
+    // Service type, identifier, tool and path of each registered service
+    private static final String[][] SERVICES = {
+            { "LocationService", "bf9cf1d0-24ac-4d35-aeca-6cd18c69c1fe", "Framework", PATH },
+            { "ISCCProvider", "b2b178f5-bef9-460d-a5cf-35bcc0281cc4", "vstfs", VersionControlService.PATH },
+            { "WorkitemService3", "ca87fa49-58c9-4089-8535-1299fa60eebc", "WorkItemTracking", WorkItemService.PATH },
+    };
+
+    private final TfsFixtures fixtures;
+    private final String serverUrl;
+    private final String collectionPath;
+
+    /**
+     * Creates a new instance of the LocationService class.
+     * @param fixtures The fixtures.
+     * @param serverUrl The URL of the web application, such as http://localhost:8080/tfs
+     * @param collectionPath The path of the collection below the web application, such as /DefaultCollection
+     */
+    LocationService(@NotNull TfsFixtures fixtures, @NotNull String serverUrl, @NotNull String collectionPath) {
+        this.fixtures = fixtures;
+        this.serverUrl = serverUrl;
+        this.collectionPath = collectionPath;
+    }
+
+    @NotNull
+    public String getPath() {
+        return PATH;
+    }
+
+    public void invoke(@NotNull SoapRequest request, @NotNull SoapWriter response) throws SoapFaultException {
+        final String operation = request.getOperation();
+        if (operation.equals("Connect")) {
+            response.start(operation + "Response", NAMESPACE).start("ConnectResult")
+                    .attribute("InstanceId", fixtures.getInstanceId())
+                    .attribute("CatalogResourceId", fixtures.getInstanceId())
+                    .attribute("ServerCapabilities", 0)
+                    .attribute("WebApplicationRelativeDirectory", "/tfs/");
+            writeUser(response, "AuthenticatedUser");
+            writeUser(response, "AuthorizedUser");
+            writeLocationData(response);
+            response.end().end();
+        } else if (operation.equals("QueryServices")) {
+            response.start(operation + "Response", NAMESPACE).start("QueryServicesResult");
+            writeLocationContent(response);
+            response.end().end();
+        } else {
+            throw new SoapFaultException("The stand-in location service does not emulate " + operation);
+        }
+    }
+
+    private void writeUser(@NotNull SoapWriter response, @NotNull String element) {
+        response.start(element)
+                .attribute("TeamFoundationId", USER_ID)
+                .attribute("DisplayName", fixtures.getUserName())
+                .attribute("IsContainer", "false")
+                .attribute("IsActive", "true")
+                .attribute("UniqueUserId", 0)
+                .start("Descriptor").attribute("IdentityType", "System.Security.Principal.WindowsIdentity")
+                .attribute("Identifier", fixtures.getUserName()).end()
+                .end();
+    }
+
+    private void writeLocationData(@NotNull SoapWriter response) {
+        response.start("LocationServiceData");
+        writeLocationContent(response);
+        response.end();
+    }
+
+    private void writeLocationContent(@NotNull SoapWriter response) {
+        response.attribute("AccessPointsDoNotIncludeWebAppRelativeDirectory", "false")
+                .attribute("ClientCacheFresh", "false")
+                .attribute("LastChangeId", 1)
+                .attribute("DefaultAccessMappingMoniker", ACCESS_MAPPING);
+
+        response.start("AccessMappings").start("AccessMapping")
+                .attribute("Moniker", ACCESS_MAPPING)
+                .attribute("DisplayName", "Public Access Mapping")
+                .attribute("AccessPoint", serverUrl + "/")
+                .end().end();
+
+        response.start("ServiceDefinitions");
+        for (String[] service : SERVICES) {
+            response.start("ServiceDefinition")
+                    .attribute("serviceType", service[0])
+                    .attribute("identifier", service[1])
+                    .attribute("displayName", service[0])
+                    .attribute("relativeToSetting", 1)
+                    .attribute("relativePath", collectionPath + service[3])
+                    .attribute("toolId", service[2])
+                    .start("LocationMappings").start("LocationMapping")
+                    .attribute("accessMappingMoniker", ACCESS_MAPPING)
+                    .attribute("location", serverUrl + collectionPath + service[3])
+                    .end().end()
+                    .end();
+        }
+        response.end();
+    }
+}
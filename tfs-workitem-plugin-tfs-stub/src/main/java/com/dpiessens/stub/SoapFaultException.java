@@ -0,0 +1,17 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown by a stand-in service to answer a request with a SOAP fault.
+ */
+class SoapFaultException extends Exception {
+
+    /**
+     * Creates a new instance of the SoapFaultException class.
+     * @param message The fault string.
+     */
+    SoapFaultException(@NotNull String message) {
+        super(message);
+    }
+}
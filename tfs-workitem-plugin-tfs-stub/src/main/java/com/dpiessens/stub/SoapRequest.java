@@ -0,0 +1,135 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed SOAP request. The operation is the first element of the SOAP body; its parameters are looked up by
+ * local name anywhere below it, which is all the stand-in services need.
+ */
+class SoapRequest {
+
+    private static final String SOAP_NAMESPACE = "http://schemas.xmlsoap.org/soap/envelope/";
+    private static final String SOAP12_NAMESPACE = "http://www.w3.org/2003/05/soap-envelope";
+
+    private final Element operation;
+
+    private SoapRequest(@NotNull Element operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Parses a SOAP envelope.
+     * @param body The request body.
+     * @return The request.
+     * @throws SoapFaultException Thrown if the body is not a SOAP envelope with an operation.
+     */
+    @NotNull
+    static SoapRequest parse(@NotNull byte[] body) throws SoapFaultException {
+        final Document document;
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setExpandEntityReferences(false);
+            final DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(new ByteArrayInputStream(body));
+        }
+        catch (Exception e) {
+            throw new SoapFaultException("The request is not a valid SOAP envelope: " + e.getMessage());
+        }
+
+        NodeList bodies = document.getElementsByTagNameNS(SOAP_NAMESPACE, "Body");
+        if (bodies.getLength() == 0) {
+            bodies = document.getElementsByTagNameNS(SOAP12_NAMESPACE, "Body");
+        }
+
+        if (bodies.getLength() == 0) {
+            throw new SoapFaultException("The request has no SOAP body");
+        }
+
+        for (Node node = bodies.item(0).getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element) {
+                return new SoapRequest((Element) node);
+            }
+        }
+
+        throw new SoapFaultException("The SOAP body has no operation");
+    }
+
+    /**
+     * Gets the name of the operation.
+     * @return The local name of the operation element.
+     */
+    @NotNull
+    String getOperation() {
+        return operation.getLocalName();
+    }
+
+    /**
+     * Gets the text of the first parameter with a name.
+     * @param name The local name of the parameter.
+     * @return The trimmed text, or null if the request has no such parameter.
+     */
+    @Nullable
+    String getValue(@NotNull String name) {
+        final NodeList nodes = operation.getElementsByTagNameNS("*", name);
+        return nodes.getLength() > 0 ? nodes.item(0).getTextContent().trim() : null;
+    }
+
+    /**
+     * Gets the text of all elements with a name.
+     * @param name The local name of the elements.
+     * @return The trimmed texts in document order.
+     */
+    @NotNull
+    List<String> getValues(@NotNull String name) {
+        final List<String> values = new ArrayList<String>();
+        for (Element element : getElements(name)) {
+            values.add(element.getTextContent().trim());
+        }
+
+        return values;
+    }
+
+    /**
+     * Gets all elements with a name.
+     * @param name The local name of the elements.
+     * @return The elements in document order.
+     */
+    @NotNull
+    List<Element> getElements(@NotNull String name) {
+        final NodeList nodes = operation.getElementsByTagNameNS("*", name);
+        final List<Element> elements = new ArrayList<Element>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element) nodes.item(i));
+        }
+
+        return elements;
+    }
+
+    /**
+     * Gets a parameter as a number.
+     * @param name The local name of the parameter.
+     * @return The number.
+     * @throws SoapFaultException Thrown if the parameter is missing or not a number.
+     */
+    int getInt(@NotNull String name) throws SoapFaultException {
+        final String value = getValue(name);
+        try {
+            return Integer.parseInt(value != null ? value : "");
+        }
+        catch (NumberFormatException e) {
+            throw new SoapFaultException(String.format("Parameter %s of %s is not a number: %s", name, getOperation(), value));
+        }
+    }
+}
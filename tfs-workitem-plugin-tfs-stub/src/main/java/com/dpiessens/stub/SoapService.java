@@ -0,0 +1,24 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A TFS web service emulated by the stand-in server.
+ */
+interface SoapService {
+
+    /**
+     * Gets the path of the service below the collection URL, such as /VersionControl/v1.0/repository.asmx.
+     * @return The relative path.
+     */
+    @NotNull
+    String getPath();
+
+    /**
+     * Answers a request.
+     * @param request The request.
+     * @param response The writer of the SOAP body.
+     * @throws SoapFaultException Thrown if the operation is not emulated or its parameters are invalid.
+     */
+    void invoke(@NotNull SoapRequest request, @NotNull SoapWriter response) throws SoapFaultException;
+}
@@ -0,0 +1,150 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the body of a SOAP answer. Elements are opened and closed in order, attributes must follow the
+ * element they belong to, and text is escaped.
+ */
+class SoapWriter {
+
+    private final StringBuilder xml = new StringBuilder(1024);
+    private final List<String> open = new ArrayList<String>();
+    private boolean tagOpen;
+
+    /**
+     * Opens an element.
+     * @param name The element name.
+     * @return This writer.
+     */
+    @NotNull
+    SoapWriter start(@NotNull String name) {
+        closeTag();
+        xml.append('<').append(name);
+        open.add(name);
+        tagOpen = true;
+        return this;
+    }
+
+    /**
+     * Opens an element in a namespace, which becomes the default namespace of its children.
+     * @param name The element name.
+     * @param namespace The namespace URI.
+     * @return This writer.
+     */
+    @NotNull
+    SoapWriter start(@NotNull String name, @NotNull String namespace) {
+        return start(name).attribute("xmlns", namespace);
+    }
+
+    /**
+     * Adds an attribute to the element that was just opened.
+     * @param name The attribute name.
+     * @param value The value, or null to leave the attribute out.
+     * @return This writer.
+     * @throws IllegalStateException Thrown if the element already has content.
+     */
+    @NotNull
+    SoapWriter attribute(@NotNull String name, @Nullable Object value) {
+        if (!tagOpen) {
+            throw new IllegalStateException("Attribute " + name + " must follow its element");
+        }
+
+        if (value != null) {
+            xml.append(' ').append(name).append("=\"");
+            escape(String.valueOf(value));
+            xml.append('"');
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds text to the open element.
+     * @param value The text.
+     * @return This writer.
+     */
+    @NotNull
+    SoapWriter text(@Nullable Object value) {
+        closeTag();
+        if (value != null) {
+            escape(String.valueOf(value));
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes an element that only holds text.
+     * @param name The element name.
+     * @param value The text.
+     * @return This writer.
+     */
+    @NotNull
+    SoapWriter element(@NotNull String name, @Nullable Object value) {
+        return start(name).text(value).end();
+    }
+
+    /**
+     * Closes the innermost open element.
+     * @return This writer.
+     */
+    @NotNull
+    SoapWriter end() {
+        final String name = open.remove(open.size() - 1);
+        if (tagOpen) {
+            xml.append("/>");
+            tagOpen = false;
+        } else {
+            xml.append("</").append(name).append('>');
+        }
+
+        return this;
+    }
+
+    /**
+     * Closes all open elements and gets the XML.
+     * @return The XML text.
+     */
+    @NotNull
+    String finish() {
+        while (!open.isEmpty()) {
+            end();
+        }
+
+        return xml.toString();
+    }
+
+    private void closeTag() {
+        if (tagOpen) {
+            xml.append('>');
+            tagOpen = false;
+        }
+    }
+
+    private void escape(@NotNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    xml.append("&lt;");
+                    break;
+                case '>':
+                    xml.append("&gt;");
+                    break;
+                case '&':
+                    xml.append("&amp;");
+                    break;
+                case '"':
+                    xml.append("&quot;");
+                    break;
+                default:
+                    xml.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The latency and faults the stand-in server adds to its answers.
+ * Settings apply to a single SOAP operation, such as QueryChangeset, or to every operation through
+ * {@link #ANY_OPERATION}; a setting for the operation wins over the one for every operation.
+ * Faults are either injected at random with a rate or queued for the next requests, which keeps tests deterministic.
+ * The settings can be changed while the server is running.
+ */
+public class StubBehavior {
+
+    public static final String ANY_OPERATION = "*";
+
+    /**
+     * The faults the server can answer with.
+     */
+    public enum Fault {
+        /** A SOAP fault with HTTP status 500, as TFS sends for server errors. */
+        SOAP_FAULT,
+        /** HTTP status 503 without a SOAP body, as a proxy or an offline collection sends. */
+        UNAVAILABLE,
+        /** HTTP status 401 with a basic authentication challenge. */
+        UNAUTHORIZED,
+        /** No answer until the timeout of the behavior passes, then the connection is closed. */
+        TIMEOUT,
+        /** The connection is closed without an answer. */
+        RESET
+    }
+
+    private static final long DEFAULT_TIMEOUT_MILLIS = 5L * 60L * 1000L;
+
+    private final Map<String, long[]> latencies = new ConcurrentHashMap<String, long[]>();
+    private final Map<String, ErrorRate> errorRates = new ConcurrentHashMap<String, ErrorRate>();
+    private final Map<String, QueuedFaults> queuedFaults = new ConcurrentHashMap<String, QueuedFaults>();
+    private final Random random;
+
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * Creates a new instance of the StubBehavior class.
+     */
+    public StubBehavior() {
+        this(new Random());
+    }
+
+    /**
+     * Creates a new instance of the StubBehavior class.
+     * @param random The random source of the jitter and of the faults injected by rate.
+     */
+    public StubBehavior(@NotNull Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Sets the delay of each answer.
+     * @param operation The SOAP operation, or {@link #ANY_OPERATION}.
+     * @param millis The delay in milliseconds.
+     * @param jitterMillis The most a random extra delay adds in milliseconds.
+     */
+    public void setLatency(@NotNull String operation, long millis, long jitterMillis) {
+        if (millis < 0L || jitterMillis < 0L) {
+            throw new IllegalArgumentException("The latency cannot be negative");
+        }
+
+        latencies.put(operation, new long[] { millis, jitterMillis });
+    }
+
+    /**
+     * Sets the share of requests that fail.
+     * @param operation The SOAP operation, or {@link #ANY_OPERATION}.
+     * @param rate The share between 0 and 1.
+     * @param fault The fault the failed requests get.
+     */
+    public void setErrorRate(@NotNull String operation, double rate, @NotNull Fault fault) {
+        if (rate < 0.0 || rate > 1.0) {
+            throw new IllegalArgumentException("The error rate must be between 0 and 1");
+        }
+
+        errorRates.put(operation, new ErrorRate(rate, fault));
+    }
+
+    /**
+     * Fails the next requests, before any error rate is applied.
+     * @param operation The SOAP operation, or {@link #ANY_OPERATION}.
+     * @param count The number of requests to fail.
+     * @param fault The fault the requests get.
+     */
+    public void failNext(@NotNull String operation, int count, @NotNull Fault fault) {
+        queuedFaults.put(operation, new QueuedFaults(count, fault));
+    }
+
+    /**
+     * Sets how long a request that gets the timeout fault is held before its connection is closed.
+     * @param timeoutMillis The time in milliseconds.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Gets how long a request that gets the timeout fault is held.
+     * @return The time in milliseconds.
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Removes all latency and faults.
+     */
+    public void reset() {
+        latencies.clear();
+        errorRates.clear();
+        queuedFaults.clear();
+        timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * Gets the delay of the next answer to an operation.
+     * @param operation The SOAP operation.
+     * @return The delay in milliseconds.
+     */
+    long nextDelay(@NotNull String operation) {
+        long[] latency = latencies.get(operation);
+        if (latency == null) {
+            latency = latencies.get(ANY_OPERATION);
+        }
+
+        if (latency == null) {
+            return 0L;
+        }
+
+        return latency[1] > 0L ? latency[0] + (long) (random.nextDouble() * (latency[1] + 1)) : latency[0];
+    }
+
+    /**
+     * Gets the fault of the next answer to an operation.
+     * @param operation The SOAP operation.
+     * @return The fault, or null if the request is answered normally.
+     */
+    @Nullable
+    Fault nextFault(@NotNull String operation) {
+        final Fault queued = takeQueued(operation);
+        if (queued != null) {
+            return queued;
+        }
+
+        ErrorRate errorRate = errorRates.get(operation);
+        if (errorRate == null) {
+            errorRate = errorRates.get(ANY_OPERATION);
+        }
+
+        if (errorRate != null && errorRate.rate > 0.0 && random.nextDouble() < errorRate.rate) {
+            return errorRate.fault;
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private Fault takeQueued(@NotNull String operation) {
+        QueuedFaults queued = queuedFaults.get(operation);
+        if (queued == null) {
+            queued = queuedFaults.get(ANY_OPERATION);
+        }
+
+        if (queued != null && queued.remaining.getAndDecrement() > 0) {
+            return queued.fault;
+        }
+
+        return null;
+    }
+
+    private static final class ErrorRate {
+        private final double rate;
+        private final Fault fault;
+
+        private ErrorRate(double rate, @NotNull Fault fault) {
+            this.rate = rate;
+            this.fault = fault;
+        }
+    }
+
+    private static final class QueuedFaults {
+        private final AtomicInteger remaining;
+        private final Fault fault;
+
+        private QueuedFaults(int count, @NotNull Fault fault) {
+            this.remaining = new AtomicInteger(count);
+            this.fault = fault;
+        }
+    }
+}
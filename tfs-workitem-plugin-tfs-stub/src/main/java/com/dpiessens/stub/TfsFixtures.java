@@ -0,0 +1,303 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The collection, changesets and work items the stand-in server answers with.
+ * Fixtures are read from a properties file:
+ * <pre>
+ * collection.name=DefaultCollection
+ * changeset.101.owner=DOMAIN\\jane
+ * changeset.101.date=2015-06-02T10:15:00.000Z
+ * changeset.101.comment=Fix the crash on empty build logs
+ * changeset.101.workItems=1, 2
+ * workItem.1.System.Title=Crash on empty build logs
+ * workItem.1.System.State=Active
+ * </pre>
+ * Every work item gets its ID and a revision of 1 unless the file sets System.Rev.
+ * Fixtures can also be added in code, and can be changed while the server is running.
+ */
+public class TfsFixtures {
+
+    public static final String ID_FIELD = "System.Id";
+    public static final String REVISION_FIELD = "System.Rev";
+    public static final String CHANGED_DATE_FIELD = "System.ChangedDate";
+
+    private static final String DEFAULT_COLLECTION = "DefaultCollection";
+    private static final String DEFAULT_USER = "TFS\\stub";
+
+    private final Map<Integer, Changeset> changesets = new ConcurrentHashMap<Integer, Changeset>();
+    private final Map<Integer, Map<String, String>> workItems = new ConcurrentHashMap<Integer, Map<String, String>>();
+
+    private volatile String collectionName = DEFAULT_COLLECTION;
+    private volatile String userName = DEFAULT_USER;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    /**
+     * Reads fixtures from a properties file.
+     * @param file The fixture file.
+     * @return The fixtures.
+     * @throws IOException Thrown if the file cannot be read.
+     */
+    @NotNull
+    public static TfsFixtures load(@NotNull File file) throws IOException {
+        final InputStream input = new FileInputStream(file);
+        try {
+            return load(input);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads fixtures from a properties stream.
+     * @param input The stream, which is not closed.
+     * @return The fixtures.
+     * @throws IOException Thrown if the stream cannot be read.
+     * @throws IllegalArgumentException Thrown if a changeset or work item ID is not a number.
+     */
+    @NotNull
+    public static TfsFixtures load(@NotNull InputStream input) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(input);
+
+        final TfsFixtures fixtures = new TfsFixtures();
+        fixtures.setCollectionName(properties.getProperty("collection.name", DEFAULT_COLLECTION).trim());
+        fixtures.setUserName(properties.getProperty("collection.user", DEFAULT_USER).trim());
+
+        for (String name : properties.stringPropertyNames()) {
+            final String[] parts = name.split("\\.", 3);
+            if (parts.length < 3) {
+                continue;
+            }
+
+            final String value = properties.getProperty(name).trim();
+            if (parts[0].equals("changeset")) {
+                final int id = parseId(name, parts[1]);
+                Changeset changeset = fixtures.getChangeset(id);
+                if (changeset == null) {
+                    changeset = new Changeset(id, DEFAULT_USER, null, "");
+                    fixtures.addChangeset(changeset);
+                }
+
+                changeset.set(parts[2], value);
+            } else if (parts[0].equals("workItem")) {
+                final int id = parseId(name, parts[1]);
+                fixtures.getOrCreateWorkItem(id).put(parts[2], value);
+            }
+        }
+
+        return fixtures;
+    }
+
+    /**
+     * Gets the name of the team project collection, which is the last segment of its URL.
+     * @return The collection name.
+     */
+    @NotNull
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    /**
+     * Sets the name of the team project collection.
+     * @param collectionName The collection name.
+     */
+    public void setCollectionName(@NotNull String collectionName) {
+        this.collectionName = collectionName;
+    }
+
+    /**
+     * Gets the account every request is answered as.
+     * @return The account name.
+     */
+    @NotNull
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Sets the account every request is answered as.
+     * @param userName The account name.
+     */
+    public void setUserName(@NotNull String userName) {
+        this.userName = userName;
+    }
+
+    /**
+     * Gets the instance ID of the collection, which is new for every fixture set.
+     * @return The instance ID.
+     */
+    @NotNull
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Adds or replaces a changeset.
+     * @param changeset The changeset.
+     */
+    public void addChangeset(@NotNull Changeset changeset) {
+        changesets.put(changeset.getId(), changeset);
+    }
+
+    /**
+     * Gets a changeset.
+     * @param id The changeset number.
+     * @return The changeset if it exists; otherwise null.
+     */
+    @Nullable
+    public Changeset getChangeset(int id) {
+        return changesets.get(id);
+    }
+
+    /**
+     * Adds or replaces a work item.
+     * @param id The work item ID.
+     * @param fields The field values keyed by reference name.
+     */
+    public void addWorkItem(int id, @NotNull Map<String, String> fields) {
+        final Map<String, String> workItem = createWorkItem(id);
+        workItem.putAll(fields);
+        workItems.put(id, workItem);
+    }
+
+    /**
+     * Gets a work item.
+     * @param id The work item ID.
+     * @return The field values keyed by reference name if the work item exists; otherwise null.
+     */
+    @Nullable
+    public Map<String, String> getWorkItem(int id) {
+        return workItems.get(id);
+    }
+
+    /**
+     * Gets the IDs of all work items.
+     * @return The sorted IDs.
+     */
+    @NotNull
+    public List<Integer> getWorkItemIds() {
+        final List<Integer> ids = new ArrayList<Integer>(workItems.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @NotNull
+    private Map<String, String> getOrCreateWorkItem(int id) {
+        Map<String, String> workItem = workItems.get(id);
+        if (workItem == null) {
+            workItem = createWorkItem(id);
+            workItems.put(id, workItem);
+        }
+
+        return workItem;
+    }
+
+    @NotNull
+    private static Map<String, String> createWorkItem(int id) {
+        final Map<String, String> workItem = new ConcurrentHashMap<String, String>();
+        workItem.put(ID_FIELD, String.valueOf(id));
+        workItem.put(REVISION_FIELD, "1");
+        return workItem;
+    }
+
+    private static int parseId(@NotNull String key, @NotNull String id) {
+        try {
+            return Integer.parseInt(id);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("The ID of fixture '%s' is not a number", key));
+        }
+    }
+
+    /**
+     * A changeset and the work items linked to it.
+     */
+    public static class Changeset {
+
+        private final int id;
+        private volatile String owner;
+        private volatile String date;
+        private volatile String comment;
+        private volatile List<Integer> workItemIds;
+
+        /**
+         * Creates a new instance of the Changeset class.
+         * @param id The changeset number.
+         * @param owner The account that checked the changeset in.
+         * @param date The check-in date as an ISO 8601 timestamp, or null for the time the server answers.
+         * @param comment The check-in comment.
+         * @param workItemIds The IDs of the linked work items.
+         */
+        public Changeset(int id, @NotNull String owner, @Nullable String date, @NotNull String comment, int... workItemIds) {
+            this.id = id;
+            this.owner = owner;
+            this.date = date;
+            this.comment = comment;
+
+            final List<Integer> ids = new ArrayList<Integer>();
+            for (int workItemId : workItemIds) {
+                ids.add(workItemId);
+            }
+            this.workItemIds = Collections.unmodifiableList(ids);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        @NotNull
+        public String getOwner() {
+            return owner;
+        }
+
+        @Nullable
+        public String getDate() {
+            return date;
+        }
+
+        @NotNull
+        public String getComment() {
+            return comment;
+        }
+
+        @NotNull
+        public Collection<Integer> getWorkItemIds() {
+            return workItemIds;
+        }
+
+        private void set(@NotNull String name, @NotNull String value) {
+            if (name.equals("owner")) {
+                owner = value;
+            } else if (name.equals("date")) {
+                date = value;
+            } else if (name.equals("comment")) {
+                comment = value;
+            } else if (name.equals("workItems")) {
+                final List<Integer> ids = new ArrayList<Integer>();
+                for (String workItemId : value.split(",")) {
+                    if (workItemId.trim().length() > 0) {
+                        ids.add(parseId("changeset." + id + ".workItems", workItemId.trim()));
+                    }
+                }
+                workItemIds = Collections.unmodifiableList(ids);
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.dpiessens.stub;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An embedded HTTP server that stands in for a TFS collection, so the network behavior of the plugin can be tested
+ * and load tested without a TFS server. It emulates the location service, the changeset lookup of version control
+ * and the work item reads the plugin makes, answers from {@link TfsFixtures} and adds the latency and faults
+ * configured in its {@link StubBehavior}. Requests are counted per operation, and the client connections they
+ * arrived on are counted too, so tests can check batching and connection reuse.
+ */
+public class TfsStubServer {
+
+    static final String LATENCY_PROPERTY = "tfs.stub.latencyMillis";
+    static final String JITTER_PROPERTY = "tfs.stub.jitterMillis";
+    static final String ERROR_RATE_PROPERTY = "tfs.stub.errorRate";
+    static final String FAULT_PROPERTY = "tfs.stub.fault";
+
+    private static final Logger LOG = Logger.getInstance(TfsStubServer.class.getName());
+
+    private static final String WEB_APPLICATION_PATH = "/tfs";
+    private static final String SAMPLE_FIXTURES = "/fixtures/sample.properties";
+    private static final String SOAP_ENVELOPE_START = "<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+            + "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+            + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\"><soap:Body>";
+    private static final String SOAP_ENVELOPE_END = "</soap:Body></soap:Envelope>";
+
+    private final TfsFixtures fixtures;
+    private final StubBehavior behavior;
+    private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Set<String> connections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a new instance of the TfsStubServer class.
+     * @param fixtures The collection, changesets and work items to answer with.
+     */
+    public TfsStubServer(@NotNull TfsFixtures fixtures) {
+        this(fixtures, new StubBehavior());
+    }
+
+    /**
+     * Creates a new instance of the TfsStubServer class.
+     * @param fixtures The collection, changesets and work items to answer with.
+     * @param behavior The latency and faults to add.
+     */
+    public TfsStubServer(@NotNull TfsFixtures fixtures, @NotNull StubBehavior behavior) {
+        this.fixtures = fixtures;
+        this.behavior = behavior;
+    }
+
+    /**
+     * Starts the server on the loopback interface.
+     * @param port The port, or zero for any free port.
+     * @throws IOException Thrown if the port cannot be bound.
+     * @throws IllegalStateException Thrown if the server is already running.
+     */
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("The TFS stand-in server is already running");
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+
+        final String serverUrl = getServerUrl();
+        final String collectionPath = "/" + fixtures.getCollectionName();
+        final SoapService[] services = {
+                new LocationService(fixtures, serverUrl, collectionPath),
+                new VersionControlService(fixtures),
+                new WorkItemService(fixtures),
+        };
+
+        // The SDK asks the location service of the web application before the one of the collection
+        server.createContext(WEB_APPLICATION_PATH + LocationService.PATH, new ServiceHandler(services[0]));
+        for (SoapService service : services) {
+            server.createContext(WEB_APPLICATION_PATH + collectionPath + service.getPath(), new ServiceHandler(service));
+        }
+
+        server.start();
+        LOG.info("TFS stand-in server is listening on " + getCollectionUrl());
+    }
+
+    /**
+     * Stops the server, dropping requests that are still waiting on latency or a timeout.
+     */
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * Gets the URL of the collection, which is the host the plugin connects to.
+     * @return The collection URL, such as http://127.0.0.1:8080/tfs/DefaultCollection
+     * @throws IllegalStateException Thrown if the server is not running.
+     */
+    @NotNull
+    public String getCollectionUrl() {
+        return getServerUrl() + "/" + fixtures.getCollectionName();
+    }
+
+    /**
+     * Gets the fixtures, which can be changed while the server is running.
+     * @return The fixtures.
+     */
+    @NotNull
+    public TfsFixtures getFixtures() {
+        return fixtures;
+    }
+
+    /**
+     * Gets the latency and faults, which can be changed while the server is running.
+     * @return The behavior.
+     */
+    @NotNull
+    public StubBehavior getBehavior() {
+        return behavior;
+    }
+
+    /**
+     * Gets the number of requests for an operation, including the ones answered with a fault.
+     * @param operation The SOAP operation, such as QueryChangeset.
+     * @return The request count.
+     */
+    public int getRequestCount(@NotNull String operation) {
+        final AtomicInteger count = requestCounts.get(operation);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Gets the number of requests of each operation.
+     * @return The request counts keyed by operation.
+     */
+    @NotNull
+    public Map<String, Integer> getRequestCounts() {
+        final Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> entry : requestCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+
+        return counts;
+    }
+
+    /**
+     * Gets the number of client connections requests arrived on. A client that reuses its connections keeps this
+     * number low however many requests it sends.
+     * @return The connection count.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Resets the request and connection counts.
+     */
+    public void resetCounts() {
+        requestCounts.clear();
+        connections.clear();
+    }
+
+    /**
+     * Runs the server until the process is stopped.
+     * Arguments: [fixture file] [port]. Without a fixture file a small sample collection is served; without a
+     * port 8080 is used. The latency and faults are read from the tfs.stub.* system properties.
+     * @param args The arguments.
+     * @throws IOException Thrown if the fixtures cannot be read or the port cannot be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        final TfsFixtures fixtures;
+        if (args.length > 0) {
+            fixtures = TfsFixtures.load(new File(args[0]));
+        } else {
+            final InputStream sample = TfsStubServer.class.getResourceAsStream(SAMPLE_FIXTURES);
+            try {
+                fixtures = TfsFixtures.load(sample);
+            }
+            finally {
+                sample.close();
+            }
+        }
+
+        final StubBehavior behavior = new StubBehavior();
+        behavior.setLatency(StubBehavior.ANY_OPERATION, Long.getLong(LATENCY_PROPERTY, 0L), Long.getLong(JITTER_PROPERTY, 0L));
+        final String errorRate = System.getProperty(ERROR_RATE_PROPERTY);
+        if (errorRate != null) {
+            final String fault = System.getProperty(FAULT_PROPERTY, StubBehavior.Fault.SOAP_FAULT.name());
+            behavior.setErrorRate(StubBehavior.ANY_OPERATION, Double.parseDouble(errorRate), StubBehavior.Fault.valueOf(fault));
+        }
+
+        final TfsStubServer server = new TfsStubServer(fixtures, behavior);
+        server.start(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+        System.out.println("TFS stand-in collection: " + server.getCollectionUrl());
+    }
+
+    @NotNull
+    private synchronized String getServerUrl() {
+        if (server == null) {
+            throw new IllegalStateException("The TFS stand-in server is not running");
+        }
+
+        return "http://127.0.0.1:" + server.getAddress().getPort() + WEB_APPLICATION_PATH;
+    }
+
+    private void count(@NotNull String operation) {
+        AtomicInteger count = requestCounts.get(operation);
+        if (count == null) {
+            final AtomicInteger created = new AtomicInteger();
+            count = requestCounts.putIfAbsent(operation, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+
+        count.incrementAndGet();
+    }
+
+    /**
+     * Answers the requests of one service.
+     */
+    private class ServiceHandler implements HttpHandler {
+
+        private final SoapService service;
+
+        private ServiceHandler(@NotNull SoapService service) {
+            this.service = service;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                connections.add(exchange.getRemoteAddress().toString());
+                if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                    send(exchange, 405, null);
+                    return;
+                }
+
+                final SoapRequest request;
+                try {
+                    request = SoapRequest.parse(readBody(exchange.getRequestBody()));
+                }
+                catch (SoapFaultException e) {
+                    sendFault(exchange, "soap:Client", e.getMessage());
+                    return;
+                }
+
+                final String operation = request.getOperation();
+                count(operation);
+
+                final long delay = behavior.nextDelay(operation);
+                if (delay > 0L) {
+                    Thread.sleep(delay);
+                }
+
+                final StubBehavior.Fault fault = behavior.nextFault(operation);
+                if (fault != null) {
+                    LOG.debug(String.format("Answering %s with injected fault %s", operation, fault));
+                    sendInjectedFault(exchange, operation, fault);
+                    return;
+                }
+
+                final SoapWriter response = new SoapWriter();
+                try {
+                    service.invoke(request, response);
+                }
+                catch (SoapFaultException e) {
+                    LOG.debug(String.format("Answering %s with a fault: %s", operation, e.getMessage()));
+                    sendFault(exchange, "soap:Server", e.getMessage());
+                    return;
+                }
+
+                send(exchange, 200, SOAP_ENVELOPE_START + response.finish() + SOAP_ENVELOPE_END);
+            }
+            catch (InterruptedException e) {
+                // The server is stopping
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                exchange.close();
+            }
+        }
+
+        private void sendInjectedFault(@NotNull HttpExchange exchange, @NotNull String operation, @NotNull StubBehavior.Fault fault)
+                throws IOException, InterruptedException {
+            switch (fault) {
+                case SOAP_FAULT:
+                    sendFault(exchange, "soap:Server", "TF30040: The stand-in server failed " + operation + " on purpose.");
+                    break;
+                case UNAVAILABLE:
+                    send(exchange, 503, null);
+                    break;
+                case UNAUTHORIZED:
+                    exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"TFS\"");
+                    send(exchange, 401, null);
+                    break;
+                case TIMEOUT:
+                    Thread.sleep(behavior.getTimeoutMillis());
+                    break;
+                case RESET:
+                    break;
+            }
+        }
+
+        private void sendFault(@NotNull HttpExchange exchange, @NotNull String code, @Nullable String message) throws IOException {
+            final SoapWriter fault = new SoapWriter();
+            fault.start("soap:Fault").element("faultcode", code).element("faultstring", message).start("detail").end().end();
+            send(exchange, 500, SOAP_ENVELOPE_START + fault.finish() + SOAP_ENVELOPE_END);
+        }
+
+        private void send(@NotNull HttpExchange exchange, int status, @Nullable String body) throws IOException {
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+
+            final byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            final OutputStream output = exchange.getResponseBody();
+            output.write(bytes);
+            output.close();
+        }
+    }
+
+    @NotNull
+    private static byte[] readBody(@NotNull InputStream input) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+            body.write(buffer, 0, read);
+        }
+
+        return body.toByteArray();
+    }
+}
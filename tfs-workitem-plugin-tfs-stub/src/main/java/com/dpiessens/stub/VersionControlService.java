@@ -0,0 +1,64 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Emulates the changeset lookup of the version control repository service.
+ */
+class VersionControlService implements SoapService {
+
+    static final String PATH = "/VersionControl/v1.0/repository.asmx";
+
+    private static final String NAMESPACE = "http://schemas.microsoft.com/TeamFoundation/2005/06/VersionControl/ClientServices/03";
+
+    private final TfsFixtures fixtures;
+
+    /**
+     * Creates a new instance of the VersionControlService class.
+     * @param fixtures The fixtures.
+     */
+    VersionControlService(@NotNull TfsFixtures fixtures) {
+        this.fixtures = fixtures;
+    }
+
+    @NotNull
+    public String getPath() {
+        return PATH;
+    }
+
+    public void invoke(@NotNull SoapRequest request, @NotNull SoapWriter response) throws SoapFaultException {
+        final String operation = request.getOperation();
+        if (!operation.equals("QueryChangeset")) {
+            throw new SoapFaultException("The stand-in version control service does not emulate " + operation);
+        }
+
+        final int id = request.getInt("changesetId");
+        final TfsFixtures.Changeset changeset = fixtures.getChangeset(id);
+        if (changeset == null) {
+            throw new SoapFaultException(String.format("TF14045: The changeset %d does not exist.", id));
+        }
+
+        response.start(operation + "Response", NAMESPACE).start("QueryChangesetResult")
+                .attribute("cmtr", changeset.getOwner())
+                .attribute("cmtrdisp", changeset.getOwner())
+                .attribute("date", changeset.getDate() != null ? changeset.getDate() : formatDate(new Date()))
+                .attribute("cset", id)
+                .attribute("owner", changeset.getOwner())
+                .attribute("ownerdisp", changeset.getOwner())
+                .element("Comment", changeset.getComment())
+                .start("CheckinNote").end()
+                .start("PolicyOverride").end()
+                .end().end();
+    }
+
+    @NotNull
+    static String formatDate(@NotNull Date date) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+}
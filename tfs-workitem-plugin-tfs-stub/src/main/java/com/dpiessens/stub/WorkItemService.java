@@ -0,0 +1,244 @@
+package com.dpiessens.stub;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Element;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Emulates the work item reads of the work item tracking client service: single and batch reads, the queries the
+ * plugin runs, the artifact link lookup of changesets and the metadata the SDK downloads before its first query.
+ * Work items are answered in the rowset format of the service, with one column per field reference name.
+ * Queries are not evaluated; the IDs and the changed date of their expressions are matched against the fixtures.
+ */
+class WorkItemService implements SoapService {
+
+    static final String PATH = "/WorkItemTracking/v3.0/ClientService.asmx";
+
+    private static final String NAMESPACE = "http://schemas.microsoft.com/TeamFoundation/2005/06/WorkItemTracking/ClientServices/03";
+    private static final String CHANGESET_ARTIFACT_PREFIX = "vstfs:///VersionControl/Changeset/";
+
+    // Reference name and ID of the core fields described by the metadata
+    private static final Object[][] CORE_FIELDS = {
+            { "System.Id", -3 }, { "System.Rev", 8 }, { "System.Title", 1 }, { "System.State", 2 },
+            { "System.WorkItemType", 25 }, { "System.ChangedDate", -4 }, { "System.ChangedBy", 9 },
+            { "System.CreatedDate", 32 }, { "System.AssignedTo", 24 }, { "System.AreaPath", -7 },
+            { "System.IterationPath", -105 }, { "System.TeamProject", -42 }, { "System.Reason", 22 },
+    };
+
+    private final TfsFixtures fixtures;
+
+    /**
+     * Creates a new instance of the WorkItemService class.
+     * @param fixtures The fixtures.
+     */
+    WorkItemService(@NotNull TfsFixtures fixtures) {
+        this.fixtures = fixtures;
+    }
+
+    @NotNull
+    public String getPath() {
+        return PATH;
+    }
+
+    public void invoke(@NotNull SoapRequest request, @NotNull SoapWriter response) throws SoapFaultException {
+        final String operation = request.getOperation();
+        response.start(operation + "Response", NAMESPACE);
+
+        if (operation.equals("GetWorkItem")) {
+            final int id = request.getInt("workItemId");
+            final Map<String, String> workItem = fixtures.getWorkItem(id);
+            if (workItem == null) {
+                throw new SoapFaultException(String.format("TF26027: Work item %d does not exist, or you do not have permission to read it.", id));
+            }
+
+            final List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+            rows.add(workItem);
+            response.start("workItem");
+            writeRowset(response, "WorkItemInfo", new ArrayList<String>(workItem.keySet()), rows);
+            response.end();
+        } else if (operation.equals("PageWorkitemsByIds")) {
+            final List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+            final Set<String> columns = new LinkedHashSet<String>(request.getValues("string"));
+            final boolean allColumns = columns.isEmpty();
+            for (String id : request.getValues("int")) {
+                final Map<String, String> workItem = fixtures.getWorkItem(parseId(id));
+                if (workItem != null) {
+                    rows.add(workItem);
+                    if (allColumns) {
+                        columns.addAll(workItem.keySet());
+                    }
+                }
+            }
+
+            response.start("items");
+            writeRowset(response, "Items", new ArrayList<String>(columns), rows);
+            response.end();
+        } else if (operation.equals("QueryWorkitems")) {
+            response.start("resultIds").start("QueryIds");
+            for (Integer id : findWorkItems(request)) {
+                response.start("id").attribute("s", id).end();
+            }
+            response.end().end();
+        } else if (operation.equals("GetWorkItemIDsForArtifactUris")) {
+            response.start(operation + "Result");
+            for (String uri : request.getValues("string")) {
+                final Collection<Integer> ids = getLinkedWorkItemIds(uri);
+                if (ids.isEmpty()) {
+                    continue;
+                }
+
+                response.start("ArtifactWorkItemIds").element("Uri", uri).start("WorkItemIds");
+                for (Integer id : ids) {
+                    response.element("int", id);
+                }
+                response.end().end();
+            }
+            response.end();
+        } else if (operation.equals("GetMetadataEx2")) {
+            writeMetadata(response);
+        } else {
+            throw new SoapFaultException("The stand-in work item service does not emulate " + operation);
+        }
+
+        response.element("dbStamp", fixtures.getInstanceId());
+        response.end();
+    }
+
+    /**
+     * Finds the work items a query selects. If the query names IDs, the existing ones are selected; otherwise work
+     * items changed after the date of a greater than expression are selected, or every work item if there is none.
+     */
+    @NotNull
+    private Collection<Integer> findWorkItems(@NotNull SoapRequest request) throws SoapFaultException {
+        final Set<Integer> ids = new LinkedHashSet<Integer>();
+        boolean byId = false;
+        String changedAfter = null;
+
+        for (Element expression : request.getElements("Expression")) {
+            final String column = expression.getAttribute("Column");
+            final String value = expression.getTextContent().trim();
+            if (column.equals(TfsFixtures.ID_FIELD)) {
+                byId = true;
+                final int id = parseId(value);
+                if (fixtures.getWorkItem(id) != null) {
+                    ids.add(id);
+                }
+            } else if (column.equals(TfsFixtures.CHANGED_DATE_FIELD) && expression.getAttribute("Operator").startsWith("greater")) {
+                changedAfter = value;
+            }
+        }
+
+        if (byId) {
+            return ids;
+        }
+
+        for (Integer id : fixtures.getWorkItemIds()) {
+            final Map<String, String> workItem = fixtures.getWorkItem(id);
+            final String changedDate = workItem != null ? workItem.get(TfsFixtures.CHANGED_DATE_FIELD) : null;
+            if (changedAfter == null || changedDate != null && compareDates(changedDate, changedAfter) > 0) {
+                ids.add(id);
+            }
+        }
+
+        return ids;
+    }
+
+    @NotNull
+    private Collection<Integer> getLinkedWorkItemIds(@NotNull String uri) throws SoapFaultException {
+        if (!uri.startsWith(CHANGESET_ARTIFACT_PREFIX)) {
+            return new ArrayList<Integer>();
+        }
+
+        final TfsFixtures.Changeset changeset = fixtures.getChangeset(parseId(uri.substring(CHANGESET_ARTIFACT_PREFIX.length())));
+        return changeset != null ? changeset.getWorkItemIds() : new ArrayList<Integer>();
+    }
+
+    private void writeMetadata(@NotNull SoapWriter response) {
+        final List<Map<String, String>> fields = new ArrayList<Map<String, String>>();
+        for (Object[] field : CORE_FIELDS) {
+            final Map<String, String> row = new LinkedHashMap<String, String>();
+            row.put("FldID", String.valueOf(field[1]));
+            row.put("Name", ((String) field[0]).substring("System.".length()));
+            row.put("ReferenceName", (String) field[0]);
+            row.put("Type", getColumnType((String) field[0]));
+            fields.add(row);
+        }
+
+        final List<Map<String, String>> none = new ArrayList<Map<String, String>>();
+        response.start("tables");
+        writeRowset(response, "Hierarchy", new ArrayList<String>(), none);
+        final List<String> fieldColumns = new ArrayList<String>();
+        fieldColumns.add("FldID");
+        fieldColumns.add("Name");
+        fieldColumns.add("ReferenceName");
+        fieldColumns.add("Type");
+        writeRowset(response, "Fields", fieldColumns, fields);
+        for (String table : new String[] { "HierarchyProperties", "Constants", "Rules", "ConstantSets", "ActionsTable",
+                "WorkItemTypes", "WorkItemTypeUsages", "FieldUsages", "WorkItemTypeCategories", "WorkItemTypeCategoryMembers" }) {
+            writeRowset(response, table, new ArrayList<String>(), none);
+        }
+        response.end();
+        response.element("locale", 1033);
+        response.element("comparisonStyle", 1);
+        response.start("callerIdentities").end();
+    }
+
+    private static void writeRowset(@NotNull SoapWriter response, @NotNull String name, @NotNull List<String> columns,
+                                    @NotNull List<Map<String, String>> rows) {
+        response.start("table").attribute("name", name);
+
+        response.start("columns");
+        for (String column : columns) {
+            response.start("c").attribute("n", column).attribute("t", getColumnType(column)).end();
+        }
+        response.end();
+
+        response.start("rows");
+        for (Map<String, String> row : rows) {
+            response.start("r");
+            for (String column : columns) {
+                response.element("f", row.get(column));
+            }
+            response.end();
+        }
+        response.end();
+
+        response.end();
+    }
+
+    @NotNull
+    private static String getColumnType(@NotNull String column) {
+        if (column.equals(TfsFixtures.ID_FIELD) || column.equals(TfsFixtures.REVISION_FIELD) || column.equals("FldID")) {
+            return "System.Int32";
+        }
+
+        return column.endsWith("Date") ? "System.DateTime" : "System.String";
+    }
+
+    private static int compareDates(@NotNull String a, @NotNull String b) {
+        // ISO 8601 timestamps in UTC sort as text; the fraction of a second is ignored
+        return truncate(a).compareTo(truncate(b));
+    }
+
+    @NotNull
+    private static String truncate(@NotNull String date) {
+        return date.length() > 19 ? date.substring(0, 19) : date;
+    }
+
+    private static int parseId(@Nullable String id) throws SoapFaultException {
+        try {
+            return Integer.parseInt(id != null ? id.trim() : "");
+        }
+        catch (NumberFormatException e) {
+            throw new SoapFaultException("Work item or changeset ID is not a number: " + id);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.dpiessens.stub;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the StubBehavior class.
+ */
+public class StubBehaviorTest {
+
+    @Test
+    public void testNextFault_whenNothingConfigured_returnsNull() throws Exception {
+
+        StubBehavior behavior = new StubBehavior();
+
+        assertNull(behavior.nextFault("QueryChangeset"));
+        assertEquals(0L, behavior.nextDelay("QueryChangeset"));
+    }
+
+    @Test
+    public void testFailNext_failsOnlyTheQueuedRequests() throws Exception {
+
+        StubBehavior behavior = new StubBehavior();
+        behavior.failNext("QueryChangeset", 2, StubBehavior.Fault.UNAVAILABLE);
+
+        assertNull(behavior.nextFault("GetWorkItem"));
+        assertEquals(StubBehavior.Fault.UNAVAILABLE, behavior.nextFault("QueryChangeset"));
+        assertEquals(StubBehavior.Fault.UNAVAILABLE, behavior.nextFault("QueryChangeset"));
+        assertNull(behavior.nextFault("QueryChangeset"));
+    }
+
+    @Test
+    public void testSetErrorRate_whenOperationIsConfigured_overridesAnyOperation() throws Exception {
+
+        StubBehavior behavior = new StubBehavior(new Random(1L));
+        behavior.setErrorRate(StubBehavior.ANY_OPERATION, 1.0, StubBehavior.Fault.SOAP_FAULT);
+        behavior.setErrorRate("GetWorkItem", 0.0, StubBehavior.Fault.SOAP_FAULT);
+
+        assertEquals(StubBehavior.Fault.SOAP_FAULT, behavior.nextFault("QueryChangeset"));
+        assertNull(behavior.nextFault("GetWorkItem"));
+    }
+
+    @Test
+    public void testNextDelay_staysWithinJitter() throws Exception {
+
+        StubBehavior behavior = new StubBehavior(new Random(1L));
+        behavior.setLatency(StubBehavior.ANY_OPERATION, 100L, 50L);
+
+        for (int i = 0; i < 100; i++) {
+            long delay = behavior.nextDelay("QueryChangeset");
+            assertTrue(delay >= 100L && delay <= 150L);
+        }
+    }
+
+    @Test
+    public void testReset_removesLatencyAndFaults() throws Exception {
+
+        StubBehavior behavior = new StubBehavior();
+        behavior.setLatency(StubBehavior.ANY_OPERATION, 100L, 0L);
+        behavior.setErrorRate(StubBehavior.ANY_OPERATION, 1.0, StubBehavior.Fault.RESET);
+
+        behavior.reset();
+
+        assertEquals(0L, behavior.nextDelay("QueryChangeset"));
+        assertNull(behavior.nextFault("QueryChangeset"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetErrorRate_whenOutOfRange_throwsException() throws Exception {
+
+        new StubBehavior().setErrorRate(StubBehavior.ANY_OPERATION, 1.5, StubBehavior.Fault.SOAP_FAULT);
+    }
+}
@@ -0,0 +1,63 @@
+package com.dpiessens.stub;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the TfsFixtures class.
+ */
+public class TfsFixturesTest {
+
+    @Test
+    public void testLoad_readsChangesetsAndWorkItems() throws Exception {
+
+        InputStream input = getClass().getResourceAsStream("/fixtures/sample.properties");
+        TfsFixtures fixtures;
+        try {
+            fixtures = TfsFixtures.load(input);
+        }
+        finally {
+            input.close();
+        }
+
+        assertEquals("DefaultCollection", fixtures.getCollectionName());
+
+        TfsFixtures.Changeset changeset = fixtures.getChangeset(102);
+        assertNotNull(changeset);
+        assertEquals("TFS\\john", changeset.getOwner());
+        assertEquals("Add retries to the artifact upload", changeset.getComment());
+        assertEquals(Arrays.asList(2, 3), changeset.getWorkItemIds());
+        assertTrue(fixtures.getChangeset(103).getWorkItemIds().isEmpty());
+
+        assertEquals(Arrays.asList(1, 2, 3), fixtures.getWorkItemIds());
+        Map<String, String> workItem = fixtures.getWorkItem(3);
+        assertEquals("3", workItem.get(TfsFixtures.ID_FIELD));
+        assertEquals("1", workItem.get(TfsFixtures.REVISION_FIELD));
+        assertEquals("Task", workItem.get("System.WorkItemType"));
+        assertEquals("4", fixtures.getWorkItem(1).get(TfsFixtures.REVISION_FIELD));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoad_whenIdIsNotANumber_throwsException() throws Exception {
+
+        TfsFixtures.load(new ByteArrayInputStream("workItem.abc.System.Title=Broken".getBytes("ISO-8859-1")));
+    }
+
+    @Test
+    public void testAddChangeset_replacesExistingChangeset() throws Exception {
+
+        TfsFixtures fixtures = new TfsFixtures();
+        fixtures.addChangeset(new TfsFixtures.Changeset(5, "TFS\\jane", null, "First"));
+        fixtures.addChangeset(new TfsFixtures.Changeset(5, "TFS\\jane", null, "Second", 7, 8));
+
+        assertEquals("Second", fixtures.getChangeset(5).getComment());
+        assertEquals(Arrays.asList(7, 8), fixtures.getChangeset(5).getWorkItemIds());
+        assertNull(fixtures.getChangeset(6));
+    }
+}
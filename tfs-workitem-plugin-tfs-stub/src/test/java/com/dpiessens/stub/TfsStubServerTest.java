@@ -0,0 +1,195 @@
+package com.dpiessens.stub;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the TfsStubServer class.
+ */
+public class TfsStubServerTest {
+
+    private static final String VC_NAMESPACE = "http://schemas.microsoft.com/TeamFoundation/2005/06/VersionControl/ClientServices/03";
+    private static final String WIT_NAMESPACE = "http://schemas.microsoft.com/TeamFoundation/2005/06/WorkItemTracking/ClientServices/03";
+
+    private TfsStubServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        InputStream input = getClass().getResourceAsStream("/fixtures/sample.properties");
+        try {
+            server = new TfsStubServer(TfsFixtures.load(input));
+        }
+        finally {
+            input.close();
+        }
+
+        server.start(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void testConnect_registersServicesOfCollection() throws Exception {
+
+        String collectionUrl = server.getCollectionUrl();
+        Response response = post(collectionUrl.substring(0, collectionUrl.lastIndexOf('/')) + LocationService.PATH,
+                "<Connect xmlns=\"http://microsoft.com/webservices/\"><connectOptions>1</connectOptions></Connect>");
+
+        assertEquals(200, response.status);
+        assertTrue(response.body.contains("serviceType=\"ISCCProvider\""));
+        assertTrue(response.body.contains("location=\"" + collectionUrl + VersionControlService.PATH + "\""));
+        assertEquals(1, server.getRequestCount("Connect"));
+    }
+
+    @Test
+    public void testQueryChangeset_returnsChangeset() throws Exception {
+
+        Response response = post(server.getCollectionUrl() + VersionControlService.PATH,
+                "<QueryChangeset xmlns=\"" + VC_NAMESPACE + "\"><changesetId>101</changesetId><includeChanges>false</includeChanges></QueryChangeset>");
+
+        assertEquals(200, response.status);
+        assertTrue(response.body.contains("cset=\"101\""));
+        assertTrue(response.body.contains("<Comment>Fix the crash on empty build logs</Comment>"));
+    }
+
+    @Test
+    public void testQueryChangeset_whenChangesetIsMissing_returnsFault() throws Exception {
+
+        Response response = post(server.getCollectionUrl() + VersionControlService.PATH,
+                "<QueryChangeset xmlns=\"" + VC_NAMESPACE + "\"><changesetId>999</changesetId></QueryChangeset>");
+
+        assertEquals(500, response.status);
+        assertTrue(response.body.contains("TF14045"));
+    }
+
+    @Test
+    public void testGetWorkItemIdsForArtifactUris_returnsLinkedWorkItems() throws Exception {
+
+        Response response = post(server.getCollectionUrl() + WorkItemService.PATH,
+                "<GetWorkItemIDsForArtifactUris xmlns=\"" + WIT_NAMESPACE + "\"><artifactUris>"
+                        + "<string>vstfs:///VersionControl/Changeset/102</string>"
+                        + "<string>vstfs:///VersionControl/Changeset/103</string>"
+                        + "</artifactUris></GetWorkItemIDsForArtifactUris>");
+
+        assertEquals(200, response.status);
+        assertTrue(response.body.contains("<Uri>vstfs:///VersionControl/Changeset/102</Uri><WorkItemIds><int>2</int><int>3</int></WorkItemIds>"));
+        assertFalse(response.body.contains("Changeset/103"));
+    }
+
+    @Test
+    public void testPageWorkitemsByIds_returnsRequestedColumns() throws Exception {
+
+        Response response = post(server.getCollectionUrl() + WorkItemService.PATH,
+                "<PageWorkitemsByIds xmlns=\"" + WIT_NAMESPACE + "\"><ids><int>1</int><int>3</int><int>42</int></ids>"
+                        + "<columns><string>System.Id</string><string>System.Title</string></columns></PageWorkitemsByIds>");
+
+        assertEquals(200, response.status);
+        assertTrue(response.body.contains("<c n=\"System.Id\" t=\"System.Int32\"/><c n=\"System.Title\" t=\"System.String\"/>"));
+        assertTrue(response.body.contains("<r><f>1</f><f>Crash on empty build logs</f></r><r><f>3</f><f>Retry transient upload errors</f></r>"));
+    }
+
+    @Test
+    public void testQueryWorkitems_whenChangedSince_returnsChangedWorkItems() throws Exception {
+
+        Response response = post(server.getCollectionUrl() + WorkItemService.PATH,
+                "<QueryWorkitems xmlns=\"" + WIT_NAMESPACE + "\"><psQuery><Query><Expression Column=\"System.ChangedDate\" "
+                        + "Operator=\"greater\"><DateTime>2015-06-03T00:00:00.000Z</DateTime></Expression></Query></psQuery></QueryWorkitems>");
+
+        assertEquals(200, response.status);
+        assertTrue(response.body.contains("<QueryIds><id s=\"2\"/><id s=\"3\"/></QueryIds>"));
+    }
+
+    @Test
+    public void testInjectedFault_returnsStatusAndCountsRequest() throws Exception {
+
+        server.getBehavior().failNext("QueryChangeset", 1, StubBehavior.Fault.UNAVAILABLE);
+
+        String request = "<QueryChangeset xmlns=\"" + VC_NAMESPACE + "\"><changesetId>101</changesetId></QueryChangeset>";
+        assertEquals(503, post(server.getCollectionUrl() + VersionControlService.PATH, request).status);
+        assertEquals(200, post(server.getCollectionUrl() + VersionControlService.PATH, request).status);
+        assertEquals(2, server.getRequestCount("QueryChangeset"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInjectedReset_closesConnection() throws Exception {
+
+        // HttpURLConnection resends a request once when the connection drops, so every request has to fail
+        server.getBehavior().setErrorRate(StubBehavior.ANY_OPERATION, 1.0, StubBehavior.Fault.RESET);
+
+        post(server.getCollectionUrl() + VersionControlService.PATH, "<QueryChangeset xmlns=\"" + VC_NAMESPACE + "\"><changesetId>101</changesetId></QueryChangeset>");
+    }
+
+    @Test
+    public void testLatency_delaysAnswer() throws Exception {
+
+        server.getBehavior().setLatency("QueryChangeset", 200L, 0L);
+
+        long start = System.currentTimeMillis();
+        post(server.getCollectionUrl() + VersionControlService.PATH, "<QueryChangeset xmlns=\"" + VC_NAMESPACE + "\"><changesetId>101</changesetId></QueryChangeset>");
+
+        assertTrue(System.currentTimeMillis() - start >= 200L);
+    }
+
+    @Test
+    public void testConnectionCount_whenClientReusesConnection_countsOne() throws Exception {
+
+        String request = "<QueryChangeset xmlns=\"" + VC_NAMESPACE + "\"><changesetId>101</changesetId></QueryChangeset>";
+        for (int i = 0; i < 5; i++) {
+            post(server.getCollectionUrl() + VersionControlService.PATH, request);
+        }
+
+        assertEquals(5, server.getRequestCount("QueryChangeset"));
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    private static Response post(String url, String operation) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setReadTimeout(10000);
+        connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+
+        OutputStream output = connection.getOutputStream();
+        output.write(("<?xml version=\"1.0\" encoding=\"utf-8\"?><soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<soap:Body>" + operation + "</soap:Body></soap:Envelope>").getBytes("UTF-8"));
+        output.close();
+
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        InputStream input = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        response.body = input != null ? readAll(input) : "";
+        return response;
+    }
+
+    private static String readAll(InputStream input) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toString("UTF-8");
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private static class Response {
+        int status;
+        String body;
+    }
+}